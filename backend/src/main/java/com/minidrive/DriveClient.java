@@ -1,168 +1,392 @@
 package com.minidrive;
 
-import com.google.protobuf.ByteString;
+import com.minidrive.chunking.ChunkDigest;
+import com.minidrive.chunking.FastCdcChunker;
+import com.minidrive.client.DirectorySync;
+import com.minidrive.client.Histogram;
+import com.minidrive.client.MappedChunks;
+import com.minidrive.client.ParallelUploader;
+import com.minidrive.client.SyncIndex;
+import com.minidrive.client.UploadJournal;
 import com.minidrive.grpc.*;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
-import io.grpc.stub.StreamObserver;
+import io.grpc.Metadata;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.MetadataUtils;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.security.MessageDigest;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
+import java.util.TreeSet;
 
+/**
+ * Command-line gRPC upload tool, also used as an upload load generator.
+ *
+ * The file is memory-mapped, chunked and hashed in one pass, then only the
+ * chunks the server lacks are sent over several concurrent UploadChunks
+ * streams. An interrupted upload resumes from its journal next to the file.
+ *
+ * In sync mode a whole directory tree is kept in step with the destination
+ * folder, using a local index so unchanged files are never read again (see
+ * {@link DirectorySync}). Files are named by their path relative to the tree.
+ *
+ * <pre>
+ * DriveClient [options] &lt;file&gt;
+ * DriveClient [options] sync &lt;directory&gt;
+ *   --token JWT          bearer token (default: $MINIDRIVE_TOKEN)
+ *   --server HOST:PORT   default localhost:50051
+ *   --connections N      HTTP/2 connections (default 1)
+ *   --streams N          concurrent upload streams (default 4)
+ *   --window N           unacknowledged chunks per stream (default 8)
+ *   --digest NAME        sha256 (default) or blake3
+ *   --folder ID          destination folder
+ *   --repeat N           upload N times, as separate uploads (load generation)
+ *   --no-dedup           send every chunk, even ones the server already has
+ *   --verify             download the result and compare it with the file
+ *   --watch              sync: keep running and sync changes as they happen
+ *   --threads N          sync: directories listed and files hashed concurrently (default: cores)
+ * </pre>
+ */
 public class DriveClient {
 
-	// Set chunk size to 1MB (You can tune this)
-	private static final int CHUNK_SIZE = 1 * 1024 * 1024;
+	// Content-defined chunking with the server's default sizes, so chunks dedup against it
+	private static final FastCdcChunker CHUNKER = new FastCdcChunker();
+
+	// Rounds for chunks that failed or were cut off by a broken stream
+	private static final int MAX_ATTEMPTS = 3;
+
+	// Sync a burst of file system events once it has been quiet this long
+	private static final Duration WATCH_QUIET = Duration.ofSeconds(2);
+
+	private static final String USAGE = "Usage: DriveClient [--token JWT] [--server HOST:PORT] [--connections N] "
+			+ "[--streams N] [--window N] [--digest sha256|blake3] [--folder ID] [--repeat N] [--no-dedup] "
+			+ "[--verify] <file>\n       DriveClient [options] [--watch] [--threads N] sync <directory>";
 
 	public static void main(String[] args) throws Exception {
-		// 1. Setup Connection
-		ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", 50051)
-				.usePlaintext() // No SSL for local dev
-				.build();
-
-		// We need two types of "stubs" (clients):
-		// BlockingStub: For simple Request -> Response calls
-		DriveServiceGrpc.DriveServiceBlockingStub blockingStub = DriveServiceGrpc.newBlockingStub(channel);
-		// AsyncStub: For the Streaming Upload
-		DriveServiceGrpc.DriveServiceStub asyncStub = DriveServiceGrpc.newStub(channel);
-
-		// 2. Select a file to upload (Change this path to a real file on your PC!)
-		File file = new File("src/main/resources/test_video.mp4");
-
-		// (Create a dummy file if it doesn't exist just to test)
-		if (!file.exists()) {
-			System.err.println("File not found! Creating a dummy file for testing...");
-			file = new File("test_upload.txt");
-			java.nio.file.Files.writeString(file.toPath(), "Hello World! ".repeat(100000));
-		}
+		String token = System.getenv("MINIDRIVE_TOKEN");
+		String server = "localhost:50051";
+		int connections = 1;
+		int streams = 4;
+		int window = 8;
+		ChunkDigest digest = ChunkDigest.SHA256;
+		String folderId = "";
+		int repeat = 1;
+		boolean dedup = true;
+		boolean verify = false;
+		boolean watch = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<String> positional = new ArrayList<>();
 
-		System.out.println("--- Step 1: Initiating Upload ---");
-		UploadRequest initReq = UploadRequest.newBuilder()
-				.setFilename(file.getName())
-				.setMimeType("application/octet-stream")
-				.setTotalSizeBytes(file.length())
-				.build();
-		UploadResponse initResp = blockingStub.initiateUpload(initReq);
-		String uploadId = initResp.getUploadId();
-		System.out.println("Upload ID received: " + uploadId);
-
-		// 3. Pre-process: Calculate Hashes
-		System.out.println("--- Step 2: Hashing File Chunks ---");
-		List<String> allHashes = new ArrayList<>();
-		byte[] buffer = new byte[CHUNK_SIZE];
-		try (FileInputStream fis = new FileInputStream(file)) {
-			int bytesRead;
-			while ((bytesRead = fis.read(buffer)) != -1) {
-				// If last chunk is smaller, trim the buffer
-				byte[] actualData = Arrays.copyOf(buffer, bytesRead);
-				allHashes.add(calculateHash(actualData));
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+					case "--token" -> token = args[++i];
+					case "--server" -> server = args[++i];
+					case "--connections" -> connections = Integer.parseInt(args[++i]);
+					case "--streams" -> streams = Integer.parseInt(args[++i]);
+					case "--window" -> window = Integer.parseInt(args[++i]);
+					case "--digest" -> digest = ChunkDigest.forName(args[++i]);
+					case "--folder" -> folderId = args[++i];
+					case "--repeat" -> repeat = Integer.parseInt(args[++i]);
+					case "--no-dedup" -> dedup = false;
+					case "--verify" -> verify = true;
+					case "--watch" -> watch = true;
+					case "--threads" -> threads = Integer.parseInt(args[++i]);
+					default -> positional.add(args[i]);
+				}
 			}
+		} catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+			System.err.println(USAGE);
+			return;
+		}
+		boolean sync = positional.size() == 2 && positional.get(0).equals("sync");
+		Path path = sync ? Path.of(positional.get(1)) : positional.size() == 1 ? Path.of(positional.get(0)) : null;
+		// The server requires the same JWT as the REST API (from /api/auth/login)
+		if (path == null || token == null || token.isBlank()) {
+			System.err.println(USAGE);
+			return;
+		}
+		if (sync ? !Files.isDirectory(path) : !Files.isRegularFile(path)) {
+			System.err.println((sync ? "Directory" : "File") + " not found: " + path);
+			return;
 		}
-		System.out.println("Calculated " + allHashes.size() + " chunk hashes.");
-
-		// 4. The "Twist": Check Deduplication
-		System.out.println("--- Step 3: Checking Existence (Deduplication) ---");
-		ChunkCheckRequest checkReq = ChunkCheckRequest.newBuilder()
-				.setUploadId(uploadId)
-				.addAllChunkHashes(allHashes)
-				.build();
 
-		ChunkCheckResponse checkResp = blockingStub.checkChunkExistence(checkReq);
-		List<Integer> missingIndices = checkResp.getMissingChunkIndicesList();
+		Metadata headers = new Metadata();
+		headers.put(Metadata.Key.of("authorization", Metadata.ASCII_STRING_MARSHALLER), "Bearer " + token);
 
-		System.out.println("Server needs " + missingIndices.size() + " out of " + allHashes.size() + " chunks.");
-		if (missingIndices.isEmpty()) {
-			System.out.println(">> INSTANT UPLOAD! Server already has all data.");
+		// 1. Setup Connections (each channel is its own HTTP/2 connection)
+		String[] hostPort = server.split(":");
+		List<ManagedChannel> channels = new ArrayList<>();
+		List<DriveServiceGrpc.DriveServiceStub> asyncStubs = new ArrayList<>();
+		for (int c = 0; c < Math.max(1, connections); c++) {
+			ManagedChannel channel = ManagedChannelBuilder.forAddress(hostPort[0], Integer.parseInt(hostPort[1]))
+					.usePlaintext() // No SSL for local dev
+					.intercept(MetadataUtils.newAttachHeadersInterceptor(headers))
+					.build();
+			channels.add(channel);
+			asyncStubs.add(DriveServiceGrpc.newStub(channel));
 		}
+		DriveServiceGrpc.DriveServiceBlockingStub blockingStub = DriveServiceGrpc.newBlockingStub(channels.get(0));
 
-		// 5. Upload ONLY missing chunks
-		if (!missingIndices.isEmpty()) {
-			System.out.println("--- Step 4: Streaming Missing Chunks ---");
+		try {
+			if (sync) {
+				sync(blockingStub, asyncStubs, path, digest, folderId, streams, window, threads, watch);
+				return;
+			}
 
-			// Latch allows us to wait for the async upload to finish
-			CountDownLatch finishLatch = new CountDownLatch(1);
+			// 2. Map, chunk and hash in one pass
+			System.out.println("--- Step 1: Hashing File Chunks ---");
+			long hashStart = System.nanoTime();
+			try (MappedChunks file = MappedChunks.open(path, CHUNKER, digest)) {
+				double hashSeconds = (System.nanoTime() - hashStart) / 1e9;
+				System.out.printf("Calculated %d chunk hashes over %d bytes in %.2fs (%.1f MB/s).%n",
+						file.chunks().size(), file.size(), hashSeconds, file.size() / 1e6 / Math.max(hashSeconds, 1e-9));
 
-			StreamObserver<ChunkData> requestObserver = asyncStub.uploadChunk(new StreamObserver<UploadStatus>() {
-				@Override
-				public void onNext(UploadStatus status) {
-					System.out.println("Server Status: " + status.getMessage());
+				Histogram latency = new Histogram();
+				Histogram throughput = new Histogram();
+				for (int run = 1; run <= Math.max(1, repeat); run++) {
+					if (repeat > 1) {
+						System.out.println("=== Run " + run + " of " + repeat + " ===");
+					}
+					// Load-generation runs are independent uploads: no journal
+					boolean journaled = repeat == 1;
+					String fileId = upload(blockingStub, asyncStubs, path, path.getFileName().toString(), file,
+							folderId, streams, window, dedup, journaled, latency, throughput, System.out);
+					if (fileId == null) {
+						return;
+					}
+					if (verify) {
+						System.out.println("--- Verifying Download ---");
+						if (verifyDownload(blockingStub, fileId, file)) {
+							System.out.println("Download matches the uploaded file.");
+						} else {
+							System.err.println("Download does NOT match the uploaded file!");
+						}
+					}
 				}
 
-				@Override
-				public void onError(Throwable t) {
-					System.err.println("Upload Error: " + t.getMessage());
-					finishLatch.countDown();
+				if (repeat > 1) {
+					System.out.println("=== All runs ===");
+					latency.print(System.out, "Chunk ack latency", "us");
+					throughput.print(System.out, "Upload throughput", "KiB/s");
 				}
+			}
+		} finally {
+			channels.forEach(ManagedChannel::shutdownNow);
+		}
+	}
 
-				@Override
-				public void onCompleted() {
-					System.out.println("Streaming Finished.");
-					finishLatch.countDown();
+	/**
+	 * One upload of the mapped file, resumed from its journal when possible.
+	 * Progress and statistics go to {@code out}; errors to stderr.
+	 *
+	 * @return The new file's id, or null if the upload failed
+	 */
+	private static String upload(DriveServiceGrpc.DriveServiceBlockingStub blockingStub,
+								 List<DriveServiceGrpc.DriveServiceStub> asyncStubs, Path path, String name,
+								 MappedChunks file, String folderId, int streams, int window, boolean dedup,
+								 boolean journaled, Histogram totalLatency, Histogram totalThroughput,
+								 PrintStream out) throws Exception {
+		List<String> allHashes = file.hashes();
+		UploadJournal journal = journaled ? UploadJournal.resume(path, file.digest().name(), allHashes.size()) : null;
+		String uploadId = null;
+		Set<Integer> missingIndices = new TreeSet<>();
+
+		// 3. Resume: the server is the authority on what it still needs
+		if (journal != null) {
+			try {
+				UploadStatusResponse status = blockingStub.getUploadStatus(UploadStatusRequest.newBuilder()
+						.setUploadId(journal.uploadId())
+						.addAllChunkHashes(allHashes)
+						.build());
+				uploadId = journal.uploadId();
+				for (ChunkRange range : status.getMissingList()) {
+					for (int i = range.getStart(); i < range.getEnd(); i++) {
+						missingIndices.add(i);
+					}
 				}
-			});
-
-			// Re-read file and send ONLY missing chunks
-			try (FileInputStream fis = new FileInputStream(file)) {
-				int bytesRead;
-				int currentIndex = 0;
-				while ((bytesRead = fis.read(buffer)) != -1) {
-					if (missingIndices.contains(currentIndex)) {
-						System.out.print("Uploading Chunk " + currentIndex + "... ");
-
-						byte[] actualData = Arrays.copyOf(buffer, bytesRead);
-						String hash = allHashes.get(currentIndex);
-
-						ChunkData chunk = ChunkData.newBuilder()
-								.setUploadId(uploadId)
-								.setChunkIndex(currentIndex)
-								.setChunkHash(hash)
-								.setData(ByteString.copyFrom(actualData))
-								.build();
-
-						requestObserver.onNext(chunk);
-						System.out.println("Sent.");
-					} else {
-						System.out.println("Skipping Chunk " + currentIndex + " (Deduped)");
+				out.println("Resuming upload " + uploadId + ": server has " + status.getReceivedCount()
+						+ " of " + status.getChunkCount() + " chunks (" + journal.ackedCount() + " acked locally).");
+			} catch (StatusRuntimeException e) {
+				out.println("Journaled upload cannot be resumed (" + e.getStatus().getDescription()
+						+ "), starting over.");
+				journal.delete();
+				journal = null;
+			}
+		}
+
+		if (uploadId == null) {
+			out.println("--- Step 2: Initiating Upload ---");
+			UploadResponse initResp = blockingStub.initiateUpload(UploadRequest.newBuilder()
+					.setFilename(name)
+					.setMimeType("application/octet-stream")
+					.setTotalSizeBytes(file.size())
+					.setChunkDigest(file.digest().name())
+					.setFolderId(folderId)
+					.setChunkCount(allHashes.size())
+					.build());
+			uploadId = initResp.getUploadId();
+			out.println("Upload ID received: " + uploadId);
+			if (journaled) {
+				journal = UploadJournal.create(path, uploadId, file.digest().name(), allHashes.size());
+			}
+
+			// 4. The "Twist": Check Deduplication
+			if (dedup) {
+				out.println("--- Step 3: Checking Existence (Deduplication) ---");
+				ChunkCheckResponse checkResp = blockingStub.checkChunkExistence(ChunkCheckRequest.newBuilder()
+						.setUploadId(uploadId)
+						.addAllChunkHashes(allHashes)
+						.build());
+				missingIndices.addAll(checkResp.getMissingChunkIndicesList());
+			} else {
+				for (int i = 0; i < allHashes.size(); i++) {
+					missingIndices.add(i);
+				}
+			}
+		}
+
+		out.println("Server needs " + missingIndices.size() + " out of " + allHashes.size() + " chunks.");
+		if (missingIndices.isEmpty()) {
+			out.println(">> INSTANT UPLOAD! Server already has all data.");
+		}
+
+		try {
+			// 5. Upload ONLY missing chunks over parallel streams; failed ones are retried
+			if (!missingIndices.isEmpty()) {
+				out.println("--- Step 4: Streaming Missing Chunks ---");
+				ParallelUploader uploader = new ParallelUploader(asyncStubs, file, uploadId, streams, window, journal,
+						out);
+				long start = System.nanoTime();
+
+				Set<Integer> pending = missingIndices;
+				for (int attempt = 1; attempt <= MAX_ATTEMPTS && !pending.isEmpty(); attempt++) {
+					if (attempt > 1) {
+						out.println("Retrying " + pending.size() + " chunks (attempt " + attempt + ")");
 					}
-					currentIndex++;
+					pending = uploader.upload(pending);
+				}
+
+				double seconds = (System.nanoTime() - start) / 1e9;
+				out.printf("Sent %d bytes in %.2fs (%.1f MB/s): %d stored, %d deduplicated.%n",
+						uploader.bytesAcked(), seconds, uploader.bytesAcked() / 1e6 / Math.max(seconds, 1e-9),
+						uploader.stored(), uploader.deduplicated());
+				uploader.latencyMicros().print(out, "Chunk ack latency", "us");
+				uploader.throughputKibPerSecond().print(out, "Upload throughput", "KiB/s");
+				totalLatency.add(uploader.latencyMicros());
+				totalThroughput.add(uploader.throughputKibPerSecond());
+
+				if (!pending.isEmpty()) {
+					System.err.println("Upload failed, chunks not stored: " + pending + ". Run again to resume.");
+					return null;
 				}
 			}
 
-			// Mark stream as completed
-			requestObserver.onCompleted();
-			// Wait for server to say "OK"
-			finishLatch.await(1, TimeUnit.MINUTES);
+			// 6. Finalize
+			out.println("--- Step 5: Finalizing ---");
+			FileMetadata metadata = blockingStub.completeUpload(CompleteRequest.newBuilder().setUploadId(uploadId).build());
+			out.println("Success! File ID: " + metadata.getFileId());
+			if (journal != null) {
+				journal.delete();
+			}
+			return metadata.getFileId();
+		} finally {
+			if (journal != null) {
+				journal.close();
+			}
 		}
+	}
 
-		// 6. Finalize
-		System.out.println("--- Step 5: Finalizing ---");
-		CompleteRequest compReq = CompleteRequest.newBuilder().setUploadId(uploadId).build();
-		FileMetadata metadata = blockingStub.completeUpload(compReq);
-		System.out.println("Success! File URL: " + metadata.getUrl());
+	/**
+	 * Sync a directory tree into the destination folder, once or (with --watch)
+	 * until interrupted. Per-file upload details are suppressed; the sync
+	 * prints one line per file it changes on the server.
+	 */
+	private static void sync(DriveServiceGrpc.DriveServiceBlockingStub blockingStub,
+							 List<DriveServiceGrpc.DriveServiceStub> asyncStubs, Path root, ChunkDigest digest,
+							 String folderId, int streams, int window, int threads, boolean watch) throws Exception {
+		PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+		Histogram latency = new Histogram();
+		Histogram throughput = new Histogram();
+		DirectorySync.Remote remote = new DirectorySync.Remote() {
+			@Override
+			public String upload(String name, Path path, MappedChunks file) throws Exception {
+				return DriveClient.upload(blockingStub, asyncStubs, path, name, file, folderId, streams, window, true,
+						true, latency, throughput, quiet);
+			}
+
+			@Override
+			public void move(String fileId, String name) {
+				blockingStub.moveFile(MoveRequest.newBuilder()
+						.setFileId(fileId)
+						.setName(name)
+						.setFolderId(folderId)
+						.build());
+			}
 
-		channel.shutdownNow();
+			@Override
+			public void trash(String fileId) {
+				blockingStub.trashFile(TrashRequest.newBuilder().setFileId(fileId).build());
+			}
+		};
+
+		try (SyncIndex index = SyncIndex.open(root);
+			 DirectorySync directorySync = new DirectorySync(root, index, remote, CHUNKER, digest, threads)) {
+			System.out.println("Syncing " + root + " (" + index.size() + " files indexed)");
+			if (watch) {
+				System.out.println("Watching for changes, Ctrl+C to stop.");
+				directorySync.watch(WATCH_QUIET, summary -> {
+					if (summary.changedAnything() || summary.failed() > 0) {
+						System.out.println(summary);
+					}
+				});
+			} else {
+				long start = System.nanoTime();
+				DirectorySync.Summary summary = directorySync.syncAll();
+				System.out.printf("%s in %.2fs.%n", summary, (System.nanoTime() - start) / 1e9);
+				if (latency.count() > 0) {
+					latency.print(System.out, "Chunk ack latency", "us");
+				}
+				if (summary.failed() > 0) {
+					System.err.println("Some files were not synced. Run again to retry them.");
+				}
+			}
+		}
 	}
 
-	// Helper: SHA-256 Hashing
-	private static String calculateHash(byte[] data) {
-		try {
-			MessageDigest digest = MessageDigest.getInstance("SHA-256");
-			byte[] hash = digest.digest(data);
-			StringBuilder hexString = new StringBuilder();
-			for (byte b : hash) {
-				String hex = Integer.toHexString(0xff & b);
-				if (hex.length() == 1) hexString.append('0');
-				hexString.append(hex);
+	/**
+	 * Stream the stored file back and compare it with the mapped local copy.
+	 * The blocking iterator only pulls messages as they are consumed, so the
+	 * server never sends further ahead than the transport window.
+	 */
+	private static boolean verifyDownload(DriveServiceGrpc.DriveServiceBlockingStub blockingStub, String fileId,
+										  MappedChunks file) {
+		long received = 0;
+		Iterator<FileChunk> chunks = blockingStub.downloadFile(DownloadRequest.newBuilder().setFileId(fileId).build());
+		while (chunks.hasNext()) {
+			FileChunk chunk = chunks.next();
+			if (chunk.getOffset() != received) {
+				System.err.println("Unexpected offset " + chunk.getOffset() + ", expected " + received);
+				return false;
+			}
+			for (ByteBuffer data : chunk.getData().asReadOnlyByteBufferList()) {
+				int length = data.remaining();
+				if (!file.contentEquals(received, data)) {
+					System.err.println("Content differs within " + length + " bytes at offset " + received);
+					return false;
+				}
+				received += length;
 			}
-			return hexString.toString();
-		} catch (Exception e) {
-			throw new RuntimeException(e);
 		}
+		System.out.println("Downloaded " + received + " bytes.");
+		return received == file.size();
 	}
-}
\ No newline at end of file
+}
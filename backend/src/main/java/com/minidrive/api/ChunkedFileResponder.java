@@ -0,0 +1,134 @@
+package com.minidrive.api;
+
+import com.minidrive.repository.ChunkManifest;
+import com.minidrive.storage.ChunkStreamReader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Builds file responses over a chunk manifest, honouring HTTP Range.
+ *
+ * - No Range header: 200 with the whole file
+ * - One range: 206 with Content-Range
+ * - Several ranges: 206 multipart/byteranges, overlapping and adjacent ones merged
+ * - Unsatisfiable: 416 with "Content-Range: bytes *&#47;size"
+ *
+ * Only chunks overlapping a range are fetched and decrypted. Merging keeps
+ * repeated ranges ("bytes=0-,0-,...") from reading the file more than once.
+ * Files whose chunk sizes were never recorded are always served whole
+ * (Accept-Ranges: none).
+ */
+@Component
+public class ChunkedFileResponder {
+
+	@Autowired private ChunkStreamReader chunkStreamReader;
+
+	public ResponseEntity<StreamingResponseBody> respond(ChunkManifest manifest, SecretKey userKey, long declaredSize,
+			String rangeHeader, MediaType contentType, String contentDisposition) {
+
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.CONTENT_DISPOSITION, contentDisposition);
+
+		if (!manifest.supportsRanges()) {
+			headers.set(HttpHeaders.ACCEPT_RANGES, "none");
+			headers.setContentType(contentType);
+			headers.setContentLength(declaredSize);
+			return ResponseEntity.ok().headers(headers)
+					.body(out -> chunkStreamReader.copyTo(manifest, userKey, out));
+		}
+
+		long size = manifest.totalSize();
+		headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+		if (rangeHeader == null || rangeHeader.isBlank()) {
+			headers.setContentType(contentType);
+			headers.setContentLength(size);
+			return ResponseEntity.ok().headers(headers)
+					.body(out -> chunkStreamReader.copyTo(manifest, userKey, out));
+		}
+
+		List<long[]> requested = new ArrayList<>();
+		try {
+			for (HttpRange range : HttpRange.parseRanges(rangeHeader)) {
+				// HttpRange clamps the end but not the start: a range starting at or past EOF is unsatisfiable
+				long start = range.getRangeStart(size);
+				if (start < size) {
+					requested.add(new long[]{start, range.getRangeEnd(size)});
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			requested.clear();
+		}
+		if (requested.isEmpty() || size == 0) {
+			headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+			return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE).headers(headers).build();
+		}
+		List<long[]> ranges = merge(requested);
+
+		if (ranges.size() == 1) {
+			long start = ranges.get(0)[0];
+			long end = ranges.get(0)[1];
+			headers.setContentType(contentType);
+			headers.setContentLength(end - start + 1);
+			headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+			return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers)
+					.body(out -> chunkStreamReader.copyRange(manifest, userKey, start, end, out));
+		}
+
+		// multipart/byteranges: part headers are ASCII, so the total length is known up front
+		String boundary = UUID.randomUUID().toString().replace("-", "");
+		List<byte[]> partHeaders = new ArrayList<>();
+		long contentLength = 0;
+		for (long[] range : ranges) {
+			byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+					+ HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+					+ HttpHeaders.CONTENT_RANGE + ": bytes " + range[0] + "-" + range[1] + "/" + size + "\r\n\r\n")
+					.getBytes(StandardCharsets.US_ASCII);
+			partHeaders.add(partHeader);
+			contentLength += partHeader.length + (range[1] - range[0] + 1);
+		}
+		byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+		contentLength += closing.length;
+
+		headers.setContentType(MediaType.parseMediaType("multipart/byteranges; boundary=" + boundary));
+		headers.setContentLength(contentLength);
+		return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT).headers(headers).body(out -> {
+			for (int i = 0; i < ranges.size(); i++) {
+				out.write(partHeaders.get(i));
+				chunkStreamReader.copyRange(manifest, userKey, ranges.get(i)[0], ranges.get(i)[1], out);
+			}
+			out.write(closing);
+		});
+	}
+
+	/**
+	 * Sort ranges and merge the ones that overlap or touch, so no byte is served twice.
+	 */
+	private static List<long[]> merge(List<long[]> ranges) {
+		List<long[]> sorted = new ArrayList<>(ranges);
+		sorted.sort(Comparator.comparingLong(range -> range[0]));
+		List<long[]> merged = new ArrayList<>();
+		for (long[] range : sorted) {
+			long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+			if (last != null && range[0] <= last[1] + 1) {
+				last[1] = Math.max(last[1], range[1]);
+			} else {
+				merged.add(new long[]{range[0], range[1]});
+			}
+		}
+		return merged;
+	}
+}
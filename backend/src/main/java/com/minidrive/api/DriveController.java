@@ -1,8 +1,13 @@
 package com.minidrive.api;
 
-import com.minidrive.auth.AuthService;
+import com.minidrive.chunking.ChunkDigest;
+import com.minidrive.chunking.FastCdcChunker;
 import com.minidrive.db.DatabaseService;
 import com.minidrive.repository.*;
+import com.minidrive.storage.BufferPool;
+import com.minidrive.storage.ChunkFormatMigrator;
+import com.minidrive.storage.ChunkStreamReader;
+import com.minidrive.storage.StagingSweeper;
 import com.minidrive.storage.StorageService;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,11 +21,15 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import com.minidrive.service.EncryptionService;
+import com.minidrive.service.FileSignature;
 import com.minidrive.service.UploadStateService;
+import com.minidrive.service.UserKeyCache;
+
+import jakarta.servlet.http.HttpServletRequest;
 
 import javax.crypto.SecretKey;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -32,7 +41,10 @@ public class DriveController {
 
 	// === SERVICES ===
 	@Autowired private StorageService storageService;
-	@Autowired private AuthService authService;
+	@Autowired private ChunkStreamReader chunkStreamReader;
+	@Autowired private ChunkedFileResponder chunkedFileResponder;
+	@Autowired private ChunkFormatMigrator chunkFormatMigrator;
+	@Autowired private StagingSweeper stagingSweeper;
 	@Autowired(required = false) private RabbitTemplate rabbitTemplate;
 
 	// === REPOSITORIES ===
@@ -49,7 +61,7 @@ public class DriveController {
 	@Autowired private UploadStateService uploadStateService;
 
 	// === ENCRYPTION (Zero-Knowledge Architecture) ===
-	@Autowired private EncryptionService encryptionService;
+	@Autowired private UserKeyCache userKeyCache;
 
 	// === WEBSOCKET EVENT PUBLISHING (Real-Time Sync) ===
 	@Autowired private com.minidrive.service.DriveEventPublisher driveEventPublisher;
@@ -59,6 +71,11 @@ public class DriveController {
 
 	// === GLOBAL DEDUPLICATION (Zero-Knowledge) ===
 	@Autowired private com.minidrive.service.DeduplicationService deduplicationService;
+	@Autowired private com.minidrive.service.ChunkIndexService chunkIndexService;
+	@Autowired private com.minidrive.service.ChunkIngestService chunkIngestService;
+
+	// === CHUNKING (FastCDC, bounds raw chunk uploads) ===
+	@Autowired private FastCdcChunker fastCdcChunker;
 
 	// === SANCHAY MEMORY (Semantic Search) ===
 	@Autowired(required = false) private com.minidrive.memory.MemoryWorker memoryWorker;
@@ -68,7 +85,9 @@ public class DriveController {
 	// ==================== VIEW CONTENT (INLINE) ====================
 
 	@GetMapping("/view/{fileId}")
-	public ResponseEntity<StreamingResponseBody> viewFile(@PathVariable String fileId, Authentication authentication) {
+	public ResponseEntity<StreamingResponseBody> viewFile(@PathVariable String fileId,
+			@RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
+			Authentication authentication) {
 		if (authentication == null) return ResponseEntity.status(401).build();
 
 		// Use ID-based lookup for reliability
@@ -77,7 +96,7 @@ public class DriveController {
 
 		String filename = (String) metadata.get("name");
 		Long fileSize = (Long) metadata.get("size");
-		List<String> chunks = fileRepository.getFileChunks(fileId);
+		ChunkManifest manifest = fileRepository.getFileManifest(fileId);
 		String username = authentication.getName();
 
 		SecretKey userKey = getUserEncryptionKey(username);
@@ -92,28 +111,9 @@ public class DriveController {
 		else if (lowerName.endsWith(".mp4")) contentType = "video/mp4";
 		else if (lowerName.endsWith(".txt")) contentType = "text/plain";
 
-		StreamingResponseBody stream = outputStream -> {
-			for (String hash : chunks) {
-				byte[] chunkData;
-				if (userKey != null) {
-					try {
-						chunkData = storageService.downloadChunkEncrypted(hash, userKey);
-					} catch (Exception e) {
-						chunkData = storageService.downloadChunk(hash);
-					}
-				} else {
-					chunkData = storageService.downloadChunk(hash);
-				}
-				outputStream.write(chunkData);
-				outputStream.flush();
-			}
-		};
-
-		return ResponseEntity.ok()
-				.header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"")
-				.contentLength(fileSize)
-				.contentType(MediaType.parseMediaType(contentType))
-				.body(stream);
+		// Only the chunks overlapping the requested range(s) are fetched and decrypted
+		return chunkedFileResponder.respond(manifest, userKey, fileSize, rangeHeader,
+				MediaType.parseMediaType(contentType), "inline; filename=\"" + filename + "\"");
 	}
 
 	@GetMapping("/content")
@@ -236,9 +236,19 @@ public class DriveController {
 			@RequestParam("filename") String filename,
 			@RequestParam("size") long size,
 			@RequestParam(value = "folderId", required = false) String folderId,
+			@RequestParam(value = "digest", defaultValue = "sha256") String digestName,
+			@RequestParam(value = "chunkCount", defaultValue = "0") int chunkCount,
 			Authentication auth) {
 		if (auth == null) return ResponseEntity.status(401).build();
 
+		ChunkDigest digest;
+		try {
+			digest = ChunkDigest.forName(digestName);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(e.getMessage());
+		}
+		if (chunkCount < 0) return ResponseEntity.badRequest().body("Invalid chunk count");
+
 		// Quota Check
 		Map<String, Long> stats = databaseService.getUserStats(auth.getName());
 		long used = stats.getOrDefault("used", 0L);
@@ -247,8 +257,12 @@ public class DriveController {
 		}
 
 		String uploadId = UUID.randomUUID().toString();
-		uploadStateService.initSession(uploadId, filename, size, 
-				folderId != null ? folderId : "root", auth.getName());
+		try {
+			uploadStateService.initSession(uploadId, filename, size,
+					folderId != null ? folderId : "root", auth.getName(), digest, chunkCount);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(e.getMessage());
+		}
 
 		return ResponseEntity.ok(uploadId);
 	}
@@ -264,31 +278,164 @@ public class DriveController {
 			if (meta == null) {
 				return ResponseEntity.status(404).body("Session not found");
 			}
+			// Same bound as the PUT variant: a part is staged before its hash is checked
+			if (chunkData.getSize() > fastCdcChunker.maxSize()) {
+				return ResponseEntity.status(413).body("Chunk too large");
+			}
 
-			// Register chunk in Redis
-			uploadStateService.registerChunk(uploadId, index, hash);
+			uploadStateService.checkChunkIndex(meta, index);
 
 			// Get user's encryption key
 			SecretKey userKey = getUserEncryptionKey(meta.username());
 
-			// Upload to MinIO with encryption (Zero-Knowledge)
-			if (!storageService.doesChunkExist(hash)) {
-				if (userKey != null) {
-					// Encrypted upload (new users with keys)
-					storageService.uploadChunkEncrypted(hash, chunkData.getBytes(), userKey);
-				} else {
-					// Fallback: unencrypted for legacy users without keys
-					storageService.uploadChunk(hash, chunkData.getBytes());
-				}
-			} else {
-				fileRepository.registerGlobalChunk(hash);
-			}
+			// Verified before it is committed: hashed on the hashing pool while it streams
+			// (encrypted, Zero-Knowledge) into staging; no heap copy of the chunk
+			String chunkHash = hash.toLowerCase(Locale.ROOT);
+			chunkIngestService.ingest(chunkHash, meta.digest(), chunkData::getInputStream, chunkData.getSize(), userKey);
+
+			// Register chunk in Redis
+			uploadStateService.registerChunk(uploadId, index, chunkHash);
+			return ResponseEntity.ok("Received");
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(e.getMessage());
+		} catch (IOException | RuntimeException e) {
+			// Includes an unavailable encryption key: never store the chunk unencrypted instead
+			return ResponseEntity.status(500).body("Error processing chunk");
+		}
+	}
+
+	/**
+	 * Raw-body chunk upload: PUT the chunk bytes as the request body, with its
+	 * hash (in the session's digest, SHA-256 by default) in X-Chunk-Hash.
+	 * Bypasses the multipart resolver, so nothing is spooled to disk or copied to
+	 * the heap: the servlet stream is hashed, signed and encrypted in one pass
+	 * into a staging object, which only becomes the content-addressed chunk once
+	 * the claimed hash is verified (see ChunkIngestService).
+	 */
+	@PutMapping("/upload/{uploadId}/{index}")
+	public ResponseEntity<String> putChunk(
+			@PathVariable String uploadId,
+			@PathVariable int index,
+			@RequestHeader("X-Chunk-Hash") String claimedHash,
+			HttpServletRequest request,
+			Authentication auth) {
+		if (auth == null) return ResponseEntity.status(401).build();
+
+		UploadStateService.UploadMetadata meta = uploadStateService.getMetadata(uploadId);
+		if (meta == null || !auth.getName().equals(meta.username())) {
+			return ResponseEntity.status(404).body("Session not found");
+		}
+		if (index < 0) return ResponseEntity.badRequest().body("Invalid chunk index");
+		long length = request.getContentLengthLong();
+		if (length < 0) return ResponseEntity.status(411).body("Content-Length required");
+		if (length > fastCdcChunker.maxSize()) return ResponseEntity.status(413).body("Chunk too large");
+
+		String hash = claimedHash.toLowerCase(Locale.ROOT);
+		try (InputStream body = request.getInputStream()) {
+			uploadStateService.checkChunkIndex(meta, index);
+			chunkIngestService.ingest(hash, meta.digest(), body, length, getUserEncryptionKey(meta.username()));
+			uploadStateService.registerChunk(uploadId, index, hash);
 			return ResponseEntity.ok("Received");
-		} catch (IOException e) {
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(e.getMessage());
+		} catch (IOException | RuntimeException e) {
 			return ResponseEntity.status(500).body("Error processing chunk");
 		}
 	}
 
+	/**
+	 * Bulk dedup check (REST mirror of the gRPC CheckChunkExistence RPC).
+	 * Body: {"uploadId": "...", "hashes": ["sha256", ...]}
+	 * Returns the indices the client still has to send. Chunks the server already
+	 * has are registered in the upload session so the client can skip them.
+	 */
+	@PostMapping("/chunks/check")
+	public ResponseEntity<?> checkChunks(@RequestBody Map<String, Object> body, Authentication auth) {
+		if (auth == null) return ResponseEntity.status(401).build();
+
+		@SuppressWarnings("unchecked")
+		List<String> hashes = (List<String>) body.get("hashes");
+		if (hashes == null) return ResponseEntity.badRequest().body(Map.of("error", "hashes required"));
+
+		String uploadId = (String) body.get("uploadId");
+		UploadStateService.UploadMetadata meta = uploadId != null ? uploadStateService.getMetadata(uploadId) : null;
+		if (uploadId != null && (meta == null || !auth.getName().equals(meta.username()))) {
+			return ResponseEntity.status(404).body(Map.of("error", "Session not found"));
+		}
+
+		// Hits that were only found in storage are registered by the lookup, in one batch
+		List<Integer> missing = chunkIndexService.findMissingIndices(hashes);
+
+		if (meta != null) {
+			Set<Integer> missingSet = new HashSet<>(missing);
+			Map<Integer, String> present = new HashMap<>();
+			for (int i = 0; i < hashes.size(); i++) {
+				if (!missingSet.contains(i)) {
+					present.put(i, hashes.get(i));
+				}
+			}
+			try {
+				uploadStateService.registerChunks(uploadId, present);
+			} catch (IllegalArgumentException e) {
+				return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+			}
+		}
+
+		return ResponseEntity.ok(Map.of("missing", missing));
+	}
+
+	/**
+	 * Resume negotiation: the chunk indices this upload still needs, as half-open
+	 * ranges [start, end). GET uses the session alone (chunkCount bounds the tail);
+	 * POST {"hashes": [...]} also skips chunks the server already stores.
+	 */
+	@GetMapping("/upload/{uploadId}/status")
+	public ResponseEntity<?> uploadStatus(
+			@PathVariable String uploadId,
+			@RequestParam(value = "chunkCount", defaultValue = "0") int chunkCount,
+			Authentication auth) {
+		return negotiateUpload(uploadId, null, chunkCount, auth);
+	}
+
+	@PostMapping("/upload/{uploadId}/status")
+	public ResponseEntity<?> negotiateUploadStatus(
+			@PathVariable String uploadId,
+			@RequestBody Map<String, Object> body,
+			Authentication auth) {
+		@SuppressWarnings("unchecked")
+		List<String> hashes = (List<String>) body.get("hashes");
+		if (hashes == null) return ResponseEntity.badRequest().body(Map.of("error", "hashes required"));
+		return negotiateUpload(uploadId, hashes, hashes.size(), auth);
+	}
+
+	private ResponseEntity<?> negotiateUpload(String uploadId, List<String> hashes, int chunkCount, Authentication auth) {
+		if (auth == null) return ResponseEntity.status(401).build();
+
+		UploadStateService.UploadMetadata meta = uploadStateService.getMetadata(uploadId);
+		if (meta == null || !auth.getName().equals(meta.username())) {
+			return ResponseEntity.status(404).body(Map.of("error", "Session not found"));
+		}
+
+		UploadStateService.UploadProgress progress;
+		try {
+			progress = uploadStateService.negotiate(uploadId, hashes, chunkCount);
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+		}
+		if (progress == null) return ResponseEntity.status(404).body(Map.of("error", "Session not found"));
+
+		List<int[]> missing = new ArrayList<>(progress.missing().size());
+		for (UploadStateService.ChunkRange range : progress.missing()) {
+			missing.add(new int[]{range.start(), range.end()});
+		}
+		return ResponseEntity.ok(Map.of(
+			"uploadId", uploadId,
+			"chunkCount", progress.chunkCount(),
+			"received", progress.receivedCount(),
+			"missing", missing
+		));
+	}
+
 	@PostMapping("/complete")
 	@Transactional
 	public ResponseEntity<String> completeUpload(@RequestParam("uploadId") String uploadId) {
@@ -297,16 +444,18 @@ public class DriveController {
 
 		if (info == null || hashes == null) return ResponseEntity.status(404).body("Session missing");
 
+		// Checked before anything is written, so a short upload leaves no file row behind
+		String incomplete = uploadStateService.incompleteReason(info, hashes);
+		if (incomplete != null) return ResponseEntity.status(400).body(incomplete);
+
 		String username = info.username();
 		String newFileId = UUID.randomUUID().toString();
 
 		BaseRepository.DbResult res = fileRepository.saveFileMetadata(newFileId, info.filename(), info.size(), username, info.folderId());
 		if (!res.success) return ResponseEntity.status(500).body(res.message);
 
-		for (int i = 0; i < hashes.size(); i++) {
-			if (hashes.get(i) == null) return ResponseEntity.status(400).body("Missing chunk #" + i);
-			fileRepository.addChunkToFile(newFileId, hashes.get(i), i);
-		}
+		BaseRepository.DbResult linked = fileRepository.addChunksToFile(newFileId, hashes, info.digest());
+		if (!linked.success) return ResponseEntity.status(500).body(linked.message);
 
 		activityRepository.logActivity(username, "UPLOAD", info.filename());
 
@@ -339,10 +488,13 @@ public class DriveController {
 
 	/**
 	 * Get file signature for delta sync.
-	 * Returns block hashes for the client to compare against.
+	 * Returns block hashes for the client to compare against: JSON by default,
+	 * the packed binary form (see FileSignature) for Accept: application/octet-stream.
 	 */
 	@GetMapping("/signature/{fileId}")
-	public ResponseEntity<?> getFileSignature(@PathVariable String fileId, Authentication auth) {
+	public ResponseEntity<?> getFileSignature(@PathVariable String fileId,
+			@RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+			Authentication auth) {
 		if (auth == null) return ResponseEntity.status(401).build();
 
 		// Verify ownership
@@ -350,17 +502,22 @@ public class DriveController {
 		if (file == null) return ResponseEntity.status(404).build();
 
 		SecretKey userKey = getUserEncryptionKey(auth.getName());
-		Map<String, Object> signature = deltaSyncService.computeSignature(fileId, auth.getName(), userKey);
+		FileSignature signature = deltaSyncService.computeSignature(fileId, auth.getName(), userKey);
 
 		if (signature == null) {
 			return ResponseEntity.status(404).body("Cannot compute signature");
 		}
 
-		return ResponseEntity.ok(signature);
+		if (accept != null && accept.contains(MediaType.APPLICATION_OCTET_STREAM_VALUE)) {
+			return ResponseEntity.ok()
+					.contentType(MediaType.APPLICATION_OCTET_STREAM)
+					.body(signature.toBytes());
+		}
+		return ResponseEntity.ok(signature.toMap());
 	}
 
 	/**
-	 * Apply delta upload - reconstruct file from delta patch.
+	 * Apply delta upload - build the new version from a delta patch.
 	 */
 	@PostMapping("/delta-upload")
 	@Transactional
@@ -373,6 +530,10 @@ public class DriveController {
 			Authentication auth) {
 		if (auth == null) return ResponseEntity.status(401).build();
 
+		// Verify ownership of the base version before any of its signatures or chunks are read
+		Map<String, Object> previous = fileRepository.getFileMetadataById(fileId, auth.getName());
+		if (previous == null) return ResponseEntity.status(404).build();
+
 		try {
 			// Parse instructions
 			com.fasterxml.jackson.databind.ObjectMapper mapper = new com.fasterxml.jackson.databind.ObjectMapper();
@@ -388,59 +549,68 @@ public class DriveController {
 				}
 			}
 
-			// Apply delta
+			// Apply delta: unchanged chunks are referenced, only edited regions are stored
 			SecretKey userKey = getUserEncryptionKey(auth.getName());
-			byte[] reconstructed = deltaSyncService.applyDelta(fileId, instructions, newBlocks, auth.getName(), userKey);
-
-			// Save as new version (same fileId, new content)
-			String newFileId = UUID.randomUUID().toString();
-			// Upload reconstructed file as chunks
-			int chunkSize = 1024 * 1024;
-			for (int i = 0; i < reconstructed.length; i += chunkSize) {
-				int end = Math.min(i + chunkSize, reconstructed.length);
-				byte[] chunk = java.util.Arrays.copyOfRange(reconstructed, i, end);
-				String hash = computeChunkHash(chunk);
-				
-				if (!storageService.doesChunkExist(hash)) {
-					if (userKey != null) {
-						storageService.uploadChunkEncrypted(hash, chunk, userKey);
-					} else {
-						storageService.uploadChunk(hash, chunk);
-					}
-				}
-				fileRepository.registerGlobalChunk(hash);
-			}
-
-			// Record in DB
-			BaseRepository.DbResult res = fileRepository.saveFileMetadata(newFileId, filename, reconstructed.length, auth.getName(), null);
-			if (!res.success) return ResponseEntity.status(500).body("Failed to save file");
-
-			activityRepository.logActivity(auth.getName(), "DELTA_UPLOAD", filename);
-			driveEventPublisher.publishFileUploaded(auth.getName(), newFileId, filename, reconstructed.length, null);
-
-			return ResponseEntity.ok(Map.of(
-				"fileId", newFileId,
-				"size", reconstructed.length,
-				"deltaUpload", true
-			));
+			ChunkManifest manifest = deltaSyncService.applyDelta(fileId, instructions, newBlocks, auth.getName(), userKey);
+			return saveDeltaVersion(filename, manifest, auth.getName());
 
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().body("Invalid delta: " + e.getMessage());
 		} catch (Exception e) {
 			return ResponseEntity.status(500).body("Delta upload failed: " + e.getMessage());
 		}
 	}
 
-	private String computeChunkHash(byte[] chunk) {
-		try {
-			java.security.MessageDigest md = java.security.MessageDigest.getInstance("SHA-256");
-			byte[] hash = md.digest(chunk);
-			StringBuilder sb = new StringBuilder();
-			for (byte b : hash) sb.append(String.format("%02x", b));
-			return sb.toString();
+	/**
+	 * Full re-upload of a modified file, for clients without a delta engine.
+	 * The server matches the content against the previous version and stores it
+	 * as a delta: only the changed regions become new chunks.
+	 */
+	@PostMapping("/reupload")
+	@Transactional
+	public ResponseEntity<?> reupload(
+			@RequestParam("fileId") String fileId,
+			@RequestParam(value = "filename", required = false) String filename,
+			@RequestParam("file") MultipartFile file,
+			Authentication auth) {
+		if (auth == null) return ResponseEntity.status(401).build();
+
+		// Verify ownership of the previous version
+		Map<String, Object> previous = fileRepository.getFileMetadataById(fileId, auth.getName());
+		if (previous == null) return ResponseEntity.status(404).build();
+
+		try (InputStream content = file.getInputStream()) {
+			SecretKey userKey = getUserEncryptionKey(auth.getName());
+			ChunkManifest manifest = deltaSyncService.applyUpload(fileId, content, userKey);
+			return saveDeltaVersion(filename != null ? filename : (String) previous.get("name"), manifest, auth.getName());
 		} catch (Exception e) {
-			return UUID.randomUUID().toString();
+			return ResponseEntity.status(500).body("Re-upload failed: " + e.getMessage());
 		}
 	}
 
+	/**
+	 * Record a version built by a delta as a new file.
+	 */
+	private ResponseEntity<?> saveDeltaVersion(String filename, ChunkManifest manifest, String username) {
+		long newSize = manifest.totalSize();
+		String newFileId = UUID.randomUUID().toString();
+
+		// Record in DB
+		BaseRepository.DbResult res = fileRepository.saveFileMetadata(newFileId, filename, newSize, username, null);
+		if (!res.success) return ResponseEntity.status(500).body("Failed to save file");
+		BaseRepository.DbResult linked = fileRepository.addChunksToFile(newFileId, manifest.hashes(), manifest.digest());
+		if (!linked.success) return ResponseEntity.status(500).body("Failed to save file");
+
+		activityRepository.logActivity(username, "DELTA_UPLOAD", filename);
+		driveEventPublisher.publishFileUploaded(username, newFileId, filename, newSize, null);
+
+		return ResponseEntity.ok(Map.of(
+			"fileId", newFileId,
+			"size", newSize,
+			"deltaUpload", true
+		));
+	}
+
 	// ==================== PERMANENT DELETE ====================
 
 	@DeleteMapping("/{id}/permanent")
@@ -508,6 +678,23 @@ public class DriveController {
 		return ResponseEntity.ok(activityRepository.getActivities(auth.getName()));
 	}
 
+	/**
+	 * Chunk storage tier metrics (local hot-chunk cache, dedup index, format migration, staging sweep).
+	 * Server-wide, so SecurityConfig limits it to ROLE_ADMIN (minidrive.admin.usernames).
+	 */
+	@GetMapping("/storage/metrics")
+	public ResponseEntity<Map<String, Object>> getStorageMetrics(Authentication auth) {
+		if (auth == null) return ResponseEntity.status(401).build();
+		Map<String, Object> metrics = new HashMap<>();
+		metrics.put("chunkCache", storageService.getChunkCacheStats());
+		metrics.put("chunkIndex", chunkIndexService.getStats());
+		metrics.put("readAhead", chunkStreamReader.getStats());
+		metrics.put("keyCache", userKeyCache.getStats());
+		metrics.put("formatMigration", chunkFormatMigrator.getStats());
+		metrics.put("stagingSweep", stagingSweeper.getStats());
+		return ResponseEntity.ok(metrics);
+	}
+
 	// ==================== FILE VERSIONING ====================
 
 	/**
@@ -529,7 +716,7 @@ public class DriveController {
 	 * Download a specific version of a file.
 	 */
 	@GetMapping("/download/{fileId}/version/{versionNumber}")
-	public ResponseEntity<byte[]> downloadFileVersion(
+	public ResponseEntity<StreamingResponseBody> downloadFileVersion(
 			@PathVariable String fileId,
 			@PathVariable int versionNumber,
 			Authentication auth) {
@@ -543,14 +730,20 @@ public class DriveController {
 		if (minioVersionId == null) return ResponseEntity.status(404).build();
 		
 		String objectKey = auth.getName() + "/" + file.get("name");
-		byte[] content = storageService.downloadVersionedFile(objectKey, minioVersionId);
+		InputStream content = storageService.openVersionedFile(objectKey, minioVersionId);
 		
-		if (content.length == 0) return ResponseEntity.status(404).build();
+		if (content == null) return ResponseEntity.status(404).build();
+
+		StreamingResponseBody stream = outputStream -> {
+			try (content) {
+				BufferPool.copy(content, outputStream);
+			}
+		};
 		
 		return ResponseEntity.ok()
 			.header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"v" + versionNumber + "_" + file.get("name") + "\"")
 			.contentType(MediaType.APPLICATION_OCTET_STREAM)
-			.body(content);
+			.body(stream);
 	}
 
 	// ==================== DOWNLOAD ====================
@@ -578,21 +771,8 @@ public class DriveController {
 					ZipEntry zipEntry = new ZipEntry(zipPath);
 					zos.putNextEntry(zipEntry);
 
-					List<String> chunks = fileRepository.getFileChunks(fileId);
-					for (String chunkHash : chunks) {
-						byte[] chunkData;
-						if (userKey != null) {
-							try {
-								chunkData = storageService.downloadChunkEncrypted(chunkHash, userKey);
-							} catch (Exception e) {
-								// Fallback: try unencrypted (legacy data)
-								chunkData = storageService.downloadChunk(chunkHash);
-							}
-						} else {
-							chunkData = storageService.downloadChunk(chunkHash);
-						}
-						zos.write(chunkData);
-					}
+					// Decrypts with read-ahead into the zip stream; read and write failures both abort the download
+					chunkStreamReader.copyTo(fileRepository.getFileManifest(fileId), userKey, zos);
 					zos.closeEntry();
 				}
 				zos.finish();
@@ -606,7 +786,9 @@ public class DriveController {
 	}
 
 	@GetMapping("/download/{filename}")
-	public ResponseEntity<StreamingResponseBody> downloadFile(@PathVariable String filename, Authentication authentication) {
+	public ResponseEntity<StreamingResponseBody> downloadFile(@PathVariable String filename,
+			@RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
+			Authentication authentication) {
 		if (authentication == null) return ResponseEntity.status(401).build();
 
 		Map<String, Object> metadata = fileRepository.getFileMetadata(filename, authentication.getName());
@@ -614,36 +796,16 @@ public class DriveController {
 
 		String fileId = (String) metadata.get("id");
 		Long fileSize = (Long) metadata.get("size");
-		List<String> chunks = fileRepository.getFileChunks(fileId);
+		ChunkManifest manifest = fileRepository.getFileManifest(fileId);
 		String username = authentication.getName();
 
 		// Get user's encryption key for decryption
 		SecretKey userKey = getUserEncryptionKey(username);
 
-		StreamingResponseBody stream = outputStream -> {
-			for (String hash : chunks) {
-				byte[] chunkData;
-				if (userKey != null) {
-					// Decrypt chunk (Zero-Knowledge)
-					try {
-						chunkData = storageService.downloadChunkEncrypted(hash, userKey);
-					} catch (Exception e) {
-						// Fallback: try unencrypted (legacy data)
-						chunkData = storageService.downloadChunk(hash);
-					}
-				} else {
-					chunkData = storageService.downloadChunk(hash);
-				}
-				outputStream.write(chunkData);
-				outputStream.flush();
-			}
-		};
-
-		return ResponseEntity.ok()
-				.header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-				.contentLength(fileSize)
-				.contentType(MediaType.APPLICATION_OCTET_STREAM)
-				.body(stream);
+		// Decrypt chunks (Zero-Knowledge) with read-ahead; plain chunks are served as they are.
+		// Range requests (resumed downloads) only touch the overlapping chunks.
+		return chunkedFileResponder.respond(manifest, userKey, fileSize, rangeHeader,
+				MediaType.APPLICATION_OCTET_STREAM, "attachment; filename=\"" + filename + "\"");
 	}
 
 	// FileInfo record moved to UploadStateService.UploadMetadata
@@ -652,17 +814,11 @@ public class DriveController {
 
 	/**
 	 * Get user's decrypted encryption key for Zero-Knowledge operations.
-	 * Returns null for legacy users without encryption keys.
+	 * Returns null for legacy users without encryption keys; throws if the key
+	 * exists but cannot be loaded.
 	 */
 	private SecretKey getUserEncryptionKey(String username) {
-		try {
-			String encryptedKey = authService.getUserEncryptionKey(username);
-			if (encryptedKey != null && !encryptedKey.isEmpty()) {
-				return encryptionService.decryptUserKey(encryptedKey);
-			}
-		} catch (Exception e) {
-			// Log but don't fail - fall back to unencrypted
-		}
-		return null;
+		// Cached unwrap: no users-table query or master-key decrypt per chunk request
+		return userKeyCache.getKey(username);
 	}
 }
\ No newline at end of file
@@ -1,7 +1,10 @@
 package com.minidrive.api;
 
 import com.minidrive.db.DatabaseService;
-import com.minidrive.storage.StorageService;
+import com.minidrive.repository.ChunkManifest;
+import com.minidrive.repository.FileRepository;
+import com.minidrive.service.UserKeyCache;
+import com.minidrive.storage.ChunkStreamReader;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
@@ -9,7 +12,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.List;
+import javax.crypto.SecretKey;
 import java.util.Map;
 
 @RestController
@@ -18,7 +21,9 @@ import java.util.Map;
 public class PublicController {
 
 	@Autowired private DatabaseService databaseService;
-	@Autowired private StorageService storageService;
+	@Autowired private FileRepository fileRepository;
+	@Autowired private ChunkStreamReader chunkStreamReader;
+	@Autowired private UserKeyCache userKeyCache;
 
 	// View/Download Shared File
 	@GetMapping("/share/{token}")
@@ -33,15 +38,11 @@ public class PublicController {
 		Long size = (Long) metadata.get("size");
 
 		// 2. Get Chunks
-		List<String> chunks = databaseService.getFileChunks(fileId);
-
-		// 3. Stream
-		StreamingResponseBody stream = outputStream -> {
-			for (String hash : chunks) {
-				outputStream.write(storageService.downloadChunk(hash));
-				outputStream.flush();
-			}
-		};
+		ChunkManifest manifest = fileRepository.getFileManifest(fileId);
+
+		// 3. Stream (encrypted chunks are decrypted with the owner's key)
+		SecretKey ownerKey = userKeyCache.getKey((String) metadata.get("owner"));
+		StreamingResponseBody stream = outputStream -> chunkStreamReader.copyTo(manifest, ownerKey, outputStream);
 
 		// Determine content type (for preview in browser)
 		String contentType = "application/octet-stream";
@@ -1,15 +1,13 @@
 package com.minidrive.api;
 
 import com.minidrive.db.DatabaseService;
+import com.minidrive.repository.ChunkManifest;
+import com.minidrive.repository.FileRepository;
 import com.minidrive.service.ThumbnailService;
-import io.minio.GetObjectArgs;
-import io.minio.MinioClient;
-import io.minio.StatObjectArgs;
-import io.minio.StatObjectResponse;
+import com.minidrive.service.UserKeyCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -19,7 +17,6 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.InputStream;
 import java.util.Map;
 
 /**
@@ -33,19 +30,24 @@ public class StreamingController {
     private static final Logger logger = LoggerFactory.getLogger(StreamingController.class);
 
     @Autowired
-    private MinioClient minioClient;
+    private DatabaseService databaseService;
 
     @Autowired
-    private DatabaseService databaseService;
+    private FileRepository fileRepository;
 
     @Autowired
-    private ThumbnailService thumbnailService;
+    private ChunkedFileResponder chunkedFileResponder;
 
-    @Value("${minio.bucket:user-uploads}")
-    private String bucketName;
+    @Autowired
+    private UserKeyCache userKeyCache;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
 
     /**
-     * Stream video with Range request support for scrubbing
+     * Stream video with Range request support for scrubbing.
+     * Seeks map to chunk offsets in the manifest, so only the chunks covering
+     * the requested bytes are fetched and decrypted.
      */
     @GetMapping("/video/{fileId}")
     public ResponseEntity<StreamingResponseBody> streamVideo(
@@ -56,75 +58,18 @@ public class StreamingController {
         try {
             String username = userDetails.getUsername();
             
-            // Get file metadata
+            // Get file metadata (ownership check)
             Map<String, Object> file = databaseService.getFileById(fileId, username);
             if (file == null) {
                 return ResponseEntity.notFound().build();
             }
 
-            String minioPath = (String) file.get("minio_path");
             String filename = (String) file.get("name");
-            String contentType = getContentType(filename);
-
-            // Get object stats for size
-            StatObjectResponse stats = minioClient.statObject(
-                StatObjectArgs.builder()
-                    .bucket(bucketName)
-                    .object(minioPath)
-                    .build()
-            );
-            long fileSize = stats.size();
-
-            // Parse Range header
-            long rangeStart = 0;
-            long rangeEnd = fileSize - 1;
-            
-            if (rangeHeader != null && rangeHeader.startsWith("bytes=")) {
-                String[] ranges = rangeHeader.substring(6).split("-");
-                rangeStart = Long.parseLong(ranges[0]);
-                if (ranges.length > 1 && !ranges[1].isEmpty()) {
-                    rangeEnd = Long.parseLong(ranges[1]);
-                }
-            }
+            long fileSize = (Long) file.get("size");
+            ChunkManifest manifest = fileRepository.getFileManifest(fileId);
 
-            // Limit chunk size to 5MB for smooth streaming
-            long chunkSize = Math.min(rangeEnd - rangeStart + 1, 5 * 1024 * 1024);
-            rangeEnd = rangeStart + chunkSize - 1;
-
-            long contentLength = rangeEnd - rangeStart + 1;
-            final long start = rangeStart;
-            final long end = rangeEnd;
-
-            StreamingResponseBody responseBody = outputStream -> {
-                try (InputStream inputStream = minioClient.getObject(
-                        GetObjectArgs.builder()
-                            .bucket(bucketName)
-                            .object(minioPath)
-                            .offset(start)
-                            .length(end - start + 1)
-                            .build())) {
-                    
-                    byte[] buffer = new byte[8192];
-                    int bytesRead;
-                    while ((bytesRead = inputStream.read(buffer)) != -1) {
-                        outputStream.write(buffer, 0, bytesRead);
-                        outputStream.flush();
-                    }
-                } catch (Exception e) {
-                    logger.error("Streaming error: {}", e.getMessage());
-                }
-            };
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.parseMediaType(contentType));
-            headers.setContentLength(contentLength);
-            headers.set("Accept-Ranges", "bytes");
-            headers.set("Content-Range", String.format("bytes %d-%d/%d", start, end, fileSize));
-
-            return ResponseEntity
-                .status(rangeHeader != null ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK)
-                .headers(headers)
-                .body(responseBody);
+            return chunkedFileResponder.respond(manifest, userKeyCache.getKey(username), fileSize, rangeHeader,
+                MediaType.parseMediaType(getContentType(filename)), "inline; filename=\"" + filename + "\"");
 
         } catch (Exception e) {
             logger.error("Stream failed: {}", e.getMessage());
@@ -2,6 +2,7 @@ package com.minidrive.auth;
 
 import com.minidrive.db.DatabaseService;
 import com.minidrive.service.PasskeyService;
+import com.minidrive.service.UserKeyCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
@@ -23,10 +24,14 @@ public class AuthController {
 	@Autowired
 	private PasskeyService passkeyService;
 
+	@Autowired
+	private UserKeyCache userKeyCache;
+
 	@PostMapping("/register")
 	public ResponseEntity<?> register(@RequestBody Map<String, String> body) {
 		try {
 			String token = authService.register(body.get("username"), body.get("password"));
+			userKeyCache.invalidate(body.get("username"));
 			return ResponseEntity.ok(Map.of("token", token));
 		} catch (Exception e) {
 			return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
@@ -37,6 +42,8 @@ public class AuthController {
 	public ResponseEntity<?> login(@RequestBody Map<String, String> body) {
 		try {
 			String token = authService.login(body.get("username"), body.get("password"));
+			// Login may have generated a key for a legacy user
+			userKeyCache.invalidate(body.get("username"));
 			return ResponseEntity.ok(Map.of("token", token));
 		} catch (Exception e) {
 			return ResponseEntity.status(401).body(Map.of("message", e.getMessage()));
@@ -161,6 +168,7 @@ public class AuthController {
 		}
 
 		DatabaseService.DbResult result = databaseService.deleteAccount(username);
+		userKeyCache.invalidate(username);
 
 		if (result.success) {
 			return ResponseEntity.ok(Map.of(
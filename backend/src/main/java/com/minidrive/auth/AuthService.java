@@ -140,6 +140,8 @@ public class AuthService {
 	/**
 	 * Get user's encrypted encryption key (for Zero-Knowledge encryption).
 	 * Returns null if user doesn't exist or has no key.
+	 *
+	 * @throws RuntimeException if the lookup fails (never reported as "no key")
 	 */
 	public String getUserEncryptionKey(String username) {
 		try (Connection conn = db.getDataSource().getConnection()) {
@@ -152,7 +154,7 @@ public class AuthService {
 			}
 			return null;
 		} catch (SQLException e) {
-			return null;
+			throw new RuntimeException("Encryption key lookup failed", e);
 		}
 	}
 }
\ No newline at end of file
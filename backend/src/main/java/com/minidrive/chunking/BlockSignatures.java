@@ -0,0 +1,163 @@
+package com.minidrive.chunking;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+
+/**
+ * Delta-sync block signatures of a chunk.
+ *
+ * A chunk is cut into {@link #BLOCK_SIZE} blocks from its start (the last one
+ * may be short). Each block gets a fixed-size entry:
+ * <pre>
+ * Adler-32 weak hash (4, big-endian) | SHA-256 strong hash (32)
+ * </pre>
+ * The packed signature of a chunk is its entries back to back, so block i is at
+ * {@code i * ENTRY_LENGTH}.
+ */
+public final class BlockSignatures {
+
+    public static final int BLOCK_SIZE = 4096;
+    public static final int WEAK_LENGTH = 4;
+    public static final int STRONG_LENGTH = 32;
+    public static final int ENTRY_LENGTH = WEAK_LENGTH + STRONG_LENGTH;
+
+    private BlockSignatures() {
+    }
+
+    public static int blockCount(long length) {
+        return (int) ((length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+    }
+
+    /**
+     * Packed signature of an in-memory chunk.
+     */
+    public static byte[] of(byte[] data, int offset, int length) {
+        Builder builder = new Builder();
+        builder.update(data, offset, length);
+        return builder.finish();
+    }
+
+    public static int weakHash(byte[] packed, int block) {
+        int at = block * ENTRY_LENGTH;
+        return ((packed[at] & 0xff) << 24) | ((packed[at + 1] & 0xff) << 16)
+            | ((packed[at + 2] & 0xff) << 8) | (packed[at + 3] & 0xff);
+    }
+
+    /**
+     * Offset of a block's SHA-256 inside the packed signature.
+     */
+    public static int strongHashOffset(int block) {
+        return block * ENTRY_LENGTH + WEAK_LENGTH;
+    }
+
+    /**
+     * Incremental signer: feed a chunk's bytes in order, in pieces of any size.
+     * Not thread-safe.
+     */
+    public static final class Builder {
+
+        private final Adler32 weak = new Adler32();
+        private final MessageDigest strong;
+        private byte[] out = new byte[16 * ENTRY_LENGTH];
+        private int outLength;
+        private int blockFill;
+        private long length;
+
+        public Builder() {
+            try {
+                strong = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 not available", e);
+            }
+        }
+
+        public void update(byte[] data, int offset, int count) {
+            length += count;
+            while (count > 0) {
+                int take = Math.min(count, BLOCK_SIZE - blockFill);
+                weak.update(data, offset, take);
+                strong.update(data, offset, take);
+                blockFill += take;
+                offset += take;
+                count -= take;
+                if (blockFill == BLOCK_SIZE) {
+                    endBlock();
+                }
+            }
+        }
+
+        /**
+         * Wrap a stream so everything read through it is signed.
+         */
+        public InputStream signing(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        update(new byte[]{(byte) b}, 0, 1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        update(b, off, n);
+                    }
+                    return n;
+                }
+
+                @Override
+                public long skip(long n) {
+                    return 0; // every byte has to pass through update
+                }
+
+                @Override
+                public boolean markSupported() {
+                    return false;
+                }
+            };
+        }
+
+        /**
+         * Number of bytes signed so far.
+         */
+        public long length() {
+            return length;
+        }
+
+        public byte[] finish() {
+            if (blockFill > 0) {
+                endBlock();
+            }
+            return Arrays.copyOf(out, outLength);
+        }
+
+        private void endBlock() {
+            if (outLength + ENTRY_LENGTH > out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            int value = (int) weak.getValue();
+            out[outLength] = (byte) (value >>> 24);
+            out[outLength + 1] = (byte) (value >>> 16);
+            out[outLength + 2] = (byte) (value >>> 8);
+            out[outLength + 3] = (byte) value;
+            try {
+                strong.digest(out, outLength + WEAK_LENGTH, STRONG_LENGTH);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+            outLength += ENTRY_LENGTH;
+            weak.reset();
+            blockFill = 0;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.minidrive.chunking;
+
+import org.apache.commons.codec.digest.Blake3;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+
+/**
+ * Content-address hash of chunks.
+ *
+ * SHA-256 is what every existing chunk and client uses. Others can be adopted
+ * for new chunks only: the algorithm is chosen per upload and recorded in the
+ * file's manifest by {@link #id()}. All digests are {@link #LENGTH} bytes, so
+ * hashes of any algorithm fit the same keys and packed manifests.
+ */
+public interface ChunkDigest {
+
+    int LENGTH = 32;
+
+    ChunkDigest SHA256 = new Sha256();
+    ChunkDigest BLAKE3 = new Blake3Digest();
+
+    /**
+     * Name used by clients and in configuration ("sha256", "blake3").
+     */
+    String name();
+
+    /**
+     * Code stored in packed manifests.
+     */
+    int id();
+
+    Hasher newHasher();
+
+    /**
+     * Incremental hash of one chunk. Not thread-safe.
+     */
+    interface Hasher {
+        void update(byte[] data, int offset, int length);
+
+        byte[] digest();
+
+        /**
+         * Hash the buffer's remaining bytes, advancing its position to the limit.
+         */
+        default void update(ByteBuffer data) {
+            if (data.hasArray()) {
+                update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+                data.position(data.limit());
+                return;
+            }
+            byte[] buffer = new byte[Math.min(data.remaining(), 64 * 1024)];
+            while (data.hasRemaining()) {
+                int length = Math.min(buffer.length, data.remaining());
+                data.get(buffer, 0, length);
+                update(buffer, 0, length);
+            }
+        }
+
+        default String hexDigest() {
+            return HexFormat.of().formatHex(digest());
+        }
+
+        /**
+         * Wrap a stream so everything read through it is hashed.
+         */
+        default InputStream hashing(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        update(new byte[]{(byte) b}, 0, 1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n > 0) {
+                        update(b, off, n);
+                    }
+                    return n;
+                }
+
+                @Override
+                public long skip(long n) {
+                    return 0; // every byte has to pass through update
+                }
+
+                @Override
+                public boolean markSupported() {
+                    return false;
+                }
+            };
+        }
+    }
+
+    default String hash(byte[] data, int offset, int length) {
+        Hasher hasher = newHasher();
+        hasher.update(data, offset, length);
+        return hasher.hexDigest();
+    }
+
+    /**
+     * @throws IllegalArgumentException for an unknown name
+     */
+    static ChunkDigest forName(String name) {
+        return switch (name.toLowerCase(Locale.ROOT).replace("-", "")) {
+            case "sha256" -> SHA256;
+            case "blake3" -> BLAKE3;
+            default -> throw new IllegalArgumentException("Unknown chunk digest: " + name);
+        };
+    }
+
+    /**
+     * @throws IllegalArgumentException for an unknown code
+     */
+    static ChunkDigest forId(int id) {
+        return switch (id) {
+            case 0 -> SHA256;
+            case 1 -> BLAKE3;
+            default -> throw new IllegalArgumentException("Unknown chunk digest id: " + id);
+        };
+    }
+
+    final class Sha256 implements ChunkDigest {
+
+        private Sha256() {
+        }
+
+        @Override
+        public String name() {
+            return "sha256";
+        }
+
+        @Override
+        public int id() {
+            return 0;
+        }
+
+        @Override
+        public Hasher newHasher() {
+            MessageDigest sha256;
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 not available", e);
+            }
+            return new Hasher() {
+                @Override
+                public void update(byte[] data, int offset, int length) {
+                    sha256.update(data, offset, length);
+                }
+
+                @Override
+                public void update(ByteBuffer data) {
+                    sha256.update(data); // direct and mapped buffers without a copy
+                }
+
+                @Override
+                public byte[] digest() {
+                    return sha256.digest();
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return name();
+        }
+    }
+
+    final class Blake3Digest implements ChunkDigest {
+
+        private Blake3Digest() {
+        }
+
+        @Override
+        public String name() {
+            return "blake3";
+        }
+
+        @Override
+        public int id() {
+            return 1;
+        }
+
+        @Override
+        public Hasher newHasher() {
+            Blake3 blake3 = Blake3.initHash();
+            return new Hasher() {
+                @Override
+                public void update(byte[] data, int offset, int length) {
+                    blake3.update(data, offset, length);
+                }
+
+                @Override
+                public byte[] digest() {
+                    return blake3.doFinalize(LENGTH);
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return name();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.minidrive.chunking;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Content-defined chunking (FastCDC).
+ *
+ * Chunk boundaries are picked where a gear hash over the last bytes matches a
+ * mask, so they move with the content: inserting or deleting bytes only changes
+ * the chunks around the edit, and every later chunk keeps its hash (and its
+ * global_chunks dedup entry).
+ *
+ * Follows the FastCDC paper:
+ * - no hashing before {@code minSize} (cut-point skipping)
+ * - normalized chunking: a harder mask (log2(avg) + 1 bits) before the average
+ *   size and an easier one (log2(avg) - 1 bits) after it, which narrows the
+ *   size distribution around the average
+ * - a forced cut at {@code maxSize}
+ *
+ * The gear table is derived from a fixed seed, so every client using the same
+ * min/avg/max sizes produces the same boundaries as the server. Instances are
+ * immutable and thread-safe.
+ */
+public final class FastCdcChunker {
+
+    public static final int DEFAULT_MIN_SIZE = 256 * 1024;
+    public static final int DEFAULT_AVG_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_SIZE = 4 * 1024 * 1024;
+
+    private static final int MIN_ALLOWED_SIZE = 64;
+    private static final long GEAR_SEED = 0x53414e4348415931L; // "SANCHAY1"
+    private static final long[] GEAR = gearTable(GEAR_SEED);
+
+    /**
+     * Receives chunks in order. The array is only valid during the call.
+     */
+    @FunctionalInterface
+    public interface ChunkSink {
+        void accept(byte[] data, int offset, int length) throws IOException;
+    }
+
+    private final int minSize;
+    private final int avgSize;
+    private final int maxSize;
+    private final long maskS;
+    private final long maskL;
+
+    public FastCdcChunker() {
+        this(DEFAULT_MIN_SIZE, DEFAULT_AVG_SIZE, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param avgSize Target average chunk size, a power of two
+     */
+    public FastCdcChunker(int minSize, int avgSize, int maxSize) {
+        if (minSize < MIN_ALLOWED_SIZE || minSize > avgSize || avgSize > maxSize) {
+            throw new IllegalArgumentException(
+                "Chunk sizes must satisfy " + MIN_ALLOWED_SIZE + " <= min <= avg <= max, got "
+                    + minSize + "/" + avgSize + "/" + maxSize);
+        }
+        if (Integer.bitCount(avgSize) != 1) {
+            throw new IllegalArgumentException("Average chunk size must be a power of two, got " + avgSize);
+        }
+        if (maxSize > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("Maximum chunk size too large: " + maxSize);
+        }
+        int bits = Integer.numberOfTrailingZeros(avgSize);
+        this.minSize = minSize;
+        this.avgSize = avgSize;
+        this.maxSize = maxSize;
+        this.maskS = topBits(bits + 1);
+        this.maskL = topBits(bits - 1);
+    }
+
+    public int minSize() {
+        return minSize;
+    }
+
+    public int avgSize() {
+        return avgSize;
+    }
+
+    public int maxSize() {
+        return maxSize;
+    }
+
+    // ==================== CHUNKING ====================
+
+    /**
+     * Length of the first chunk of {@code data[offset, offset + length)}.
+     *
+     * Only the first {@code maxSize} bytes are looked at, so a caller holding at
+     * least that much (or everything up to end of input) gets the same cut
+     * points as one holding the whole file.
+     */
+    public int cutPoint(byte[] data, int offset, int length) {
+        if (length <= minSize) {
+            return length;
+        }
+        int end = Math.min(length, maxSize);
+        int normal = Math.min(avgSize, end);
+
+        long hash = 0;
+        int i = minSize;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & maskS) == 0) return i + 1;
+        }
+        for (; i < end; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & maskL) == 0) return i + 1;
+        }
+        return end;
+    }
+
+    /**
+     * {@link #cutPoint(byte[], int, int)} over a buffer, e.g. a memory-mapped
+     * file, using absolute reads (the buffer's position is not changed).
+     */
+    public int cutPoint(ByteBuffer data, int offset, int length) {
+        if (length <= minSize) {
+            return length;
+        }
+        int end = Math.min(length, maxSize);
+        int normal = Math.min(avgSize, end);
+
+        long hash = 0;
+        int i = minSize;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data.get(offset + i) & 0xff];
+            if ((hash & maskS) == 0) return i + 1;
+        }
+        for (; i < end; i++) {
+            hash = (hash << 1) + GEAR[data.get(offset + i) & 0xff];
+            if ((hash & maskL) == 0) return i + 1;
+        }
+        return end;
+    }
+
+    /**
+     * Split an in-memory range, handing out slices of the array itself.
+     *
+     * @return Number of chunks
+     */
+    public int split(byte[] data, int offset, int length, ChunkSink sink) throws IOException {
+        int chunks = 0;
+        int position = offset;
+        int remaining = length;
+        while (remaining > 0) {
+            int cut = cutPoint(data, position, remaining);
+            sink.accept(data, position, cut);
+            position += cut;
+            remaining -= cut;
+            chunks++;
+        }
+        return chunks;
+    }
+
+    /**
+     * Split a stream without buffering it whole. Holds at most two maximum-size
+     * chunks in memory; the stream is read to the end but not closed.
+     *
+     * @return Number of bytes read
+     */
+    public long split(InputStream in, ChunkSink sink) throws IOException {
+        byte[] buffer = new byte[2 * maxSize];
+        int start = 0;
+        int end = 0;
+        boolean eof = false;
+        long total = 0;
+
+        while (true) {
+            if (!eof && end - start < maxSize) {
+                // Keep a full maxSize window ahead so cut points match the in-memory split
+                if (buffer.length - start < maxSize) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                }
+                while (end - start < maxSize) {
+                    int read = in.read(buffer, end, buffer.length - end);
+                    if (read == -1) {
+                        eof = true;
+                        break;
+                    }
+                    end += read;
+                    total += read;
+                }
+            }
+            if (start == end) {
+                return total;
+            }
+            int cut = cutPoint(buffer, start, end - start);
+            sink.accept(buffer, start, cut);
+            start += cut;
+        }
+    }
+
+    // ==================== INTERNAL ====================
+
+    private static long topBits(int count) {
+        return count <= 0 ? 0 : -1L << (64 - count);
+    }
+
+    /**
+     * 256 pseudo-random 64-bit values from SplitMix64, so the table can be
+     * reproduced by non-Java clients.
+     */
+    private static long[] gearTable(long seed) {
+        long[] table = new long[256];
+        long state = seed;
+        for (int i = 0; i < table.length; i++) {
+            state += 0x9e3779b97f4a7c15L;
+            long z = state;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            table[i] = z ^ (z >>> 31);
+        }
+        return table;
+    }
+}
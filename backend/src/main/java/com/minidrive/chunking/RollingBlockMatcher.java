@@ -0,0 +1,268 @@
+package com.minidrive.chunking;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * rsync-style matcher: turns new content into block copies from an existing
+ * file (described by its {@link BlockSignatures}) plus literal bytes.
+ *
+ * The Adler-32 weak checksum of a {@link BlockSignatures#BLOCK_SIZE} window is
+ * rolled one byte at a time in O(1) and looked up in an open-addressing table
+ * keyed by the primitive weak hash. SHA-256 is only computed on a weak match,
+ * to confirm it.
+ *
+ * Only full-size blocks are indexed. The short last block of a chunk is matched
+ * right after the block before it, so whole chunks can still be copied in order.
+ *
+ * Instances hold the index only and can be reused for several streams, but not
+ * concurrently.
+ */
+public final class RollingBlockMatcher {
+
+    private static final int BLOCK_SIZE = BlockSignatures.BLOCK_SIZE;
+    private static final int MOD_ADLER = 65521;
+    private static final int EMPTY = -1;
+    private static final int READ_SIZE = 64 * 1024;
+
+    // BLOCK_SIZE * byte (mod 65521), so rolling the window needs no division
+    private static final int[] OUTGOING_WEIGHT = new int[256];
+
+    static {
+        for (int i = 0; i < OUTGOING_WEIGHT.length; i++) {
+            OUTGOING_WEIGHT[i] = (int) ((long) BLOCK_SIZE * i % MOD_ADLER);
+        }
+    }
+
+    /**
+     * Receives the new content in order as copies and literals.
+     */
+    public interface DeltaSink {
+        void copy(int block) throws IOException;
+
+        /**
+         * The array is only valid during the call.
+         */
+        void literal(byte[] data, int offset, int length) throws IOException;
+    }
+
+    // Per original block (numbered across chunks, as in the signature)
+    private final int[] weak;
+    private final int[] lengths;
+    private final byte[][] strongSource;
+    private final int[] strongOffset;
+
+    // Weak hash -> first block in slots, further blocks with the same weak hash chained in next
+    private final int[] slotKeys;
+    private final int[] slotHeads;
+    private final int[] next;
+    private final int mask;
+
+    private final MessageDigest sha256;
+    private final byte[] digest = new byte[BlockSignatures.STRONG_LENGTH];
+
+    /**
+     * @param chunkLengths Plaintext length of each original chunk
+     * @param chunkBlocks Packed block signatures of each original chunk
+     */
+    public RollingBlockMatcher(int[] chunkLengths, byte[][] chunkBlocks) {
+        int total = 0;
+        for (byte[] blocks : chunkBlocks) {
+            total += blocks.length / BlockSignatures.ENTRY_LENGTH;
+        }
+        weak = new int[total];
+        lengths = new int[total];
+        strongSource = new byte[total][];
+        strongOffset = new int[total];
+
+        int capacity = Integer.highestOneBit(Math.max(16, total * 2 - 1)) << 1;
+        slotKeys = new int[capacity];
+        slotHeads = new int[capacity];
+        Arrays.fill(slotHeads, EMPTY);
+        next = new int[total];
+        mask = capacity - 1;
+
+        int index = 0;
+        for (int c = 0; c < chunkBlocks.length; c++) {
+            int blocks = chunkBlocks[c].length / BlockSignatures.ENTRY_LENGTH;
+            for (int b = 0; b < blocks; b++, index++) {
+                weak[index] = BlockSignatures.weakHash(chunkBlocks[c], b);
+                lengths[index] = Math.min(BLOCK_SIZE, chunkLengths[c] - b * BLOCK_SIZE);
+                strongSource[index] = chunkBlocks[c];
+                strongOffset[index] = BlockSignatures.strongHashOffset(b);
+                if (lengths[index] == BLOCK_SIZE) {
+                    index(index);
+                }
+            }
+        }
+
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public int blockCount() {
+        return weak.length;
+    }
+
+    /**
+     * Match a stream against the original blocks. The stream is read to the end
+     * but not closed.
+     *
+     * @return Number of bytes read
+     */
+    public long match(InputStream in, DeltaSink sink) throws IOException {
+        byte[] buffer = new byte[READ_SIZE + BLOCK_SIZE];
+        int end = 0;
+        int position = 0;      // window start
+        int literalStart = 0;  // first byte not yet handed to the sink
+        boolean eof = false;
+        boolean rolling = false;
+        int a = 0;
+        int b = 0;
+        long total = 0;
+
+        while (true) {
+            if (position + 2 * BLOCK_SIZE > end && !eof) {
+                // Keep the window plus one more block buffered (for rolling and tail matches);
+                // hand out literals behind the window and make room for more input
+                if (position > literalStart) {
+                    sink.literal(buffer, literalStart, position - literalStart);
+                }
+                System.arraycopy(buffer, position, buffer, 0, end - position);
+                end -= position;
+                position = 0;
+                literalStart = 0;
+                while (end < buffer.length) {
+                    int read = in.read(buffer, end, buffer.length - end);
+                    if (read == -1) {
+                        eof = true;
+                        break;
+                    }
+                    end += read;
+                    total += read;
+                }
+            }
+            if (position + BLOCK_SIZE > end) {
+                break;
+            }
+
+            if (!rolling) {
+                long sumA = 1;
+                long sumB = 0;
+                for (int i = position; i < position + BLOCK_SIZE; i++) {
+                    sumA += buffer[i] & 0xff;
+                    sumB += sumA;
+                }
+                a = (int) (sumA % MOD_ADLER);
+                b = (int) (sumB % MOD_ADLER);
+                rolling = true;
+            }
+
+            int block = find((b << 16) | a, buffer, position);
+            if (block != EMPTY) {
+                if (position > literalStart) {
+                    sink.literal(buffer, literalStart, position - literalStart);
+                }
+                sink.copy(block);
+                position += BLOCK_SIZE;
+
+                // A short block ending the chunk can only be matched right here
+                int tail = block + 1;
+                if (tail < lengths.length && lengths[tail] < BLOCK_SIZE && position + lengths[tail] <= end
+                        && strongEquals(tail, buffer, position, lengths[tail])) {
+                    sink.copy(tail);
+                    position += lengths[tail];
+                }
+                literalStart = position;
+                rolling = false;
+                continue;
+            }
+
+            if (position + BLOCK_SIZE == end) {
+                break; // only at end of input: the window cannot move further
+            }
+            // Slide by one byte: a' = a - out + in, b' = b - BLOCK_SIZE * out + a' - 1 (mod 65521)
+            int out = buffer[position] & 0xff;
+            a += (buffer[position + BLOCK_SIZE] & 0xff) - out;
+            if (a < 0) a += MOD_ADLER;
+            else if (a >= MOD_ADLER) a -= MOD_ADLER;
+            b += a - 1 - OUTGOING_WEIGHT[out];
+            if (b < 0) b += MOD_ADLER;
+            else if (b >= MOD_ADLER) b -= MOD_ADLER;
+            position++;
+        }
+
+        if (end > literalStart) {
+            sink.literal(buffer, literalStart, end - literalStart);
+        }
+        return total;
+    }
+
+    // ==================== INTERNAL ====================
+
+    private void index(int block) {
+        int slot = slot(weak[block]);
+        while (slotHeads[slot] != EMPTY && slotKeys[slot] != weak[block]) {
+            slot = (slot + 1) & mask;
+        }
+        if (slotHeads[slot] == EMPTY) {
+            slotKeys[slot] = weak[block];
+            next[block] = EMPTY;
+        } else {
+            next[block] = slotHeads[slot];
+        }
+        slotHeads[slot] = block;
+    }
+
+    /**
+     * Full-size block whose weak and strong hashes match the window, or EMPTY.
+     */
+    private int find(int weakHash, byte[] data, int offset) {
+        int slot = slot(weakHash);
+        while (slotHeads[slot] != EMPTY) {
+            if (slotKeys[slot] == weakHash) {
+                boolean digested = false;
+                for (int block = slotHeads[slot]; block != EMPTY; block = next[block]) {
+                    if (!digested) {
+                        digest(data, offset, BLOCK_SIZE);
+                        digested = true;
+                    }
+                    if (Arrays.equals(digest, 0, digest.length,
+                            strongSource[block], strongOffset[block], strongOffset[block] + digest.length)) {
+                        return block;
+                    }
+                }
+                return EMPTY;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    private boolean strongEquals(int block, byte[] data, int offset, int length) {
+        digest(data, offset, length);
+        return Arrays.equals(digest, 0, digest.length,
+            strongSource[block], strongOffset[block], strongOffset[block] + digest.length);
+    }
+
+    private void digest(byte[] data, int offset, int length) {
+        sha256.update(data, offset, length);
+        try {
+            sha256.digest(digest, 0, digest.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int slot(int weakHash) {
+        int h = weakHash * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
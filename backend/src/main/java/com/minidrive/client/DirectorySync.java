@@ -0,0 +1,533 @@
+package com.minidrive.client;
+
+import com.minidrive.chunking.ChunkDigest;
+import com.minidrive.chunking.FastCdcChunker;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps a server folder in step with a local directory tree.
+ *
+ * Each pass walks the tree in parallel (one fork/join task per directory) and
+ * compares sizes and modification times with the {@link SyncIndex}. Only files
+ * that differ are read: they are chunked and hashed on a thread pool, a few
+ * at a time so only a bounded number of mappings is open, and handled in the
+ * order they finish. The upload itself sends only chunks the server lacks.
+ *
+ * A new file whose content matches an indexed file that vanished in the same
+ * pass is a rename and becomes a server-side move. An indexed file that
+ * vanished without reappearing is moved to the server's trash; a changed file
+ * is uploaded again and its previous version trashed.
+ *
+ * In watch mode, directories are registered with a {@link WatchService} and
+ * each burst of events triggers a pass over just the paths involved.
+ */
+public final class DirectorySync implements Closeable {
+
+	// Upper bound on how long a continuous stream of events defers a pass
+	private static final Duration MAX_DELAY = Duration.ofSeconds(30);
+
+	/**
+	 * The server side of a sync. Names are paths relative to the sync root.
+	 */
+	public interface Remote {
+		/**
+		 * @return The new file's id, or null if the upload failed
+		 */
+		String upload(String name, Path path, MappedChunks file) throws Exception;
+
+		void move(String fileId, String name) throws Exception;
+
+		void trash(String fileId) throws Exception;
+	}
+
+	/**
+	 * What one pass did.
+	 */
+	public static final class Summary {
+		private int unchanged;
+		private int hashed;
+		private long hashedBytes;
+		private int uploaded;
+		private int moved;
+		private int trashed;
+		private int failed;
+
+		public int failed() {
+			return failed;
+		}
+
+		public boolean changedAnything() {
+			return uploaded + moved + trashed > 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d unchanged, %d hashed (%.1f MB), %d uploaded, %d moved, %d trashed, %d failed",
+					unchanged, hashed, hashedBytes / 1e6, uploaded, moved, trashed, failed);
+		}
+	}
+
+	private record Stat(long size, long modified) {}
+
+	private record Hashed(String path, Stat stat, MappedChunks file, Exception error) {}
+
+	// Whole-file identity, for matching a vanished file with its new name
+	private record Fingerprint(long size, String digest, List<String> hashes) {
+		static Fingerprint of(SyncIndex.Entry entry) {
+			return new Fingerprint(entry.size(), entry.digest(), entry.hashes());
+		}
+	}
+
+	private final Path root;
+	private final SyncIndex index;
+	private final Remote remote;
+	private final FastCdcChunker chunker;
+	private final ChunkDigest digest;
+	private final int threads;
+	private final ForkJoinPool walkPool;
+	private final ExecutorService hashPool;
+
+	/**
+	 * @param threads Directories listed and files hashed concurrently
+	 */
+	public DirectorySync(Path root, SyncIndex index, Remote remote, FastCdcChunker chunker, ChunkDigest digest,
+						 int threads) {
+		this.root = root.toAbsolutePath().normalize();
+		this.index = index;
+		this.remote = remote;
+		this.chunker = chunker;
+		this.digest = digest;
+		this.threads = Math.max(1, threads);
+		this.walkPool = new ForkJoinPool(this.threads);
+		this.hashPool = Executors.newFixedThreadPool(this.threads, r -> {
+			Thread t = new Thread(r, "sync-hash");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * One pass over the whole tree.
+	 */
+	public Summary syncAll() throws IOException, InterruptedException {
+		return reconcile(walk(root), index.entries());
+	}
+
+	/**
+	 * A full pass, then a pass for each burst of changes (once no new event has
+	 * arrived for {@code quiet}). Runs until interrupted.
+	 */
+	public void watch(Duration quiet, Consumer<Summary> report) throws IOException, InterruptedException {
+		try (WatchService watcher = root.getFileSystem().newWatchService()) {
+			Map<WatchKey, Path> watched = new HashMap<>();
+
+			// Register before the first pass, so changes made while it uploads are seen
+			Scan scan = walk(root);
+			register(watcher, watched, scan);
+			report.accept(reconcile(scan, index.entries()));
+
+			while (true) {
+				WatchKey key = watcher.take();
+				Set<Path> dirty = new HashSet<>();
+				boolean overflow = false;
+				long deadline = System.nanoTime() + MAX_DELAY.toNanos();
+				while (key != null) {
+					overflow |= collect(key, watched, dirty);
+					key = System.nanoTime() < deadline ? watcher.poll(quiet.toMillis(), TimeUnit.MILLISECONDS) : null;
+				}
+
+				if (overflow) {
+					// Events were lost: fall back to a full pass
+					scan = walk(root);
+					register(watcher, watched, scan);
+					report.accept(reconcile(scan, index.entries()));
+				} else {
+					report.accept(syncPaths(dirty, watcher, watched));
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		walkPool.shutdownNow();
+		hashPool.shutdownNow();
+	}
+
+	// ==================== WALK ====================
+
+	/**
+	 * Regular files found under a directory, the directories walked, and the
+	 * directories that could not be listed (nothing below them may be taken
+	 * as deleted).
+	 */
+	private static final class Scan {
+		final Map<String, Stat> files = new ConcurrentHashMap<>();
+		final Queue<Path> directories = new ConcurrentLinkedQueue<>();
+		final Set<String> unreadable = ConcurrentHashMap.newKeySet();
+
+		boolean unreadable(String path) {
+			for (String prefix : unreadable) {
+				if (path.startsWith(prefix)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private final class Walk extends RecursiveAction {
+		private final Path directory;
+		private final Scan scan;
+
+		Walk(Path directory, Scan scan) {
+			this.directory = directory;
+			this.scan = scan;
+		}
+
+		@Override
+		protected void compute() {
+			scan.directories.add(directory);
+			List<Walk> subdirectories = new ArrayList<>();
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+				for (Path entry : entries) {
+					if (ignored(entry)) continue;
+					BasicFileAttributes attributes;
+					try {
+						attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					} catch (IOException e) {
+						continue; // Deleted while listing
+					}
+					if (attributes.isDirectory()) {
+						subdirectories.add(new Walk(entry, scan));
+					} else if (attributes.isRegularFile()) {
+						scan.files.put(relative(entry), stat(attributes));
+					}
+					// Symbolic links and special files are not synced
+				}
+			} catch (IOException e) {
+				System.err.println("Cannot list " + directory + ": " + e.getMessage());
+				String path = relative(directory);
+				scan.unreadable.add(path.isEmpty() ? "" : path + "/");
+			}
+			invokeAll(subdirectories);
+		}
+	}
+
+	private Scan walk(Path directory) {
+		Scan scan = new Scan();
+		walkPool.invoke(new Walk(directory, scan));
+		return scan;
+	}
+
+	// ==================== RECONCILE ====================
+
+	/**
+	 * Bring the server in line with the scanned files. Of the given index
+	 * entries, those the scan did not find are treated as deleted (or renamed).
+	 */
+	private Summary reconcile(Scan scan, Collection<SyncIndex.Entry> scope) throws IOException, InterruptedException {
+		Summary summary = new Summary();
+
+		List<String> changed = new ArrayList<>();
+		for (Map.Entry<String, Stat> file : scan.files.entrySet()) {
+			SyncIndex.Entry known = index.get(file.getKey());
+			Stat stat = file.getValue();
+			if (known != null && known.matches(stat.size(), stat.modified(), digest.name())) {
+				summary.unchanged++;
+			} else {
+				changed.add(file.getKey());
+			}
+		}
+
+		Map<Fingerprint, Deque<SyncIndex.Entry>> vanished = new HashMap<>();
+		for (SyncIndex.Entry entry : scope) {
+			if (!scan.files.containsKey(entry.path()) && !scan.unreadable(entry.path())) {
+				vanished.computeIfAbsent(Fingerprint.of(entry), k -> new ArrayDeque<>()).add(entry);
+			}
+		}
+
+		// Hash in parallel, at most two mappings per thread open; handle files as they finish
+		Semaphore open = new Semaphore(2 * threads);
+		CompletionService<Hashed> hashing = new ExecutorCompletionService<>(hashPool);
+		for (String path : changed) {
+			hashing.submit(() -> hash(path, open));
+		}
+		int pending = changed.size();
+		try {
+			while (pending > 0) {
+				Hashed hashed = next(hashing);
+				pending--;
+				try {
+					apply(hashed, vanished, summary);
+				} finally {
+					release(hashed, open);
+				}
+			}
+		} finally {
+			// A failed pass still closes every mapping it opened
+			while (pending > 0) {
+				release(next(hashing), open);
+				pending--;
+			}
+		}
+
+		// Whatever vanished and did not turn up under another name was deleted
+		for (Deque<SyncIndex.Entry> entries : vanished.values()) {
+			for (SyncIndex.Entry entry : entries) {
+				trash(entry, summary);
+				index.remove(entry.path());
+				System.out.println("- " + entry.path());
+			}
+		}
+		return summary;
+	}
+
+	private Hashed hash(String path, Semaphore open) throws InterruptedException {
+		open.acquire();
+		Path file = root.resolve(path);
+		try {
+			Stat stat = stat(Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+			return new Hashed(path, stat, MappedChunks.open(file, chunker, digest), null);
+		} catch (IOException | RuntimeException e) {
+			open.release();
+			return new Hashed(path, null, null, e);
+		}
+	}
+
+	private static Hashed next(CompletionService<Hashed> hashing) throws InterruptedException {
+		try {
+			return hashing.take().get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause()); // hash() returns its errors
+		}
+	}
+
+	private static void release(Hashed hashed, Semaphore open) throws IOException {
+		if (hashed.file() != null) {
+			hashed.file().close();
+			open.release();
+		}
+	}
+
+	private void apply(Hashed hashed, Map<Fingerprint, Deque<SyncIndex.Entry>> vanished, Summary summary)
+			throws IOException {
+		String path = hashed.path();
+		if (hashed.error() != null) {
+			// Gone or unreadable since the walk; the next pass sees it again
+			System.err.println("Cannot read " + path + ": " + hashed.error().getMessage());
+			summary.failed++;
+			return;
+		}
+		MappedChunks file = hashed.file();
+		summary.hashed++;
+		summary.hashedBytes += file.size();
+
+		SyncIndex.Entry known = index.get(path);
+		List<String> hashes = file.hashes();
+		if (known != null && known.digest().equals(digest.name()) && known.hashes().equals(hashes)) {
+			// Touched, not changed
+			index.put(entry(path, hashed.stat(), known.fileId(), hashes));
+			summary.unchanged++;
+			return;
+		}
+
+		String fileId = null;
+		Deque<SyncIndex.Entry> candidates = vanished.get(new Fingerprint(file.size(), digest.name(), hashes));
+		SyncIndex.Entry renamed = candidates != null ? candidates.poll() : null;
+		if (renamed != null) {
+			try {
+				remote.move(renamed.fileId(), path);
+				fileId = renamed.fileId();
+				index.remove(renamed.path());
+				summary.moved++;
+				System.out.println("> " + renamed.path() + " -> " + path);
+			} catch (Exception e) {
+				// The server copy is gone: upload instead, and let the old name be trashed
+				System.err.println("Move of " + renamed.path() + " failed (" + e.getMessage() + "), uploading");
+				candidates.add(renamed);
+			}
+		}
+		if (fileId == null) {
+			try {
+				fileId = remote.upload(path, root.resolve(path), file);
+			} catch (Exception e) {
+				System.err.println("Upload of " + path + " failed: " + e.getMessage());
+			}
+			if (fileId == null) {
+				summary.failed++;
+				return;
+			}
+			summary.uploaded++;
+			System.out.println((known != null ? "~ " : "+ ") + path);
+		}
+
+		if (known != null) {
+			// Replaced by the new upload (or by a renamed file)
+			trash(known, summary);
+		}
+		index.put(entry(path, hashed.stat(), fileId, hashes));
+	}
+
+	private void trash(SyncIndex.Entry entry, Summary summary) {
+		try {
+			remote.trash(entry.fileId());
+			summary.trashed++;
+		} catch (Exception e) {
+			// Most likely already deleted on the server; either way it is no longer ours to track
+			System.err.println("Trash of " + entry.path() + " failed: " + e.getMessage());
+		}
+	}
+
+	private SyncIndex.Entry entry(String path, Stat stat, String fileId, List<String> hashes) {
+		return new SyncIndex.Entry(path, stat.size(), stat.modified(), fileId, digest.name(), hashes);
+	}
+
+	// ==================== WATCH ====================
+
+	private void register(WatchService watcher, Map<WatchKey, Path> watched, Scan scan) throws IOException {
+		for (Path directory : scan.directories) {
+			try {
+				watched.put(directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), directory);
+			} catch (IOException e) {
+				if (directory.equals(root)) throw e;
+				// Deleted since the walk; its parent reports that
+			}
+		}
+	}
+
+	/**
+	 * Add a key's events to the dirty paths.
+	 *
+	 * @return Whether events were lost
+	 */
+	private boolean collect(WatchKey key, Map<WatchKey, Path> watched, Set<Path> dirty) {
+		Path directory = watched.get(key);
+		boolean overflow = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+				overflow = true;
+				continue;
+			}
+			Path child = directory.resolve((Path) event.context());
+			if (!ignored(child)) {
+				dirty.add(child);
+			}
+		}
+		if (!key.reset()) {
+			watched.remove(key);
+		}
+		return overflow;
+	}
+
+	/**
+	 * A pass over just the given paths: files are checked, new directories
+	 * walked and registered, and missing paths (files or whole directories)
+	 * taken as deleted.
+	 */
+	private Summary syncPaths(Set<Path> dirty, WatchService watcher, Map<WatchKey, Path> watched)
+			throws IOException, InterruptedException {
+		Scan scan = new Scan();
+		Set<Path> registered = new HashSet<>(watched.values());
+		Map<String, SyncIndex.Entry> scope = new HashMap<>();
+		for (Path path : dirty) {
+			String relative = relative(path);
+			SyncIndex.Entry known = index.get(relative);
+			if (known != null) {
+				scope.put(relative, known);
+			}
+
+			BasicFileAttributes attributes;
+			try {
+				attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			} catch (IOException e) {
+				// Deleted or renamed away; a watched directory keeps its key under the old name
+				unregister(path, watched);
+				attributes = null;
+			}
+			if (attributes != null && attributes.isDirectory() && registered.contains(path)) {
+				// A watched directory that was itself modified: its content is not
+				// scanned here (it reports its own events), so none of it is in scope
+				continue;
+			}
+			// Gone, no longer a directory, or walked below: what was indexed under it is covered
+			for (SyncIndex.Entry entry : index.entries(relative + "/")) {
+				scope.put(entry.path(), entry);
+			}
+			if (attributes == null) {
+				continue;
+			}
+			if (attributes.isRegularFile()) {
+				scan.files.put(relative, stat(attributes));
+			} else if (attributes.isDirectory()) {
+				// New (or renamed) directory: its content never produced events of its own
+				Scan subtree = walk(path);
+				register(watcher, watched, subtree);
+				scan.files.putAll(subtree.files);
+				scan.unreadable.addAll(subtree.unreadable);
+			}
+		}
+		return reconcile(scan, scope.values());
+	}
+
+	private void unregister(Path path, Map<WatchKey, Path> watched) {
+		for (Iterator<Map.Entry<WatchKey, Path>> it = watched.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<WatchKey, Path> entry = it.next();
+			if (entry.getValue().startsWith(path)) {
+				entry.getKey().cancel();
+				it.remove();
+			}
+		}
+	}
+
+	// ==================== PATHS ====================
+
+	private boolean ignored(Path path) {
+		return path.equals(root.resolve(SyncIndex.DIRECTORY)) || UploadJournal.isJournal(path);
+	}
+
+	private String relative(Path path) {
+		return root.relativize(path).toString().replace(File.separatorChar, '/');
+	}
+
+	private static Stat stat(BasicFileAttributes attributes) {
+		return new Stat(attributes.size(), attributes.lastModifiedTime().toMillis());
+	}
+}
@@ -0,0 +1,127 @@
+package com.minidrive.client;
+
+import java.io.PrintStream;
+
+/**
+ * Log-linear histogram of non-negative values, for latency and throughput
+ * reports. Values below 16 are exact; above that each power of two is split
+ * into 16 linear buckets (about 6% relative error), so the whole long range
+ * fits in under a thousand counters. Thread-safe.
+ */
+public final class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BAR_WIDTH = 40;
+
+	private final long[] counts = new long[(64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+	private long count;
+	private long sum;
+	private long min = Long.MAX_VALUE;
+	private long max;
+
+	public synchronized void record(long value) {
+		value = Math.max(0, value);
+		counts[bucket(value)]++;
+		count++;
+		sum += value;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	public synchronized void add(Histogram other) {
+		synchronized (other) {
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] += other.counts[i];
+			}
+			count += other.count;
+			sum += other.sum;
+			min = Math.min(min, other.min);
+			max = Math.max(max, other.max);
+		}
+	}
+
+	public synchronized long count() {
+		return count;
+	}
+
+	/**
+	 * Smallest recorded value bound such that at least the given percentage of
+	 * values are at or below it (within bucket precision).
+	 */
+	public synchronized long percentile(double percent) {
+		if (count == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(percent / 100.0 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(upperBound(i), max);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Summary percentiles and one bar per power of two.
+	 */
+	public synchronized void print(PrintStream out, String title, String unit) {
+		if (count == 0) {
+			out.printf("%s: no samples%n", title);
+			return;
+		}
+		out.printf("%s (%d samples, %s): min %d  mean %d  p50 %d  p90 %d  p99 %d  p99.9 %d  max %d%n",
+				title, count, unit, min, sum / count, percentile(50), percentile(90), percentile(99),
+				percentile(99.9), max);
+
+		long[] ranges = new long[64];
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0) {
+				ranges[magnitude(lowerBound(i))] += counts[i];
+			}
+		}
+		long widest = 0;
+		for (long range : ranges) {
+			widest = Math.max(widest, range);
+		}
+		for (int m = magnitude(min); m <= magnitude(max); m++) {
+			long from = m == 0 ? 0 : 1L << m;
+			long to = m == 62 ? Long.MAX_VALUE : (1L << (m + 1)) - 1;
+			int bar = (int) Math.round((double) ranges[m] / widest * BAR_WIDTH);
+			out.printf("  %12d - %-12d |%-" + BAR_WIDTH + "s| %d%n", from, to, "#".repeat(bar), ranges[m]);
+		}
+	}
+
+	// ==================== INTERNAL ====================
+
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = magnitude(value);
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long lowerBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int sub = bucket % SUB_BUCKETS;
+		return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	private static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		return lowerBound(bucket) + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	// floor(log2(value)), 0 for 0
+	private static int magnitude(long value) {
+		return value == 0 ? 0 : 63 - Long.numberOfLeadingZeros(value);
+	}
+}
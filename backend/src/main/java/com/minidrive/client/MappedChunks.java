@@ -0,0 +1,163 @@
+package com.minidrive.client;
+
+import com.minidrive.chunking.ChunkDigest;
+import com.minidrive.chunking.FastCdcChunker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A local file split into content-defined chunks in a single pass over a
+ * read-only memory mapping. Cut points and chunk hashes are computed straight
+ * from the mapped pages, and uploads send slices of the same mapping, so the
+ * file is read from disk once and never copied into heap buffers.
+ *
+ * A mapping is limited to 2 GB, so larger files are mapped in overlapping
+ * segments. Every chunk lies entirely within one segment.
+ */
+public final class MappedChunks implements AutoCloseable {
+
+	private static final long SEGMENT_SIZE = 1L << 30;
+
+	public record Chunk(int index, long offset, int length, String hash) {}
+
+	private record Location(int segment, int position) {}
+
+	private final FileChannel channel;
+	private final long size;
+	private final ChunkDigest digest;
+	private final List<MappedByteBuffer> segments = new ArrayList<>();
+	private final List<Chunk> chunks = new ArrayList<>();
+	private final List<Location> locations = new ArrayList<>();
+
+	private MappedChunks(FileChannel channel, FastCdcChunker chunker, ChunkDigest digest, long segmentSize) throws IOException {
+		this.channel = channel;
+		this.size = channel.size();
+		this.digest = digest;
+
+		long segmentStart = 0;
+		while (segmentStart < size) {
+			int length = (int) Math.min(segmentSize, size - segmentStart);
+			MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, length);
+			boolean lastSegment = segmentStart + length == size;
+			segments.add(segment);
+
+			int position = 0;
+			// Near a segment end the next cut point may depend on bytes past it:
+			// stop there and start the next segment at this chunk
+			while (position < length && (lastSegment || length - position >= chunker.maxSize())) {
+				int cut = chunker.cutPoint(segment, position, length - position);
+				ChunkDigest.Hasher hasher = digest.newHasher();
+				hasher.update(segment.slice(position, cut));
+				chunks.add(new Chunk(chunks.size(), segmentStart + position, cut, hasher.hexDigest()));
+				locations.add(new Location(segments.size() - 1, position));
+				position += cut;
+			}
+			segmentStart += position;
+		}
+	}
+
+	/**
+	 * Map, chunk and hash a file.
+	 */
+	public static MappedChunks open(Path path, FastCdcChunker chunker, ChunkDigest digest) throws IOException {
+		return open(path, chunker, digest, SEGMENT_SIZE);
+	}
+
+	/**
+	 * @param segmentSize Bytes per mapping; at least the chunker's maximum size
+	 */
+	static MappedChunks open(Path path, FastCdcChunker chunker, ChunkDigest digest, long segmentSize) throws IOException {
+		if (segmentSize < chunker.maxSize() || segmentSize > SEGMENT_SIZE) {
+			throw new IllegalArgumentException("Segment size out of range: " + segmentSize);
+		}
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new MappedChunks(channel, chunker, digest, segmentSize);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public ChunkDigest digest() {
+		return digest;
+	}
+
+	public List<Chunk> chunks() {
+		return Collections.unmodifiableList(chunks);
+	}
+
+	public Chunk chunk(int index) {
+		return chunks.get(index);
+	}
+
+	public List<String> hashes() {
+		List<String> hashes = new ArrayList<>(chunks.size());
+		for (Chunk chunk : chunks) {
+			hashes.add(chunk.hash());
+		}
+		return hashes;
+	}
+
+	/**
+	 * The chunk's bytes, as a read-only view of the mapping.
+	 */
+	public ByteBuffer data(Chunk chunk) {
+		Location location = locations.get(chunk.index());
+		return segments.get(location.segment()).slice(location.position(), chunk.length()).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Whether the buffer's remaining bytes equal the file's bytes at the given
+	 * offset (e.g. to check a download). The buffer's position is not changed.
+	 */
+	public boolean contentEquals(long offset, ByteBuffer data) {
+		if (offset < 0 || offset + data.remaining() > size) {
+			return false;
+		}
+		int position = data.position();
+		while (position < data.limit()) {
+			Chunk chunk = chunks.get(chunkAt(offset));
+			int within = (int) (offset - chunk.offset());
+			int length = Math.min(data.limit() - position, chunk.length() - within);
+			if (data(chunk).slice(within, length).mismatch(data.slice(position, length)) != -1) {
+				return false;
+			}
+			position += length;
+			offset += length;
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		// Mappings stay valid until collected; closing the channel does not unmap them
+		channel.close();
+	}
+
+	private int chunkAt(long offset) {
+		int low = 0;
+		int high = chunks.size() - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (chunks.get(mid).offset() <= offset) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,248 @@
+package com.minidrive.client;
+
+import com.google.protobuf.UnsafeByteOperations;
+import com.minidrive.grpc.ChunkAck;
+import com.minidrive.grpc.ChunkData;
+import com.minidrive.grpc.DriveServiceGrpc;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads chunks of a {@link MappedChunks} file over several concurrent
+ * UploadChunks streams, optionally spread over several connections. All
+ * streams pull from one shared queue, so a slow stream simply takes fewer
+ * chunks. Each stream keeps up to {@code window} chunks unacknowledged; chunk
+ * data is sent straight from the file mapping.
+ *
+ * Per-chunk latency (send to ack) and per-second throughput are recorded in
+ * histograms, so the same code serves as a load generator.
+ *
+ * A stream that gets no ack for the ack timeout is cancelled; its unacked
+ * chunks are returned for retry like those of a broken stream.
+ */
+public final class ParallelUploader {
+
+	// Longest wait for the next ack before the stream is cancelled
+	private static final long ACK_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	private final List<DriveServiceGrpc.DriveServiceStub> stubs;
+	private final MappedChunks file;
+	private final String uploadId;
+	private final int streams;
+	private final int window;
+	private final UploadJournal journal;
+	private final PrintStream progress;
+	private final long ackTimeoutMillis;
+
+	private final Histogram latencyMicros = new Histogram();
+	private final Histogram throughputKibPerSecond = new Histogram();
+	private final AtomicLong bytesAcked = new AtomicLong();
+	private final AtomicInteger stored = new AtomicInteger();
+	private final AtomicInteger deduplicated = new AtomicInteger();
+
+	/**
+	 * @param stubs One per connection; streams are spread over them round-robin
+	 * @param journal Records every acked chunk, or null
+	 * @param progress Where the once-a-second progress line goes
+	 */
+	public ParallelUploader(List<DriveServiceGrpc.DriveServiceStub> stubs, MappedChunks file, String uploadId,
+							int streams, int window, UploadJournal journal, PrintStream progress) {
+		this(stubs, file, uploadId, streams, window, journal, progress, ACK_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @param ackTimeoutMillis Longest wait for the next ack before the stream is cancelled
+	 */
+	ParallelUploader(List<DriveServiceGrpc.DriveServiceStub> stubs, MappedChunks file, String uploadId,
+					 int streams, int window, UploadJournal journal, PrintStream progress, long ackTimeoutMillis) {
+		if (ackTimeoutMillis <= 0) {
+			throw new IllegalArgumentException("Ack timeout must be positive: " + ackTimeoutMillis);
+		}
+		this.stubs = List.copyOf(stubs);
+		this.file = file;
+		this.uploadId = uploadId;
+		this.streams = Math.max(1, streams);
+		this.window = Math.max(1, window);
+		this.journal = journal;
+		this.progress = progress;
+		this.ackTimeoutMillis = ackTimeoutMillis;
+	}
+
+	/**
+	 * Upload the given chunks once.
+	 *
+	 * @return Indices to retry: acked as FAILED (or an unknown result), or never acked because a stream broke
+	 * @throws IllegalStateException if the server rejected a chunk (retrying cannot help)
+	 */
+	public Set<Integer> upload(Collection<Integer> indices) throws InterruptedException {
+		Queue<Integer> queue = new ConcurrentLinkedQueue<>(indices);
+		Set<Integer> done = ConcurrentHashMap.newKeySet();
+		Set<Integer> rejected = ConcurrentHashMap.newKeySet();
+
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "upload-progress");
+			t.setDaemon(true);
+			return t;
+		});
+		long[] lastBytes = {bytesAcked.get()};
+		reporter.scheduleAtFixedRate(() -> {
+			long now = bytesAcked.get();
+			long perSecond = now - lastBytes[0];
+			lastBytes[0] = now;
+			throughputKibPerSecond.record(perSecond / 1024);
+			progress.printf("\r  %8.1f MB/s  %d/%d chunks", perSecond / 1e6, done.size(), indices.size());
+		}, 1, 1, TimeUnit.SECONDS);
+
+		Thread[] senders = new Thread[Math.min(streams, Math.max(1, indices.size()))];
+		for (int s = 0; s < senders.length; s++) {
+			DriveServiceGrpc.DriveServiceStub stub = stubs.get(s % stubs.size());
+			senders[s] = new Thread(() -> stream(stub, queue, done, rejected), "upload-stream-" + s);
+			senders[s].start();
+		}
+		for (Thread sender : senders) {
+			sender.join();
+		}
+		reporter.shutdownNow();
+		progress.println();
+
+		if (!rejected.isEmpty()) {
+			// The file changed under us (or the session is gone): retrying the same bytes cannot help
+			throw new IllegalStateException("Server rejected chunks " + rejected);
+		}
+		Set<Integer> retry = new HashSet<>(indices);
+		retry.removeAll(done);
+		return retry;
+	}
+
+	public Histogram latencyMicros() {
+		return latencyMicros;
+	}
+
+	public Histogram throughputKibPerSecond() {
+		return throughputKibPerSecond;
+	}
+
+	public long bytesAcked() {
+		return bytesAcked.get();
+	}
+
+	public int stored() {
+		return stored.get();
+	}
+
+	public int deduplicated() {
+		return deduplicated.get();
+	}
+
+	// ==================== INTERNAL ====================
+
+	/**
+	 * One UploadChunks call: send from the queue while the window allows, until
+	 * the queue is empty or the stream breaks.
+	 */
+	private void stream(DriveServiceGrpc.DriveServiceStub stub, Queue<Integer> queue, Set<Integer> done,
+						Set<Integer> rejected) {
+		Semaphore inFlight = new Semaphore(window);
+		Map<Integer, Long> sentAt = new ConcurrentHashMap<>();
+		CountDownLatch finished = new CountDownLatch(1);
+
+		StreamObserver<ChunkData> requests = stub.uploadChunks(new StreamObserver<ChunkAck>() {
+			@Override
+			public void onNext(ChunkAck ack) {
+				int index = ack.getChunkIndex();
+				Long sent = sentAt.remove(index);
+				if (sent != null) {
+					latencyMicros.record((System.nanoTime() - sent) / 1000);
+				}
+				switch (ack.getResult()) {
+					case STORED, DEDUPLICATED -> {
+						(ack.getResult() == ChunkAck.Result.STORED ? stored : deduplicated).incrementAndGet();
+						bytesAcked.addAndGet(file.chunk(index).length());
+						done.add(index);
+						if (journal != null) {
+							journal.acked(index);
+						}
+					}
+					case REJECTED -> {
+						System.err.println("\nChunk " + index + " rejected: " + ack.getMessage());
+						rejected.add(index);
+					}
+					// FAILED, or a result this client does not know: retry
+					default -> System.err.println("\nChunk " + index + " failed: " + ack.getMessage());
+				}
+				inFlight.release();
+			}
+
+			@Override
+			public void onError(Throwable t) {
+				System.err.println("\nUpload stream error: " + t.getMessage());
+				finished.countDown();
+				inFlight.release(window); // unblock the sender
+			}
+
+			@Override
+			public void onCompleted() {
+				finished.countDown();
+			}
+		});
+
+		try {
+			boolean stalled = false;
+			Integer index;
+			while (finished.getCount() > 0 && rejected.isEmpty() && (index = queue.poll()) != null) {
+				if (!inFlight.tryAcquire(ackTimeoutMillis, TimeUnit.MILLISECONDS)) {
+					stalled = true; // the chunk is retried in the next round
+					break;
+				}
+				if (finished.getCount() == 0) {
+					break; // stream broke while waiting; the chunk is retried in the next round
+				}
+				MappedChunks.Chunk chunk = file.chunk(index);
+				sentAt.put(index, System.nanoTime());
+				requests.onNext(ChunkData.newBuilder()
+						.setUploadId(uploadId)
+						.setChunkIndex(index)
+						.setChunkHash(chunk.hash())
+						.setData(UnsafeByteOperations.unsafeWrap(file.data(chunk)))
+						.build());
+			}
+
+			// Half-close and wait for the remaining acks
+			if (!stalled && finished.getCount() > 0) {
+				requests.onCompleted();
+			}
+			if (stalled || !finished.await(ackTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				cancel(requests, finished, Status.DEADLINE_EXCEEDED.withDescription(
+						"No chunk acked for " + ackTimeoutMillis + " ms"));
+			}
+		} catch (InterruptedException e) {
+			cancel(requests, finished, Status.CANCELLED.withDescription("Upload interrupted"));
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Cancels the call, so neither the channel nor the server keeps the stream open
+	private static void cancel(StreamObserver<ChunkData> requests, CountDownLatch finished, Status status) {
+		if (finished.getCount() > 0) {
+			System.err.println("\nUpload stream cancelled: " + status.getDescription());
+			requests.onError(status.asRuntimeException());
+		}
+	}
+}
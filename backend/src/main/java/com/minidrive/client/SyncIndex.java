@@ -0,0 +1,215 @@
+package com.minidrive.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * What the last sync saw of each local file: size, modification time, chunk
+ * hashes and the server file it was uploaded as. A file whose size and
+ * modification time still match its entry is not read again.
+ *
+ * Stored in {@code <root>/.minidrive-sync/index} as a binary log of PUT and
+ * REMOVE records, each flushed as it happens, so a sync that is interrupted
+ * keeps everything it already uploaded. Opening the index replays the log
+ * (dropping a torn last record) and rewrites it compacted, via a temporary
+ * file and an atomic rename; it is compacted again whenever it has grown to
+ * about twice its live size.
+ */
+public final class SyncIndex implements Closeable {
+
+	/** Directory under the sync root holding the index; never synced itself. */
+	public static final String DIRECTORY = ".minidrive-sync";
+
+	private static final String FILE_NAME = "index";
+	private static final int MAGIC = 0x4D445358; // "MDSX"
+	private static final int VERSION = 1;
+	private static final byte PUT = 1;
+	private static final byte REMOVE = 2;
+	private static final int COMPACT_SLACK = 1024;
+
+	/**
+	 * @param path Relative to the sync root, with '/' separators
+	 * @param modified Last-modified time in milliseconds
+	 * @param digest Name of the chunk digest the hashes were made with
+	 */
+	public record Entry(String path, long size, long modified, String fileId, String digest, List<String> hashes) {
+		public Entry {
+			hashes = List.copyOf(hashes);
+		}
+
+		/**
+		 * Whether a file with these attributes is (presumably) unchanged since.
+		 */
+		public boolean matches(long size, long modified, String digest) {
+			return this.size == size && this.modified == modified && this.digest.equals(digest);
+		}
+	}
+
+	private final Path path;
+	private final NavigableMap<String, Entry> entries = new TreeMap<>();
+	private DataOutputStream log;
+	private int records;
+
+	private SyncIndex(Path path) {
+		this.path = path;
+	}
+
+	/**
+	 * Load the index of a sync root, creating an empty one if there is none.
+	 */
+	public static SyncIndex open(Path root) throws IOException {
+		Path directory = root.resolve(DIRECTORY);
+		Files.createDirectories(directory);
+		SyncIndex index = new SyncIndex(directory.resolve(FILE_NAME));
+		index.load();
+		index.compact();
+		return index;
+	}
+
+	public synchronized Entry get(String path) {
+		return entries.get(path);
+	}
+
+	/**
+	 * Snapshot of all entries, in path order.
+	 */
+	public synchronized List<Entry> entries() {
+		return new ArrayList<>(entries.values());
+	}
+
+	/**
+	 * Snapshot of the entries whose path starts with the given prefix.
+	 */
+	public synchronized List<Entry> entries(String prefix) {
+		List<Entry> matching = new ArrayList<>();
+		for (Entry entry : entries.tailMap(prefix).values()) {
+			if (!entry.path().startsWith(prefix)) break;
+			matching.add(entry);
+		}
+		return matching;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized void put(Entry entry) throws IOException {
+		entries.put(entry.path(), entry);
+		append(entry, log);
+	}
+
+	public synchronized void remove(String path) throws IOException {
+		if (entries.remove(path) == null) return;
+		log.writeByte(REMOVE);
+		log.writeUTF(path);
+		logged();
+	}
+
+	/**
+	 * Rewrite the index with only the live entries.
+	 */
+	public synchronized void compact() throws IOException {
+		closeLog();
+		Path temp = path.resolveSibling(FILE_NAME + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			for (Entry entry : entries.values()) {
+				append(entry, out);
+			}
+		}
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		records = entries.size();
+		log = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.APPEND)));
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		closeLog();
+	}
+
+	// ==================== INTERNAL ====================
+
+	private void load() throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a sync index (or an unsupported version): " + path);
+			}
+			HexFormat hex = HexFormat.of();
+			while (true) {
+				byte op = in.readByte();
+				String file = in.readUTF();
+				if (op == REMOVE) {
+					entries.remove(file);
+					continue;
+				}
+				if (op != PUT) {
+					throw new IOException("Corrupt sync index record in " + path);
+				}
+				long size = in.readLong();
+				long modified = in.readLong();
+				String fileId = in.readUTF();
+				String digest = in.readUTF();
+				int count = in.readInt();
+				List<String> hashes = new ArrayList<>(Math.min(count, 1 << 16));
+				for (int i = 0; i < count; i++) {
+					byte[] hash = new byte[in.readUnsignedByte()];
+					in.readFully(hash);
+					hashes.add(hex.formatHex(hash));
+				}
+				entries.put(file, new Entry(file, size, modified, fileId, digest, hashes));
+			}
+		} catch (NoSuchFileException e) {
+			// First sync of this root
+		} catch (EOFException e) {
+			// End of the log, or a record torn by a crash: everything before it is intact
+		}
+	}
+
+	private void append(Entry entry, DataOutputStream out) throws IOException {
+		HexFormat hex = HexFormat.of();
+		out.writeByte(PUT);
+		out.writeUTF(entry.path());
+		out.writeLong(entry.size());
+		out.writeLong(entry.modified());
+		out.writeUTF(entry.fileId());
+		out.writeUTF(entry.digest());
+		out.writeInt(entry.hashes().size());
+		for (String hash : entry.hashes()) {
+			byte[] bytes = hex.parseHex(hash);
+			out.writeByte(bytes.length);
+			out.write(bytes);
+		}
+		if (out == log) {
+			logged();
+		}
+	}
+
+	private void logged() throws IOException {
+		log.flush();
+		if (++records > 2 * entries.size() + COMPACT_SLACK) {
+			compact();
+		}
+	}
+
+	private void closeLog() throws IOException {
+		if (log == null) return;
+		log.close();
+		log = null;
+	}
+}
@@ -0,0 +1,156 @@
+package com.minidrive.client;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Local record of an upload in progress, so an interrupted upload resumes with
+ * the same server session instead of starting over.
+ *
+ * Plain text next to the uploaded file ({@code <name>.minidrive-upload}):
+ * <pre>
+ * upload &lt;uploadId&gt; &lt;size&gt; &lt;lastModifiedMillis&gt; &lt;digest&gt; &lt;chunkCount&gt;
+ * &lt;index&gt;    one line per chunk the server acked
+ * </pre>
+ * A journal whose header does not match the file (it changed since) is
+ * ignored. A torn last line from a crash is skipped.
+ */
+public final class UploadJournal implements Closeable {
+
+	private static final String SUFFIX = ".minidrive-upload";
+
+	private final Path path;
+	private final String uploadId;
+	private final BitSet acked;
+	private BufferedWriter writer;
+
+	private UploadJournal(Path path, String uploadId, BitSet acked) throws IOException {
+		this.path = path;
+		this.uploadId = uploadId;
+		this.acked = acked;
+		this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * The journal of an earlier, unfinished upload of this exact file, or null.
+	 */
+	public static UploadJournal resume(Path file, String digest, int chunkCount) throws IOException {
+		Path path = pathFor(file);
+		if (!Files.exists(path)) {
+			return null;
+		}
+		List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+		if (lines.isEmpty()) {
+			return null;
+		}
+		String uploadId = uploadIdOf(lines.get(0));
+		if (uploadId.isEmpty() || !lines.get(0).equals(header(uploadId, file, digest, chunkCount))) {
+			return null;
+		}
+		BitSet acked = new BitSet(chunkCount);
+		for (String line : lines.subList(1, lines.size())) {
+			try {
+				int index = Integer.parseInt(line.trim());
+				if (index >= 0 && index < chunkCount) {
+					acked.set(index);
+				}
+			} catch (NumberFormatException e) {
+				// Torn write
+			}
+		}
+		return new UploadJournal(path, uploadId, acked);
+	}
+
+	/**
+	 * Start the journal of a new upload, replacing any earlier one.
+	 */
+	public static UploadJournal create(Path file, String uploadId, String digest, int chunkCount) throws IOException {
+		Path path = pathFor(file);
+		Files.writeString(path, header(uploadId, file, digest, chunkCount) + "\n", StandardCharsets.UTF_8);
+		return new UploadJournal(path, uploadId, new BitSet(chunkCount));
+	}
+
+	/**
+	 * Whether the path is a journal file rather than user data.
+	 */
+	public static boolean isJournal(Path path) {
+		return path.getFileName() != null && path.getFileName().toString().endsWith(SUFFIX);
+	}
+
+	public String uploadId() {
+		return uploadId;
+	}
+
+	public synchronized boolean isAcked(int index) {
+		return acked.get(index);
+	}
+
+	public synchronized int ackedCount() {
+		return acked.cardinality();
+	}
+
+	/**
+	 * Record a chunk the server acked. A journal that cannot be written is
+	 * dropped (with a warning) rather than failing the upload.
+	 */
+	public synchronized void acked(int index) {
+		if (acked.get(index)) return;
+		acked.set(index);
+		if (writer == null) return;
+		try {
+			writer.write(Integer.toString(index));
+			writer.newLine();
+			writer.flush();
+		} catch (IOException e) {
+			System.err.println("Upload journal disabled: " + e.getMessage());
+			closeQuietly();
+		}
+	}
+
+	/**
+	 * The upload finished: the journal is no longer needed.
+	 */
+	public synchronized void delete() throws IOException {
+		closeQuietly();
+		Files.deleteIfExists(path);
+	}
+
+	@Override
+	public synchronized void close() {
+		closeQuietly();
+	}
+
+	// ==================== INTERNAL ====================
+
+	private static Path pathFor(Path file) {
+		return file.resolveSibling(file.getFileName() + SUFFIX);
+	}
+
+	private static String header(String uploadId, Path file, String digest, int chunkCount) throws IOException {
+		return "upload " + uploadId + " " + Files.size(file) + " " + Files.getLastModifiedTime(file).toMillis()
+				+ " " + digest + " " + chunkCount;
+	}
+
+	private static String uploadIdOf(String header) {
+		String[] fields = header.split(" ");
+		return fields.length > 1 ? fields[1] : "";
+	}
+
+	private void closeQuietly() {
+		if (writer == null) return;
+		try {
+			writer.close();
+		} catch (IOException e) {
+			// Nothing left to lose
+		}
+		writer = null;
+	}
+}
@@ -0,0 +1,25 @@
+package com.minidrive.config;
+
+import com.minidrive.chunking.FastCdcChunker;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ChunkingConfig {
+
+    // Must match the sizes clients chunk with, or their chunks will not dedup against ours
+    @Value("${minidrive.chunking.min-size:" + FastCdcChunker.DEFAULT_MIN_SIZE + "}")
+    private int minSize;
+
+    @Value("${minidrive.chunking.avg-size:" + FastCdcChunker.DEFAULT_AVG_SIZE + "}")
+    private int avgSize;
+
+    @Value("${minidrive.chunking.max-size:" + FastCdcChunker.DEFAULT_MAX_SIZE + "}")
+    private int maxSize;
+
+    @Bean
+    public FastCdcChunker fastCdcChunker() {
+        return new FastCdcChunker(minSize, avgSize, maxSize);
+    }
+}
@@ -25,6 +25,8 @@ public class DataSourceConfig {
 				? envDbUrl : "jdbc:postgresql://localhost:5432/minidrive");
 		config.setUsername(envDbUser != null ? envDbUser : "admin");
 		config.setPassword(envDbPass != null ? envDbPass : "password123");
+		// Send JDBC batches as multi-row INSERTs (chunk manifests are written in batches)
+		config.addDataSourceProperty("reWriteBatchedInserts", "true");
 
 		config.setMaximumPoolSize(10);
 		config.setMinimumIdle(2);
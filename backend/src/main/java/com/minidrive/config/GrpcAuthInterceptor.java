@@ -0,0 +1,100 @@
+package com.minidrive.config;
+
+import com.minidrive.auth.AuthService;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.function.Supplier;
+
+/**
+ * gRPC counterpart of {@link JwtFilter}: validates the "authorization: Bearer"
+ * header once per call and rejects the call if it is missing or invalid.
+ *
+ * Call callbacks may run on a different (virtual) thread each time, so the
+ * SecurityContext is set around every callback instead of once per call, and
+ * cleared afterwards. Work handed off to other executors must capture the
+ * username itself.
+ */
+@Component
+public class GrpcAuthInterceptor implements ServerInterceptor {
+
+	private static final Metadata.Key<String> AUTHORIZATION =
+			Metadata.Key.of("authorization", Metadata.ASCII_STRING_MARSHALLER);
+
+	@Autowired
+	private AuthService authService;
+
+	@Override
+	public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+																 ServerCallHandler<ReqT, RespT> next) {
+		String header = headers.get(AUTHORIZATION);
+		String username = header != null && header.startsWith("Bearer ")
+				? authService.validateTokenAndGetUsername(header.substring(7))
+				: null;
+
+		if (username == null) {
+			call.close(Status.UNAUTHENTICATED.withDescription("Missing or invalid bearer token"), new Metadata());
+			return new ServerCall.Listener<>() {};
+		}
+
+		Authentication auth = new UsernamePasswordAuthenticationToken(username, null, Collections.emptyList());
+		// Streaming handlers run the service method in startCall, unary ones in onHalfClose
+		ServerCall.Listener<ReqT> listener = callAs(auth, () -> next.startCall(call, headers));
+
+		return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(listener) {
+			@Override
+			public void onMessage(ReqT message) {
+				runAs(auth, () -> super.onMessage(message));
+			}
+
+			@Override
+			public void onHalfClose() {
+				runAs(auth, super::onHalfClose);
+			}
+
+			@Override
+			public void onCancel() {
+				runAs(auth, super::onCancel);
+			}
+
+			@Override
+			public void onComplete() {
+				runAs(auth, super::onComplete);
+			}
+
+			@Override
+			public void onReady() {
+				runAs(auth, super::onReady);
+			}
+		};
+	}
+
+	private static void runAs(Authentication auth, Runnable callback) {
+		callAs(auth, () -> {
+			callback.run();
+			return null;
+		});
+	}
+
+	private static <T> T callAs(Authentication auth, Supplier<T> callback) {
+		SecurityContext context = SecurityContextHolder.createEmptyContext();
+		context.setAuthentication(auth);
+		SecurityContextHolder.setContext(context);
+		try {
+			return callback.get();
+		} finally {
+			SecurityContextHolder.clearContext();
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.minidrive.config;
+
+import com.minidrive.chunking.FastCdcChunker;
+import com.minidrive.service.DriveServiceImpl;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the gRPC server inside the application context, so DriveServiceImpl is
+ * the injected bean (storage, database, Redis sessions) rather than a bare
+ * instance.
+ *
+ * Threading:
+ * - Netty event loops only do socket I/O: one acceptor, one loop per core by default
+ * - call handlers run on a virtual thread per task, so blocking MinIO and JDBC
+ *   calls in handlers cost no platform thread
+ *
+ * Keepalive is tuned for long uploads: the server pings idle connections to
+ * detect dead peers mid-upload, tolerates client pings down to 10s (the gRPC
+ * default of 5 minutes would GOAWAY clients that keep NAT mappings alive), and
+ * sets no maximum connection age, which would cut long streams.
+ *
+ * Starts after all other beans and stops first, draining in-flight calls for up
+ * to the grace period.
+ */
+@Component
+public class GrpcServerLifecycle implements SmartLifecycle {
+
+	private static final Logger log = LoggerFactory.getLogger(GrpcServerLifecycle.class);
+
+	@Autowired
+	private DriveServiceImpl driveService;
+
+	@Autowired
+	private GrpcAuthInterceptor authInterceptor;
+
+	@Autowired
+	private FastCdcChunker fastCdcChunker;
+
+	@Value("${minidrive.grpc.enabled:true}")
+	private boolean enabled;
+
+	@Value("${minidrive.grpc.port:50051}")
+	private int port;
+
+	@Value("${minidrive.grpc.worker-threads:0}")
+	private int workerThreads;
+
+	@Value("${minidrive.grpc.flow-control-window:8388608}")
+	private int flowControlWindow;
+
+	@Value("${minidrive.grpc.keepalive-seconds:30}")
+	private long keepAliveSeconds;
+
+	@Value("${minidrive.grpc.keepalive-timeout-seconds:10}")
+	private long keepAliveTimeoutSeconds;
+
+	@Value("${minidrive.grpc.shutdown-grace-seconds:30}")
+	private long shutdownGraceSeconds;
+
+	private EventLoopGroup bossGroup;
+	private EventLoopGroup workerGroup;
+	private ExecutorService callExecutor;
+	private volatile Server server;
+
+	@Override
+	public void start() {
+		int workers = workerThreads > 0 ? workerThreads : Runtime.getRuntime().availableProcessors();
+		bossGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("grpc-boss", true));
+		workerGroup = new NioEventLoopGroup(workers, new DefaultThreadFactory("grpc-worker", true));
+		callExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("grpc-call-", 0).factory());
+
+		try {
+			server = NettyServerBuilder.forPort(port)
+					.channelType(NioServerSocketChannel.class)
+					.bossEventLoopGroup(bossGroup)
+					.workerEventLoopGroup(workerGroup)
+					.executor(callExecutor)
+					.addService(ServerInterceptors.intercept(driveService, authInterceptor))
+					// Content-defined chunks go up to the chunker's max size, above gRPC's 4MB default
+					.maxInboundMessageSize(fastCdcChunker.maxSize() + 64 * 1024)
+					// Per-stream window: a few chunks in flight, so one stream can fill a high-latency link
+					.flowControlWindow(flowControlWindow)
+					.keepAliveTime(keepAliveSeconds, TimeUnit.SECONDS)
+					.keepAliveTimeout(keepAliveTimeoutSeconds, TimeUnit.SECONDS)
+					.permitKeepAliveTime(10, TimeUnit.SECONDS)
+					.permitKeepAliveWithoutCalls(true)
+					.build()
+					.start();
+		} catch (IOException e) {
+			releaseThreads();
+			throw new IllegalStateException("Failed to start gRPC server on port " + port, e);
+		}
+		log.info("gRPC server listening on port {} ({} event loops, virtual-thread calls)", port, workers);
+	}
+
+	@Override
+	public void stop() {
+		Server running = server;
+		if (running == null) return;
+
+		running.shutdown();
+		try {
+			if (!running.awaitTermination(shutdownGraceSeconds, TimeUnit.SECONDS)) {
+				log.warn("gRPC calls still running after {}s, cancelling", shutdownGraceSeconds);
+				running.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			running.shutdownNow();
+		} finally {
+			server = null;
+			releaseThreads();
+		}
+		log.info("gRPC server stopped");
+	}
+
+	@Override
+	public boolean isAutoStartup() {
+		return enabled;
+	}
+
+	@Override
+	public boolean isRunning() {
+		return server != null;
+	}
+
+	private void releaseThreads() {
+		bossGroup.shutdownGracefully();
+		workerGroup.shutdownGracefully();
+		callExecutor.shutdown();
+	}
+}
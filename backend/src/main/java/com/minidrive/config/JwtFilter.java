@@ -6,13 +6,17 @@ import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 @Component
 public class JwtFilter extends OncePerRequestFilter {
@@ -20,6 +24,10 @@ public class JwtFilter extends OncePerRequestFilter {
 	@Autowired
 	private AuthService authService;
 
+	// Users granted ROLE_ADMIN, which server-wide endpoints (storage metrics) require
+	@Value("${minidrive.admin.usernames:}")
+	private String[] adminUsernames;
+
 	@Override
 	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
 			throws ServletException, IOException {
@@ -43,8 +51,11 @@ public class JwtFilter extends OncePerRequestFilter {
 
 			if (username != null) {
 				System.out.println("DEBUG: JwtFilter authenticated user: " + username);
+				List<SimpleGrantedAuthority> authorities = Arrays.asList(adminUsernames).contains(username)
+						? List.of(new SimpleGrantedAuthority("ROLE_ADMIN"))
+						: Collections.emptyList();
 				UsernamePasswordAuthenticationToken auth = new UsernamePasswordAuthenticationToken(
-						username, null, Collections.emptyList());
+						username, null, authorities);
 				SecurityContextHolder.getContext().setAuthentication(auth);
 			} else {
 				System.out.println("DEBUG: JwtFilter failed to validate token for user.");
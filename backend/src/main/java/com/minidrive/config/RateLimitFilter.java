@@ -51,7 +51,8 @@ public class RateLimitFilter implements Filter {
         if (path.contains("/auth/login")) {
             limit = LOGIN_LIMIT;
             bucketKey = ip + ":login";
-        } else if (path.contains("/upload/chunk")) {
+        } else if (path.contains("/upload/chunk")
+                || ("PUT".equals(req.getMethod()) && path.contains("/upload/"))) {
             limit = UPLOAD_LIMIT;
             bucketKey = ip + ":upload";
         }
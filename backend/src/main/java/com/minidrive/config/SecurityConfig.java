@@ -30,6 +30,8 @@ public class SecurityConfig {
 				.authorizeHttpRequests(auth -> auth
 						.requestMatchers("/api/auth/**").permitAll()
 						.requestMatchers("/api/public/**").permitAll() // <--- MUST BE HERE
+						// Server-wide cache, index and key-cache stats are not for regular users
+						.requestMatchers("/api/drive/storage/metrics").hasRole("ADMIN")
 						.anyRequest().authenticated()
 				)
 				.addFilterBefore(jwtFilter, UsernamePasswordAuthenticationFilter.class);
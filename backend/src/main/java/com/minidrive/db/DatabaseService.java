@@ -96,18 +96,63 @@ public class DatabaseService {
                     file_id UUID,
                     chunk_hash VARCHAR(64),
                     chunk_index INT,
+                    plain_offset BIGINT,
+                    plain_length INT,
                     PRIMARY KEY (file_id, chunk_index)
                 )
             """);
 
+			// 4b. Packed manifests and the chunk -> file reverse index
+			stmt.execute("""
+                CREATE TABLE IF NOT EXISTS file_manifests (
+                    file_id UUID PRIMARY KEY,
+                    chunk_count INT NOT NULL,
+                    manifest BYTEA NOT NULL
+                )
+            """);
+			stmt.execute("""
+                CREATE TABLE IF NOT EXISTS chunk_refs (
+                    chunk_hash BYTEA,
+                    file_id UUID,
+                    PRIMARY KEY (chunk_hash, file_id)
+                )
+            """);
+
 			// 5. Global Chunk Index
 			stmt.execute("""
                 CREATE TABLE IF NOT EXISTS global_chunks (
                     chunk_hash VARCHAR(64) PRIMARY KEY,
-                    ref_count INT DEFAULT 1
+                    ref_count INT DEFAULT 1,
+                    plain_size BIGINT,
+                    format_version SMALLINT
+                )
+            """);
+
+			// 5b. Delta-sync block signatures, computed once per chunk at ingest
+			stmt.execute("""
+                CREATE TABLE IF NOT EXISTS chunk_signatures (
+                    chunk_hash VARCHAR(64) PRIMARY KEY,
+                    block_size INT NOT NULL,
+                    plain_length INT NOT NULL,
+                    signature BYTEA NOT NULL
                 )
             """);
 
+			// 5c. One-off maintenance jobs that have finished (e.g. the chunk index backfill)
+			stmt.execute("""
+                CREATE TABLE IF NOT EXISTS completed_migrations (
+                    name VARCHAR(64) PRIMARY KEY,
+                    completed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                )
+            """);
+
+			// Plaintext offsets for ranged reads (tables created before they existed)
+			safeExecute(stmt, "ALTER TABLE file_chunks ADD COLUMN IF NOT EXISTS plain_offset BIGINT");
+			safeExecute(stmt, "ALTER TABLE file_chunks ADD COLUMN IF NOT EXISTS plain_length INT");
+			safeExecute(stmt, "ALTER TABLE global_chunks ADD COLUMN IF NOT EXISTS plain_size BIGINT");
+			// Stored object format, NULL until the format migration has checked the object
+			safeExecute(stmt, "ALTER TABLE global_chunks ADD COLUMN IF NOT EXISTS format_version SMALLINT");
+
 			// 6. Activities
 			stmt.execute("""
                 CREATE TABLE IF NOT EXISTS activities (
@@ -155,6 +200,14 @@ public class DatabaseService {
                 ALTER TABLE file_chunks ADD CONSTRAINT fk_chunk_file 
                 FOREIGN KEY (file_id) REFERENCES files(file_id) ON DELETE CASCADE
             """);
+			safeExecute(stmt, """
+                ALTER TABLE file_manifests ADD CONSTRAINT fk_manifest_file
+                FOREIGN KEY (file_id) REFERENCES files(file_id) ON DELETE CASCADE
+            """);
+			safeExecute(stmt, """
+                ALTER TABLE chunk_refs ADD CONSTRAINT fk_ref_file
+                FOREIGN KEY (file_id) REFERENCES files(file_id) ON DELETE CASCADE
+            """);
 
 			log.info("✅ DB: Cascade Constraints Applied Successfully.");
 
@@ -397,22 +450,6 @@ public class DatabaseService {
 		}
 	}
 
-	public void addChunkToFile(String fileId, String chunkHash, int index) {
-		String sql = "INSERT INTO file_chunks (file_id, chunk_hash, chunk_index) VALUES (?, ?, ?) ON CONFLICT DO NOTHING";
-
-		try (Connection conn = dataSource.getConnection();
-			 PreparedStatement ps = conn.prepareStatement(sql)) {
-
-			ps.setObject(1, UUID.fromString(fileId));
-			ps.setString(2, chunkHash);
-			ps.setInt(3, index);
-			ps.executeUpdate();
-
-		} catch (SQLException e) {
-			log.error("Failed to add chunk: {}", e.getMessage());
-		}
-	}
-
 	public boolean hasChunk(String hash) {
 		try (Connection conn = dataSource.getConnection();
 			 PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM global_chunks WHERE chunk_hash = ?")) {
@@ -1142,7 +1179,12 @@ public class DatabaseService {
 	}
 
 	public Map<String, Object> getFileByShareToken(String token) {
-		String sql = "SELECT file_id, filename, size FROM files WHERE share_token = ? AND is_trashed = FALSE";
+		String sql = """
+            SELECT f.file_id, f.filename, f.size, u.username
+            FROM files f
+            JOIN users u ON f.owner_id = u.id
+            WHERE f.share_token = ? AND f.is_trashed = FALSE
+        """;
 
 		try (Connection conn = dataSource.getConnection();
 			 PreparedStatement ps = conn.prepareStatement(sql)) {
@@ -1155,6 +1197,7 @@ public class DatabaseService {
 				file.put("id", rs.getString("file_id"));
 				file.put("name", rs.getString("filename"));
 				file.put("size", rs.getLong("size"));
+				file.put("owner", rs.getString("username"));
 				return file;
 			}
 
@@ -1280,27 +1323,6 @@ public class DatabaseService {
 		return null;
 	}
 
-	public List<String> getFileChunks(String fileId) {
-		List<String> chunks = new ArrayList<>();
-		String sql = "SELECT chunk_hash FROM file_chunks WHERE file_id = ?::uuid ORDER BY chunk_index ASC";
-
-		try (Connection conn = dataSource.getConnection();
-			 PreparedStatement ps = conn.prepareStatement(sql)) {
-
-			ps.setString(1, fileId);
-			ResultSet rs = ps.executeQuery();
-
-			while (rs.next()) {
-				chunks.add(rs.getString("chunk_hash"));
-			}
-
-		} catch (SQLException e) {
-			log.error("❌ Get file chunks failed: {}", e.getMessage());
-		}
-
-		return chunks;
-	}
-
 	// ==================== DUPLICATE CHECK ====================
 
 	public boolean fileExistsInFolder(String filename, String folderId, String username) {
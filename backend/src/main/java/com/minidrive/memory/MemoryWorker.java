@@ -1,8 +1,7 @@
 package com.minidrive.memory;
 
-import com.minidrive.auth.AuthService;
 import com.minidrive.repository.FileRepository;
-import com.minidrive.service.EncryptionService;
+import com.minidrive.service.UserKeyCache;
 import com.minidrive.storage.StorageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,10 +44,7 @@ public class MemoryWorker {
     private VectorRepository vectorRepository;
 
     @Autowired
-    private AuthService authService;
-
-    @Autowired
-    private EncryptionService encryptionService;
+    private UserKeyCache userKeyCache;
 
     /**
      * Process file asynchronously after upload.
@@ -83,53 +79,16 @@ public class MemoryWorker {
                 return;
             }
 
-            // Download and concatenate all chunks (decrypt if needed)
+            // Download and concatenate all chunks (each object's header says whether to decrypt)
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            boolean decryptionFailed = false;
-            
             for (String hash : chunkHashes) {
-                byte[] chunkData;
-                if (userKey != null) {
-                    // Try encrypted first
-                    try {
-                        chunkData = storageService.downloadChunkEncrypted(hash, userKey);
-                    } catch (Exception e) {
-                        // Decryption failed - this means either wrong key or unencrypted data
-                        // Try raw download to check if it's actually unencrypted
-                        chunkData = storageService.downloadChunk(hash);
-                        
-                        // Check if raw data looks like valid text/PDF (not encrypted)
-                        if (chunkData.length > 4) {
-                            // PDF magic bytes: %PDF
-                            boolean isPdf = chunkData[0] == '%' && chunkData[1] == 'P' && chunkData[2] == 'D' && chunkData[3] == 'F';
-                            // Text check: high ASCII readability ratio
-                            int readable = 0;
-                            for (int i = 0; i < Math.min(100, chunkData.length); i++) {
-                                int b = chunkData[i] & 0xFF;
-                                if ((b >= 32 && b < 127) || b == '\n' || b == '\r' || b == '\t') readable++;
-                            }
-                            boolean isText = readable > 80; // 80% readable
-                            
-                            if (!isPdf && !isText) {
-                                logger.warn("🧠 Memory: Decryption failed and data appears encrypted. Skipping file.");
-                                decryptionFailed = true;
-                                break;
-                            }
-                            // Data is readable, continue with unencrypted data
-                        } else {
-                            decryptionFailed = true;
-                            break;
-                        }
-                    }
-                } else {
-                    chunkData = storageService.downloadChunk(hash);
+                try {
+                    baos.write(storageService.readChunk(hash, userKey));
+                } catch (RuntimeException e) {
+                    logger.warn("🧠 Memory: Could not read chunk {}: {}", hash, e.getMessage());
+                    updateStatusSafe(fileId, "failed", 0, "Decryption failed - key mismatch or corrupted data");
+                    return;
                 }
-                baos.write(chunkData);
-            }
-            
-            if (decryptionFailed) {
-                updateStatusSafe(fileId, "failed", 0, "Decryption failed - key mismatch or corrupted data");
-                return;
             }
             
             byte[] fileData = baos.toByteArray();
@@ -205,14 +164,6 @@ public class MemoryWorker {
      * Get user's decrypted encryption key for Zero-Knowledge operations.
      */
     private SecretKey getUserEncryptionKey(String username) {
-        try {
-            String encryptedKey = authService.getUserEncryptionKey(username);
-            if (encryptedKey != null && !encryptedKey.isEmpty()) {
-                return encryptionService.decryptUserKey(encryptedKey);
-            }
-        } catch (Exception e) {
-            logger.debug("No encryption key for user {}: {}", username, e.getMessage());
-        }
-        return null;
+        return userKeyCache.getKey(username);
     }
 }
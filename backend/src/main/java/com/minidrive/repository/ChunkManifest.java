@@ -0,0 +1,262 @@
+package com.minidrive.repository;
+
+import com.minidrive.chunking.ChunkDigest;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Ordered chunk list of a file with each chunk's plaintext offset and length.
+ *
+ * Backed by parallel arrays so locating the chunk for a byte position is a
+ * binary search. Files linked before chunk sizes were recorded have unknown
+ * lengths; for those {@link #supportsRanges()} is false and callers must
+ * stream the whole file.
+ *
+ * Packed form (file_manifests.manifest):
+ * <pre>
+ * version=1 | flags (bit 0: lengths known) | digest id | 0x00 | chunk count (4)
+ * chunk count x 32-byte binary hash
+ * chunk count x 4-byte plaintext length (-1 when unknown)
+ * </pre>
+ * The digest id says which {@link ChunkDigest} the hashes are (0, SHA-256, in
+ * manifests written before other digests existed). A decoded manifest keeps the
+ * packed hash bytes as they are; hex strings are only built when a hash is asked for.
+ */
+public final class ChunkManifest {
+
+	static final int HASH_LENGTH = 32;
+
+	private static final byte PACKED_VERSION = 1;
+	private static final int PACKED_HEADER_LENGTH = 8;
+	private static final HexFormat HEX = HexFormat.of();
+
+	// Exactly one of the two hash representations is set
+	private final String[] hashes;
+	private final byte[] packedHashes;
+	private final int count;
+	private final long[] offsets;
+	private final int[] lengths;
+	private final boolean ranged;
+	private final long totalSize;
+	private final ChunkDigest digest;
+
+	private ChunkManifest(String[] hashes, byte[] packedHashes, int count, long[] offsets, int[] lengths,
+						  boolean ranged, long totalSize, ChunkDigest digest) {
+		this.hashes = hashes;
+		this.packedHashes = packedHashes;
+		this.count = count;
+		this.offsets = offsets;
+		this.lengths = lengths;
+		this.ranged = ranged;
+		this.totalSize = totalSize;
+		this.digest = digest;
+	}
+
+	/**
+	 * Build a manifest from rows in chunk order. Missing offsets are derived
+	 * from the lengths; a missing length (or offsets with gaps) disables ranges.
+	 *
+	 * @param lengths Plaintext lengths, null entries where unknown
+	 * @param storedOffsets Recorded offsets, null entries where unknown
+	 */
+	public static ChunkManifest of(List<String> hashes, List<Integer> lengths, List<Long> storedOffsets) {
+		return of(hashes, lengths, storedOffsets, ChunkDigest.SHA256);
+	}
+
+	public static ChunkManifest of(List<String> hashes, List<Integer> lengths, List<Long> storedOffsets,
+								   ChunkDigest digest) {
+		int count = hashes.size();
+		String[] h = hashes.toArray(new String[0]);
+		long[] offsets = new long[count];
+		int[] lens = new int[count];
+
+		boolean ranged = true;
+		long position = 0;
+		for (int i = 0; i < count; i++) {
+			Integer length = lengths.get(i);
+			Long stored = storedOffsets.get(i);
+			if (length == null || (stored != null && stored != position)) {
+				ranged = false;
+			}
+			offsets[i] = position;
+			lens[i] = length != null ? length : -1;
+			position += Math.max(0, lens[i]);
+		}
+		return new ChunkManifest(h, null, count, offsets, lens, ranged, ranged ? position : -1, digest);
+	}
+
+	// ==================== PACKED FORM ====================
+
+	/**
+	 * Whether every hash is a lowercase hex 32-byte digest, i.e. the list can be packed
+	 * without changing how any hash is spelled.
+	 */
+	public static boolean isPackable(List<String> hashes) {
+		for (String hash : hashes) {
+			if (hash == null || hash.length() != HASH_LENGTH * 2) return false;
+			for (int i = 0; i < hash.length(); i++) {
+				char c = hash.charAt(i);
+				if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Pack a chunk list (see {@link #isPackable}).
+	 *
+	 * @param lengths Plaintext lengths, null entries where unknown
+	 */
+	public static byte[] pack(List<String> hashes, List<Integer> lengths) {
+		return pack(hashes, lengths, ChunkDigest.SHA256);
+	}
+
+	public static byte[] pack(List<String> hashes, List<Integer> lengths, ChunkDigest digest) {
+		int count = hashes.size();
+		boolean known = true;
+		for (Integer length : lengths) {
+			if (length == null) {
+				known = false;
+				break;
+			}
+		}
+
+		ByteBuffer out = ByteBuffer.allocate(PACKED_HEADER_LENGTH + count * (HASH_LENGTH + 4));
+		out.put(PACKED_VERSION).put((byte) (known ? 1 : 0)).put((byte) digest.id()).put((byte) 0).putInt(count);
+		for (String hash : hashes) {
+			for (int i = 0; i < hash.length(); i += 2) {
+				out.put((byte) HexFormat.fromHexDigits(hash, i, i + 2));
+			}
+		}
+		for (Integer length : lengths) {
+			out.putInt(length != null ? length : -1);
+		}
+		return out.array();
+	}
+
+	/**
+	 * Decode a packed manifest. Allocates the offset/length arrays once; the hash
+	 * bytes are used in place.
+	 */
+	public static ChunkManifest unpack(byte[] packed) {
+		ByteBuffer in = ByteBuffer.wrap(packed);
+		if (packed.length < PACKED_HEADER_LENGTH || in.get() != PACKED_VERSION) {
+			throw new IllegalArgumentException("Unsupported chunk manifest encoding");
+		}
+		boolean ranged = (in.get() & 1) != 0;
+		ChunkDigest digest = ChunkDigest.forId(in.get());
+		in.get();
+		int count = in.getInt();
+		int lengthsAt = PACKED_HEADER_LENGTH + count * HASH_LENGTH;
+		if (count < 0 || packed.length != lengthsAt + count * 4) {
+			throw new IllegalArgumentException("Truncated chunk manifest");
+		}
+
+		long[] offsets = new long[count];
+		int[] lengths = new int[count];
+		in.position(lengthsAt);
+		long position = 0;
+		for (int i = 0; i < count; i++) {
+			lengths[i] = in.getInt();
+			offsets[i] = position;
+			if (lengths[i] < 0) ranged = false;
+			position += Math.max(0, lengths[i]);
+		}
+		return new ChunkManifest(null, packed, count, offsets, lengths, ranged, ranged ? position : -1, digest);
+	}
+
+	/**
+	 * Binary form of a packable hash (used for the chunk_refs reverse index).
+	 */
+	static byte[] hashBytes(String hash) {
+		return HEX.parseHex(hash);
+	}
+
+	// ==================== ACCESS ====================
+
+	public int chunkCount() {
+		return count;
+	}
+
+	public String hash(int index) {
+		if (packedHashes != null) {
+			Objects.checkIndex(index, count);
+			int from = PACKED_HEADER_LENGTH + index * HASH_LENGTH;
+			return HEX.formatHex(packedHashes, from, from + HASH_LENGTH);
+		}
+		return hashes[index];
+	}
+
+	public long offset(int index) {
+		return offsets[index];
+	}
+
+	/**
+	 * Plaintext length of one chunk, or -1 when it was not recorded.
+	 */
+	public int length(int index) {
+		return lengths[index];
+	}
+
+	/**
+	 * Hashes in chunk order (a view; packed hashes are formatted on access).
+	 */
+	public List<String> hashes() {
+		if (hashes != null) {
+			return Arrays.asList(hashes);
+		}
+		return new AbstractList<>() {
+			@Override
+			public String get(int index) {
+				return hash(index);
+			}
+
+			@Override
+			public int size() {
+				return count;
+			}
+		};
+	}
+
+	/**
+	 * Algorithm the chunk hashes were computed with.
+	 */
+	public ChunkDigest digest() {
+		return digest;
+	}
+
+	/**
+	 * True when every chunk's plaintext offset/length is known.
+	 */
+	public boolean supportsRanges() {
+		return ranged;
+	}
+
+	/**
+	 * Plaintext size of the file, or -1 when chunk lengths are unknown.
+	 */
+	public long totalSize() {
+		return totalSize;
+	}
+
+	/**
+	 * Index of the chunk containing the given plaintext byte position.
+	 */
+	public int chunkAt(long position) {
+		if (!ranged || position < 0 || position >= totalSize) {
+			throw new IndexOutOfBoundsException("Position " + position + " outside manifest");
+		}
+		int index = Arrays.binarySearch(offsets, position);
+		if (index >= 0) {
+			// Zero-length chunks share an offset with their successor; take the last one
+			while (index + 1 < offsets.length && offsets[index + 1] == position) index++;
+			return index;
+		}
+		return -index - 2; // insertion point - 1
+	}
+}
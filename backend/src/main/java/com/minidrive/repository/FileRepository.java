@@ -1,10 +1,12 @@
 package com.minidrive.repository;
 
+import com.minidrive.chunking.ChunkDigest;
 import org.springframework.stereotype.Repository;
 
 import javax.sql.DataSource;
 import java.sql.*;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * Repository for file operations including metadata, chunks, and search.
@@ -12,6 +14,9 @@ import java.util.*;
 @Repository
 public class FileRepository extends BaseRepository {
 
+	// Rows per JDBC batch when linking chunks
+	private static final int BATCH_SIZE = 1000;
+
 	public FileRepository(DataSource dataSource) {
 		super(dataSource);
 	}
@@ -120,22 +125,135 @@ public class FileRepository extends BaseRepository {
 
 	// ==================== CHUNK OPERATIONS ====================
 
-	public void addChunkToFile(String fileId, String chunkHash, int index) {
-		String sql = "INSERT INTO file_chunks (file_id, chunk_hash, chunk_index) VALUES (?, ?, ?) ON CONFLICT DO NOTHING";
+	/**
+	 * Link an ordered chunk list to a file.
+	 *
+	 * Lists of SHA-256 hashes are stored as one packed manifest row (see
+	 * ChunkManifest) plus one chunk_refs row per distinct chunk for GC; anything
+	 * else falls back to one file_chunks row per chunk. Plaintext lengths come from
+	 * global_chunks so ranges can be served later.
+	 *
+	 * Runs as one transaction on one connection with JDBC-batched inserts and one
+	 * ref_count upsert per distinct chunk. With reWriteBatchedInserts the driver
+	 * sends multi-row INSERTs, so round-trips grow with chunkCount / BATCH_SIZE.
+	 */
+	public DbResult addChunksToFile(String fileId, List<String> chunkHashes) {
+		return addChunksToFile(fileId, chunkHashes, ChunkDigest.SHA256);
+	}
 
-		try (Connection conn = getConnection();
-			 PreparedStatement ps = conn.prepareStatement(sql)) {
+	/**
+	 * Link an ordered chunk list whose hashes were computed with the given digest
+	 * (recorded in the packed manifest).
+	 */
+	public DbResult addChunksToFile(String fileId, List<String> chunkHashes, ChunkDigest digest) {
+		String refSql = """
+            INSERT INTO global_chunks (chunk_hash, ref_count) VALUES (?, ?)
+            ON CONFLICT (chunk_hash) DO UPDATE SET ref_count = global_chunks.ref_count + EXCLUDED.ref_count
+        """;
 
-			ps.setObject(1, UUID.fromString(fileId));
-			ps.setString(2, chunkHash);
-			ps.setInt(3, index);
-			ps.executeUpdate();
+		// Sorted, so concurrent uploads sharing chunks lock global_chunks rows in the same order
+		Map<String, Integer> references = new TreeMap<>();
+		for (String hash : chunkHashes) {
+			references.merge(hash, 1, Integer::sum);
+		}
 
+		try (Connection conn = getConnection()) {
+			boolean autoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false);
+			try (PreparedStatement refs = conn.prepareStatement(refSql)) {
+				Map<String, Integer> sizes = findChunkSizes(conn, references.keySet());
+				UUID fileUuid = UUID.fromString(fileId);
+				if (ChunkManifest.isPackable(chunkHashes)) {
+					insertPackedManifest(conn, fileUuid, chunkHashes, sizes, references.keySet(), digest);
+				} else {
+					insertChunkRows(conn, fileUuid, chunkHashes, sizes);
+				}
+
+				int pending = 0;
+				for (Map.Entry<String, Integer> ref : references.entrySet()) {
+					refs.setString(1, ref.getKey());
+					refs.setInt(2, ref.getValue());
+					refs.addBatch();
+					if (++pending % BATCH_SIZE == 0) refs.executeBatch();
+				}
+				refs.executeBatch();
+
+				conn.commit();
+				return DbResult.success(chunkHashes.size());
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(autoCommit);
+			}
 		} catch (SQLException e) {
-			log.error("Failed to add chunk: {}", e.getMessage());
+			log.error("Failed to link chunks: {}", e.getMessage());
+			return DbResult.failure("Failed to link chunks: " + e.getMessage());
+		}
+	}
+
+	private void insertPackedManifest(Connection conn, UUID fileId, List<String> chunkHashes,
+									  Map<String, Integer> sizes, Collection<String> distinct,
+									  ChunkDigest digest) throws SQLException {
+		List<Integer> lengths = new ArrayList<>(chunkHashes.size());
+		for (String hash : chunkHashes) {
+			lengths.add(sizes.get(hash));
+		}
+
+		try (PreparedStatement manifest = conn.prepareStatement(
+				"INSERT INTO file_manifests (file_id, chunk_count, manifest) VALUES (?, ?, ?)");
+			 PreparedStatement refs = conn.prepareStatement(
+				"INSERT INTO chunk_refs (chunk_hash, file_id) VALUES (?, ?) ON CONFLICT DO NOTHING")) {
+
+			manifest.setObject(1, fileId);
+			manifest.setInt(2, chunkHashes.size());
+			manifest.setBytes(3, ChunkManifest.pack(chunkHashes, lengths, digest));
+			manifest.executeUpdate();
+
+			int pending = 0;
+			for (String hash : distinct) {
+				refs.setBytes(1, ChunkManifest.hashBytes(hash));
+				refs.setObject(2, fileId);
+				refs.addBatch();
+				if (++pending % BATCH_SIZE == 0) refs.executeBatch();
+			}
+			refs.executeBatch();
 		}
 	}
 
+	private void insertChunkRows(Connection conn, UUID fileId, List<String> chunkHashes,
+								 Map<String, Integer> sizes) throws SQLException {
+		String sql = "INSERT INTO file_chunks (file_id, chunk_hash, chunk_index, plain_offset, plain_length) VALUES (?, ?, ?, ?, ?) ON CONFLICT DO NOTHING";
+
+		try (PreparedStatement insert = conn.prepareStatement(sql)) {
+			// Offsets stay NULL from the first chunk whose size is unknown
+			Long offset = 0L;
+			for (int i = 0; i < chunkHashes.size(); i++) {
+				String hash = chunkHashes.get(i);
+				Integer length = sizes.get(hash);
+
+				insert.setObject(1, fileId);
+				insert.setString(2, hash);
+				insert.setInt(3, i);
+				if (offset != null && length != null) {
+					insert.setLong(4, offset);
+					insert.setInt(5, length);
+					offset += length;
+				} else {
+					offset = null;
+					insert.setNull(4, Types.BIGINT);
+					if (length != null) insert.setInt(5, length); else insert.setNull(5, Types.INTEGER);
+				}
+				insert.addBatch();
+				if ((i + 1) % BATCH_SIZE == 0) insert.executeBatch();
+			}
+			insert.executeBatch();
+		}
+	}
+
+	/**
+	 * @throws RuntimeException if the lookup fails (never reported as "missing")
+	 */
 	public boolean hasChunk(String hash) {
 		try (Connection conn = getConnection();
 			 PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM global_chunks WHERE chunk_hash = ?")) {
@@ -144,20 +262,175 @@ public class FileRepository extends BaseRepository {
 			return ps.executeQuery().next();
 
 		} catch (SQLException e) {
+			log.error("Chunk lookup failed: {}", e.getMessage());
+			throw new RuntimeException("Chunk lookup failed", e);
+		}
+	}
+
+	/**
+	 * Bulk existence check: returns the subset of hashes present in global_chunks
+	 * using a single {@code = ANY(?)} query instead of one SELECT per chunk.
+	 *
+	 * @throws RuntimeException if the lookup fails (never reported as "none exist")
+	 */
+	public Set<String> findExistingChunks(Collection<String> hashes) {
+		Set<String> existing = new HashSet<>();
+		if (hashes == null || hashes.isEmpty()) {
+			return existing;
+		}
+
+		String sql = "SELECT chunk_hash FROM global_chunks WHERE chunk_hash = ANY(?)";
+
+		try (Connection conn = getConnection();
+			 PreparedStatement ps = conn.prepareStatement(sql)) {
+
+			Array hashArray = conn.createArrayOf("varchar", hashes.toArray());
+			ps.setArray(1, hashArray);
+			ResultSet rs = ps.executeQuery();
+
+			while (rs.next()) {
+				existing.add(rs.getString("chunk_hash"));
+			}
+			hashArray.free();
+
+		} catch (SQLException e) {
+			log.error("Bulk chunk lookup failed: {}", e.getMessage());
+			throw new RuntimeException("Bulk chunk lookup failed", e);
+		}
+		return existing;
+	}
+
+	/**
+	 * Stream every known chunk hash to the consumer (used to warm in-memory indexes).
+	 */
+	public long forEachGlobalChunk(Consumer<String> consumer) {
+		long count = 0;
+		try (Connection conn = getConnection()) {
+			// PostgreSQL only honours fetchSize (cursor mode) outside autocommit
+			boolean autoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false);
+			try (PreparedStatement ps = conn.prepareStatement("SELECT chunk_hash FROM global_chunks")) {
+				ps.setFetchSize(10_000);
+				ResultSet rs = ps.executeQuery();
+				while (rs.next()) {
+					consumer.accept(rs.getString(1));
+					count++;
+				}
+			} finally {
+				conn.commit();
+				conn.setAutoCommit(autoCommit);
+			}
+		} catch (SQLException e) {
+			// A partial scan would leave holes in an index that answers "missing" from memory
+			log.error("Failed to scan global chunks: {}", e.getMessage());
+			throw new RuntimeException("Failed to scan global chunks", e);
+		}
+		return count;
+	}
+
+	public long countGlobalChunks() {
+		try (Connection conn = getConnection();
+			 PreparedStatement ps = conn.prepareStatement("SELECT COUNT(*) FROM global_chunks")) {
+
+			ResultSet rs = ps.executeQuery();
+			return rs.next() ? rs.getLong(1) : 0;
+
+		} catch (SQLException e) {
+			log.error("Failed to count global chunks: {}", e.getMessage());
+			return 0;
+		}
+	}
+
+	/**
+	 * Whether a one-off maintenance job (e.g. the chunk index backfill) has finished.
+	 * False if the lookup fails, so the job is run again rather than skipped.
+	 */
+	public boolean hasCompletedMigration(String name) {
+		try (Connection conn = getConnection();
+			 PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM completed_migrations WHERE name = ?")) {
+
+			ps.setString(1, name);
+			return ps.executeQuery().next();
+
+		} catch (SQLException e) {
+			log.error("Migration lookup failed: {}", e.getMessage());
 			return false;
 		}
 	}
 
+	public void recordCompletedMigration(String name) {
+		String sql = "INSERT INTO completed_migrations (name) VALUES (?) ON CONFLICT DO NOTHING";
+
+		try (Connection conn = getConnection();
+			 PreparedStatement ps = conn.prepareStatement(sql)) {
+
+			ps.setString(1, name);
+			ps.executeUpdate();
+
+		} catch (SQLException e) {
+			log.error("Failed to record migration {}: {}", name, e.getMessage());
+		}
+	}
+
+	/**
+	 * Make sure a stored chunk is known globally. References are counted when
+	 * chunks are linked to files (see addChunksToFile), not here.
+	 */
 	public void registerGlobalChunk(String hash) {
+		String sql = "INSERT INTO global_chunks (chunk_hash, ref_count) VALUES (?, 0) ON CONFLICT DO NOTHING";
+
+		try (Connection conn = getConnection();
+			 PreparedStatement ps = conn.prepareStatement(sql)) {
+
+			ps.setString(1, hash);
+			ps.executeUpdate();
+
+		} catch (SQLException e) {
+			log.error("Failed to register chunk: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Make sure a batch of stored chunks is known globally (one JDBC batch).
+	 *
+	 * @throws RuntimeException if the batch fails
+	 */
+	public void registerGlobalChunks(Collection<String> hashes) {
+		if (hashes.isEmpty()) return;
+		String sql = "INSERT INTO global_chunks (chunk_hash, ref_count) VALUES (?, 0) ON CONFLICT DO NOTHING";
+
+		try (Connection conn = getConnection();
+			 PreparedStatement ps = conn.prepareStatement(sql)) {
+
+			int pending = 0;
+			for (String hash : new TreeSet<>(hashes)) {
+				ps.setString(1, hash);
+				ps.addBatch();
+				if (++pending % BATCH_SIZE == 0) ps.executeBatch();
+			}
+			ps.executeBatch();
+
+		} catch (SQLException e) {
+			log.error("Failed to register chunks: {}", e.getMessage());
+			throw new RuntimeException("Failed to register chunks", e);
+		}
+	}
+
+	/**
+	 * Register a stored chunk and record its plaintext size (first writer wins).
+	 * A new row is marked as having a chunk header: its object was just written.
+	 */
+	public void registerGlobalChunk(String hash, long plainSize) {
 		String sql = """
-            INSERT INTO global_chunks (chunk_hash, ref_count) VALUES (?, 1)
-            ON CONFLICT (chunk_hash) DO UPDATE SET ref_count = global_chunks.ref_count + 1
+            INSERT INTO global_chunks (chunk_hash, ref_count, plain_size, format_version) VALUES (?, 0, ?, 2)
+            ON CONFLICT (chunk_hash) DO UPDATE SET plain_size = COALESCE(global_chunks.plain_size, EXCLUDED.plain_size)
         """;
 
 		try (Connection conn = getConnection();
 			 PreparedStatement ps = conn.prepareStatement(sql)) {
 
 			ps.setString(1, hash);
+			ps.setLong(2, plainSize);
 			ps.executeUpdate();
 
 		} catch (SQLException e) {
@@ -165,25 +438,225 @@ public class FileRepository extends BaseRepository {
 		}
 	}
 
+	/**
+	 * Plaintext sizes of the given chunks (chunks with unknown size are omitted).
+	 */
+	public Map<String, Integer> findChunkSizes(Collection<String> hashes) {
+		if (hashes.isEmpty()) return new HashMap<>();
+		try (Connection conn = getConnection()) {
+			return findChunkSizes(conn, hashes);
+		} catch (SQLException e) {
+			log.error("Failed to look up chunk sizes: {}", e.getMessage());
+			return new HashMap<>();
+		}
+	}
+
+	private Map<String, Integer> findChunkSizes(Connection conn, Collection<String> hashes) throws SQLException {
+		Map<String, Integer> sizes = new HashMap<>();
+		if (hashes.isEmpty()) return sizes;
+		String sql = "SELECT chunk_hash, plain_size FROM global_chunks WHERE chunk_hash = ANY(?) AND plain_size IS NOT NULL";
+
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			ps.setArray(1, conn.createArrayOf("varchar", hashes.toArray()));
+			ResultSet rs = ps.executeQuery();
+			while (rs.next()) {
+				sizes.put(rs.getString("chunk_hash"), (int) rs.getLong("plain_size"));
+			}
+		}
+		return sizes;
+	}
+
+	/**
+	 * Chunk manifest with plaintext offsets, for ranged reads.
+	 * One row read for packed manifests; files linked before those existed are
+	 * read from their file_chunks rows, taking lengths not recorded on the row
+	 * from global_chunks.
+	 */
+	public ChunkManifest getFileManifest(String fileId) {
+		try (Connection conn = getConnection()) {
+			try (PreparedStatement ps = conn.prepareStatement("SELECT manifest FROM file_manifests WHERE file_id = ?::uuid")) {
+				ps.setString(1, fileId);
+				ResultSet rs = ps.executeQuery();
+				if (rs.next()) {
+					return ChunkManifest.unpack(rs.getBytes(1));
+				}
+			}
+			return getLegacyManifest(conn, fileId);
+		} catch (SQLException | IllegalArgumentException e) {
+			// An empty manifest would be served as an empty (truncated) file
+			log.error("❌ Get file manifest failed: {}", e.getMessage());
+			throw new RuntimeException("Get file manifest failed for " + fileId, e);
+		}
+	}
+
+	private ChunkManifest getLegacyManifest(Connection conn, String fileId) throws SQLException {
+		List<String> hashes = new ArrayList<>();
+		List<Integer> lengths = new ArrayList<>();
+		List<Long> offsets = new ArrayList<>();
+		String sql = """
+            SELECT fc.chunk_hash, fc.plain_offset, COALESCE(fc.plain_length, gc.plain_size) AS plain_length
+            FROM file_chunks fc
+            LEFT JOIN global_chunks gc ON gc.chunk_hash = fc.chunk_hash
+            WHERE fc.file_id = ?::uuid
+            ORDER BY fc.chunk_index ASC
+        """;
+
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			ps.setString(1, fileId);
+			ResultSet rs = ps.executeQuery();
+
+			while (rs.next()) {
+				hashes.add(rs.getString("chunk_hash"));
+				long offset = rs.getLong("plain_offset");
+				offsets.add(rs.wasNull() ? null : offset);
+				long length = rs.getLong("plain_length");
+				lengths.add(rs.wasNull() ? null : (int) length);
+			}
+		}
+		return ChunkManifest.of(hashes, lengths, offsets);
+	}
+
+	/**
+	 * Chunk hashes of a file in order.
+	 */
 	public List<String> getFileChunks(String fileId) {
-		List<String> chunks = new ArrayList<>();
-		String sql = "SELECT chunk_hash FROM file_chunks WHERE file_id = ?::uuid ORDER BY chunk_index ASC";
+		return getFileManifest(fileId).hashes();
+	}
+
+	// ==================== CHUNK SIGNATURES ====================
+
+	/**
+	 * Delta-sync block signatures of one chunk (see BlockSignatures for the packing).
+	 */
+	public record ChunkSignature(int plainLength, byte[] blocks) {
+	}
+
+	/**
+	 * Store a chunk's block signatures. Keyed by chunk hash, so every file that
+	 * references the chunk shares them; the first writer wins.
+	 */
+	public void saveChunkSignature(String hash, int blockSize, ChunkSignature signature) {
+		String sql = """
+            INSERT INTO chunk_signatures (chunk_hash, block_size, plain_length, signature) VALUES (?, ?, ?, ?)
+            ON CONFLICT (chunk_hash) DO NOTHING
+        """;
 
 		try (Connection conn = getConnection();
 			 PreparedStatement ps = conn.prepareStatement(sql)) {
 
-			ps.setString(1, fileId);
+			ps.setString(1, hash);
+			ps.setInt(2, blockSize);
+			ps.setInt(3, signature.plainLength());
+			ps.setBytes(4, signature.blocks());
+			ps.executeUpdate();
+
+		} catch (SQLException e) {
+			log.error("Failed to save chunk signature: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Stored signatures of the given chunks for one block size, in one query.
+	 * Chunks without a signature are omitted.
+	 */
+	public Map<String, ChunkSignature> findChunkSignatures(Collection<String> hashes, int blockSize) {
+		Map<String, ChunkSignature> signatures = new HashMap<>();
+		if (hashes.isEmpty()) return signatures;
+		String sql = "SELECT chunk_hash, plain_length, signature FROM chunk_signatures WHERE chunk_hash = ANY(?) AND block_size = ?";
+
+		try (Connection conn = getConnection();
+			 PreparedStatement ps = conn.prepareStatement(sql)) {
+
+			ps.setArray(1, conn.createArrayOf("varchar", hashes.toArray()));
+			ps.setInt(2, blockSize);
 			ResultSet rs = ps.executeQuery();
+			while (rs.next()) {
+				signatures.put(rs.getString("chunk_hash"),
+						new ChunkSignature(rs.getInt("plain_length"), rs.getBytes("signature")));
+			}
+		} catch (SQLException e) {
+			log.error("Failed to look up chunk signatures: {}", e.getMessage());
+		}
+		return signatures;
+	}
+
+	// ==================== CHUNK FORMAT MIGRATION ====================
 
+	/**
+	 * Next page of chunks whose stored format has not been checked yet, in hash order.
+	 *
+	 * @param afterHash Exclusive lower bound (null to start from the beginning)
+	 */
+	public List<String> findUncheckedChunks(String afterHash, int limit) {
+		List<String> hashes = new ArrayList<>();
+		String sql = """
+            SELECT chunk_hash FROM global_chunks
+            WHERE format_version IS NULL AND chunk_hash > ?
+            ORDER BY chunk_hash
+            LIMIT ?
+        """;
+
+		try (Connection conn = getConnection();
+			 PreparedStatement ps = conn.prepareStatement(sql)) {
+
+			ps.setString(1, afterHash != null ? afterHash : "");
+			ps.setInt(2, limit);
+			ResultSet rs = ps.executeQuery();
 			while (rs.next()) {
-				chunks.add(rs.getString("chunk_hash"));
+				hashes.add(rs.getString(1));
 			}
 
 		} catch (SQLException e) {
-			log.error("❌ Get file chunks failed: {}", e.getMessage());
+			log.error("Failed to list unchecked chunks: {}", e.getMessage());
+		}
+		return hashes;
+	}
+
+	public void markChunkFormat(String hash, int formatVersion) {
+		try (Connection conn = getConnection();
+			 PreparedStatement ps = conn.prepareStatement("UPDATE global_chunks SET format_version = ? WHERE chunk_hash = ?")) {
+
+			ps.setInt(1, formatVersion);
+			ps.setString(2, hash);
+			ps.executeUpdate();
+
+		} catch (SQLException e) {
+			log.error("Failed to mark chunk format: {}", e.getMessage());
 		}
+	}
 
-		return chunks;
+	/**
+	 * Usernames of everyone with a file referencing the chunk (candidate keys for legacy objects).
+	 */
+	public List<String> findChunkOwners(String hash) {
+		List<String> owners = new ArrayList<>();
+		String sql = """
+            SELECT u.username
+            FROM files f
+            JOIN users u ON u.id = f.owner_id
+            WHERE f.file_id IN (SELECT file_id FROM file_chunks WHERE chunk_hash = ?)
+               OR f.file_id IN (SELECT file_id FROM chunk_refs WHERE chunk_hash = ?)
+            GROUP BY u.username
+        """;
+
+		try (Connection conn = getConnection();
+			 PreparedStatement ps = conn.prepareStatement(sql)) {
+
+			ps.setString(1, hash);
+			if (ChunkManifest.isPackable(List.of(hash))) {
+				ps.setBytes(2, ChunkManifest.hashBytes(hash));
+			} else {
+				ps.setNull(2, Types.BINARY);
+			}
+			ResultSet rs = ps.executeQuery();
+			while (rs.next()) {
+				owners.add(rs.getString(1));
+			}
+
+		} catch (SQLException e) {
+			log.error("Failed to look up chunk owners: {}", e.getMessage());
+		}
+		return owners;
 	}
 
 	// ==================== SEARCH ====================
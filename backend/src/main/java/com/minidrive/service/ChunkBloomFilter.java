@@ -0,0 +1,108 @@
+package com.minidrive.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free Bloom filter over chunk hashes.
+ *
+ * Chunk keys are SHA-256 hex strings, so their bits are already uniformly
+ * distributed: the two base hashes for double hashing are read straight
+ * from the hex digits instead of re-hashing the string. Non-hex keys
+ * (legacy/fallback ids) are mixed with a 64-bit FNV-1a pass.
+ *
+ * No false negatives: once {@link #put} returns, {@link #mightContain}
+ * is true for that hash from every thread.
+ */
+public final class ChunkBloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashFunctions;
+
+    private ChunkBloomFilter(long bitCount, int hashFunctions) {
+        long words = (bitCount + 63) >>> 6;
+        if (words > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter too large: " + bitCount + " bits");
+        }
+        this.bits = new AtomicLongArray((int) words);
+        this.bitCount = words << 6;
+        this.hashFunctions = hashFunctions;
+    }
+
+    /**
+     * Create a filter sized for the expected number of entries at the given false-positive rate.
+     */
+    public static ChunkBloomFilter create(long expectedEntries, double falsePositiveRate) {
+        long n = Math.max(1, expectedEntries);
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (ln2 * ln2));
+        int k = Math.max(1, (int) Math.round((double) m / n * ln2));
+        return new ChunkBloomFilter(Math.max(64, m), k);
+    }
+
+    public void put(String hash) {
+        long h1 = baseHash(hash, 0);
+        long h2 = baseHash(hash, 16) | 1; // odd step so probes never collapse
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            do {
+                current = bits.get(word);
+                if ((current & mask) != 0) break;
+            } while (!bits.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    public boolean mightContain(String hash) {
+        long h1 = baseHash(hash, 0);
+        long h2 = baseHash(hash, 16) | 1;
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long bitCount() {
+        return bitCount;
+    }
+
+    public int hashFunctions() {
+        return hashFunctions;
+    }
+
+    /**
+     * Read 16 hex digits starting at offset as a long; falls back to FNV-1a for non-hex keys.
+     */
+    private static long baseHash(String hash, int offset) {
+        if (hash.length() >= offset + 16) {
+            long value = 0;
+            for (int i = offset; i < offset + 16; i++) {
+                int digit = Character.digit(hash.charAt(i), 16);
+                if (digit < 0) {
+                    return fnv(hash, offset);
+                }
+                value = (value << 4) | digit;
+            }
+            return value;
+        }
+        return fnv(hash, offset);
+    }
+
+    private static long fnv(String hash, int seed) {
+        long h = 0xcbf29ce484222325L ^ seed;
+        for (int i = 0; i < hash.length(); i++) {
+            h ^= hash.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        // Final avalanche so short keys still spread across the filter
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
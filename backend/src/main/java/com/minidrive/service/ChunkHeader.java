@@ -0,0 +1,134 @@
+package com.minidrive.service;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * Self-describing header of stored chunk objects.
+ *
+ * Layout (v2):
+ * <pre>
+ *  0  "SCHK"
+ *  4  version = 2
+ *  5  mode: 0 = plain, 1 = AES-256-GCM segmented
+ *  6  log2(segment size), 0 for plain
+ *  7  header length (16 plain, 40 encrypted)
+ *  8  key id (8), zero for plain
+ * 16  salt (16)                  encrypted only
+ * 32  nonce prefix (7) | 0x00    encrypted only
+ * </pre>
+ *
+ * The first {@link #PROBE_LENGTH} bytes are enough to tell the format and the
+ * full header length, so a reader dispatches from the object stream itself.
+ * Objects without a header predate this format (legacy single-shot or plain).
+ *
+ * The key id is a truncated HMAC of the DEK: it tells which key an object needs
+ * without revealing anything about the key.
+ */
+final class ChunkHeader {
+
+    static final int PROBE_LENGTH = 8;
+    static final int PLAIN_LENGTH = 16;
+    static final int ENCRYPTED_LENGTH = 40;
+
+    static final int SALT_OFFSET = 16;
+    static final int SALT_LENGTH = 16;
+    static final int NONCE_PREFIX_OFFSET = SALT_OFFSET + SALT_LENGTH;
+    static final int NONCE_PREFIX_LENGTH = 7;
+    static final int MIN_SEGMENT_SHIFT = 12;
+    static final int MAX_SEGMENT_SHIFT = 24;
+
+    private static final byte[] MAGIC = {'S', 'C', 'H', 'K'};
+    private static final byte V2 = 2;
+    private static final byte MODE_PLAIN = 0;
+    private static final byte MODE_ENCRYPTED = 1;
+    private static final int KEY_ID_OFFSET = 8;
+    private static final int KEY_ID_LENGTH = 8;
+    private static final byte[] KEY_ID_INFO = "sanchay-key-id".getBytes(StandardCharsets.US_ASCII);
+
+    private ChunkHeader() {
+    }
+
+    /**
+     * Full header length announced by the leading bytes of an object.
+     *
+     * @param head At least {@link #PROBE_LENGTH} leading bytes
+     * @return Header length, or -1 for an object without a header
+     */
+    static int length(byte[] head, int length) {
+        if (length < PROBE_LENGTH) return -1;
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (head[i] != MAGIC[i]) return -1;
+        }
+        if (head[4] != V2) return -1;
+        if (head[5] == MODE_PLAIN) {
+            return head[6] == 0 && head[7] == PLAIN_LENGTH ? PLAIN_LENGTH : -1;
+        }
+        if (head[5] == MODE_ENCRYPTED) {
+            return validShift(head[6]) && head[7] == ENCRYPTED_LENGTH ? ENCRYPTED_LENGTH : -1;
+        }
+        return -1;
+    }
+
+    static boolean isPlain(byte[] header) {
+        return header[4] == V2 && header[5] == MODE_PLAIN;
+    }
+
+    static byte[] plain() {
+        byte[] header = new byte[PLAIN_LENGTH];
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+        header[4] = V2;
+        header[5] = MODE_PLAIN;
+        header[7] = PLAIN_LENGTH;
+        return header;
+    }
+
+    /**
+     * @param saltAndPrefix Random salt followed by the random nonce prefix
+     */
+    static byte[] encrypted(int segmentShift, SecretKey dek, byte[] saltAndPrefix) {
+        byte[] header = new byte[ENCRYPTED_LENGTH];
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+        header[4] = V2;
+        header[5] = MODE_ENCRYPTED;
+        header[6] = (byte) segmentShift;
+        header[7] = ENCRYPTED_LENGTH;
+        System.arraycopy(keyId(dek), 0, header, KEY_ID_OFFSET, KEY_ID_LENGTH);
+        System.arraycopy(saltAndPrefix, 0, header, SALT_OFFSET, SALT_LENGTH + NONCE_PREFIX_LENGTH);
+        return header;
+    }
+
+    static int segmentShift(byte[] header) {
+        return header[6];
+    }
+
+    /**
+     * Whether an encrypted header was written with the given key.
+     */
+    static boolean matchesKey(byte[] header, SecretKey dek) {
+        byte[] expected = keyId(dek);
+        byte[] actual = new byte[KEY_ID_LENGTH];
+        System.arraycopy(header, KEY_ID_OFFSET, actual, 0, KEY_ID_LENGTH);
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    private static byte[] keyId(SecretKey dek) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(dek.getEncoded(), "HmacSHA256"));
+            byte[] id = new byte[KEY_ID_LENGTH];
+            System.arraycopy(mac.doFinal(KEY_ID_INFO), 0, id, 0, KEY_ID_LENGTH);
+            return id;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Key id derivation failed", e);
+        }
+    }
+
+    private static boolean validShift(int shift) {
+        return shift >= MIN_SEGMENT_SHIFT && shift <= MAX_SEGMENT_SHIFT;
+    }
+}
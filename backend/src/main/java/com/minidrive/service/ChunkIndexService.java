@@ -0,0 +1,285 @@
+package com.minidrive.service;
+
+import com.minidrive.repository.FileRepository;
+import com.minidrive.storage.StorageService;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Global chunk existence index (dedup lookups).
+ *
+ * Answers "do we already store this chunk?" without a network round-trip per chunk:
+ * - An in-process Bloom filter of global_chunks is warmed at startup and updated on insert
+ * - Negative answers come straight from the filter and never leave the JVM
+ * - Possible positives are confirmed in bulk with one {@code = ANY(?)} query
+ *
+ * The filter only sees registrations made by this JVM, so a chunk another node
+ * stored since warm-up is a filter negative here. Its negatives are therefore
+ * only trusted for the advisory bulk answers (dedup checks, resume
+ * negotiation); {@link #exists(String)}, which decides whether a chunk gets
+ * written, always asks the database.
+ *
+ * Until warm-up finishes every lookup goes to the database, so the filter
+ * can never produce a false "missing" for a chunk that is already registered.
+ *
+ * Objects can also be stored without ever being registered (data from before
+ * the index existed). The first time the service runs after warm-up, the bucket
+ * is listed and such chunks are backfilled; completion is recorded in the
+ * database, so later restarts and other nodes never list it again. Until it has
+ * finished once, a miss is confirmed with a stat of the object before it is
+ * reported missing, and a hit found that way is registered on the spot. After
+ * that, misses are answered from the index alone. An object left unregistered
+ * by a crash between the PUT and the insert belongs to no file, so reporting it
+ * missing only means it gets written again.
+ */
+@Service
+public class ChunkIndexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkIndexService.class);
+
+    @Autowired
+    private FileRepository fileRepository;
+
+    @Autowired
+    private StorageService storageService;
+
+    @Value("${minidrive.chunk-index.expected-chunks:1000000}")
+    private long expectedChunks;
+
+    @Value("${minidrive.chunk-index.false-positive-rate:0.01}")
+    private double falsePositiveRate;
+
+    @Value("${minidrive.chunk-index.backfill:true}")
+    private boolean backfillEnabled;
+
+    // Rows per registration batch during the backfill
+    private static final int BACKFILL_BATCH = 1000;
+    // completed_migrations entry written once the backfill has finished
+    static final String BACKFILL_MIGRATION = "chunk-index-backfill";
+
+    private volatile ChunkBloomFilter filter;
+    private volatile boolean warmed = false;
+    private volatile boolean backfilled = false;
+
+    private final AtomicLong filterNegatives = new AtomicLong();
+    private final AtomicLong databaseLookups = new AtomicLong();
+    private final AtomicLong storageLookups = new AtomicLong();
+    private final AtomicLong backfilledChunks = new AtomicLong();
+
+    @PostConstruct
+    public void warmUp() {
+        // Without a backfill, or once one has finished, the index is taken as complete
+        backfilled = !backfillEnabled || fileRepository.hasCompletedMigration(BACKFILL_MIGRATION);
+        Thread warmer = new Thread(this::loadFilter, "chunk-index-warmup");
+        warmer.setDaemon(true);
+        warmer.start();
+    }
+
+    private void loadFilter() {
+        try {
+            long start = System.currentTimeMillis();
+            long known = fileRepository.countGlobalChunks();
+
+            // Leave headroom for growth so the false-positive rate holds between restarts
+            filter = ChunkBloomFilter.create(Math.max(expectedChunks, known * 2), falsePositiveRate);
+            long loaded = fileRepository.forEachGlobalChunk(filter::put);
+            warmed = true;
+
+            logger.info("Chunk index warmed: {} chunks in {} ms ({} bits, k={})",
+                loaded, System.currentTimeMillis() - start, filter.bitCount(), filter.hashFunctions());
+        } catch (Exception e) {
+            logger.warn("Chunk index warm-up failed, falling back to database lookups: {}", e.getMessage());
+            return;
+        }
+        if (!backfilled) {
+            backfill();
+        }
+    }
+
+    /**
+     * Register every stored object that is missing from global_chunks, and
+     * record that this never has to be done again.
+     */
+    private void backfill() {
+        try {
+            long start = System.currentTimeMillis();
+            List<String> batch = new ArrayList<>(BACKFILL_BATCH);
+            long listed = storageService.forEachChunkHash(hash -> {
+                batch.add(hash);
+                if (batch.size() == BACKFILL_BATCH) {
+                    backfillBatch(batch);
+                    batch.clear();
+                }
+            });
+            backfillBatch(batch);
+            backfilled = true;
+            fileRepository.recordCompletedMigration(BACKFILL_MIGRATION);
+
+            logger.info("Chunk index backfill: {} stored chunks, {} were unregistered ({} ms)",
+                listed, backfilledChunks.get(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            logger.warn("Chunk index backfill failed, misses stay confirmed against storage: {}", e.getMessage());
+        }
+    }
+
+    private void backfillBatch(List<String> batch) {
+        // Filter negatives are certainly unregistered; positives are confirmed in one query
+        ChunkBloomFilter current = filter;
+        List<String> candidates = new ArrayList<>();
+        Set<String> unregistered = new HashSet<>();
+        for (String hash : batch) {
+            if (!current.mightContain(hash)) {
+                unregistered.add(hash);
+            } else {
+                candidates.add(hash);
+            }
+        }
+        if (!candidates.isEmpty()) {
+            Set<String> registered = fileRepository.findExistingChunks(candidates);
+            for (String hash : candidates) {
+                if (!registered.contains(hash)) unregistered.add(hash);
+            }
+        }
+        registerAll(unregistered);
+        backfilledChunks.addAndGet(unregistered.size());
+    }
+
+    // ==================== LOOKUPS ====================
+
+    /**
+     * Check whether a single chunk is already stored, before writing it.
+     * Never answered from the filter: storing over a chunk another node holds
+     * would replace it with bytes encrypted under a different key.
+     */
+    public boolean exists(String hash) {
+        databaseLookups.incrementAndGet();
+        if (fileRepository.hasChunk(hash)) {
+            return true;
+        }
+        return !storedButUnregistered(List.of(hash)).isEmpty();
+    }
+
+    /**
+     * Return the subset of hashes that are already stored.
+     * Only filter positives are sent to the database, in one query.
+     */
+    public Set<String> findExisting(Collection<String> hashes) {
+        List<String> candidates = new ArrayList<>();
+        List<String> misses = new ArrayList<>();
+        for (String hash : hashes) {
+            if (definitelyMissing(hash)) {
+                misses.add(hash);
+            } else {
+                candidates.add(hash);
+            }
+        }
+        Set<String> existing = new HashSet<>();
+        if (!candidates.isEmpty()) {
+            databaseLookups.incrementAndGet();
+            existing.addAll(fileRepository.findExistingChunks(candidates));
+            for (String hash : candidates) {
+                if (!existing.contains(hash)) misses.add(hash);
+            }
+        }
+        existing.addAll(storedButUnregistered(misses));
+        return existing;
+    }
+
+    /**
+     * Indices (into the given ordered hash list) of chunks the server does not have yet.
+     */
+    public List<Integer> findMissingIndices(List<String> hashes) {
+        Set<String> existing = findExisting(new HashSet<>(hashes));
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < hashes.size(); i++) {
+            if (!existing.contains(hashes.get(i))) {
+                missing.add(i);
+            }
+        }
+        return missing;
+    }
+
+    // ==================== REGISTRATION ====================
+
+    /**
+     * Register a stored (or re-referenced) chunk globally and in the filter.
+     */
+    public void register(String hash) {
+        fileRepository.registerGlobalChunk(hash);
+        ChunkBloomFilter current = filter;
+        if (current != null) {
+            current.put(hash);
+        }
+    }
+
+    /**
+     * Register a batch of stored chunks globally (one JDBC batch) and in the filter.
+     */
+    public void registerAll(Collection<String> hashes) {
+        if (hashes.isEmpty()) return;
+        fileRepository.registerGlobalChunks(hashes);
+        ChunkBloomFilter current = filter;
+        if (current != null) {
+            hashes.forEach(current::put);
+        }
+    }
+
+    /**
+     * Register a chunk and record its plaintext size (used for ranged reads).
+     */
+    public void register(String hash, long plainSize) {
+        fileRepository.registerGlobalChunk(hash, plainSize);
+        ChunkBloomFilter current = filter;
+        if (current != null) {
+            current.put(hash);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("warmed", warmed);
+        stats.put("filterNegatives", filterNegatives.get());
+        stats.put("databaseLookups", databaseLookups.get());
+        stats.put("backfilled", backfilled);
+        stats.put("backfilledChunks", backfilledChunks.get());
+        stats.put("storageLookups", storageLookups.get());
+        ChunkBloomFilter current = filter;
+        stats.put("filterBits", current != null ? current.bitCount() : 0);
+        return stats;
+    }
+
+    /**
+     * Until the backfill has finished once, an index miss may still be a stored
+     * object: stat it, and register the ones that exist.
+     */
+    private Set<String> storedButUnregistered(Collection<String> misses) {
+        if (backfilled || misses.isEmpty()) {
+            return Set.of();
+        }
+        Set<String> stored = new HashSet<>();
+        for (String hash : misses) {
+            storageLookups.incrementAndGet();
+            if (storageService.doesChunkExist(hash)) {
+                stored.add(hash);
+            }
+        }
+        registerAll(stored);
+        return stored;
+    }
+
+    private boolean definitelyMissing(String hash) {
+        ChunkBloomFilter current = filter;
+        if (warmed && current != null && !current.mightContain(hash)) {
+            filterNegatives.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,243 @@
+package com.minidrive.service;
+
+import com.minidrive.chunking.BlockSignatures;
+import com.minidrive.chunking.ChunkDigest;
+import com.minidrive.storage.BufferPool;
+import com.minidrive.storage.StorageService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Verify-on-ingest for uploaded chunks.
+ *
+ * Chunks are content-addressed, so a chunk stored under a hash that does not
+ * match its bytes would be served to every file that dedups against it. Every
+ * uploaded chunk is therefore hashed server-side and only committed under the
+ * claimed key if the hashes match:
+ * - bytes are encrypted into a staging object first
+ * - on a match the staging object is copied to the chunk key (server-side)
+ * - on a mismatch it is deleted and the upload rejected
+ *
+ * Sources that can be read twice (multipart parts, protobuf buffers) are hashed
+ * on a bounded hashing pool while the upload thread streams them to storage, so
+ * the hash costs no extra latency. When the pool is saturated the hash runs on
+ * the caller (back-pressure instead of an unbounded queue).
+ */
+@Service
+public class ChunkIngestService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkIngestService.class);
+
+    @Autowired
+    private StorageService storageService;
+
+    @Autowired
+    private ChunkIndexService chunkIndexService;
+
+    @Autowired
+    private DeltaSyncService deltaSyncService;
+
+    @Value("${minidrive.upload.hash-threads:4}")
+    private int hashThreads;
+
+    @Value("${minidrive.upload.hash-queue:64}")
+    private int hashQueue;
+
+    private ExecutorService hashPool;
+
+    private final AtomicLong verified = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * A chunk body that can be opened more than once.
+     */
+    @FunctionalInterface
+    public interface ChunkSource {
+        InputStream open() throws IOException;
+    }
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadId = new AtomicInteger();
+        hashPool = new ThreadPoolExecutor(Math.max(1, hashThreads), Math.max(1, hashThreads),
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(Math.max(1, hashQueue)), r -> {
+                Thread t = new Thread(r, "chunk-hash-" + threadId.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+        logger.info("Chunk verification: {} hashing threads, queue {}", hashThreads, hashQueue);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        hashPool.shutdownNow();
+    }
+
+    /**
+     * Verify and store a chunk whose body can be read twice. The hash is computed
+     * on the hashing pool concurrently with encryption into staging.
+     *
+     * @param claimedHash Lowercase hex hash the client uploaded the chunk under
+     * @param digest Algorithm of the claimed hash
+     * @param length Exact plaintext length of the body
+     * @param userKey Owner's DEK, or null to store unencrypted
+     * @return true if the chunk was stored now, false if it was already present
+     * @throws IllegalArgumentException if the bytes do not hash to claimedHash
+     */
+    public boolean ingest(String claimedHash, ChunkDigest digest, ChunkSource source, long length,
+                          SecretKey userKey) throws IOException {
+        if (chunkIndexService.exists(claimedHash)) {
+            // Nothing to store, but the client must still prove it has the bytes
+            try (InputStream in = source.open()) {
+                verify(claimedHash, hash(digest, in));
+            }
+            chunkIndexService.register(claimedHash, length);
+            return false;
+        }
+
+        Future<String> computed = hashPool.submit(() -> {
+            try (InputStream in = source.open()) {
+                return hash(digest, in);
+            }
+        });
+
+        String stagingKey = storageService.newStagingKey();
+        BlockSignatures.Builder signer = new BlockSignatures.Builder();
+        boolean committed = false;
+        try {
+            stage(stagingKey, signer.signing(source.open()), length, userKey);
+            verify(claimedHash, await(computed));
+            commit(stagingKey, claimedHash, signer, length);
+            committed = true;
+        } finally {
+            if (!committed) {
+                computed.cancel(true);
+                discard(stagingKey);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Verify and store a chunk from a stream that can only be read once (a raw
+     * request body). Hashing happens inline in the same pass as encryption.
+     *
+     * @see #ingest(String, ChunkDigest, ChunkSource, long, SecretKey)
+     */
+    public boolean ingest(String claimedHash, ChunkDigest digest, InputStream body, long length,
+                          SecretKey userKey) throws IOException {
+        ChunkDigest.Hasher hasher = digest.newHasher();
+        InputStream hashed = hasher.hashing(body);
+
+        if (chunkIndexService.exists(claimedHash)) {
+            hashed.transferTo(OutputStream.nullOutputStream());
+            verify(claimedHash, hasher.hexDigest());
+            chunkIndexService.register(claimedHash, length);
+            return false;
+        }
+
+        String stagingKey = storageService.newStagingKey();
+        BlockSignatures.Builder signer = new BlockSignatures.Builder();
+        boolean committed = false;
+        try {
+            stage(stagingKey, signer.signing(hashed), length, userKey);
+            verify(claimedHash, hasher.hexDigest());
+            commit(stagingKey, claimedHash, signer, length);
+            committed = true;
+        } finally {
+            if (!committed) {
+                discard(stagingKey);
+            }
+        }
+        return true;
+    }
+
+    public Map<String, Object> getStats() {
+        return Map.of(
+            "verifiedChunks", verified.get(),
+            "rejectedChunks", rejected.get()
+        );
+    }
+
+    // ==================== INTERNAL ====================
+
+    private void stage(String stagingKey, InputStream body, long length, SecretKey userKey) throws IOException {
+        try (ReadableByteChannel source = Channels.newChannel(body)) {
+            if (userKey != null) {
+                storageService.putChunk(stagingKey, source, length, userKey);
+            } else {
+                storageService.putChunk(stagingKey, source, length);
+            }
+        }
+    }
+
+    /**
+     * Whatever failed (staging, hashing, verification, the commit itself, or an
+     * Error from a digest implementation), the staging object must not outlive it.
+     */
+    private void discard(String stagingKey) {
+        try {
+            storageService.discardStagedChunk(stagingKey);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to discard staged chunk {}: {}", stagingKey, e.getMessage());
+        }
+    }
+
+    private void commit(String stagingKey, String hash, BlockSignatures.Builder signer, long length) {
+        storageService.commitStagedChunk(stagingKey, hash);
+        deltaSyncService.saveSignature(hash, signer);
+        chunkIndexService.register(hash, length);
+    }
+
+    private void verify(String claimedHash, String actualHash) {
+        if (!claimedHash.equals(actualHash)) {
+            rejected.incrementAndGet();
+            logger.warn("Rejected chunk: claimed {}, content hashes to {}", claimedHash, actualHash);
+            throw new IllegalArgumentException("Chunk hash mismatch");
+        }
+        verified.incrementAndGet();
+    }
+
+    private static String hash(ChunkDigest digest, InputStream in) throws IOException {
+        ChunkDigest.Hasher hasher = digest.newHasher();
+        byte[] buffer = BufferPool.acquire();
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                hasher.update(buffer, 0, read);
+            }
+        } finally {
+            BufferPool.release(buffer);
+        }
+        return hasher.hexDigest();
+    }
+
+    private static String await(Future<String> computed) throws IOException {
+        try {
+            return computed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while hashing chunk");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            throw new IOException("Failed to hash chunk", e.getCause());
+        }
+    }
+}
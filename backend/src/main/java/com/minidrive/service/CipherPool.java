@@ -0,0 +1,48 @@
+package com.minidrive.service;
+
+import javax.crypto.Cipher;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Small pool of reusable AES/GCM Cipher instances.
+ *
+ * Cipher.getInstance is a provider lookup, so instances are kept and re-initialised
+ * per use. A pool rather than a ThreadLocal: request handlers may run on virtual
+ * threads, which would each get (and then drop) their own instance. A Cipher is
+ * not thread-safe, so each one is held by a single caller between acquire and
+ * release. Instances beyond the pool capacity are simply dropped for the GC.
+ */
+final class CipherPool {
+
+    private static final String ALGORITHM = "AES/GCM/NoPadding";
+    private static final int MAX_POOLED = 64;
+
+    private static final BlockingQueue<Cipher> POOL = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    private CipherPool() {
+    }
+
+    static Cipher acquire() {
+        Cipher cipher = POOL.poll();
+        if (cipher != null) {
+            return cipher;
+        }
+        try {
+            return Cipher.getInstance(ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES/GCM not available", e);
+        }
+    }
+
+    /**
+     * Return a cipher once its doFinal has completed (or failed; it is re-initialised
+     * before every use, so no state carries over).
+     */
+    static void release(Cipher cipher) {
+        if (cipher != null) {
+            POOL.offer(cipher);
+        }
+    }
+}
@@ -5,19 +5,28 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.minidrive.chunking.BlockSignatures;
+import com.minidrive.chunking.ChunkDigest;
+import com.minidrive.chunking.FastCdcChunker;
+import com.minidrive.chunking.RollingBlockMatcher;
+import com.minidrive.repository.ChunkManifest;
 import com.minidrive.repository.FileRepository;
 import com.minidrive.storage.StorageService;
 
 import javax.crypto.SecretKey;
-import java.io.ByteArrayOutputStream;
-import java.security.MessageDigest;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.*;
 
 /**
  * Delta Sync Service - Rsync-style binary diff for efficient file updates.
  * 
- * Computes block signatures and applies delta patches to reconstruct files
- * from a combination of existing blocks and new uploaded blocks.
+ * Computes block signatures and applies delta patches that build the new
+ * version from existing chunks plus newly uploaded blocks.
  * 
  * Result: 99%+ bandwidth savings for small edits to large files.
  */
@@ -26,7 +35,7 @@ public class DeltaSyncService {
 
     private static final Logger logger = LoggerFactory.getLogger(DeltaSyncService.class);
     
-    private static final int BLOCK_SIZE = 4096; // 4KB blocks (must match frontend)
+    private static final int BLOCK_SIZE = BlockSignatures.BLOCK_SIZE; // 4KB blocks (must match frontend)
 
     @Autowired
     private FileRepository fileRepository;
@@ -37,78 +46,80 @@ public class DeltaSyncService {
     @Autowired
     private EncryptionService encryptionService;
 
+    @Autowired
+    private ChunkIndexService chunkIndexService;
+
+    @Autowired
+    private FastCdcChunker fastCdcChunker;
+
     /**
-     * Compute signature for an existing file.
-     * Returns block hashes that the client can use to compute delta.
+     * Signature of an existing file for the client to compare against.
+     *
+     * Block signatures are stored per chunk when the chunk is ingested, so this
+     * is one lookup for the whole file. Chunks stored before that are read and
+     * signed once here, and the result is kept.
      * 
      * @param fileId File to compute signature for
      * @param username Owner of the file
-     * @param userKey User's encryption key (for decryption)
-     * @return Signature object with block hashes
+     * @param userKey User's encryption key (only needed for unsigned chunks)
+     * @return Signature, or null if the file has no chunks
      */
-    public Map<String, Object> computeSignature(String fileId, String username, SecretKey userKey) {
-        List<String> chunkHashes = fileRepository.getFileChunks(fileId);
-        if (chunkHashes == null || chunkHashes.isEmpty()) {
+    public FileSignature computeSignature(String fileId, String username, SecretKey userKey) {
+        ChunkManifest manifest = fileRepository.getFileManifest(fileId);
+        if (manifest.chunkCount() == 0) {
             return null;
         }
 
-        List<Map<String, Object>> signatures = new ArrayList<>();
-        int blockIndex = 0;
-        int globalOffset = 0;
-
-        for (String chunkHash : chunkHashes) {
-            // Download chunk
-            byte[] chunkData;
-            try {
-                if (userKey != null) {
-                    chunkData = storageService.downloadChunkEncrypted(chunkHash, userKey);
-                } else {
-                    chunkData = storageService.downloadChunk(chunkHash);
-                }
-            } catch (Exception e) {
-                chunkData = storageService.downloadChunk(chunkHash);
-            }
-
-            if (chunkData.length == 0) continue;
-
-            // Split chunk into blocks and compute signatures
-            for (int offset = 0; offset < chunkData.length; offset += BLOCK_SIZE) {
-                int end = Math.min(offset + BLOCK_SIZE, chunkData.length);
-                byte[] block = Arrays.copyOfRange(chunkData, offset, end);
+        List<String> chunkHashes = new ArrayList<>(manifest.hashes());
+        Map<String, FileRepository.ChunkSignature> stored =
+            fileRepository.findChunkSignatures(new HashSet<>(chunkHashes), BLOCK_SIZE);
 
-                Map<String, Object> blockSig = new HashMap<>();
-                blockSig.put("index", blockIndex);
-                blockSig.put("weakHash", computeWeakHash(block));
-                blockSig.put("hash", computeStrongHash(block));
-                blockSig.put("offset", globalOffset);
-                blockSig.put("length", block.length);
+        int[] lengths = new int[chunkHashes.size()];
+        byte[][] signatures = new byte[chunkHashes.size()][];
+        int signedNow = 0;
 
-                signatures.add(blockSig);
-                blockIndex++;
-                globalOffset += block.length;
+        for (int c = 0; c < chunkHashes.size(); c++) {
+            String chunkHash = chunkHashes.get(c);
+            FileRepository.ChunkSignature signature = stored.get(chunkHash);
+            if (signature == null) {
+                // Download chunk (the object header says whether to decrypt)
+                byte[] chunkData = storageService.readChunk(chunkHash, userKey);
+                signature = new FileRepository.ChunkSignature(chunkData.length,
+                    BlockSignatures.of(chunkData, 0, chunkData.length));
+                fileRepository.saveChunkSignature(chunkHash, BLOCK_SIZE, signature);
+                stored.put(chunkHash, signature);
+                signedNow++;
             }
+            lengths[c] = signature.plainLength();
+            signatures[c] = signature.blocks();
         }
 
-        Map<String, Object> result = new HashMap<>();
-        result.put("blockSize", BLOCK_SIZE);
-        result.put("signatures", signatures);
-        result.put("totalBlocks", signatures.size());
-
-        logger.info("Computed signature for file {}: {} blocks", fileId, signatures.size());
+        FileSignature result = new FileSignature(lengths, signatures);
+        logger.info("Signature for file {}: {} blocks ({} chunks signed now)", fileId, result.blockCount(), signedNow);
         return result;
     }
 
     /**
-     * Apply delta patch to reconstruct new file version.
+     * Record the block signatures of a chunk that was just stored through the
+     * given signer.
+     */
+    public void saveSignature(String chunkHash, BlockSignatures.Builder signer) {
+        fileRepository.saveChunkSignature(chunkHash, BLOCK_SIZE,
+            new FileRepository.ChunkSignature((int) signer.length(), signer.finish()));
+    }
+
+    /**
+     * Apply a delta patch and store the new version's chunks.
      * 
      * @param fileId Original file ID
      * @param instructions Delta instructions from client
      * @param newBlocks New block data from client
      * @param username Owner
      * @param userKey User's encryption key
-     * @return Reconstructed file bytes
+     * @return Chunk manifest of the new version
+     * @throws IllegalArgumentException if an instruction references a block that does not exist
      */
-    public byte[] applyDelta(
+    public ChunkManifest applyDelta(
             String fileId, 
             List<Map<String, Object>> instructions,
             Map<Integer, byte[]> newBlocks,
@@ -118,29 +129,6 @@ public class DeltaSyncService {
         logger.info("Applying delta with {} instructions, {} new blocks", 
             instructions.size(), newBlocks.size());
 
-        // Load original file blocks
-        List<String> chunkHashes = fileRepository.getFileChunks(fileId);
-        List<byte[]> originalBlocks = new ArrayList<>();
-
-        for (String chunkHash : chunkHashes) {
-            byte[] chunkData;
-            try {
-                if (userKey != null) {
-                    chunkData = storageService.downloadChunkEncrypted(chunkHash, userKey);
-                } else {
-                    chunkData = storageService.downloadChunk(chunkHash);
-                }
-            } catch (Exception e) {
-                chunkData = storageService.downloadChunk(chunkHash);
-            }
-
-            // Split into blocks
-            for (int offset = 0; offset < chunkData.length; offset += BLOCK_SIZE) {
-                int end = Math.min(offset + BLOCK_SIZE, chunkData.length);
-                originalBlocks.add(Arrays.copyOfRange(chunkData, offset, end));
-            }
-        }
-
         // Sort instructions by destination index
         instructions.sort((a, b) -> {
             int destA = ((Number) a.get("destIndex")).intValue();
@@ -148,66 +136,335 @@ public class DeltaSyncService {
             return Integer.compare(destA, destB);
         });
 
-        // Reconstruct file
-        ByteArrayOutputStream result = new ByteArrayOutputStream();
-        
+        DeltaApplier applier = beginDelta(fileId, userKey);
         for (Map<String, Object> instruction : instructions) {
             String type = (String) instruction.get("type");
-            int destIndex = ((Number) instruction.get("destIndex")).intValue();
-
-            try {
-                if ("COPY".equals(type)) {
-                    // Copy from original file
-                    int sourceIndex = ((Number) instruction.get("sourceIndex")).intValue();
-                    if (sourceIndex < originalBlocks.size()) {
-                        result.write(originalBlocks.get(sourceIndex));
-                    }
-                } else if ("INSERT".equals(type)) {
-                    // Insert new block
-                    int blockIndex = ((Number) instruction.get("blockIndex")).intValue();
-                    byte[] blockData = newBlocks.get(blockIndex);
-                    if (blockData != null) {
-                        result.write(blockData);
-                    }
+
+            if ("COPY".equals(type)) {
+                // Copy from original file
+                applier.copy(((Number) instruction.get("sourceIndex")).intValue(), 1);
+            } else if ("INSERT".equals(type)) {
+                // Insert new block
+                int blockIndex = ((Number) instruction.get("blockIndex")).intValue();
+                byte[] blockData = newBlocks.get(blockIndex);
+                if (blockData == null) {
+                    throw new IllegalArgumentException("INSERT of missing block " + blockIndex);
                 }
-            } catch (Exception e) {
-                logger.error("Error applying instruction at index {}: {}", destIndex, e.getMessage());
+                applier.insert(blockData, 0, blockData.length);
+            } else {
+                throw new IllegalArgumentException("Unknown delta instruction: " + type);
             }
         }
+        return applier.finish();
+    }
 
-        logger.info("Delta applied: reconstructed {} bytes", result.size());
-        return result.toByteArray();
+    /**
+     * Store a full re-upload of a file as a delta against the stored version.
+     *
+     * For clients without a delta engine: the new content is matched block by
+     * block against the stored version's signature (rolling Adler-32, SHA-256 on
+     * weak matches), and the resulting copies and literals go through the same
+     * applier as client-computed deltas. Unchanged chunks are referenced, not
+     * re-encrypted or re-stored.
+     *
+     * @param fileId Previous version the content is matched against
+     * @param content New content (read to the end, not closed)
+     * @return Chunk manifest of the new version
+     */
+    public ChunkManifest applyUpload(String fileId, InputStream content, SecretKey userKey) throws IOException {
+        DeltaApplier applier = beginDelta(fileId, userKey);
+        FileSignature signature = computeSignature(fileId, null, userKey);
+
+        if (signature == null) {
+            byte[] buffer = new byte[BLOCK_SIZE * 16];
+            int read;
+            while ((read = content.read(buffer)) != -1) {
+                applier.insert(buffer, 0, read);
+            }
+            return applier.finish();
+        }
+
+        int[] chunkLengths = new int[signature.chunkCount()];
+        byte[][] chunkBlocks = new byte[signature.chunkCount()][];
+        for (int c = 0; c < chunkLengths.length; c++) {
+            chunkLengths[c] = signature.chunkLength(c);
+            chunkBlocks[c] = signature.chunkBlocks(c);
+        }
+
+        new RollingBlockMatcher(chunkLengths, chunkBlocks).match(content, new RollingBlockMatcher.DeltaSink() {
+            @Override
+            public void copy(int block) {
+                applier.copy(block, 1);
+            }
+
+            @Override
+            public void literal(byte[] data, int offset, int length) {
+                applier.insert(data, offset, length);
+            }
+        });
+        return applier.finish();
     }
 
     /**
-     * Compute weak rolling hash (Adler-32 variant).
+     * Start applying a delta against an existing file. Instructions are fed to
+     * the returned applier in destination order.
      */
-    private int computeWeakHash(byte[] block) {
-        int a = 1;
-        int b = 0;
+    public DeltaApplier beginDelta(String fileId, SecretKey userKey) {
+        // Original blocks are numbered per chunk, as in computeSignature
+        ChunkManifest source = fileRepository.getFileManifest(fileId);
+        int[] chunkLengths = chunkLengths(source, userKey);
+        int[] firstBlock = new int[chunkLengths.length + 1];
+        for (int c = 0; c < chunkLengths.length; c++) {
+            firstBlock[c + 1] = firstBlock[c] + BlockSignatures.blockCount(chunkLengths[c]);
+        }
+        return new DeltaApplier(fileId, source, chunkLengths, firstBlock, userKey);
+    }
+
+    /**
+     * Streaming delta application. The new file is emitted as a manifest rather
+     * than rebuilt in memory: copies that cover a whole original chunk in order
+     * reuse that chunk's hash without reading it. Only inserted bytes and the
+     * partial copies around them are buffered, re-chunked and stored, so memory
+     * and CPU scale with the size of the edit instead of the file.
+     *
+     * Not thread-safe; feed it from one thread (or one gRPC call) at a time.
+     */
+    public final class DeltaApplier {
+
+        private final String fileId;
+        private final ChunkManifest source;
+        private final int[] chunkLengths;
+        private final int[] firstBlock;
+        private final SecretKey userKey;
+        private final DeltaWriter writer;
+
+        // Copies seen so far of a chunk that may still be copied whole
+        private int runChunk = -1;
+        private int runNext;
+
+        private int loadedChunk = -1;
+        private byte[] loadedData;
+
+        private DeltaApplier(String fileId, ChunkManifest source, int[] chunkLengths, int[] firstBlock, SecretKey userKey) {
+            this.fileId = fileId;
+            this.source = source;
+            this.chunkLengths = chunkLengths;
+            this.firstBlock = firstBlock;
+            this.userKey = userKey;
+            // New chunks are hashed like the original's, so the manifest stays single-digest
+            this.writer = new DeltaWriter(userKey, source.digest());
+        }
+
+        /**
+         * Copy {@code count} consecutive blocks of the original file.
+         *
+         * @throws IllegalArgumentException if the range is outside the original file
+         */
+        public void copy(int sourceBlock, int count) {
+            int totalBlocks = firstBlock[chunkLengths.length];
+            if (count <= 0 || sourceBlock < 0 || sourceBlock > totalBlocks - count) {
+                throw new IllegalArgumentException("COPY of unknown block " + sourceBlock
+                    + (count != 1 ? " (+" + count + ")" : ""));
+            }
+            for (int block = sourceBlock; block < sourceBlock + count; block++) {
+                copyBlock(block);
+            }
+        }
+
+        public void insert(byte[] data, int offset, int length) {
+            abandonRun();
+            writer.write(data, offset, length);
+        }
+
+        public void insert(ByteBuffer data) {
+            abandonRun();
+            writer.write(data);
+        }
+
+        /**
+         * Store the remaining bytes and return the new version's manifest.
+         */
+        public ChunkManifest finish() {
+            abandonRun();
+            ChunkManifest result = writer.finish();
+            logger.info("Delta applied to {}: {} bytes, {} chunks reused, {} chunks written",
+                fileId, result.totalSize(), writer.reused, writer.written);
+            return result;
+        }
+
+        public int chunksReused() {
+            return writer.reused;
+        }
+
+        public int chunksWritten() {
+            return writer.written;
+        }
+
+        private void copyBlock(int block) {
+            if (runChunk >= 0 && block == runNext) {
+                runNext++;
+                completeRun();
+                return;
+            }
+            abandonRun();
+
+            int chunk = chunkOfBlock(firstBlock, block);
+            if (block == firstBlock[chunk]) {
+                runChunk = chunk;
+                runNext = block + 1;
+                completeRun();
+                return;
+            }
+            writeBlock(chunk, block);
+        }
 
-        for (byte value : block) {
-            a = (a + (value & 0xFF)) % 65521;
-            b = (b + a) % 65521;
+        private void completeRun() {
+            if (runNext == firstBlock[runChunk + 1]) {
+                writer.reuse(source.hash(runChunk), chunkLengths[runChunk]);
+                runChunk = -1;
+            }
+        }
+
+        /**
+         * The run stopped short of the whole chunk: write its blocks out as bytes.
+         */
+        private void abandonRun() {
+            if (runChunk < 0) return;
+            int chunk = runChunk;
+            runChunk = -1;
+            for (int block = firstBlock[chunk]; block < runNext; block++) {
+                writeBlock(chunk, block);
+            }
+        }
+
+        private void writeBlock(int chunk, int block) {
+            if (chunk != loadedChunk) {
+                loadedData = storageService.readChunk(source.hash(chunk), userKey);
+                loadedChunk = chunk;
+            }
+            int from = (block - firstBlock[chunk]) * BLOCK_SIZE;
+            writer.write(loadedData, from, Math.min(BLOCK_SIZE, loadedData.length - from));
         }
+    }
 
-        return (b << 16) | a;
+    /**
+     * Plaintext length of every chunk of the original file. Files linked before
+     * lengths were recorded have their chunks read once to find out.
+     */
+    private int[] chunkLengths(ChunkManifest manifest, SecretKey userKey) {
+        int[] lengths = new int[manifest.chunkCount()];
+        for (int c = 0; c < lengths.length; c++) {
+            lengths[c] = manifest.supportsRanges()
+                ? manifest.length(c)
+                : storageService.readChunk(manifest.hash(c), userKey).length;
+        }
+        return lengths;
     }
 
     /**
-     * Compute strong hash (SHA-256).
+     * Chunk holding an original block (chunks without blocks are skipped).
      */
-    private String computeStrongHash(byte[] block) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(block);
-            StringBuilder sb = new StringBuilder();
-            for (byte b : hash) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
-        } catch (Exception e) {
-            return "";
+    private static int chunkOfBlock(int[] firstBlock, int block) {
+        int low = 0;
+        int high = firstBlock.length - 2;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (firstBlock[mid] <= block) low = mid;
+            else high = mid - 1;
+        }
+        return low;
+    }
+
+    /**
+     * Builds the new version's chunk list. New bytes are buffered and cut with
+     * the content-defined chunker; at most about two maximum-size chunks are
+     * held at once.
+     */
+    private final class DeltaWriter {
+
+        private final SecretKey userKey;
+        private final ChunkDigest digest;
+        private final List<String> hashes = new ArrayList<>();
+        private final List<Integer> lengths = new ArrayList<>();
+        private byte[] pending = new byte[64 * 1024];
+        private int pendingLength;
+        private int reused;
+        private int written;
+
+        DeltaWriter(SecretKey userKey, ChunkDigest digest) {
+            this.userKey = userKey;
+            this.digest = digest;
+        }
+
+        void reuse(String hash, int length) {
+            flush(true);
+            hashes.add(hash);
+            lengths.add(length);
+            reused++;
+        }
+
+        void write(byte[] data, int offset, int length) {
+            reserve(length);
+            System.arraycopy(data, offset, pending, pendingLength, length);
+            appended(length);
+        }
+
+        void write(ByteBuffer data) {
+            int length = data.remaining();
+            reserve(length);
+            data.get(pending, pendingLength, length);
+            appended(length);
+        }
+
+        private void reserve(int length) {
+            if (pendingLength + length > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + length));
+            }
+        }
+
+        private void appended(int length) {
+            pendingLength += length;
+            if (pendingLength >= 2 * fastCdcChunker.maxSize()) {
+                flush(false);
+            }
+        }
+
+        ChunkManifest finish() {
+            flush(true);
+            return ChunkManifest.of(hashes, lengths, Collections.nCopies(hashes.size(), (Long) null), digest);
+        }
+
+        /**
+         * Store buffered bytes as chunks. Unless {@code all}, only cuts that see a
+         * full maxSize window are taken, so boundaries do not depend on buffering.
+         */
+        private void flush(boolean all) {
+            int position = 0;
+            while (position < pendingLength && (all || pendingLength - position >= fastCdcChunker.maxSize())) {
+                int cut = fastCdcChunker.cutPoint(pending, position, pendingLength - position);
+                store(position, cut);
+                position += cut;
+            }
+            System.arraycopy(pending, position, pending, 0, pendingLength - position);
+            pendingLength -= position;
+        }
+
+        private void store(int offset, int length) {
+            String hash = digest.hash(pending, offset, length);
+            if (!chunkIndexService.exists(hash)) {
+                ReadableByteChannel chunk = Channels.newChannel(new ByteArrayInputStream(pending, offset, length));
+                if (userKey != null) {
+                    storageService.putChunk(hash, chunk, length, userKey);
+                } else {
+                    storageService.putChunk(hash, chunk, length);
+                }
+                fileRepository.saveChunkSignature(hash, BLOCK_SIZE,
+                    new FileRepository.ChunkSignature(length, BlockSignatures.of(pending, offset, length)));
+                written++;
+            }
+            chunkIndexService.register(hash, length);
+            hashes.add(hash);
+            lengths.add(length);
         }
     }
 }
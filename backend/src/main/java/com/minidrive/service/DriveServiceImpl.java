@@ -1,20 +1,45 @@
 package com.minidrive.service;
 
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import com.minidrive.chunking.BlockSignatures;
+import com.minidrive.chunking.ChunkDigest;
 import com.minidrive.grpc.*;
+import com.minidrive.repository.ChunkManifest;
+import com.minidrive.repository.FileRepository;
+import com.minidrive.storage.ChunkStreamReader;
 import com.minidrive.storage.StorageService;
 import com.minidrive.db.DatabaseService;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.security.core.context.SecurityContextHolder;
 
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 @Service
 public class DriveServiceImpl extends DriveServiceGrpc.DriveServiceImplBase {
 
+	private static final Logger logger = LoggerFactory.getLogger(DriveServiceImpl.class);
+
 	@Autowired
 	private StorageService storageService;
 
@@ -24,33 +49,97 @@ public class DriveServiceImpl extends DriveServiceGrpc.DriveServiceImplBase {
 	@Autowired
 	private RabbitTemplate rabbitTemplate;
 
-	// Maps
-	private static final Map<String, String> UPLOAD_FOLDER_MAP = new ConcurrentHashMap<>();
-	private static final Map<String, UploadRequest> CURRENT_UPLOADS = new ConcurrentHashMap<>();
-	private static final Map<String, List<String>> UPLOAD_CHUNKS_MAP = new ConcurrentHashMap<>();
+	@Autowired
+	private FileRepository fileRepository;
+
+	@Autowired
+	private DeltaSyncService deltaSyncService;
+
+	@Autowired
+	private UserKeyCache userKeyCache;
+
+	@Autowired
+	private UploadStateService uploadStateService;
+
+	@Autowired
+	private ChunkIngestService chunkIngestService;
+
+	@Autowired
+	private ChunkStreamReader chunkStreamReader;
+
+	// Storage workers for pipelined uploads; each stream gets uploadWindow chunks of credit
+	@Value("${minidrive.grpc.upload-workers:8}")
+	private int uploadWorkers;
+
+	@Value("${minidrive.grpc.upload-window:4}")
+	private int uploadWindow;
+
+	private ExecutorService uploadPool;
+
+	// One slot per chunk requested from a client and not yet stored, shared by all
+	// pipelined upload streams: bounds the chunk data held in memory server-wide
+	private Semaphore uploadSlots;
+	private final Queue<Runnable> uploadSlotWaiters = new ConcurrentLinkedQueue<>();
+
+	// Download messages are split below chunk size: chunks can be larger than a
+	// client's default 4 MB inbound message limit
+	private static final int DOWNLOAD_MESSAGE_SIZE = 1024 * 1024;
+
+	private static final long QUOTA_BYTES = 5L * 1024 * 1024 * 1024;
 
 	public DriveServiceImpl() {
 		// Empty constructor (Spring handles injection)
 	}
 
-	// --- 1. Manual Init for REST Controller ---
-	public void manualInit(String uploadId, String filename, long size, String folderId) {
-		UploadRequest request = UploadRequest.newBuilder().setFilename(filename).setTotalSizeBytes(size).build();
-		CURRENT_UPLOADS.put(uploadId, request);
-		UPLOAD_CHUNKS_MAP.put(uploadId, new ArrayList<>());
-		if (folderId != null) {
-			UPLOAD_FOLDER_MAP.put(uploadId, folderId);
-		}
-		System.out.println("Init Upload: " + filename + " [" + uploadId + "] Folder: " + folderId);
+	@PostConstruct
+	public void init() {
+		AtomicInteger threadId = new AtomicInteger();
+		int workers = Math.max(1, uploadWorkers);
+		// A chunk is only submitted with a slot held, so at most one chunk per worker ever waits in the queue
+		uploadSlots = new Semaphore(2 * workers);
+		uploadPool = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(workers), r -> {
+			Thread t = new Thread(r, "grpc-upload-" + threadId.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		uploadPool.shutdownNow();
 	}
 
-	// --- 2. Standard gRPC Init ---
+	// --- 1. Init ---
+	// Sessions live in Redis (UploadStateService), shared with REST uploads, so
+	// any node can serve any call of an upload.
 	@Override
 	public void initiateUpload(UploadRequest request, StreamObserver<UploadResponse> responseObserver) {
-		String uploadId = UUID.randomUUID().toString();
+		String username = SecurityContextHolder.getContext().getAuthentication().getName();
+		ChunkDigest digest;
+		try {
+			digest = digestOf(request);
+		} catch (IllegalArgumentException e) {
+			responseObserver.onError(new RuntimeException(e.getMessage()));
+			return;
+		}
+
+		// Quota Check (same limit as REST)
+		Map<String, Long> stats = databaseService.getUserStats(username);
+		if (stats.getOrDefault("used", 0L) + request.getTotalSizeBytes() > QUOTA_BYTES) {
+			responseObserver.onError(new RuntimeException("Quota Exceeded"));
+			return;
+		}
 
-		CURRENT_UPLOADS.put(uploadId, request);
-		UPLOAD_CHUNKS_MAP.put(uploadId, new ArrayList<>());
+		String uploadId = UUID.randomUUID().toString();
+		String folderId = request.getFolderId().isEmpty() ? null : request.getFolderId();
+		try {
+			uploadStateService.initSession(uploadId, request.getFilename(), request.getTotalSizeBytes(), folderId,
+					username, digest, request.getChunkCount());
+		} catch (IllegalArgumentException e) {
+			responseObserver.onError(new RuntimeException(e.getMessage()));
+			return;
+		}
 
 		System.out.println("Start Upload (gRPC): " + request.getFilename() + " [" + uploadId + "]");
 
@@ -59,51 +148,87 @@ public class DriveServiceImpl extends DriveServiceGrpc.DriveServiceImplBase {
 		responseObserver.onCompleted();
 	}
 
-	// Helper to set folder (if coming from gRPC side later)
-	public void setUploadFolder(String uploadId, String folderId) {
-		if (folderId != null) {
-			UPLOAD_FOLDER_MAP.put(uploadId, folderId);
-		}
+	private static ChunkDigest digestOf(UploadRequest request) {
+		return request.getChunkDigest().isEmpty() ? ChunkDigest.SHA256 : ChunkDigest.forName(request.getChunkDigest());
+	}
+
+	/**
+	 * The caller's upload session, or null if it does not exist or belongs to someone else.
+	 */
+	private UploadStateService.UploadMetadata sessionOf(String uploadId, String username) {
+		UploadStateService.UploadMetadata meta = uploadStateService.getMetadata(uploadId);
+		return meta != null && meta.username().equals(username) ? meta : null;
 	}
 
 	// --- 3. Chunk Check (Deduplication) ---
 	@Override
 	public void checkChunkExistence(ChunkCheckRequest request, StreamObserver<ChunkCheckResponse> responseObserver) {
-		List<Integer> missingIndices = new ArrayList<>();
-		List<String> incomingHashes = request.getChunkHashesList();
+		String username = SecurityContextHolder.getContext().getAuthentication().getName();
+		String uploadId = request.getUploadId();
 
-		UPLOAD_CHUNKS_MAP.put(request.getUploadId(), new ArrayList<>(incomingHashes));
+		if (sessionOf(uploadId, username) == null) {
+			responseObserver.onError(new RuntimeException("Upload session not found! ID: " + uploadId));
+			return;
+		}
 
-		for (int i = 0; i < incomingHashes.size(); i++) {
-			String hash = incomingHashes.get(i);
-			boolean dbHasIt = databaseService.hasChunk(hash); // Hybrid Check
+		// Chunks the server already stores are registered in the session right away;
+		// the rest are registered as they are uploaded
+		UploadStateService.UploadProgress progress;
+		try {
+			progress = uploadStateService.negotiate(uploadId, request.getChunkHashesList(), 0);
+		} catch (IllegalArgumentException e) {
+			responseObserver.onError(new RuntimeException("Invalid chunk hashes: " + e.getMessage()));
+			return;
+		}
+		if (progress == null) {
+			responseObserver.onError(new RuntimeException("Upload session not found! ID: " + uploadId));
+			return;
+		}
 
-			if (!dbHasIt) {
-				missingIndices.add(i);
-			} else {
-				// System.out.println(">> Dedup: Chunk " + i + " exists globally.");
+		ChunkCheckResponse.Builder response = ChunkCheckResponse.newBuilder();
+		for (UploadStateService.ChunkRange range : progress.missing()) {
+			for (int i = range.start(); i < range.end(); i++) {
+				response.addMissingChunkIndices(i);
 			}
 		}
-
-		ChunkCheckResponse response = ChunkCheckResponse.newBuilder()
-				.addAllMissingChunkIndices(missingIndices)
-				.build();
-		responseObserver.onNext(response);
+		responseObserver.onNext(response.build());
 		responseObserver.onCompleted();
 	}
 
 	// --- 4. Upload Stream ---
 	@Override
 	public StreamObserver<ChunkData> uploadChunk(StreamObserver<UploadStatus> responseObserver) {
+		String username = SecurityContextHolder.getContext().getAuthentication().getName();
 		return new StreamObserver<ChunkData>() {
+			private boolean failed;
+			private String uploadId;
+			private UploadStateService.UploadMetadata session;
+
 			@Override
 			public void onNext(ChunkData chunk) {
-				String hash = chunk.getChunkHash();
-				byte[] data = chunk.getData().toByteArray();
-
-				if (!storageService.doesChunkExist(hash)) {
-					storageService.uploadChunk(hash, data);
-					// System.out.println("Uploaded Chunk #" + chunk.getChunkIndex());
+				if (failed) return;
+				if (!chunk.getUploadId().equals(uploadId)) {
+					uploadId = chunk.getUploadId();
+					session = sessionOf(uploadId, username);
+				}
+				if (session == null) {
+					fail("Upload session not found! ID: " + uploadId);
+					return;
+				}
+				String hash = chunk.getChunkHash().toLowerCase(Locale.ROOT);
+
+				// Verified before it is committed: hashed on the hashing pool while the
+				// protobuf buffer streams into staging (no toByteArray() copy)
+				try {
+					uploadStateService.checkChunkIndex(session, chunk.getChunkIndex());
+					// Throws if the key can't be loaded: never store the chunk unencrypted instead
+					SecretKey userKey = userKeyCache.getKey(username);
+					chunkIngestService.ingest(hash, session.digest(), chunk.getData()::newInput, chunk.getData().size(), userKey);
+					uploadStateService.registerChunk(uploadId, chunk.getChunkIndex(), hash);
+				} catch (IllegalArgumentException e) {
+					fail("Chunk #" + chunk.getChunkIndex() + " rejected: " + e.getMessage());
+				} catch (IOException | RuntimeException e) {
+					fail("Chunk #" + chunk.getChunkIndex() + " failed: " + e.getMessage());
 				}
 			}
 
@@ -114,9 +239,15 @@ public class DriveServiceImpl extends DriveServiceGrpc.DriveServiceImplBase {
 
 			@Override
 			public void onCompleted() {
+				if (failed) return;
 				responseObserver.onNext(UploadStatus.newBuilder().setSuccess(true).setMessage("Done").build());
 				responseObserver.onCompleted();
 			}
+
+			private void fail(String message) {
+				failed = true;
+				responseObserver.onError(new RuntimeException(message));
+			}
 		};
 	}
 
@@ -124,33 +255,39 @@ public class DriveServiceImpl extends DriveServiceGrpc.DriveServiceImplBase {
 	@Override
 	public void completeUpload(CompleteRequest request, StreamObserver<FileMetadata> responseObserver) {
 		String uploadId = request.getUploadId();
+		String username = SecurityContextHolder.getContext().getAuthentication().getName();
 
 		// Retrieve Session Data
-		UploadRequest originalInfo = CURRENT_UPLOADS.get(uploadId);
-		List<String> orderedHashes = UPLOAD_CHUNKS_MAP.get(uploadId);
+		UploadStateService.UploadMetadata originalInfo = sessionOf(uploadId, username);
+		List<String> orderedHashes = originalInfo != null ? uploadStateService.getChunkHashes(uploadId) : null;
 
 		// 1. SAFETY CHECK (Must be first)
 		if (originalInfo == null || orderedHashes == null) {
 			responseObserver.onError(new RuntimeException("Upload session not found! ID: " + uploadId));
 			return;
 		}
+		String incomplete = uploadStateService.incompleteReason(originalInfo, orderedHashes);
+		if (incomplete != null) {
+			responseObserver.onError(new RuntimeException(incomplete + " for upload " + uploadId));
+			return;
+		}
 
 		// 2. Context Data
-		String username = SecurityContextHolder.getContext().getAuthentication().getName();
 		String newFileId = UUID.randomUUID().toString();
-		String folderId = UPLOAD_FOLDER_MAP.get(uploadId); // Get Folder ID
+		String folderId = originalInfo.folderId();
 
 		// 3. Save Metadata (Single Call)
-		databaseService.saveFileMetadata(newFileId, originalInfo.getFilename(), originalInfo.getTotalSizeBytes(), username, folderId);
+		databaseService.saveFileMetadata(newFileId, originalInfo.filename(), originalInfo.size(), username, folderId);
 
-		// 4. Link Chunks
-		for (int i = 0; i < orderedHashes.size(); i++) {
-			databaseService.addChunkToFile(newFileId, orderedHashes.get(i), i);
+		// 4. Link Chunks (one batched transaction, with plaintext offsets for ranged reads)
+		if (!fileRepository.addChunksToFile(newFileId, orderedHashes, originalInfo.digest()).success) {
+			responseObserver.onError(new RuntimeException("Failed to link chunks for file " + newFileId));
+			return;
 		}
 
 		// 5. RabbitMQ Event
 		if (rabbitTemplate != null) {
-			String message = "FILE_ID:" + newFileId + "|NAME:" + originalInfo.getFilename();
+			String message = "FILE_ID:" + newFileId + "|NAME:" + originalInfo.filename();
 			try {
 				rabbitTemplate.convertAndSend("file-processing-queue", message);
 				System.out.println("⚡ EVENT: Sent to RabbitMQ: " + message);
@@ -159,21 +296,494 @@ public class DriveServiceImpl extends DriveServiceGrpc.DriveServiceImplBase {
 			}
 		}
 
-		// 6. Cleanup Memory
-		CURRENT_UPLOADS.remove(uploadId);
-		UPLOAD_CHUNKS_MAP.remove(uploadId);
-		UPLOAD_FOLDER_MAP.remove(uploadId);
+		// 6. Cleanup Session
+		uploadStateService.cleanupSession(uploadId);
 
-		System.out.println("File Finalized: " + originalInfo.getFilename() + " (Folder: " + folderId + ")");
+		System.out.println("File Finalized: " + originalInfo.filename() + " (Folder: " + folderId + ")");
 
 		// 7. Response
 		FileMetadata metadata = FileMetadata.newBuilder()
 				.setFileId(newFileId)
 				.setVersion(1)
-				.setUrl("http://localhost:9000/drive-chunks/" + orderedHashes.get(0))
+				.setUrl(orderedHashes.isEmpty() ? "" : "http://localhost:9000/drive-chunks/" + orderedHashes.get(0))
 				.build();
 
 		responseObserver.onNext(metadata);
 		responseObserver.onCompleted();
 	}
-}
\ No newline at end of file
+
+	// --- 6. Delta Sync: Signature ---
+	@Override
+	public void getSignature(SignatureRequest request, StreamObserver<SignatureChunk> responseObserver) {
+		String username = SecurityContextHolder.getContext().getAuthentication().getName();
+		String fileId = request.getFileId();
+
+		if (fileRepository.getFileMetadataById(fileId, username) == null) {
+			responseObserver.onError(new RuntimeException("File not found: " + fileId));
+			return;
+		}
+
+		FileSignature signature = deltaSyncService.computeSignature(fileId, username, userKeyCache.getKey(username));
+		if (signature != null) {
+			for (int c = 0; c < signature.chunkCount(); c++) {
+				responseObserver.onNext(SignatureChunk.newBuilder()
+						.setChunkIndex(c)
+						.setBlockSize(BlockSignatures.BLOCK_SIZE)
+						.setPlainLength(signature.chunkLength(c))
+						.setBlocks(ByteString.copyFrom(signature.chunkBlocks(c)))
+						.build());
+			}
+		}
+		responseObserver.onCompleted();
+	}
+
+	// --- 7. Delta Sync: Upload ---
+	// Instructions are applied as they arrive: unchanged chunks are referenced,
+	// only inserted data is chunked and stored. onNext blocks while a chunk is
+	// stored and the next message is only requested after it returns, so a fast
+	// client is held back by HTTP/2 flow control instead of being buffered here.
+	@Override
+	public StreamObserver<DeltaMessage> uploadDelta(StreamObserver<DeltaResult> responseObserver) {
+		String username = SecurityContextHolder.getContext().getAuthentication().getName();
+
+		return new StreamObserver<DeltaMessage>() {
+			private DeltaHeader header;
+			private DeltaSyncService.DeltaApplier applier;
+			private boolean failed;
+
+			@Override
+			public void onNext(DeltaMessage message) {
+				if (failed) return;
+				try {
+					switch (message.getInstructionCase()) {
+						case HEADER -> start(message.getHeader());
+						case COPY -> requireApplier().copy(message.getCopy().getSourceBlock(), message.getCopy().getBlockCount());
+						case INSERT -> requireApplier().insert(message.getInsert().asReadOnlyByteBuffer());
+						default -> throw new IllegalArgumentException("Empty delta message");
+					}
+				} catch (RuntimeException e) {
+					fail("Invalid delta: " + e.getMessage());
+				}
+			}
+
+			@Override
+			public void onError(Throwable t) {
+				logger.warn("Delta stream from {} failed", username, t);
+			}
+
+			@Override
+			public void onCompleted() {
+				if (failed) return;
+				if (applier == null) {
+					fail("Delta header missing");
+					return;
+				}
+
+				ChunkManifest manifest;
+				try {
+					manifest = applier.finish();
+				} catch (RuntimeException e) {
+					fail("Delta upload failed: " + e.getMessage());
+					return;
+				}
+
+				String newFileId = UUID.randomUUID().toString();
+				if (!fileRepository.saveFileMetadata(newFileId, header.getFilename(), manifest.totalSize(), username, null).success
+						|| !fileRepository.addChunksToFile(newFileId, manifest.hashes(), manifest.digest()).success) {
+					fail("Failed to save file " + newFileId);
+					return;
+				}
+
+				responseObserver.onNext(DeltaResult.newBuilder()
+						.setFileId(newFileId)
+						.setSize(manifest.totalSize())
+						.setChunksReused(applier.chunksReused())
+						.setChunksWritten(applier.chunksWritten())
+						.build());
+				responseObserver.onCompleted();
+			}
+
+			private void start(DeltaHeader deltaHeader) {
+				if (applier != null) {
+					throw new IllegalArgumentException("Duplicate delta header");
+				}
+				if (fileRepository.getFileMetadataById(deltaHeader.getFileId(), username) == null) {
+					throw new IllegalArgumentException("File not found: " + deltaHeader.getFileId());
+				}
+				header = deltaHeader;
+				applier = deltaSyncService.beginDelta(deltaHeader.getFileId(), userKeyCache.getKey(username));
+			}
+
+			private DeltaSyncService.DeltaApplier requireApplier() {
+				if (applier == null) {
+					throw new IllegalArgumentException("Delta header must come first");
+				}
+				return applier;
+			}
+
+			private void fail(String message) {
+				failed = true;
+				responseObserver.onError(new RuntimeException(message));
+			}
+		};
+	}
+
+	// --- 8. Resume: Upload Status ---
+	@Override
+	public void getUploadStatus(UploadStatusRequest request, StreamObserver<UploadStatusResponse> responseObserver) {
+		String username = SecurityContextHolder.getContext().getAuthentication().getName();
+		String uploadId = request.getUploadId();
+		List<String> declared = request.getChunkHashesCount() > 0 ? request.getChunkHashesList() : null;
+
+		UploadStatusResponse.Builder response = UploadStatusResponse.newBuilder();
+
+		if (sessionOf(uploadId, username) == null) {
+			responseObserver.onError(new RuntimeException("Upload session not found! ID: " + uploadId));
+			return;
+		}
+		UploadStateService.UploadProgress progress;
+		try {
+			progress = uploadStateService.negotiate(uploadId, declared, request.getChunkCount());
+		} catch (IllegalArgumentException e) {
+			responseObserver.onError(new RuntimeException("Invalid upload status request: " + e.getMessage()));
+			return;
+		}
+		if (progress == null) {
+			responseObserver.onError(new RuntimeException("Upload session not found! ID: " + uploadId));
+			return;
+		}
+		response.setChunkCount(progress.chunkCount()).setReceivedCount(progress.receivedCount());
+		for (UploadStateService.ChunkRange range : progress.missing()) {
+			response.addMissing(ChunkRange.newBuilder().setStart(range.start()).setEnd(range.end()));
+		}
+
+		responseObserver.onNext(response.build());
+		responseObserver.onCompleted();
+	}
+
+	// --- 9. Pipelined Upload (bidi, per-chunk acks) ---
+	@Override
+	public StreamObserver<ChunkData> uploadChunks(StreamObserver<ChunkAck> responseObserver) {
+		ServerCallStreamObserver<ChunkAck> serverObserver = (ServerCallStreamObserver<ChunkAck>) responseObserver;
+		// Manual inbound flow control: a chunk is only requested once a storage slot is
+		// held for it, so neither a fast client nor many streams can queue unbounded
+		// chunk data in server memory
+		serverObserver.disableAutoRequest();
+		// Storage workers run outside the call's security context
+		String username = SecurityContextHolder.getContext().getAuthentication().getName();
+		int window = Math.max(1, uploadWindow);
+
+		var requestObserver = new StreamObserver<ChunkData>() {
+			// All guarded by this observer; acks are sent from storage workers, one at a time
+			private int requested; // slots held for chunks requested but not received yet
+			private int inFlight;  // slots held for chunks being stored
+			private boolean waiting; // in uploadSlotWaiters
+			private boolean halfClosed;
+			private boolean done;
+
+			@Override
+			public void onNext(ChunkData chunk) {
+				synchronized (this) {
+					requested--;
+					inFlight++;
+				}
+				uploadPool.execute(() -> {
+					ChunkAck ack = storeChunk(chunk, username);
+					synchronized (this) {
+						inFlight--;
+						if (!done) {
+							responseObserver.onNext(ack);
+							if (halfClosed && inFlight == 0) {
+								finish();
+							}
+						}
+					}
+					releaseUploadSlots(1);
+					requestMore();
+				});
+			}
+
+			@Override
+			public void onError(Throwable t) {
+				// Client went away; chunks already handed to workers still finish storing
+				int unused;
+				synchronized (this) {
+					done = true;
+					unused = requested;
+					requested = 0;
+				}
+				releaseUploadSlots(unused);
+				logger.warn("Pipelined upload from {} failed", username, t);
+			}
+
+			@Override
+			public void onCompleted() {
+				// No more chunks will arrive for the slots still held for requests
+				int unused;
+				synchronized (this) {
+					halfClosed = true;
+					unused = requested;
+					requested = 0;
+					if (inFlight == 0 && !done) {
+						finish();
+					}
+				}
+				releaseUploadSlots(unused);
+			}
+
+			/**
+			 * Request one chunk per storage slot this stream can take, up to the window.
+			 * Without a free slot the stream waits in line and is called again on release.
+			 */
+			void requestMore() {
+				boolean enqueue = false;
+				synchronized (this) {
+					int granted = 0;
+					while (!done && !halfClosed && requested + inFlight < window) {
+						if (!uploadSlots.tryAcquire()) {
+							enqueue = !waiting;
+							waiting = true;
+							break;
+						}
+						requested++;
+						granted++;
+					}
+					if (granted > 0) {
+						serverObserver.request(granted);
+					}
+				}
+				if (enqueue) {
+					uploadSlotWaiters.add(() -> {
+						synchronized (this) {
+							waiting = false;
+						}
+						requestMore();
+					});
+					// A slot released between the failed tryAcquire and the add must not be missed
+					releaseUploadSlots(0);
+				}
+			}
+
+			private void finish() {
+				done = true;
+				responseObserver.onCompleted();
+			}
+		};
+
+		requestObserver.requestMore();
+		return requestObserver;
+	}
+
+	/**
+	 * Return pipelined upload slots and hand free ones to streams waiting for a slot.
+	 */
+	private void releaseUploadSlots(int slots) {
+		if (slots > 0) {
+			uploadSlots.release(slots);
+		}
+		Runnable waiter;
+		while (uploadSlots.availablePermits() > 0 && (waiter = uploadSlotWaiters.poll()) != null) {
+			waiter.run();
+		}
+	}
+
+	/**
+	 * Verify and store one chunk of a pipelined upload, reporting the outcome as an ack.
+	 */
+	private ChunkAck storeChunk(ChunkData chunk, String username) {
+		ChunkAck.Builder ack = ChunkAck.newBuilder()
+				.setChunkIndex(chunk.getChunkIndex())
+				.setChunkHash(chunk.getChunkHash());
+
+		UploadStateService.UploadMetadata upload = sessionOf(chunk.getUploadId(), username);
+		if (upload == null) {
+			return ack.setResult(ChunkAck.Result.REJECTED).setMessage("Upload session not found").build();
+		}
+
+		String hash = chunk.getChunkHash().toLowerCase(Locale.ROOT);
+		try {
+			uploadStateService.checkChunkIndex(upload, chunk.getChunkIndex());
+			// Throws if the key can't be loaded: never store the chunk unencrypted instead
+			SecretKey userKey = userKeyCache.getKey(username);
+			boolean stored = chunkIngestService.ingest(hash, upload.digest(), chunk.getData()::newInput, chunk.getData().size(), userKey);
+			uploadStateService.registerChunk(chunk.getUploadId(), chunk.getChunkIndex(), hash);
+			return ack.setResult(stored ? ChunkAck.Result.STORED : ChunkAck.Result.DEDUPLICATED).build();
+		} catch (IllegalArgumentException e) {
+			return ack.setResult(ChunkAck.Result.REJECTED).setMessage(e.getMessage()).build();
+		} catch (IOException | RuntimeException e) {
+			return ack.setResult(ChunkAck.Result.FAILED).setMessage(e.getMessage() != null ? e.getMessage() : e.toString()).build();
+		}
+	}
+
+	// --- 10. Download ---
+	@Override
+	public void downloadFile(DownloadRequest request, StreamObserver<FileChunk> responseObserver) {
+		String username = SecurityContextHolder.getContext().getAuthentication().getName();
+		String fileId = request.getFileId();
+
+		Map<String, Object> metadata = fileRepository.getFileMetadataById(fileId, username);
+		if (metadata == null) {
+			responseObserver.onError(new RuntimeException("File not found: " + fileId));
+			return;
+		}
+
+		ChunkManifest manifest = fileRepository.getFileManifest(fileId);
+		SecretKey userKey = userKeyCache.getKey(username);
+		long totalSize = (Long) metadata.get("size");
+		streamChunks((ServerCallStreamObserver<FileChunk>) responseObserver, 0, totalSize,
+				listener -> chunkStreamReader.prefetch(manifest, userKey, listener));
+	}
+
+	@Override
+	public void downloadRange(RangeRequest request, StreamObserver<FileChunk> responseObserver) {
+		String username = SecurityContextHolder.getContext().getAuthentication().getName();
+		String fileId = request.getFileId();
+
+		if (fileRepository.getFileMetadataById(fileId, username) == null) {
+			responseObserver.onError(new RuntimeException("File not found: " + fileId));
+			return;
+		}
+
+		ChunkManifest manifest = fileRepository.getFileManifest(fileId);
+		if (!manifest.supportsRanges()) {
+			responseObserver.onError(new RuntimeException("File does not support ranged reads: " + fileId));
+			return;
+		}
+		long totalSize = manifest.totalSize();
+		long start = request.getOffset();
+		if (start < 0 || request.getLength() < 0 || start >= totalSize) {
+			responseObserver.onError(new RuntimeException("Range not satisfiable: " + start + " of " + totalSize));
+			return;
+		}
+		long end = request.getLength() == 0 ? totalSize - 1 : Math.min(totalSize, start + request.getLength()) - 1;
+
+		SecretKey userKey = userKeyCache.getKey(username);
+		streamChunks((ServerCallStreamObserver<FileChunk>) responseObserver, start, totalSize,
+				listener -> chunkStreamReader.prefetchRange(manifest, userKey, start, end, listener));
+	}
+
+	/**
+	 * Emit prefetched chunks in order, only while the transport is ready. Both a
+	 * finished fetch and a ready transport re-run the drain, so neither a slow
+	 * client nor a slow chunk holds a thread, and at most the read-ahead window
+	 * is buffered.
+	 */
+	private void streamChunks(ServerCallStreamObserver<FileChunk> observer, long startOffset, long totalSize,
+							  Function<Runnable, ChunkStreamReader.Prefetcher> open) {
+		class Drain implements Runnable {
+			// All guarded by this drain
+			private ChunkStreamReader.Prefetcher chunks;
+			private ChunkStreamReader.Prefetcher.Chunk chunk;
+			private ByteBuffer current;
+			private long offset = startOffset;
+			private boolean done;
+
+			@Override
+			public synchronized void run() {
+				if (done) return;
+				if (chunks == null) {
+					chunks = open.apply(this);
+				}
+				try {
+					while (observer.isReady()) {
+						if (current == null || !current.hasRemaining()) {
+							// Fully handed to the transport: give its read-ahead budget back
+							releaseChunk();
+							chunk = chunks.poll();
+							if (chunk == null) {
+								if (chunks.isDone()) {
+									finish();
+									observer.onCompleted();
+								}
+								return; // Runs again when the next chunk is fetched
+							}
+							current = chunk.data();
+						}
+						int length = Math.min(DOWNLOAD_MESSAGE_SIZE, current.remaining());
+						ByteString data = UnsafeByteOperations.unsafeWrap(current.slice(current.position(), length));
+						current.position(current.position() + length);
+						observer.onNext(FileChunk.newBuilder()
+								.setOffset(offset)
+								.setData(data)
+								.setTotalSize(totalSize)
+								.build());
+						offset += length;
+					}
+				} catch (IOException | RuntimeException e) {
+					finish();
+					logger.warn("Chunk download failed at offset {}", offset, e);
+					observer.onError(new RuntimeException("Download failed: " + e.getMessage()));
+				}
+			}
+
+			synchronized void cancel() {
+				// Client went away: stop fetching and release the read-ahead budget
+				finish();
+			}
+
+			private void releaseChunk() {
+				if (chunk != null) {
+					chunk.close();
+					chunk = null;
+				}
+				current = null;
+			}
+
+			private void finish() {
+				done = true;
+				releaseChunk();
+				if (chunks != null) {
+					chunks.close();
+				}
+			}
+		}
+
+		Drain drain = new Drain();
+		observer.setOnCancelHandler(drain::cancel);
+		observer.setOnReadyHandler(drain);
+		drain.run();
+	}
+
+	// --- 11. File Operations ---
+	@Override
+	public void moveFile(MoveRequest request, StreamObserver<FileMetadata> responseObserver) {
+		String username = SecurityContextHolder.getContext().getAuthentication().getName();
+		String fileId = request.getFileId();
+
+		if (fileRepository.getFileMetadataById(fileId, username) == null) {
+			responseObserver.onError(new RuntimeException("File not found: " + fileId));
+			return;
+		}
+
+		if (!request.getName().isEmpty()) {
+			DatabaseService.DbResult renamed = databaseService.renameEntity(fileId, false, request.getName(), username);
+			if (!renamed.success) {
+				responseObserver.onError(new RuntimeException("Rename failed: " + renamed.message));
+				return;
+			}
+		}
+		DatabaseService.DbResult moved = databaseService.moveEntity(fileId, false, request.getFolderId(), username);
+		if (!moved.success) {
+			responseObserver.onError(new RuntimeException("Move failed: " + moved.message));
+			return;
+		}
+
+		responseObserver.onNext(FileMetadata.newBuilder().setFileId(fileId).setVersion(1).build());
+		responseObserver.onCompleted();
+	}
+
+	@Override
+	public void trashFile(TrashRequest request, StreamObserver<FileMetadata> responseObserver) {
+		String username = SecurityContextHolder.getContext().getAuthentication().getName();
+		String fileId = request.getFileId();
+
+		DatabaseService.DbResult result = databaseService.toggleTrash(fileId, false, true, username);
+		if (!result.success) {
+			responseObserver.onError(new RuntimeException("Trash failed: " + result.message));
+			return;
+		}
+
+		responseObserver.onNext(FileMetadata.newBuilder().setFileId(fileId).setVersion(1).build());
+		responseObserver.onCompleted();
+	}
+}
@@ -5,13 +5,20 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Base64;
 
 /**
@@ -27,17 +34,30 @@ import java.util.Base64;
  * - AES-256-GCM provides authenticated encryption (confidentiality + integrity)
  * - 12-byte random IV per encryption (prepended to ciphertext)
  * - 128-bit authentication tag
+ * - Chunks are written in a segmented format (per-segment tags, per-chunk derived key)
+ * - Every stored chunk object starts with a header stating plain/encrypted, segment
+ *   size and key id (see ChunkHeader), so readers never have to guess
+ * 
+ * Performance:
+ * - Cipher instances are pooled (see CipherPool); one shared SecureRandom supplies IVs
+ * - byte[] paths write/read IV and ciphertext in place (no intermediate copies)
+ * - ByteBuffer encrypt/decrypt overloads for direct or caller-owned buffers
  */
 @Service
 public class EncryptionService {
 
     private static final Logger logger = LoggerFactory.getLogger(EncryptionService.class);
 
-    private static final String ALGORITHM = "AES/GCM/NoPadding";
     private static final int GCM_IV_LENGTH = 12;      // 96 bits (NIST recommended)
     private static final int GCM_TAG_LENGTH = 128;    // 128 bits authentication tag
     private static final int AES_KEY_SIZE = 256;      // AES-256
 
+    /** Leading bytes of a stored chunk object that identify its format. */
+    public static final int HEADER_PROBE_LENGTH = ChunkHeader.PROBE_LENGTH;
+
+    // One seeded CSPRNG for all IVs (thread-safe) instead of a new SecureRandom per chunk
+    private static final SecureRandom RANDOM = new SecureRandom();
+
     // Master Key for encrypting user DEKs (in production: use Vault/KMS)
     @Value("${minidrive.encryption.master-key:default-master-key-change-in-prod!}")
     private String masterKeyBase64;
@@ -55,7 +75,7 @@ public class EncryptionService {
     public String generateUserKey() {
         try {
             KeyGenerator keyGen = KeyGenerator.getInstance("AES");
-            keyGen.init(AES_KEY_SIZE, new SecureRandom());
+            keyGen.init(AES_KEY_SIZE, RANDOM);
             SecretKey userDEK = keyGen.generateKey();
 
             // Encrypt the DEK with master key before storage
@@ -87,7 +107,8 @@ public class EncryptionService {
     // ==================== CHUNK ENCRYPTION ====================
 
     /**
-     * Encrypt a chunk before uploading to MinIO.
+     * Encrypt a small payload in the single-shot format (IV prepended to ciphertext).
+     * Chunk uploads use the segmented {@link #encryptingStream} instead.
      * 
      * @param plaintext Raw chunk data
      * @param userKey   User's DEK
@@ -95,22 +116,19 @@ public class EncryptionService {
      */
     public byte[] encryptChunk(byte[] plaintext, SecretKey userKey) {
         try {
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            
-            // Generate random IV for this encryption
-            byte[] iv = new byte[GCM_IV_LENGTH];
-            new SecureRandom().nextBytes(iv);
-            
-            GCMParameterSpec paramSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-            cipher.init(Cipher.ENCRYPT_MODE, userKey, paramSpec);
-            
-            byte[] ciphertext = cipher.doFinal(plaintext);
-            
-            // Prepend IV to ciphertext: [IV (12 bytes)][Ciphertext + Tag]
-            return ByteBuffer.allocate(iv.length + ciphertext.length)
-                    .put(iv)
-                    .put(ciphertext)
-                    .array();
+            // One allocation: IV and ciphertext are written straight into the result
+            byte[] out = new byte[singleShotLength(plaintext.length)];
+            byte[] iv = newIv();
+            System.arraycopy(iv, 0, out, 0, GCM_IV_LENGTH);
+
+            Cipher cipher = CipherPool.acquire();
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, userKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+                cipher.doFinal(plaintext, 0, plaintext.length, out, GCM_IV_LENGTH);
+            } finally {
+                CipherPool.release(cipher);
+            }
+            return out;
         } catch (Exception e) {
             logger.error("Chunk encryption failed: {}", e.getMessage());
             throw new RuntimeException("Encryption failed", e);
@@ -118,9 +136,9 @@ public class EncryptionService {
     }
 
     /**
-     * Decrypt a chunk after downloading from MinIO.
+     * Decrypt a chunk after downloading from MinIO (any stored format).
      * 
-     * @param ciphertext Encrypted chunk (IV + ciphertext)
+     * @param ciphertext Encrypted chunk
      * @param userKey    User's DEK
      * @return Decrypted plaintext chunk
      */
@@ -129,28 +147,225 @@ public class EncryptionService {
             if (ciphertext.length < GCM_IV_LENGTH) {
                 throw new IllegalArgumentException("Ciphertext too short");
             }
+            if (ChunkHeader.length(ciphertext, ciphertext.length) > 0) {
+                try (InputStream in = plaintextStream(new ByteArrayInputStream(ciphertext), userKey)) {
+                    return in.readAllBytes();
+                }
+            }
 
-            ByteBuffer buffer = ByteBuffer.wrap(ciphertext);
-            
-            // Extract IV
-            byte[] iv = new byte[GCM_IV_LENGTH];
-            buffer.get(iv);
-            
-            // Extract ciphertext
-            byte[] encryptedData = new byte[buffer.remaining()];
-            buffer.get(encryptedData);
-            
-            Cipher cipher = Cipher.getInstance(ALGORITHM);
-            GCMParameterSpec paramSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-            cipher.init(Cipher.DECRYPT_MODE, userKey, paramSpec);
-            
-            return cipher.doFinal(encryptedData);
+            // IV and ciphertext are read in place, no intermediate copies
+            Cipher cipher = CipherPool.acquire();
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, userKey, new GCMParameterSpec(GCM_TAG_LENGTH, ciphertext, 0, GCM_IV_LENGTH));
+                return cipher.doFinal(ciphertext, GCM_IV_LENGTH, ciphertext.length - GCM_IV_LENGTH);
+            } finally {
+                CipherPool.release(cipher);
+            }
         } catch (Exception e) {
             logger.error("Chunk decryption failed: {}", e.getMessage());
             throw new RuntimeException("Decryption failed", e);
         }
     }
 
+    /**
+     * Encrypt the remaining bytes of src into dst as [IV][Ciphertext + Tag].
+     * src and dst may be views of the same backing array (dst starting where src
+     * does), so a caller can encrypt within one buffer. This is not allocation-free:
+     * the provider copies overlapping input before encrypting it.
+     * Both buffers' positions are advanced.
+     *
+     * @return Number of bytes written to dst
+     */
+    public int encrypt(ByteBuffer src, ByteBuffer dst, SecretKey userKey) {
+        try {
+            int required = singleShotLength(src.remaining());
+            if (dst.remaining() < required) {
+                throw new IllegalArgumentException("Output buffer too small: need " + required);
+            }
+            byte[] iv = newIv();
+
+            Cipher cipher = CipherPool.acquire();
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, userKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+                if (src.hasArray() && dst.hasArray() && src.array() == dst.array()) {
+                    // Shared array: the IV would overwrite the head of src, so encrypt first and shift
+                    int written = cipher.doFinal(src, dst.duplicate().position(dst.position() + GCM_IV_LENGTH));
+                    dst.put(iv).position(dst.position() + written);
+                    return GCM_IV_LENGTH + written;
+                }
+                dst.put(iv);
+                return GCM_IV_LENGTH + cipher.doFinal(src, dst);
+            } finally {
+                CipherPool.release(cipher);
+            }
+        } catch (GeneralSecurityException e) {
+            logger.error("Chunk encryption failed: {}", e.getMessage());
+            throw new RuntimeException("Encryption failed", e);
+        }
+    }
+
+    /**
+     * Decrypt an [IV][Ciphertext + Tag] buffer into dst. dst may share src's
+     * backing array; as with encrypt, the provider then copies the overlapping
+     * input. Both buffers' positions are advanced.
+     *
+     * @return Number of plaintext bytes written to dst
+     */
+    public int decrypt(ByteBuffer src, ByteBuffer dst, SecretKey userKey) {
+        try {
+            if (src.remaining() < GCM_IV_LENGTH + GCM_TAG_LENGTH / 8) {
+                throw new IllegalArgumentException("Ciphertext too short");
+            }
+            byte[] iv = new byte[GCM_IV_LENGTH];
+            src.get(iv);
+
+            Cipher cipher = CipherPool.acquire();
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, userKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+                return cipher.doFinal(src, dst);
+            } finally {
+                CipherPool.release(cipher);
+            }
+        } catch (GeneralSecurityException e) {
+            logger.error("Chunk decryption failed: {}", e.getMessage());
+            throw new RuntimeException("Decryption failed", e);
+        }
+    }
+
+    // ==================== STREAMING CHUNK ENCRYPTION ====================
+
+    /**
+     * Wrap a plaintext stream so that reading it yields the encrypted chunk in the
+     * segmented format (see SegmentedChunkCipher): 64 KiB segments, each with
+     * its own tag, so neither side ever buffers a whole chunk.
+     *
+     * @param plaintext Raw chunk stream
+     * @param userKey   User's DEK
+     * @return Stream of the encrypted chunk
+     */
+    public InputStream encryptingStream(InputStream plaintext, SecretKey userKey) {
+        return SegmentedChunkCipher.encrypting(plaintext, userKey, RANDOM);
+    }
+
+    /**
+     * Wrap a plaintext stream so that reading it yields an unencrypted chunk object
+     * (plain header followed by the data), for users without a DEK.
+     */
+    public InputStream plainStream(InputStream plaintext) {
+        return new SequenceInputStream(new ByteArrayInputStream(ChunkHeader.plain()), plaintext);
+    }
+
+    /**
+     * Wrap a stored chunk object so that reading it yields the chunk's plaintext.
+     * Dispatches on the object header:
+     * - plain: the bytes after the header
+     * - encrypted: verified segment by segment; skip() jumps over whole segments
+     *   without decrypting them. A failed tag check surfaces as an IOException from read()
+     * - no header (legacy object): the single-shot [IV][Ciphertext + Tag] plaintext if it
+     *   authenticates under the key, otherwise the object as stored. Older uploads stored
+     *   plain chunks for users with keys too, so this is the fallback reads always had;
+     *   it stays until the format migration has classified the object and given it a header
+     *
+     * @param stored  Stored object stream (closed when the returned stream is closed)
+     * @param userKey User's DEK, or null for users without one
+     * @return Stream of the chunk plaintext
+     * @throws IOException if the chunk is encrypted and the key is missing or not the one it was
+     *         written with
+     */
+    public InputStream plaintextStream(InputStream stored, SecretKey userKey) throws IOException {
+        byte[] head = stored.readNBytes(ChunkHeader.PROBE_LENGTH);
+        int headerLength = ChunkHeader.length(head, head.length);
+        if (headerLength < 0) {
+            return legacyStream(stored, head, userKey);
+        }
+
+        byte[] header = Arrays.copyOf(head, headerLength);
+        int rest = headerLength - head.length;
+        if (stored.readNBytes(header, head.length, rest) != rest) {
+            throw new IOException("Truncated chunk header");
+        }
+        if (ChunkHeader.isPlain(header)) {
+            return stored;
+        }
+        if (userKey == null) {
+            throw new IOException("Chunk is encrypted but no key was supplied");
+        }
+        return SegmentedChunkCipher.decrypting(stored, header, userKey);
+    }
+
+    /**
+     * Whether the leading bytes of a stored object carry a chunk header.
+     * Objects without one were written before the header existed and are
+     * rewritten by the background migration.
+     */
+    public boolean hasChunkHeader(byte[] head, int length) {
+        return ChunkHeader.length(head, length) >= 0;
+    }
+
+    /**
+     * Decrypt a header-less object in the single-shot [IV][Ciphertext + Tag] format.
+     *
+     * @return Plaintext, or null if the object does not authenticate under the key
+     *         (legacy plaintext, or a chunk written with another key)
+     */
+    public byte[] decryptLegacy(byte[] object, SecretKey userKey) {
+        if (object.length < GCM_IV_LENGTH + GCM_TAG_LENGTH / 8) {
+            return null;
+        }
+        Cipher cipher = CipherPool.acquire();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, userKey, new GCMParameterSpec(GCM_TAG_LENGTH, object, 0, GCM_IV_LENGTH));
+            return cipher.doFinal(object, GCM_IV_LENGTH, object.length - GCM_IV_LENGTH);
+        } catch (AEADBadTagException e) {
+            return null;
+        } catch (GeneralSecurityException e) {
+            logger.error("Chunk decryption failed: {}", e.getMessage());
+            throw new RuntimeException("Decryption failed", e);
+        } finally {
+            CipherPool.release(cipher);
+        }
+    }
+
+    /**
+     * Size of an encrypted chunk as written by {@link #encryptingStream} for a given plaintext size.
+     */
+    public long encryptedLength(long plaintextLength) {
+        return SegmentedChunkCipher.ciphertextLength(plaintextLength);
+    }
+
+    /**
+     * Size of an unencrypted chunk object as written by {@link #plainStream}.
+     */
+    public long plainLength(long plaintextLength) {
+        return ChunkHeader.PLAIN_LENGTH + plaintextLength;
+    }
+
+    // Legacy objects are single-shot, so the whole object is needed before anything can be verified
+    private InputStream legacyStream(InputStream stored, byte[] head, SecretKey userKey) throws IOException {
+        if (userKey == null) {
+            return new SequenceInputStream(new ByteArrayInputStream(head), stored);
+        }
+        byte[] object;
+        try (stored) {
+            byte[] rest = stored.readAllBytes();
+            object = Arrays.copyOf(head, head.length + rest.length);
+            System.arraycopy(rest, 0, object, head.length, rest.length);
+        }
+        byte[] plaintext = decryptLegacy(object, userKey);
+        return new ByteArrayInputStream(plaintext != null ? plaintext : object);
+    }
+
+    // Single-shot framing: IV + ciphertext + tag
+    private static int singleShotLength(int plaintextLength) {
+        return GCM_IV_LENGTH + plaintextLength + GCM_TAG_LENGTH / 8;
+    }
+
+    private static byte[] newIv() {
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        RANDOM.nextBytes(iv);
+        return iv;
+    }
+
     // ==================== MASTER KEY OPERATIONS ====================
 
     private SecretKey getMasterKey() {
@@ -165,31 +380,27 @@ public class EncryptionService {
     }
 
     private byte[] encryptWithMasterKey(byte[] data) throws Exception {
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        new SecureRandom().nextBytes(iv);
-        
-        cipher.init(Cipher.ENCRYPT_MODE, getMasterKey(), new GCMParameterSpec(GCM_TAG_LENGTH, iv));
-        byte[] ciphertext = cipher.doFinal(data);
-        
-        return ByteBuffer.allocate(iv.length + ciphertext.length)
-                .put(iv)
-                .put(ciphertext)
-                .array();
+        byte[] out = new byte[singleShotLength(data.length)];
+        byte[] iv = newIv();
+        System.arraycopy(iv, 0, out, 0, GCM_IV_LENGTH);
+
+        Cipher cipher = CipherPool.acquire();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, getMasterKey(), new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+            cipher.doFinal(data, 0, data.length, out, GCM_IV_LENGTH);
+        } finally {
+            CipherPool.release(cipher);
+        }
+        return out;
     }
 
     private byte[] decryptWithMasterKey(byte[] data) throws Exception {
-        ByteBuffer buffer = ByteBuffer.wrap(data);
-        
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        buffer.get(iv);
-        
-        byte[] ciphertext = new byte[buffer.remaining()];
-        buffer.get(ciphertext);
-        
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(Cipher.DECRYPT_MODE, getMasterKey(), new GCMParameterSpec(GCM_TAG_LENGTH, iv));
-        
-        return cipher.doFinal(ciphertext);
+        Cipher cipher = CipherPool.acquire();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, getMasterKey(), new GCMParameterSpec(GCM_TAG_LENGTH, data, 0, GCM_IV_LENGTH));
+            return cipher.doFinal(data, GCM_IV_LENGTH, data.length - GCM_IV_LENGTH);
+        } finally {
+            CipherPool.release(cipher);
+        }
     }
 }
@@ -0,0 +1,114 @@
+package com.minidrive.service;
+
+import com.minidrive.chunking.BlockSignatures;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delta-sync signature of a whole file: the packed block signatures of its
+ * chunks in order (see {@link BlockSignatures}).
+ *
+ * Binary form (served for Accept: application/octet-stream):
+ * <pre>
+ * "SSIG" | version = 1 | 0x000000
+ * block size (4) | chunk count (4) | block count (4)
+ * chunk count x plaintext chunk length (4)
+ * block count x (Adler-32 (4) | SHA-256 (32))
+ * </pre>
+ * Block numbering restarts at each chunk boundary: the last block of a chunk
+ * may be short.
+ */
+public final class FileSignature {
+
+    private static final byte[] MAGIC = {'S', 'S', 'I', 'G'};
+    private static final byte VERSION = 1;
+    private static final int HEADER_LENGTH = 20;
+
+    private final int[] chunkLengths;
+    private final byte[][] chunkSignatures;
+    private final int blockCount;
+
+    FileSignature(int[] chunkLengths, byte[][] chunkSignatures) {
+        this.chunkLengths = chunkLengths;
+        this.chunkSignatures = chunkSignatures;
+        int blocks = 0;
+        for (byte[] signature : chunkSignatures) {
+            blocks += signature.length / BlockSignatures.ENTRY_LENGTH;
+        }
+        this.blockCount = blocks;
+    }
+
+    public int blockCount() {
+        return blockCount;
+    }
+
+    public int chunkCount() {
+        return chunkLengths.length;
+    }
+
+    public int chunkLength(int chunk) {
+        return chunkLengths[chunk];
+    }
+
+    /**
+     * Packed block signatures of one chunk (see {@link BlockSignatures}).
+     */
+    public byte[] chunkBlocks(int chunk) {
+        return chunkSignatures[chunk];
+    }
+
+    public byte[] toBytes() {
+        ByteBuffer out = ByteBuffer.allocate(HEADER_LENGTH + chunkLengths.length * 4
+            + blockCount * BlockSignatures.ENTRY_LENGTH);
+        out.put(MAGIC).put(VERSION).put((byte) 0).putShort((short) 0);
+        out.putInt(BlockSignatures.BLOCK_SIZE).putInt(chunkLengths.length).putInt(blockCount);
+        for (int length : chunkLengths) {
+            out.putInt(length);
+        }
+        for (byte[] signature : chunkSignatures) {
+            out.put(signature);
+        }
+        return out.array();
+    }
+
+    /**
+     * JSON shape of the original signature endpoint (one object per block).
+     */
+    public Map<String, Object> toMap() {
+        HexFormat hex = HexFormat.of();
+        List<Map<String, Object>> signatures = new ArrayList<>(blockCount);
+        int blockIndex = 0;
+        long globalOffset = 0;
+
+        for (int c = 0; c < chunkSignatures.length; c++) {
+            byte[] packed = chunkSignatures[c];
+            int blocks = packed.length / BlockSignatures.ENTRY_LENGTH;
+            for (int b = 0; b < blocks; b++) {
+                int length = Math.min(BlockSignatures.BLOCK_SIZE, chunkLengths[c] - b * BlockSignatures.BLOCK_SIZE);
+                int strong = BlockSignatures.strongHashOffset(b);
+
+                Map<String, Object> blockSig = new HashMap<>();
+                blockSig.put("index", blockIndex);
+                blockSig.put("weakHash", BlockSignatures.weakHash(packed, b));
+                blockSig.put("hash", hex.formatHex(packed, strong, strong + BlockSignatures.STRONG_LENGTH));
+                blockSig.put("offset", globalOffset);
+                blockSig.put("length", length);
+
+                signatures.add(blockSig);
+                blockIndex++;
+                globalOffset += length;
+            }
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("blockSize", BlockSignatures.BLOCK_SIZE);
+        result.put("signatures", signatures);
+        result.put("totalBlocks", signatures.size());
+        return result;
+    }
+}
@@ -0,0 +1,312 @@
+package com.minidrive.service;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+/**
+ * Segmented streaming AES-256-GCM chunk format.
+ *
+ * Layout:
+ * <pre>
+ * [header][segment 0][segment 1]...[segment n-1]
+ *
+ * header:  see ChunkHeader
+ * segment: ciphertext of up to segment-size plaintext bytes + 16-byte tag
+ * </pre>
+ *
+ * - Each chunk gets its own key: HMAC-SHA256(DEK, "sanchay-chunk-v1" || salt)
+ * - Segment nonce: prefix (7) | segment counter (4, big-endian) | last-segment flag (1)
+ * - The header is authenticated as AAD of every segment
+ *
+ * Segments are verified one at a time, so neither side ever holds more than one
+ * segment, and a reader can start at any segment without touching earlier ones.
+ * The last-segment flag makes truncation at a segment boundary detectable.
+ */
+final class SegmentedChunkCipher {
+
+    static final int DEFAULT_SEGMENT_SHIFT = 16; // 64 KiB segments
+
+    private static final int TAG_LENGTH = 16;
+    private static final byte[] KEY_INFO = "sanchay-chunk-v1".getBytes(StandardCharsets.US_ASCII);
+
+    private SegmentedChunkCipher() {
+    }
+
+    /**
+     * Encrypted object size for a plaintext size (header + data + one tag per segment).
+     */
+    static long ciphertextLength(long plaintextLength) {
+        long segmentSize = 1L << DEFAULT_SEGMENT_SHIFT;
+        long segments = Math.max(1, (plaintextLength + segmentSize - 1) / segmentSize);
+        return ChunkHeader.ENCRYPTED_LENGTH + plaintextLength + segments * TAG_LENGTH;
+    }
+
+    static InputStream encrypting(InputStream plaintext, SecretKey dek, SecureRandom random) {
+        byte[] saltAndPrefix = new byte[ChunkHeader.SALT_LENGTH + ChunkHeader.NONCE_PREFIX_LENGTH];
+        random.nextBytes(saltAndPrefix);
+        return new EncryptingStream(plaintext, ChunkHeader.encrypted(DEFAULT_SEGMENT_SHIFT, dek, saltAndPrefix), dek);
+    }
+
+    /**
+     * @param header The complete encrypted-chunk header, already consumed from the stream
+     */
+    static InputStream decrypting(InputStream ciphertext, byte[] header, SecretKey dek) throws IOException {
+        if (ChunkHeader.length(header, header.length) != header.length || ChunkHeader.isPlain(header)) {
+            throw new IOException("Not an encrypted chunk header");
+        }
+        if (!ChunkHeader.matchesKey(header, dek)) {
+            throw new IOException("Chunk was encrypted with a different key");
+        }
+        return new DecryptingStream(ciphertext, header, dek);
+    }
+
+    // ==================== SHARED ====================
+
+    private static SecretKey deriveChunkKey(SecretKey dek, byte[] header) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(dek.getEncoded(), "HmacSHA256"));
+            mac.update(KEY_INFO);
+            mac.update(header, ChunkHeader.SALT_OFFSET, ChunkHeader.SALT_LENGTH);
+            return new SecretKeySpec(mac.doFinal(), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Chunk key derivation failed", e);
+        }
+    }
+
+    private static GCMParameterSpec segmentNonce(byte[] header, int segment, boolean last) {
+        byte[] nonce = new byte[12];
+        System.arraycopy(header, ChunkHeader.NONCE_PREFIX_OFFSET, nonce, 0, ChunkHeader.NONCE_PREFIX_LENGTH);
+        nonce[7] = (byte) (segment >>> 24);
+        nonce[8] = (byte) (segment >>> 16);
+        nonce[9] = (byte) (segment >>> 8);
+        nonce[10] = (byte) segment;
+        nonce[11] = (byte) (last ? 1 : 0);
+        return new GCMParameterSpec(TAG_LENGTH * 8, nonce);
+    }
+
+    /**
+     * Read until the buffer holds {@code want} bytes or the stream ends.
+     */
+    private static int fill(InputStream in, byte[] buffer, int have, int want) throws IOException {
+        while (have < want) {
+            int n = in.read(buffer, have, want - have);
+            if (n < 0) break;
+            have += n;
+        }
+        return have;
+    }
+
+    // ==================== ENCRYPT ====================
+
+    private static final class EncryptingStream extends InputStream {
+        private final InputStream in;
+        private final byte[] header;
+        private final SecretKey chunkKey;
+        // Borrowed from CipherPool for the stream's lifetime, returned on close
+        private Cipher cipher = CipherPool.acquire();
+        private final int segmentSize;
+
+        // One lookahead byte past the segment tells us whether it is the last one
+        private final byte[] plain;
+        private int plainHave;
+        private final byte[] out;
+        private int outPos;
+        private int outLen;
+        private int segment;
+        private boolean finished;
+
+        EncryptingStream(InputStream in, byte[] header, SecretKey dek) {
+            this.in = in;
+            this.header = header;
+            this.chunkKey = deriveChunkKey(dek, header);
+            this.segmentSize = 1 << ChunkHeader.segmentShift(header);
+            this.plain = new byte[segmentSize + 1];
+            this.out = new byte[Math.max(header.length, segmentSize + TAG_LENGTH)];
+            System.arraycopy(header, 0, out, 0, header.length);
+            this.outLen = header.length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (outPos == outLen && !nextSegment()) return -1;
+            int n = Math.min(len, outLen - outPos);
+            System.arraycopy(out, outPos, b, off, n);
+            outPos += n;
+            return n;
+        }
+
+        private boolean nextSegment() throws IOException {
+            if (finished) return false;
+            if (cipher == null) throw new IOException("Stream closed");
+            plainHave = fill(in, plain, plainHave, segmentSize + 1);
+            boolean last = plainHave <= segmentSize;
+            int length = last ? plainHave : segmentSize;
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, chunkKey, segmentNonce(header, segment, last));
+                cipher.updateAAD(header);
+                outLen = cipher.doFinal(plain, 0, length, out, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Segment encryption failed", e);
+            }
+            outPos = 0;
+            segment++;
+            if (last) {
+                finished = true;
+                plainHave = 0;
+            } else {
+                plain[0] = plain[segmentSize]; // carry the lookahead byte
+                plainHave = 1;
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            CipherPool.release(cipher);
+            cipher = null;
+            in.close();
+        }
+    }
+
+    // ==================== DECRYPT ====================
+
+    private static final class DecryptingStream extends InputStream {
+        private final InputStream in;
+        private final byte[] header;
+        private final SecretKey chunkKey;
+        // Borrowed from CipherPool for the stream's lifetime, returned on close
+        private Cipher cipher = CipherPool.acquire();
+        private final int segmentSize;
+
+        private final byte[] sealed;
+        private int sealedHave;
+        private final byte[] plain;
+        private int plainPos;
+        private int plainLen;
+        private int segment;
+        private boolean finished;
+
+        DecryptingStream(InputStream in, byte[] header, SecretKey dek) {
+            this.in = in;
+            this.header = header.clone();
+            this.chunkKey = deriveChunkKey(dek, header);
+            this.segmentSize = 1 << ChunkHeader.segmentShift(header);
+            this.sealed = new byte[segmentSize + TAG_LENGTH + 1];
+            this.plain = new byte[segmentSize];
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            while (plainPos == plainLen) {
+                if (!nextSegment()) return -1;
+            }
+            int n = Math.min(len, plainLen - plainPos);
+            System.arraycopy(plain, plainPos, b, off, n);
+            plainPos += n;
+            return n;
+        }
+
+        /**
+         * Skips whole segments without reading them through the cipher; only the
+         * segment the new position lands in is decrypted and verified.
+         *
+         * A segment is only skipped when the new position lies beyond it, so in an
+         * intact chunk another segment always follows, and the final segment (whose
+         * flag proves the chunk is complete) is never skipped unverified. Running out
+         * of data after a skipped segment therefore means the object is truncated;
+         * skipping past the end of the chunk is reported the same way.
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) return 0;
+            long skipped = Math.min(n, plainLen - plainPos);
+            plainPos += (int) skipped;
+
+            while (n - skipped > segmentSize && !finished) {
+                try {
+                    in.skipNBytes(segmentSize + TAG_LENGTH - sealedHave);
+                } catch (EOFException e) {
+                    throw new IOException("Truncated chunk", e);
+                }
+                sealedHave = 0;
+                segment++;
+                skipped += segmentSize;
+            }
+            if (n > skipped && nextSegment()) {
+                int inSegment = (int) Math.min(n - skipped, plainLen);
+                plainPos = inSegment;
+                skipped += inSegment;
+            }
+            return skipped;
+        }
+
+        private boolean nextSegment() throws IOException {
+            if (finished) return false;
+            if (cipher == null) throw new IOException("Stream closed");
+            int full = segmentSize + TAG_LENGTH;
+            sealedHave = fill(in, sealed, sealedHave, full + 1);
+            if (sealedHave == 0 && segment > 0) {
+                // Only reachable after skip(): the skipped segment was not the final one
+                throw new IOException("Truncated chunk");
+            }
+            boolean last = sealedHave <= full;
+            int length = last ? sealedHave : full;
+            if (length < TAG_LENGTH) {
+                throw new IOException("Truncated chunk segment " + segment);
+            }
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, chunkKey, segmentNonce(header, segment, last));
+                cipher.updateAAD(header);
+                plainLen = cipher.doFinal(sealed, 0, length, plain, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Chunk segment " + segment + " failed authentication", e);
+            }
+            plainPos = 0;
+            segment++;
+            if (last) {
+                finished = true;
+                sealedHave = 0;
+            } else {
+                sealed[0] = sealed[full]; // carry the lookahead byte
+                sealedHave = 1;
+            }
+            return true;
+        }
+
+        @Override
+        public int available() {
+            return plainLen - plainPos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            CipherPool.release(cipher);
+            cipher = null;
+            in.close();
+        }
+    }
+}
@@ -1,52 +1,159 @@
 package com.minidrive.service;
 
+import com.minidrive.chunking.ChunkDigest;
+import com.minidrive.repository.FileRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Redis-backed upload session state management.
  * Enables horizontal scaling and resumable uploads across service restarts.
+ *
+ * Each session is three keys sharing a hash tag (same cluster slot, so scripts
+ * may touch all of them):
+ * <pre>
+ * upload:{id}:meta    hash   filename, size, folderId, username, digest, chunkCount (declared), received (count)
+ * upload:{id}:bits    bitmap bit i set once chunk i is registered
+ * upload:{id}:hashes  string raw hash of chunk i at offset i * 32
+ * </pre>
+ * Values are raw bytes, not JSON. Progress is a single HGET and finalizing reads
+ * two strings, whatever the chunk count.
+ *
+ * The declared chunk count is what "complete" is checked against: without it a
+ * client that never registered its last chunks would finalize a truncated file.
  */
 @Service
 public class UploadStateService {
 
     private static final Logger logger = LoggerFactory.getLogger(UploadStateService.class);
 
-    private static final String UPLOAD_META_PREFIX = "upload:meta:";
-    private static final String UPLOAD_CHUNKS_PREFIX = "upload:chunks:";
+    private static final String UPLOAD_PREFIX = "upload:{";
     private static final long UPLOAD_SESSION_TTL_HOURS = 24; // Sessions expire after 24h
+    private static final int HASH_LENGTH = ChunkDigest.LENGTH;
+
+    // Upper bound on chunk indices, keeps SETRANGE offsets sane (1M chunks = 32 MB of hashes)
+    private static final int MAX_CHUNKS = 1 << 20;
+
+    private static final String FIELD_FILENAME = "filename";
+    private static final String FIELD_SIZE = "size";
+    private static final String FIELD_FOLDER = "folderId";
+    private static final String FIELD_USERNAME = "username";
+    private static final String FIELD_DIGEST = "digest";
+    private static final String FIELD_CHUNK_COUNT = "chunkCount";
+    private static final String FIELD_RECEIVED = "received";
+
+    /**
+     * KEYS: meta, bits, hashes. ARGV: index, raw hash, index, raw hash, ...
+     * Returns the number of newly received chunks, or -1 if the session is gone.
+     * The chunk keys take the TTL of the meta key, so the whole session expires together.
+     */
+    private static final RedisScript<Long> REGISTER_CHUNKS = RedisScript.of("""
+        if redis.call('EXISTS', KEYS[1]) == 0 then return -1 end
+        local added = 0
+        for i = 1, #ARGV, 2 do
+            local index = tonumber(ARGV[i])
+            redis.call('SETRANGE', KEYS[3], index * 32, ARGV[i + 1])
+            if redis.call('SETBIT', KEYS[2], index, 1) == 0 then added = added + 1 end
+        end
+        if added > 0 then redis.call('HINCRBY', KEYS[1], 'received', added) end
+        local ttl = redis.call('TTL', KEYS[1])
+        if ttl > 0 then
+            redis.call('EXPIRE', KEYS[2], ttl)
+            redis.call('EXPIRE', KEYS[3], ttl)
+        end
+        return added
+        """, Long.class);
+
+    /**
+     * KEYS: meta. ARGV: chunk count. Records the count if the session has none yet.
+     * Returns the count in effect afterwards, or -1 if the session is gone.
+     */
+    private static final RedisScript<Long> DECLARE_CHUNK_COUNT = RedisScript.of("""
+        if redis.call('EXISTS', KEYS[1]) == 0 then return -1 end
+        redis.call('HSETNX', KEYS[1], 'chunkCount', ARGV[1])
+        return tonumber(redis.call('HGET', KEYS[1], 'chunkCount'))
+        """, Long.class);
 
     @Autowired
-    private RedisTemplate<String, Object> redisTemplate;
+    private RedisTemplate<String, byte[]> redisTemplate;
+
+    @Autowired
+    private ChunkIndexService chunkIndexService;
+
+    @Autowired
+    private FileRepository fileRepository;
 
     // ==================== DATA CLASSES ====================
 
-    public record UploadMetadata(String filename, long size, String folderId, String username) {}
+    /**
+     * @param chunkCount Number of chunks the client declared, 0 if it has not declared one
+     */
+    public record UploadMetadata(String filename, long size, String folderId, String username, ChunkDigest digest,
+                                 int chunkCount) {}
+
+    /**
+     * Half-open range of chunk indices [start, end)
+     */
+    public record ChunkRange(int start, int end) {}
+
+    public record UploadProgress(int chunkCount, int receivedCount, List<ChunkRange> missing) {}
 
     // ==================== SESSION MANAGEMENT ====================
 
     /**
-     * Initialize a new upload session
+     * Initialize a new upload session (one pipelined round-trip)
      */
     public void initSession(String uploadId, String filename, long size, String folderId, String username) {
-        String metaKey = UPLOAD_META_PREFIX + uploadId;
-        String chunksKey = UPLOAD_CHUNKS_PREFIX + uploadId;
+        initSession(uploadId, filename, size, folderId, username, ChunkDigest.SHA256, 0);
+    }
+
+    /**
+     * Initialize a new upload session whose chunks are hashed with the given digest
+     *
+     * @param chunkCount Number of chunks the file is split into, 0 if not declared up front
+     * @throws IllegalArgumentException on a negative or out-of-range chunk count
+     */
+    public void initSession(String uploadId, String filename, long size, String folderId, String username,
+                            ChunkDigest digest, int chunkCount) {
+        checkChunkCount(chunkCount);
+        String metaKey = metaKey(uploadId);
+
+        Map<String, byte[]> fields = new HashMap<>();
+        fields.put(FIELD_FILENAME, utf8(filename));
+        fields.put(FIELD_SIZE, utf8(Long.toString(size)));
+        if (folderId != null) fields.put(FIELD_FOLDER, utf8(folderId));
+        fields.put(FIELD_USERNAME, utf8(username));
+        fields.put(FIELD_DIGEST, utf8(digest.name()));
+        if (chunkCount > 0) fields.put(FIELD_CHUNK_COUNT, utf8(Integer.toString(chunkCount)));
+        fields.put(FIELD_RECEIVED, utf8("0"));
 
         try {
-            UploadMetadata metadata = new UploadMetadata(filename, size, folderId, username);
-            redisTemplate.opsForValue().set(metaKey, metadata, UPLOAD_SESSION_TTL_HOURS, TimeUnit.HOURS);
-            
-            // Initialize empty hash for chunk tracking
-            redisTemplate.opsForHash().put(chunksKey, "__init__", "true");
-            redisTemplate.expire(chunksKey, UPLOAD_SESSION_TTL_HOURS, TimeUnit.HOURS);
-            
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    RedisOperations<String, byte[]> ops = (RedisOperations<String, byte[]>) operations;
+                    ops.opsForHash().putAll(metaKey, fields);
+                    ops.expire(metaKey, UPLOAD_SESSION_TTL_HOURS, TimeUnit.HOURS);
+                    return null;
+                }
+            });
             logger.info("Upload session created: {} for file '{}'", uploadId, filename);
         } catch (Exception e) {
             logger.error("Failed to init upload session: {}", e.getMessage());
@@ -58,37 +165,76 @@ public class UploadStateService {
      * Register a chunk in the upload session
      */
     public void registerChunk(String uploadId, int index, String chunkHash) {
-        String chunksKey = UPLOAD_CHUNKS_PREFIX + uploadId;
+        registerChunks(uploadId, Map.of(index, chunkHash));
+        logger.debug("Registered chunk {} for upload {}", index, uploadId);
+    }
+
+    /**
+     * Register several chunks in one script call (e.g. after a bulk dedup check)
+     *
+     * @param chunks Chunk index to hex hash
+     * @throws IllegalArgumentException on a negative or out-of-range index or a malformed hash
+     */
+    public void registerChunks(String uploadId, Map<Integer, String> chunks) {
+        if (chunks.isEmpty()) return;
+
+        HexFormat hex = HexFormat.of();
+        Object[] args = new Object[chunks.size() * 2];
+        int i = 0;
+        for (Map.Entry<Integer, String> chunk : chunks.entrySet()) {
+            int index = chunk.getKey();
+            if (index < 0 || index >= MAX_CHUNKS) {
+                throw new IllegalArgumentException("Chunk index out of range: " + index);
+            }
+            byte[] hash = hex.parseHex(chunk.getValue());
+            if (hash.length != HASH_LENGTH) {
+                throw new IllegalArgumentException("Not a 32-byte hash: " + chunk.getValue());
+            }
+            args[i++] = utf8(Integer.toString(index));
+            args[i++] = hash;
+        }
+
         try {
-            redisTemplate.opsForHash().put(chunksKey, String.valueOf(index), chunkHash);
-            logger.debug("Registered chunk {} for upload {}", index, uploadId);
+            Long added = redisTemplate.execute(REGISTER_CHUNKS, sessionKeys(uploadId), args);
+            if (added != null && added < 0) {
+                logger.warn("Chunks registered for unknown upload {}", uploadId);
+            }
         } catch (Exception e) {
             logger.error("Failed to register chunk: {}", e.getMessage());
             throw new RuntimeException("Failed to register chunk", e);
         }
     }
 
+    /**
+     * Reject a chunk index outside the count declared for the session
+     *
+     * @throws IllegalArgumentException if the index is past the declared count
+     */
+    public void checkChunkIndex(UploadMetadata meta, int index) {
+        if (meta.chunkCount() > 0 && index >= meta.chunkCount()) {
+            throw new IllegalArgumentException("Chunk index " + index + " beyond declared count " + meta.chunkCount());
+        }
+    }
+
     /**
      * Get upload metadata
      */
     public UploadMetadata getMetadata(String uploadId) {
-        String metaKey = UPLOAD_META_PREFIX + uploadId;
         try {
-            Object cached = redisTemplate.opsForValue().get(metaKey);
-            if (cached instanceof UploadMetadata) {
-                return (UploadMetadata) cached;
-            }
-            // Handle LinkedHashMap deserialization from JSON
-            if (cached instanceof java.util.Map) {
-                @SuppressWarnings("unchecked")
-                java.util.Map<String, Object> map = (java.util.Map<String, Object>) cached;
-                return new UploadMetadata(
-                    (String) map.get("filename"),
-                    ((Number) map.get("size")).longValue(),
-                    (String) map.get("folderId"),
-                    (String) map.get("username")
-                );
+            Map<String, byte[]> fields = redisTemplate.<String, byte[]>opsForHash().entries(metaKey(uploadId));
+            if (fields.isEmpty()) {
+                return null;
             }
+            byte[] digest = fields.get(FIELD_DIGEST);
+            byte[] chunkCount = fields.get(FIELD_CHUNK_COUNT);
+            return new UploadMetadata(
+                string(fields.get(FIELD_FILENAME)),
+                Long.parseLong(string(fields.get(FIELD_SIZE))),
+                string(fields.get(FIELD_FOLDER)),
+                string(fields.get(FIELD_USERNAME)),
+                digest != null ? ChunkDigest.forName(string(digest)) : ChunkDigest.SHA256,
+                chunkCount != null ? Integer.parseInt(string(chunkCount)) : 0
+            );
         } catch (Exception e) {
             logger.error("Failed to get upload metadata: {}", e.getMessage());
         }
@@ -96,53 +242,175 @@ public class UploadStateService {
     }
 
     /**
-     * Get all chunk hashes for an upload, ordered by index
+     * Get all chunk hashes for an upload, ordered by index. Indices not
+     * registered yet are null. The list covers the declared chunk count (and
+     * any chunk registered beyond it), so unregistered tail chunks show up as
+     * null rather than making the list short.
+     *
+     * @return Hashes, or null if the session does not exist
      */
     public List<String> getChunkHashes(String uploadId) {
-        String chunksKey = UPLOAD_CHUNKS_PREFIX + uploadId;
         try {
-            var entries = redisTemplate.opsForHash().entries(chunksKey);
-            if (entries.isEmpty()) {
+            // Session check, declared count, bitmap and hash array in one round-trip
+            List<Object> replies = redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    RedisOperations<String, byte[]> ops = (RedisOperations<String, byte[]>) operations;
+                    ops.hasKey(metaKey(uploadId));
+                    ops.opsForHash().get(metaKey(uploadId), FIELD_CHUNK_COUNT);
+                    ops.opsForValue().get(bitsKey(uploadId));
+                    ops.opsForValue().get(hashesKey(uploadId));
+                    return null;
+                }
+            });
+            if (!Boolean.TRUE.equals(replies.get(0))) {
                 return null;
             }
+            int declared = replies.get(1) != null ? Integer.parseInt(string((byte[]) replies.get(1))) : 0;
+            BitSet received = toBitSet((byte[]) replies.get(2));
+            byte[] packed = (byte[]) replies.get(3);
+            int stored = packed != null ? packed.length / HASH_LENGTH : 0;
 
-            // Find max index to size the list
-            int maxIndex = entries.keySet().stream()
-                .filter(k -> !k.equals("__init__"))
-                .mapToInt(k -> Integer.parseInt((String) k))
-                .max()
-                .orElse(-1);
-
-            if (maxIndex < 0) {
-                return new ArrayList<>();
+            HexFormat hex = HexFormat.of();
+            int count = Math.max(declared, stored);
+            List<String> hashes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                hashes.add(i < stored && received.get(i)
+                    ? hex.formatHex(packed, i * HASH_LENGTH, (i + 1) * HASH_LENGTH) : null);
             }
+            return hashes;
+        } catch (Exception e) {
+            logger.error("Failed to get chunk hashes: {}", e.getMessage());
+            return null;
+        }
+    }
 
-            List<String> hashes = new ArrayList<>(maxIndex + 1);
-            for (int i = 0; i <= maxIndex; i++) {
-                hashes.add(null);
+    /**
+     * Why an upload cannot be finalized, checked against what the client declared:
+     * a missing chunk, more chunks than declared, or chunks that do not add up
+     * to the declared size (when all their sizes are known).
+     *
+     * @param hashes Chunk list from getChunkHashes (null where a chunk is missing)
+     * @return Reason, or null if the upload is complete
+     */
+    public String incompleteReason(UploadMetadata meta, List<String> hashes) {
+        int declared = meta.chunkCount();
+        if (declared > 0 && hashes.size() > declared) {
+            return "Upload declared " + declared + " chunks but " + hashes.size() + " were sent";
+        }
+        // Not indexOf(null): immutable lists reject null arguments
+        for (int i = 0; i < hashes.size(); i++) {
+            if (hashes.get(i) == null) {
+                return "Missing chunk #" + i;
             }
+        }
+        if (hashes.isEmpty()) {
+            return meta.size() > 0 ? "No chunks uploaded" : null;
+        }
 
-            entries.forEach((key, value) -> {
-                if (!"__init__".equals(key)) {
-                    int idx = Integer.parseInt((String) key);
-                    hashes.set(idx, (String) value);
-                }
-            });
+        Map<String, Integer> sizes = fileRepository.findChunkSizes(Set.copyOf(hashes));
+        long total = 0;
+        for (String hash : hashes) {
+            Integer size = sizes.get(hash);
+            if (size == null) return null; // Chunk stored before sizes were recorded
+            total += size;
+        }
+        return total == meta.size() ? null
+            : "Chunks add up to " + total + " bytes, upload declared " + meta.size();
+    }
 
-            return hashes;
+    /**
+     * Indices of the chunks registered so far (for resumable uploads)
+     */
+    public BitSet getReceivedChunks(String uploadId) {
+        try {
+            return toBitSet(redisTemplate.opsForValue().get(bitsKey(uploadId)));
         } catch (Exception e) {
-            logger.error("Failed to get chunk hashes: {}", e.getMessage());
+            logger.warn("Failed to get received chunks: {}", e.getMessage());
+            return new BitSet();
+        }
+    }
+
+    /**
+     * Resume negotiation: which chunk indices the client still has to send.
+     *
+     * Declared hashes of chunks not received in this session are looked up in
+     * the global chunk index; the ones the server already stores are registered
+     * in the session, so only the real gap is reported missing.
+     *
+     * The count the client gives (hash list size or chunkCount) must match the
+     * one declared for the session; a session started without one takes it
+     * from the first negotiation. Missing ranges always run up to that count,
+     * so chunks that were never registered at the tail are reported.
+     *
+     * @param declaredHashes Hashes of every chunk, or null if the client does not declare them
+     * @param chunkCount Total chunks when no hashes are declared (0 = the count declared
+     *        for the session, or up to the last received if none was)
+     * @return Progress, or null if the session does not exist
+     * @throws IllegalArgumentException if the count contradicts the session's declared count
+     */
+    public UploadProgress negotiate(String uploadId, List<String> declaredHashes, int chunkCount) {
+        UploadMetadata meta = getMetadata(uploadId);
+        if (meta == null) {
             return null;
         }
+        int requested = declaredHashes != null ? declaredHashes.size() : chunkCount;
+        checkChunkCount(requested);
+        int declared = meta.chunkCount();
+        if (declared == 0 && requested > 0) {
+            declared = declareChunkCount(uploadId, requested);
+            if (declared < 0) {
+                return null;
+            }
+        }
+        if ((declaredHashes != null || requested > 0) && declared > 0 && requested != declared) {
+            throw new IllegalArgumentException("Upload declared " + declared + " chunks, request has " + requested);
+        }
+        BitSet received = getReceivedChunks(uploadId);
+
+        int count;
+        if (declaredHashes != null) {
+            count = declaredHashes.size();
+            List<Integer> unreceived = new ArrayList<>();
+            for (int i = received.nextClearBit(0); i < count; i = received.nextClearBit(i + 1)) {
+                unreceived.add(i);
+            }
+            if (!unreceived.isEmpty()) {
+                List<String> lookup = new ArrayList<>(unreceived.size());
+                for (int index : unreceived) {
+                    lookup.add(declaredHashes.get(index));
+                }
+                Set<String> stored = chunkIndexService.findExisting(lookup);
+                Map<Integer, String> deduped = new HashMap<>();
+                for (int index : unreceived) {
+                    if (stored.contains(declaredHashes.get(index))) {
+                        deduped.put(index, declaredHashes.get(index));
+                    }
+                }
+                registerChunks(uploadId, deduped);
+                deduped.keySet().forEach(received::set);
+            }
+        } else {
+            count = declared > 0 ? declared : received.length();
+        }
+
+        List<ChunkRange> missing = new ArrayList<>();
+        for (int start = received.nextClearBit(0); start < count; ) {
+            int end = received.nextSetBit(start);
+            if (end < 0 || end > count) end = count;
+            missing.add(new ChunkRange(start, end));
+            start = received.nextClearBit(end);
+        }
+        return new UploadProgress(count, received.get(0, count).cardinality(), missing);
     }
 
     /**
      * Check if session exists
      */
     public boolean sessionExists(String uploadId) {
-        String metaKey = UPLOAD_META_PREFIX + uploadId;
         try {
-            return Boolean.TRUE.equals(redisTemplate.hasKey(metaKey));
+            return Boolean.TRUE.equals(redisTemplate.hasKey(metaKey(uploadId)));
         } catch (Exception e) {
             logger.warn("Failed to check session existence: {}", e.getMessage());
             return false;
@@ -153,11 +421,8 @@ public class UploadStateService {
      * Clean up session after completion or failure
      */
     public void cleanupSession(String uploadId) {
-        String metaKey = UPLOAD_META_PREFIX + uploadId;
-        String chunksKey = UPLOAD_CHUNKS_PREFIX + uploadId;
         try {
-            redisTemplate.delete(metaKey);
-            redisTemplate.delete(chunksKey);
+            redisTemplate.delete(sessionKeys(uploadId));
             logger.info("Upload session cleaned up: {}", uploadId);
         } catch (Exception e) {
             logger.warn("Failed to cleanup session: {}", e.getMessage());
@@ -168,12 +433,72 @@ public class UploadStateService {
      * Get upload progress (for resumable uploads)
      */
     public int getUploadedChunkCount(String uploadId) {
-        String chunksKey = UPLOAD_CHUNKS_PREFIX + uploadId;
         try {
-            Long size = redisTemplate.opsForHash().size(chunksKey);
-            return size != null ? (int) (size - 1) : 0; // Subtract 1 for __init__ marker
+            Object received = redisTemplate.opsForHash().get(metaKey(uploadId), FIELD_RECEIVED);
+            return received != null ? Integer.parseInt(string((byte[]) received)) : 0;
         } catch (Exception e) {
             return 0;
         }
     }
+
+    // ==================== INTERNAL ====================
+
+    private static String metaKey(String uploadId) {
+        return UPLOAD_PREFIX + uploadId + "}:meta";
+    }
+
+    private static String bitsKey(String uploadId) {
+        return UPLOAD_PREFIX + uploadId + "}:bits";
+    }
+
+    private static String hashesKey(String uploadId) {
+        return UPLOAD_PREFIX + uploadId + "}:hashes";
+    }
+
+    private static List<String> sessionKeys(String uploadId) {
+        return List.of(metaKey(uploadId), bitsKey(uploadId), hashesKey(uploadId));
+    }
+
+    /**
+     * @return Chunk count in effect for the session, or -1 if it is gone
+     */
+    private int declareChunkCount(String uploadId, int chunkCount) {
+        try {
+            Long count = redisTemplate.execute(DECLARE_CHUNK_COUNT, List.of(metaKey(uploadId)),
+                utf8(Integer.toString(chunkCount)));
+            return count != null ? count.intValue() : -1;
+        } catch (Exception e) {
+            logger.error("Failed to declare chunk count: {}", e.getMessage());
+            throw new RuntimeException("Failed to declare chunk count", e);
+        }
+    }
+
+    private static void checkChunkCount(int chunkCount) {
+        if (chunkCount < 0 || chunkCount > MAX_CHUNKS) {
+            throw new IllegalArgumentException("Chunk count out of range: " + chunkCount);
+        }
+    }
+
+    /**
+     * Redis numbers bitmap bits from the most significant bit of each byte,
+     * BitSet from the least significant one.
+     */
+    static BitSet toBitSet(byte[] bitmap) {
+        if (bitmap == null) {
+            return new BitSet();
+        }
+        byte[] reversed = new byte[bitmap.length];
+        for (int i = 0; i < bitmap.length; i++) {
+            reversed[i] = (byte) (Integer.reverse(bitmap[i] & 0xff) >>> 24);
+        }
+        return BitSet.valueOf(reversed);
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] value) {
+        return value != null ? new String(value, StandardCharsets.UTF_8) : null;
+    }
 }
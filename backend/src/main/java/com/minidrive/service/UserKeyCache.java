@@ -0,0 +1,213 @@
+package com.minidrive.service;
+
+import com.minidrive.auth.AuthService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import javax.security.auth.Destroyable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process cache of unwrapped user DEKs, keyed by username.
+ *
+ * Without it every chunk request costs a users-table SELECT plus an AES-GCM
+ * unwrap with the master key for a value that practically never changes.
+ *
+ * - Bounded (LRU) and TTL-expiring
+ * - Key bytes are held in one array that is zeroed on eviction/invalidation
+ * - Callers get their own short-lived SecretKeySpec copy, so a download that
+ *   is still running when its entry is evicted keeps working
+ *
+ * Only keys are cached. A user without one is looked up again on every call:
+ * login can generate the key on another node, and a cached "no key" would keep
+ * this node storing that user's uploads unencrypted until the TTL ran out. A
+ * failed lookup or unwrap throws and is retried by the next caller, so a
+ * database hiccup can never make an encrypted user's uploads go out unencrypted.
+ *
+ * Invalidated explicitly on key generation (register/login) and account deletion;
+ * a load that overlaps an invalidation is redone rather than cached. Other nodes
+ * drop a deleted account's key when the TTL runs out.
+ */
+@Service
+public class UserKeyCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserKeyCache.class);
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private EncryptionService encryptionService;
+
+    @Value("${minidrive.key-cache.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${minidrive.key-cache.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    // Access-ordered: iteration starts at the least recently used entry
+    private final LinkedHashMap<String, CachedKey> entries = new LinkedHashMap<>(256, 0.75f, true);
+    // Bumped by every invalidation (guarded by entries); a load that sees it move is stale
+    private long generation;
+
+    // Loads redone because an invalidation overlapped them, before giving up on caching
+    private static final int MAX_LOAD_ATTEMPTS = 3;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Get a user's decrypted DEK.
+     *
+     * @return The user's key, or null for legacy users without one
+     * @throws IllegalStateException if the key could not be looked up or unwrapped
+     *         (callers must fail rather than treat the user as keyless)
+     */
+    public SecretKey getKey(String username) {
+        if (username == null) return null;
+        long now = System.nanoTime();
+
+        synchronized (entries) {
+            CachedKey cached = entries.get(username);
+            if (cached != null && cached.expiresAt - now > 0) {
+                hits.incrementAndGet();
+                return cached.copy();
+            }
+            if (cached != null) {
+                entries.remove(username);
+                cached.destroy();
+                evictions.incrementAndGet();
+            }
+        }
+
+        misses.incrementAndGet();
+        for (int attempt = 1; ; attempt++) {
+            long loadedAt;
+            synchronized (entries) {
+                loadedAt = generation;
+            }
+            CachedKey loaded = load(username, now + ttlSeconds * 1_000_000_000L);
+
+            synchronized (entries) {
+                if (generation == loadedAt) {
+                    if (loaded == null) {
+                        return null;
+                    }
+                    SecretKey result = loaded.copy();
+                    CachedKey previous = entries.put(username, loaded);
+                    if (previous != null) previous.destroy();
+                    evictOverflow();
+                    return result;
+                }
+            }
+            // Invalidated while we were reading: what we read may predate the change
+            if (loaded != null) loaded.destroy();
+            if (attempt == MAX_LOAD_ATTEMPTS) {
+                CachedKey latest = load(username, now);
+                return latest != null ? latest.copy() : null;
+            }
+        }
+    }
+
+    /**
+     * Drop a user's cached key (key generated/rotated or account deleted).
+     */
+    public void invalidate(String username) {
+        if (username == null) return;
+        synchronized (entries) {
+            generation++;
+            CachedKey removed = entries.remove(username);
+            if (removed != null) removed.destroy();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long h = hits.get();
+        long m = misses.get();
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hitRate", h + m == 0 ? 0.0 : (double) h / (h + m));
+        stats.put("evictions", evictions.get());
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+        }
+        stats.put("maxEntries", maxEntries);
+        return stats;
+    }
+
+    // ==================== INTERNAL ====================
+
+    /**
+     * @return The user's key, or null if the user has none (never cached)
+     */
+    private CachedKey load(String username, long expiresAt) {
+        String encryptedKey;
+        SecretKey key;
+        try {
+            encryptedKey = authService.getUserEncryptionKey(username);
+            if (encryptedKey == null || encryptedKey.isEmpty()) {
+                // Legacy user (or no such user): stores unencrypted
+                return null;
+            }
+            key = encryptionService.decryptUserKey(encryptedKey);
+        } catch (RuntimeException e) {
+            logger.warn("Encryption key unavailable for user {}: {}", username, e.getMessage());
+            throw new IllegalStateException("Encryption key unavailable for user " + username, e);
+        }
+        return new CachedKey(key.getEncoded(), key.getAlgorithm(), expiresAt);
+    }
+
+    // Caller holds the entries lock
+    private void evictOverflow() {
+        Iterator<Map.Entry<String, CachedKey>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && eldest.hasNext()) {
+            CachedKey evicted = eldest.next().getValue();
+            eldest.remove();
+            evicted.destroy();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Cached key material.
+     */
+    private static final class CachedKey implements Destroyable {
+        private final byte[] material;
+        private final String algorithm;
+        private final long expiresAt;
+        private volatile boolean destroyed;
+
+        CachedKey(byte[] material, String algorithm, long expiresAt) {
+            this.material = material;
+            this.algorithm = algorithm;
+            this.expiresAt = expiresAt;
+        }
+
+        SecretKey copy() {
+            return new SecretKeySpec(material, algorithm);
+        }
+
+        @Override
+        public void destroy() {
+            Arrays.fill(material, (byte) 0);
+            destroyed = true;
+        }
+
+        @Override
+        public boolean isDestroyed() {
+            return destroyed;
+        }
+    }
+}
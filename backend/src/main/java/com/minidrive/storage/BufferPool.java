@@ -0,0 +1,81 @@
+package com.minidrive.storage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Small pool of reusable copy buffers for streaming chunk I/O.
+ *
+ * Chunk transfers copy through a fixed 64KB buffer instead of materialising
+ * whole chunks, so under concurrent uploads/downloads the heap only holds
+ * one buffer per in-flight transfer. Buffers beyond the pool capacity are
+ * simply dropped for the GC.
+ */
+public final class BufferPool {
+
+    public static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOLED = 256;
+
+    private static final BlockingQueue<byte[]> POOL = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    private BufferPool() {
+    }
+
+    public static byte[] acquire() {
+        byte[] buffer = POOL.poll();
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    public static void release(byte[] buffer) {
+        if (buffer != null && buffer.length == BUFFER_SIZE) {
+            POOL.offer(buffer);
+        }
+    }
+
+    /**
+     * Copy a stream to an output stream through a pooled buffer.
+     *
+     * @return Number of bytes copied
+     */
+    public static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = acquire();
+        try {
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                total += read;
+            }
+            return total;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Copy exactly {@code length} bytes from a stream through a pooled buffer.
+     *
+     * @throws EOFException if the stream ends first
+     */
+    public static long copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = acquire();
+        try {
+            long remaining = length;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new EOFException("Stream ended " + remaining + " bytes early");
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+            return length;
+        } finally {
+            release(buffer);
+        }
+    }
+}
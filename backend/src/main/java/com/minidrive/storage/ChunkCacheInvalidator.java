@@ -0,0 +1,116 @@
+package com.minidrive.storage;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evicts overwritten chunks from the LocalChunkCache of every node.
+ *
+ * Chunk keys are overwritten in place (re-uploads, the format migration), and
+ * the cache of the node doing the write is evicted directly. Other nodes may
+ * still hold the old bytes, so each overwrite is also published on a Redis
+ * channel and every other node evicts its copy when it receives it.
+ *
+ * Pub/sub is fire-and-forget: a node that is disconnected while a chunk is
+ * overwritten keeps its copy. That copy is still the same plaintext under the
+ * same key (only the stored format differs), and it goes at the next LRU eviction.
+ */
+@Component
+public class ChunkCacheInvalidator implements MessageListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkCacheInvalidator.class);
+
+    static final String CHANNEL = "minidrive:chunk-cache:evict";
+
+    @Autowired
+    private LocalChunkCache chunkCache;
+
+    @Autowired
+    private RedisTemplate<String, byte[]> binaryRedisTemplate;
+
+    @Autowired
+    private RedisConnectionFactory connectionFactory;
+
+    @Value("${minidrive.chunk-cache.invalidation.enabled:true}")
+    private boolean enabled;
+
+    // Messages carry the sender, so a node does not evict twice for its own writes
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private RedisMessageListenerContainer container;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        if (!enabled || !chunkCache.isEnabled()) {
+            enabled = false;
+            return;
+        }
+        container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(this, new ChannelTopic(CHANNEL));
+        container.afterPropertiesSet();
+        container.start();
+    }
+
+    @PreDestroy
+    public void shutdown() throws Exception {
+        if (container != null) {
+            container.destroy();
+        }
+    }
+
+    /**
+     * Tell the other nodes that a chunk object was overwritten. The local cache
+     * is evicted by the caller.
+     */
+    public void publish(String chunkHash) {
+        if (!enabled) return;
+        try {
+            binaryRedisTemplate.convertAndSend(CHANNEL, encode(nodeId, chunkHash));
+            published.incrementAndGet();
+        } catch (RuntimeException e) {
+            logger.warn("Could not publish chunk cache eviction for {}: {}", chunkHash, e.getMessage());
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String payload = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = payload.indexOf(' ');
+        if (separator < 0 || payload.startsWith(nodeId + " ")) {
+            return;
+        }
+        received.incrementAndGet();
+        chunkCache.evict(payload.substring(separator + 1));
+    }
+
+    public long getPublished() {
+        return published.get();
+    }
+
+    public long getReceived() {
+        return received.get();
+    }
+
+    static byte[] encode(String nodeId, String chunkHash) {
+        return (nodeId + " " + chunkHash).getBytes(StandardCharsets.UTF_8);
+    }
+}
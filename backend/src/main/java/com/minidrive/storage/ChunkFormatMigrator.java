@@ -0,0 +1,212 @@
+package com.minidrive.storage;
+
+import com.minidrive.chunking.ChunkDigest;
+import com.minidrive.repository.FileRepository;
+import com.minidrive.service.EncryptionService;
+import com.minidrive.service.UserKeyCache;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.SecretKey;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background rewrite of header-less chunk objects into the current format.
+ *
+ * Objects written before chunk headers existed are either single-shot encrypted
+ * or plain, and a reader can only tell by trying to decrypt. This walks
+ * global_chunks in hash order at a throttled rate and, for each object that
+ * still has no header:
+ * - tries the single-shot decryption with the key of each user whose files reference it
+ * - rewrites it encrypted under the key that authenticates it
+ * - rewrites it plain (byte-for-byte the old content) if its SHA-256 is the hash it
+ *   is stored under, or if none of those users has a DEK: keys are only ever added,
+ *   so none of them could have encrypted it. Older uploads stored plain chunks for
+ *   users with keys as well, so a failed tag check alone decides nothing
+ * - otherwise leaves it undecided (neither content-addressed plaintext nor
+ *   ciphertext under an owner's key, e.g. a damaged object). Reads keep serving
+ *   such objects as stored, as they did before headers, and it is checked again on
+ *   the next start
+ *
+ * Checked chunks are marked in global_chunks.format_version, so a restart resumes
+ * where the last run stopped. Until a chunk is marked, reads fall back to the stored
+ * bytes when it does not authenticate. New objects always get a header, so once a
+ * pass finishes without failures the migrator stops.
+ */
+@Component
+public class ChunkFormatMigrator {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkFormatMigrator.class);
+
+    // global_chunks.format_version of objects that carry a chunk header
+    private static final int HEADER_FORMAT = 2;
+    private static final long RETRY_DELAY_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    @Autowired
+    private StorageService storageService;
+
+    @Autowired
+    private EncryptionService encryptionService;
+
+    @Autowired
+    private FileRepository fileRepository;
+
+    @Autowired
+    private UserKeyCache userKeyCache;
+
+    @Value("${minidrive.chunk-migration.enabled:true}")
+    private boolean enabled;
+
+    @Value("${minidrive.chunk-migration.chunks-per-second:5}")
+    private int chunksPerSecond;
+
+    @Value("${minidrive.chunk-migration.start-delay-seconds:60}")
+    private long startDelaySeconds;
+
+    private ScheduledExecutorService scheduler;
+
+    // Only touched by the scheduler thread
+    private String cursor;
+    private long failuresThisPass;
+    private long retryAt;
+
+    private volatile boolean complete;
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong rewrittenEncrypted = new AtomicLong();
+    private final AtomicLong rewrittenPlain = new AtomicLong();
+    private final AtomicLong unreferenced = new AtomicLong();
+    private final AtomicLong undecided = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            logger.info("Chunk format migration disabled");
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chunk-format-migrator");
+            t.setDaemon(true);
+            return t;
+        });
+        // One batch per second keeps the rate at chunks-per-second
+        scheduler.scheduleWithFixedDelay(this::migrateBatch, startDelaySeconds, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("complete", complete);
+        stats.put("checked", checked.get());
+        stats.put("rewrittenEncrypted", rewrittenEncrypted.get());
+        stats.put("rewrittenPlain", rewrittenPlain.get());
+        stats.put("unreferenced", unreferenced.get());
+        stats.put("undecided", undecided.get());
+        stats.put("failed", failed.get());
+        stats.put("chunksPerSecond", chunksPerSecond);
+        return stats;
+    }
+
+    // ==================== INTERNAL ====================
+
+    private void migrateBatch() {
+        if (retryAt != 0 && System.nanoTime() - retryAt < 0) {
+            return;
+        }
+        try {
+            List<String> batch = fileRepository.findUncheckedChunks(cursor, Math.max(1, chunksPerSecond));
+            if (batch.isEmpty()) {
+                finishPass();
+                return;
+            }
+            for (String hash : batch) {
+                migrate(hash);
+                cursor = hash;
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Chunk format migration step failed: {}", e.getMessage());
+        }
+    }
+
+    private void finishPass() {
+        if (failuresThisPass == 0) {
+            complete = true;
+            logger.info("Chunk format migration complete: {} checked, {} rewritten encrypted, {} rewritten plain, {} undecided",
+                checked.get(), rewrittenEncrypted.get(), rewrittenPlain.get(), undecided.get());
+            scheduler.shutdown();
+            return;
+        }
+        logger.warn("Chunk format migration pass left {} chunks unmigrated, retrying in an hour", failuresThisPass);
+        cursor = null;
+        failuresThisPass = 0;
+        retryAt = System.nanoTime() + RETRY_DELAY_NANOS;
+    }
+
+    private void migrate(String hash) {
+        try {
+            if (storageService.hasChunkHeader(hash)) {
+                fileRepository.markChunkFormat(hash, HEADER_FORMAT);
+                checked.incrementAndGet();
+                return;
+            }
+
+            List<String> owners = fileRepository.findChunkOwners(hash);
+            if (owners.isEmpty()) {
+                // Nothing reads it; without owners the format cannot be decided safely
+                unreferenced.incrementAndGet();
+                return;
+            }
+
+            byte[] stored = storageService.readStoredChunk(hash);
+            boolean ownerHasKey = false;
+            for (String owner : owners) {
+                SecretKey key = userKeyCache.getKey(owner);
+                if (key == null) continue;
+                ownerHasKey = true;
+                byte[] plaintext = encryptionService.decryptLegacy(stored, key);
+                if (plaintext != null) {
+                    storageService.rewriteChunk(hash, plaintext, key);
+                    rewrittenEncrypted.incrementAndGet();
+                    fileRepository.markChunkFormat(hash, HEADER_FORMAT);
+                    checked.incrementAndGet();
+                    return;
+                }
+            }
+
+            // Legacy chunks are addressed by the SHA-256 of their plaintext, which ciphertext never matches
+            if (ownerHasKey && !ChunkDigest.SHA256.hash(stored, 0, stored.length).equals(hash)) {
+                undecided.incrementAndGet();
+                logger.warn("Chunk {} is neither plaintext of its hash nor authenticates under an owner's key, leaving it unmigrated", hash);
+                return;
+            }
+
+            // Stored unencrypted: its content matches its hash, or no owner has ever had a DEK
+            storageService.rewriteChunk(hash, stored, null);
+            rewrittenPlain.incrementAndGet();
+            fileRepository.markChunkFormat(hash, HEADER_FORMAT);
+            checked.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            failuresThisPass++;
+            logger.warn("Could not migrate chunk {}: {}", hash, e.getMessage());
+        }
+    }
+}
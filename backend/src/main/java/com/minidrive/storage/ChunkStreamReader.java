@@ -0,0 +1,522 @@
+package com.minidrive.storage;
+
+import com.minidrive.repository.ChunkManifest;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-ahead pipeline for multi-chunk downloads.
+ *
+ * Instead of paying one MinIO GET latency per chunk, the next chunks of a file
+ * are fetched and decrypted concurrently on a shared I/O pool while earlier ones
+ * are being written. Output order is always the manifest order.
+ *
+ * Memory is bounded twice:
+ * - per request: at most {@code read-ahead} chunks / {@code request-budget-bytes} in flight
+ * - globally: all downloads share one byte budget (a semaphore)
+ *
+ * Both budgets are charged each chunk's plaintext size from the manifest. A chunk
+ * whose size was never recorded is charged {@code expected-chunk-bytes} up front
+ * and the difference once it has been fetched (the global budget may briefly go
+ * negative, which holds back new fetches until it is paid off).
+ *
+ * A blocking copy with nothing in flight may block on the global budget; a request
+ * that already has chunks buffered only takes budget opportunistically and otherwise
+ * drains its own window first, so downloads can never deadlock on each other.
+ * Prefetchers never block (they run on the I/O pool): one that gets no budget with
+ * nothing in flight waits in line and is called back when budget is released.
+ *
+ * A chunk holds its budget until the consumer is done with it (Prefetcher.Chunk#close,
+ * or once copyTo has written it), not just until it leaves the read-ahead window.
+ */
+@Component
+public class ChunkStreamReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkStreamReader.class);
+
+    @Autowired
+    private StorageService storageService;
+
+    @Value("${minidrive.download.read-ahead:8}")
+    private int readAhead;
+
+    @Value("${minidrive.download.io-threads:16}")
+    private int ioThreads;
+
+    @Value("${minidrive.download.expected-chunk-bytes:1048576}")
+    private int expectedChunkBytes;
+
+    @Value("${minidrive.download.request-budget-bytes:33554432}")
+    private long requestBudgetBytes;
+
+    @Value("${minidrive.download.global-budget-bytes:268435456}")
+    private int globalBudgetBytes;
+
+    private ExecutorService ioPool;
+    private Budget globalBudget;
+    private final Queue<Prefetcher> budgetWaiters = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong prefetchedChunks = new AtomicLong();
+    private final AtomicLong budgetWaits = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadId = new AtomicInteger();
+        ioPool = Executors.newFixedThreadPool(Math.max(1, ioThreads), r -> {
+            Thread t = new Thread(r, "chunk-io-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        globalBudget = new Budget(globalBudgetBytes);
+        logger.info("Chunk read-ahead: {} I/O threads, window {} chunks, global budget {} bytes",
+            ioThreads, windowSize(), globalBudgetBytes);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ioPool.shutdownNow();
+    }
+
+    /**
+     * Write the plaintext of the given chunks, in order, to an output stream.
+     *
+     * @param manifest The file's chunks, in order
+     * @param userKey Owner's DEK, or null for unencrypted data
+     * @param out Destination stream (flushed per chunk, not closed)
+     * @return Number of plaintext bytes written
+     */
+    public long copyTo(ChunkManifest manifest, SecretKey userKey, OutputStream out) throws IOException {
+        return copySlices(wholeSlices(manifest), userKey, out);
+    }
+
+    /**
+     * Write one plaintext byte range of a file. Only the chunks overlapping the
+     * range are fetched; the first and last are sliced.
+     *
+     * @param start First byte (inclusive)
+     * @param end Last byte (inclusive)
+     */
+    public long copyRange(ChunkManifest manifest, SecretKey userKey, long start, long end, OutputStream out) throws IOException {
+        return copySlices(rangeSlices(manifest, start, end), userKey, out);
+    }
+
+    /**
+     * Non-blocking read-ahead over a file's chunks, for callers that emit on
+     * their own schedule (e.g. gRPC flow control) instead of into a stream.
+     * Uses the same I/O pool, window and budgets as copyTo.
+     *
+     * @param onChunkReady Called on an I/O thread whenever a fetch completes or budget
+     *                     the prefetcher was waiting for is released (never from
+     *                     within {@link Prefetcher#poll()})
+     */
+    public Prefetcher prefetch(ChunkManifest manifest, SecretKey userKey, Runnable onChunkReady) {
+        return new Prefetcher(wholeSlices(manifest), userKey, onChunkReady);
+    }
+
+    /**
+     * Non-blocking read-ahead over one plaintext byte range (see copyRange).
+     *
+     * @param start First byte (inclusive)
+     * @param end Last byte (inclusive)
+     */
+    public Prefetcher prefetchRange(ChunkManifest manifest, SecretKey userKey, long start, long end, Runnable onChunkReady) {
+        return new Prefetcher(rangeSlices(manifest, start, end), userKey, onChunkReady);
+    }
+
+    /**
+     * In-order chunk plaintexts, fetched concurrently ahead of the consumer.
+     * Fetches are only started from {@link #poll()}, so the window advances as
+     * fast as the consumer takes chunks and no faster. Close each chunk once it
+     * has been consumed, and the prefetcher when done or abandoned, to release
+     * the read-ahead budget.
+     */
+    public final class Prefetcher implements AutoCloseable {
+
+        private final List<Slice> slices;
+        private final SecretKey userKey;
+        private final Runnable onChunkReady;
+        private final int window = windowSize();
+        private final Deque<InFlight<CompletableFuture<ChunkBuffer>>> inFlight = new ArrayDeque<>();
+        private final Set<Reservation> handedOut = new HashSet<>();
+        private final AtomicBoolean waitingForBudget = new AtomicBoolean();
+        // Budget held by chunks in flight and chunks handed out but not closed yet
+        private long heldBytes;
+        private int next;
+        private volatile boolean closed;
+
+        private Prefetcher(List<Slice> slices, SecretKey userKey, Runnable onChunkReady) {
+            this.slices = slices;
+            this.userKey = userKey;
+            this.onChunkReady = onChunkReady;
+        }
+
+        /**
+         * The next chunk if it has been fetched, else null (also when all chunks
+         * have been returned, see {@link #isDone()}). Never blocks.
+         *
+         * @throws IOException if the next chunk could not be fetched
+         */
+        public synchronized Chunk poll() throws IOException {
+            fill();
+            InFlight<CompletableFuture<ChunkBuffer>> head = inFlight.peek();
+            if (head == null || !head.fetch().isDone()) {
+                return null;
+            }
+            inFlight.poll();
+            ChunkBuffer data;
+            try {
+                data = head.fetch().join();
+            } catch (CompletionException e) {
+                heldBytes -= head.reservation().initial();
+                head.reservation().release();
+                Throwable cause = e.getCause() instanceof UncheckedIOException io ? io.getCause() : e.getCause();
+                if (cause instanceof IOException io) throw io;
+                throw new IOException("Chunk fetch failed", cause);
+            }
+            handedOut.add(head.reservation());
+            fill();
+            return new Chunk(data.view(), head.reservation());
+        }
+
+        public synchronized boolean isDone() {
+            return next == slices.size() && inFlight.isEmpty();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) return;
+            closed = true;
+            // Client went away or a chunk failed: drop whatever is still buffered
+            for (InFlight<CompletableFuture<ChunkBuffer>> pending : inFlight) {
+                pending.fetch().cancel(true);
+                pending.reservation().release();
+            }
+            inFlight.clear();
+            handedOut.forEach(Reservation::release);
+            handedOut.clear();
+            heldBytes = 0;
+        }
+
+        /**
+         * One chunk's plaintext. Holds its share of the read-ahead budget until
+         * closed, so close it once the buffer has been consumed.
+         */
+        public final class Chunk implements AutoCloseable {
+            private final ByteBuffer data;
+            private final Reservation reservation;
+
+            private Chunk(ByteBuffer data, Reservation reservation) {
+                this.data = data;
+                this.reservation = reservation;
+            }
+
+            public ByteBuffer data() {
+                return data;
+            }
+
+            @Override
+            public void close() {
+                release(reservation);
+            }
+        }
+
+        private synchronized void release(Reservation reservation) {
+            if (handedOut.remove(reservation)) {
+                heldBytes -= reservation.initial();
+                reservation.release();
+            }
+        }
+
+        // Called when budget is released; may run under another prefetcher's lock, so takes none
+        private void budgetReleased() {
+            waitingForBudget.set(false);
+            if (!closed) {
+                ioPool.execute(onChunkReady);
+            }
+        }
+
+        private void fill() throws IOException {
+            while (!closed && next < slices.size() && inFlight.size() < window) {
+                Slice slice = slices.get(next);
+                int charge = charge(slice);
+                // Holding nothing, one chunk may start however large it is
+                boolean first = heldBytes == 0;
+                if (!first && heldBytes + charge > requestBudgetBytes) break;
+                // Never blocks: this runs on the I/O pool (see onChunkReady)
+                Reservation reservation = reserve(charge, false);
+                if (reservation == null) {
+                    if (inFlight.isEmpty()) {
+                        // No fetch left to call onChunkReady: wait for budget instead
+                        awaitBudget(charge);
+                    }
+                    break;
+                }
+                next++;
+                CompletableFuture<ChunkBuffer> fetch = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return fetch(slice, userKey, reservation);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, ioPool);
+                inFlight.add(new InFlight<>(fetch, reservation));
+                heldBytes += charge;
+                // Async even if already complete, so the listener never re-enters poll()
+                fetch.whenCompleteAsync((data, error) -> onChunkReady.run(), ioPool);
+            }
+        }
+
+        private void awaitBudget(int charge) {
+            if (!waitingForBudget.compareAndSet(false, true)) return;
+            budgetWaits.incrementAndGet();
+            budgetWaiters.add(this);
+            // Budget released between the failed reservation and joining the line
+            if (globalBudget.availablePermits() >= charge) {
+                wakeBudgetWaiters();
+            }
+        }
+    }
+
+    private long copySlices(List<Slice> slices, SecretKey userKey, OutputStream out) throws IOException {
+        int window = windowSize();
+        if (slices.size() <= 1 || window <= 1) {
+            // Nothing to overlap: stream directly
+            long total = 0;
+            for (Slice slice : slices) {
+                total += transfer(slice, userKey, out);
+                out.flush();
+            }
+            return total;
+        }
+
+        Deque<InFlight<Future<ChunkBuffer>>> inFlight = new ArrayDeque<>();
+        long inFlightBytes = 0;
+        int next = 0;
+        long total = 0;
+        try {
+            while (next < slices.size() || !inFlight.isEmpty()) {
+                // Top up the window as far as the budgets allow
+                while (next < slices.size() && inFlight.size() < window) {
+                    Slice slice = slices.get(next);
+                    int charge = charge(slice);
+                    boolean first = inFlight.isEmpty();
+                    if (!first && inFlightBytes + charge > requestBudgetBytes) break;
+                    Reservation reservation = reserve(charge, first);
+                    if (reservation == null) break;
+                    next++;
+                    inFlight.add(new InFlight<>(ioPool.submit(() -> fetch(slice, userKey, reservation)), reservation));
+                    inFlightBytes += charge;
+                }
+
+                InFlight<Future<ChunkBuffer>> head = inFlight.peek();
+                ChunkBuffer data = await(head.fetch());
+                inFlight.poll();
+                inFlightBytes -= head.reservation().initial();
+                try {
+                    data.writeTo(out); // writes the internal array, no extra copy
+                    total += data.size();
+                    out.flush();
+                } finally {
+                    head.reservation().release();
+                }
+            }
+            return total;
+        } finally {
+            // Client went away or a chunk failed: drop whatever is still buffered
+            for (InFlight<Future<ChunkBuffer>> pending : inFlight) {
+                pending.fetch().cancel(true);
+                pending.reservation().release();
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("prefetchedChunks", prefetchedChunks.get());
+        stats.put("budgetWaits", budgetWaits.get());
+        stats.put("availableBudgetBytes", globalBudget.availablePermits());
+        stats.put("globalBudgetBytes", globalBudgetBytes);
+        return stats;
+    }
+
+    // ==================== INTERNAL ====================
+
+    private static List<Slice> wholeSlices(ChunkManifest manifest) {
+        List<Slice> slices = new ArrayList<>(manifest.chunkCount());
+        for (int i = 0; i < manifest.chunkCount(); i++) {
+            slices.add(new Slice(manifest.hash(i), 0, -1, manifest.length(i)));
+        }
+        return slices;
+    }
+
+    private static List<Slice> rangeSlices(ChunkManifest manifest, long start, long end) {
+        List<Slice> slices = new ArrayList<>();
+        for (int i = manifest.chunkAt(start); i < manifest.chunkCount() && manifest.offset(i) <= end; i++) {
+            long chunkStart = manifest.offset(i);
+            long chunkEnd = chunkStart + manifest.length(i) - 1;
+            if (chunkEnd < chunkStart) continue; // empty chunk
+            int skip = (int) Math.max(0, start - chunkStart);
+            int length = (int) (Math.min(end, chunkEnd) - chunkStart + 1) - skip;
+            slices.add(new Slice(manifest.hash(i), skip, length, length));
+        }
+        return slices;
+    }
+
+    private int windowSize() {
+        return Math.max(1, readAhead);
+    }
+
+    // Bytes a slice is charged before it is fetched; never more than the whole
+    // global budget, or a single oversized chunk could never start
+    private int charge(Slice slice) {
+        int size = slice.size() >= 0 ? slice.size() : expectedChunkBytes;
+        return Math.min(size, globalBudgetBytes);
+    }
+
+    /**
+     * @return The reservation, or null if the budget is exhausted and the caller may not block
+     */
+    private Reservation reserve(int bytes, boolean mayBlock) throws IOException {
+        if (globalBudget.tryAcquire(bytes)) {
+            return new Reservation(bytes);
+        }
+        if (!mayBlock) {
+            return null;
+        }
+        budgetWaits.incrementAndGet();
+        try {
+            globalBudget.acquire(bytes);
+            return new Reservation(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for download budget");
+        }
+    }
+
+    private void wakeBudgetWaiters() {
+        Prefetcher waiter;
+        while ((waiter = budgetWaiters.poll()) != null) {
+            waiter.budgetReleased();
+        }
+    }
+
+    private ChunkBuffer fetch(Slice slice, SecretKey userKey, Reservation reservation) throws IOException {
+        ChunkBuffer buffer = new ChunkBuffer(slice.size() >= 0 ? slice.size() : expectedChunkBytes);
+        transfer(slice, userKey, buffer);
+        reservation.settle(buffer.size());
+        prefetchedChunks.incrementAndGet();
+        return buffer;
+    }
+
+    // Partial slices skip leading segments without decrypting them
+    private long transfer(Slice slice, SecretKey userKey, OutputStream out) throws IOException {
+        if (slice.isWhole()) {
+            return storageService.transferChunk(slice.hash(), userKey, out);
+        }
+        return storageService.transferChunkRange(slice.hash(), userKey, slice.skip(), slice.length(), out);
+    }
+
+    private static ChunkBuffer await(Future<ChunkBuffer> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for chunk");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            throw new IOException("Chunk fetch failed", cause);
+        }
+    }
+
+    /**
+     * Fetched plaintext, readable in place (no toByteArray() copy).
+     */
+    private static final class ChunkBuffer extends ByteArrayOutputStream {
+        ChunkBuffer(int size) {
+            super(size);
+        }
+
+        ByteBuffer view() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    /**
+     * Budget held by one fetched chunk. Starts at the charge made before the fetch
+     * and is settled to the bytes actually buffered; released exactly once.
+     */
+    private final class Reservation {
+        private final int initial;
+        private int held;
+        private boolean released;
+
+        Reservation(int bytes) {
+            this.initial = bytes;
+            this.held = bytes;
+        }
+
+        int initial() {
+            return initial;
+        }
+
+        synchronized void settle(int bytes) {
+            if (released || bytes <= held) return;
+            globalBudget.overdraw(bytes - held);
+            held = bytes;
+        }
+
+        void release() {
+            synchronized (this) {
+                if (released) return;
+                released = true;
+                globalBudget.release(held);
+            }
+            wakeBudgetWaiters();
+        }
+    }
+
+    private record InFlight<F>(F fetch, Reservation reservation) {
+    }
+
+    /**
+     * Global byte budget that can be overdrawn by chunks larger than their charge.
+     */
+    private static final class Budget extends Semaphore {
+        Budget(int permits) {
+            super(permits);
+        }
+
+        void overdraw(int bytes) {
+            reducePermits(bytes);
+        }
+    }
+
+    /**
+     * Part of one chunk's plaintext; length -1 means the whole chunk.
+     * size is the plaintext bytes the slice yields, -1 when unknown.
+     */
+    private record Slice(String hash, int skip, int length, int size) {
+        boolean isWhole() {
+            return skip == 0 && length < 0;
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package com.minidrive.storage;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Local disk (NVMe) tier for hot chunks in front of MinIO.
+ *
+ * - Stores chunk objects exactly as they sit in MinIO (ciphertext), keyed by content hash
+ * - Hits are read from memory-mapped files (no read syscalls; bytes are still
+ *   copied into the caller's buffer)
+ * - Misses are filled while the object streams to the caller: the first byte goes
+ *   out as soon as MinIO sends it, and the copy is admitted once the object has
+ *   been read to the end
+ * - Size-bounded LRU eviction against a configurable byte budget
+ *
+ * A hash always maps to the same plaintext, but not to the same stored bytes:
+ * re-uploads and the format migration overwrite objects in place. Every write to
+ * a chunk key evicts it (see evict), and a fill that was in flight when the key
+ * was written is discarded instead of admitted.
+ * The index is rebuilt from disk on startup.
+ */
+@Component
+public class LocalChunkCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(LocalChunkCache.class);
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    @Value("${minidrive.chunk-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${minidrive.chunk-cache.dir:${java.io.tmpdir}/sanchay-chunk-cache}")
+    private String cacheDir;
+
+    @Value("${minidrive.chunk-cache.max-bytes:2147483648}")
+    private long maxBytes;
+
+    private Path root;
+
+    // Access-ordered: iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    // In-flight fills by hash (guarded by entries); evict drops the token so the fill is not admitted
+    private final Map<String, Object> fills = new HashMap<>();
+    private final List<Path> pendingDeletes = new ArrayList<>();
+    private long currentBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            logger.info("Chunk cache: disabled");
+            return;
+        }
+        try {
+            root = Paths.get(cacheDir);
+            Files.createDirectories(root);
+            rebuildIndex();
+            logger.info("Chunk cache: {} ({} entries, {} / {} bytes)", root, entries.size(), currentBytes, maxBytes);
+        } catch (IOException e) {
+            logger.warn("Chunk cache disabled, cannot use {}: {}", cacheDir, e.getMessage());
+            enabled = false;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // ==================== READS ====================
+
+    /**
+     * Open a cached chunk as a stream over a memory-mapped file.
+     *
+     * @return Stream of the stored object bytes, or null on a miss
+     */
+    public InputStream open(String chunkHash) {
+        if (!isCacheable(chunkHash)) return null;
+        Path file = lookup(chunkHash);
+        return file != null ? map(chunkHash, file) : null;
+    }
+
+    // ==================== WRITES ====================
+
+    /**
+     * Source of a chunk object on a cache miss.
+     */
+    @FunctionalInterface
+    public interface Source {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Open a chunk object from its source and copy it into the cache as it is read.
+     * The copy is admitted only if the returned stream is read to the end and the
+     * chunk was not evicted in the meantime; a stream closed early, or a failed
+     * cache write, just leaves the chunk uncached. Cache failures never fail the read.
+     *
+     * @return Stream of the object bytes (from the source, not the cache)
+     */
+    public InputStream openFilling(String chunkHash, Source source) throws IOException {
+        if (!isCacheable(chunkHash)) return source.open();
+
+        Object token = new Object();
+        synchronized (entries) {
+            fills.put(chunkHash, token);
+        }
+        Path temp = root.resolve(chunkHash + "." + UUID.randomUUID() + TEMP_SUFFIX);
+        OutputStream cacheOut;
+        try {
+            cacheOut = Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            logger.warn("Chunk cache write failed for {}: {}", chunkHash, e.getMessage());
+            abandon(chunkHash, token, temp);
+            return source.open();
+        }
+
+        try {
+            return new FillingStream(source.open(), chunkHash, token, temp, cacheOut);
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(cacheOut);
+            abandon(chunkHash, token, temp);
+            throw e;
+        }
+    }
+
+    // Move a completed fill into place, unless the chunk was evicted (or refilled) meanwhile
+    private void commit(String chunkHash, Object token, Path temp, long size) {
+        synchronized (entries) {
+            if (!fills.remove(chunkHash, token)) {
+                deleteFile(temp);
+                return;
+            }
+            try {
+                Path target = root.resolve(chunkHash);
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                logger.warn("Chunk cache write failed for {}: {}", chunkHash, e.getMessage());
+                deleteFile(temp);
+                return;
+            }
+            admit(chunkHash, size);
+        }
+    }
+
+    private void abandon(String chunkHash, Object token, Path temp) {
+        synchronized (entries) {
+            fills.remove(chunkHash, token);
+            deleteFile(temp);
+        }
+    }
+
+    /**
+     * Drop a cached chunk whose stored object was (over)written, along with any
+     * copy of the old object that is still being filled.
+     */
+    public void evict(String chunkHash) {
+        if (!isCacheable(chunkHash)) return;
+        synchronized (entries) {
+            fills.remove(chunkHash);
+            Long size = entries.remove(chunkHash);
+            if (size != null) {
+                currentBytes -= size;
+                deleteFile(root.resolve(chunkHash));
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+            stats.put("bytes", currentBytes);
+        }
+        stats.put("maxBytes", maxBytes);
+        return stats;
+    }
+
+    // ==================== INDEX ====================
+
+    // Only plain content hashes map to cache files (no staging keys or path separators)
+    private boolean isCacheable(String chunkHash) {
+        if (!enabled || chunkHash == null || chunkHash.isEmpty()) return false;
+        for (int i = 0; i < chunkHash.length(); i++) {
+            char c = chunkHash.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '-') return false;
+        }
+        return true;
+    }
+
+    private InputStream map(String chunkHash, Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedChunkStream(mapped);
+        } catch (IOException e) {
+            logger.debug("Chunk cache read failed for {}: {}", chunkHash, e.getMessage());
+            remove(chunkHash);
+            return null;
+        }
+    }
+
+    private Path lookup(String chunkHash) {
+        boolean hit;
+        synchronized (entries) {
+            hit = entries.get(chunkHash) != null; // get() refreshes LRU position
+        }
+        if (hit) {
+            hits.incrementAndGet();
+            return root.resolve(chunkHash);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    private void admit(String chunkHash, long size) {
+        synchronized (entries) { // reentrant from commit
+            Long previous = entries.put(chunkHash, size);
+            if (previous != null) {
+                currentBytes -= previous;
+            }
+            currentBytes += size;
+            evictIfNeeded();
+        }
+    }
+
+    private void remove(String chunkHash) {
+        synchronized (entries) {
+            Long size = entries.remove(chunkHash);
+            if (size != null) {
+                currentBytes -= size;
+            }
+        }
+    }
+
+    // Caller holds the entries lock
+    private void evictIfNeeded() {
+        retryPendingDeletes();
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            eldest.remove();
+            currentBytes -= entry.getValue();
+            evictions.incrementAndGet();
+            deleteFile(root.resolve(entry.getKey()));
+        }
+    }
+
+    private void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Windows refuses to delete files that are still mapped; retry on a later eviction
+            pendingDeletes.add(file);
+        }
+    }
+
+    private void retryPendingDeletes() {
+        if (pendingDeletes.isEmpty()) return;
+        List<Path> retry = new ArrayList<>(pendingDeletes);
+        pendingDeletes.clear();
+        for (Path file : retry) {
+            if (!entries.containsKey(file.getFileName().toString())) {
+                deleteFile(file);
+            }
+        }
+    }
+
+    private void rebuildIndex() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> listing = Files.list(root)) {
+            listing.forEach(files::add);
+        }
+
+        Map<Path, BasicFileAttributes> attributes = new HashMap<>();
+        for (Path file : files) {
+            if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                Files.deleteIfExists(file); // Interrupted writes from a previous run
+            } else {
+                attributes.put(file, Files.readAttributes(file, BasicFileAttributes.class));
+            }
+        }
+
+        // Oldest first so the most recently used files end up at the LRU tail
+        attributes.entrySet().stream()
+            .sorted(Comparator.comparing(e -> e.getValue().lastAccessTime()))
+            .forEach(e -> admit(e.getKey().getFileName().toString(), e.getValue().size()));
+    }
+
+    private static void closeQuietly(OutputStream out) {
+        try {
+            out.close();
+        } catch (IOException ignored) {
+            // The temp file is deleted anyway
+        }
+    }
+
+    /**
+     * Passes a source stream through while writing every byte read to the fill's
+     * temp file; reaching the end of the source commits the fill.
+     */
+    private final class FillingStream extends FilterInputStream {
+        private final String chunkHash;
+        private final Object token;
+        private final Path temp;
+        private OutputStream cacheOut; // null once committed or abandoned
+        private long size;
+
+        FillingStream(InputStream source, String chunkHash, Object token, Path temp, OutputStream cacheOut) {
+            super(source);
+            this.chunkHash = chunkHash;
+            this.token = token;
+            this.temp = temp;
+            this.cacheOut = cacheOut;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                finish();
+            } else {
+                tee(new byte[]{(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n < 0) {
+                finish();
+            } else {
+                tee(b, off, n);
+            }
+            return n;
+        }
+
+        // Skipped bytes still have to reach the cache file
+        @Override
+        public long skip(long n) throws IOException {
+            if (cacheOut == null) return in.skip(n);
+            byte[] buffer = BufferPool.acquire();
+            try {
+                long skipped = 0;
+                while (skipped < n) {
+                    int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                    if (read < 0) break;
+                    skipped += read;
+                }
+                return skipped;
+            } finally {
+                BufferPool.release(buffer);
+            }
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            } finally {
+                if (cacheOut != null) {
+                    // Not read to the end: the copy is incomplete
+                    closeQuietly(cacheOut);
+                    cacheOut = null;
+                    abandon(chunkHash, token, temp);
+                }
+            }
+        }
+
+        private void tee(byte[] b, int off, int len) {
+            if (cacheOut == null || len == 0) return;
+            try {
+                cacheOut.write(b, off, len);
+                size += len;
+            } catch (IOException e) {
+                logger.warn("Chunk cache write failed for {}: {}", chunkHash, e.getMessage());
+                closeQuietly(cacheOut);
+                cacheOut = null;
+                abandon(chunkHash, token, temp);
+            }
+        }
+
+        private void finish() {
+            if (cacheOut == null) return;
+            OutputStream out = cacheOut;
+            cacheOut = null;
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.warn("Chunk cache write failed for {}: {}", chunkHash, e.getMessage());
+                abandon(chunkHash, token, temp);
+                return;
+            }
+            commit(chunkHash, token, temp, size);
+        }
+    }
+
+    /**
+     * InputStream view over a mapped chunk file.
+     */
+    private static final class MappedChunkStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        MappedChunkStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!buffer.hasRemaining()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.min(Math.max(n, 0), buffer.remaining());
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.minidrive.storage;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodic removal of abandoned staged chunks.
+ *
+ * Uploads are staged under staging/ and either committed or discarded once the
+ * hash is checked, but a process that dies in between (or loses its MinIO
+ * connection on the discard) leaves the staging object behind. Every run lists
+ * staging/ and removes objects older than the max age. The age is far above the
+ * time a single chunk spends in staging, so live uploads are not touched; a commit
+ * that does lose its staging object still succeeds if the chunk is already stored
+ * (see StorageService#commitStagedChunk).
+ */
+@Component
+public class StagingSweeper {
+
+    private static final Logger logger = LoggerFactory.getLogger(StagingSweeper.class);
+
+    @Autowired
+    private StorageService storageService;
+
+    @Value("${minidrive.staging-sweep.enabled:true}")
+    private boolean enabled;
+
+    @Value("${minidrive.staging-sweep.interval-minutes:30}")
+    private long intervalMinutes;
+
+    @Value("${minidrive.staging-sweep.max-age-minutes:60}")
+    private long maxAgeMinutes;
+
+    private ScheduledExecutorService scheduler;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+    private final AtomicLong failedRuns = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            logger.info("Staging sweep disabled");
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "staging-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(1, intervalMinutes);
+        scheduler.scheduleWithFixedDelay(this::sweep, interval, interval, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("runs", runs.get());
+        stats.put("removed", removed.get());
+        stats.put("failedRuns", failedRuns.get());
+        stats.put("maxAgeMinutes", maxAgeMinutes);
+        return stats;
+    }
+
+    // ==================== INTERNAL ====================
+
+    void sweep() {
+        try {
+            long count = storageService.sweepStaging(ZonedDateTime.now().minusMinutes(maxAgeMinutes));
+            runs.incrementAndGet();
+            removed.addAndGet(count);
+            if (count > 0) {
+                logger.info("Removed {} abandoned staged chunks", count);
+            }
+        } catch (RuntimeException e) {
+            // Retried on the next run
+            failedRuns.incrementAndGet();
+            logger.warn("Staging sweep failed: {}", e.getMessage());
+        }
+    }
+}
@@ -12,8 +12,14 @@ import org.springframework.stereotype.Service;
 
 import javax.crypto.SecretKey;
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * MinIO storage service with optional AES-256-GCM encryption.
@@ -26,6 +32,18 @@ import java.util.*;
  * For backwards compatibility, methods without SecretKey continue to work
  * (unencrypted storage for legacy data or when encryption is disabled).
  * 
+ * Object Format:
+ * - Every chunk object starts with a header saying plain or encrypted (and with
+ *   which key), so reads dispatch from the single GET instead of trying to decrypt
+ *   and re-fetching raw bytes on failure
+ * - Header-less objects from before the format are rewritten in the background
+ *   (see ChunkFormatMigrator)
+ * 
+ * Streaming I/O:
+ * - putChunk/openChunk pipe data between channels, the encryption layer and MinIO
+ * - Copies go through pooled buffers (see BufferPool), never whole-chunk byte[]s
+ * - Reads go through a local disk tier of hot chunks (see LocalChunkCache)
+ * 
  * File Versioning:
  * - Uses a separate versioned bucket for complete files
  * - MinIO native versioning preserves all previous versions
@@ -38,10 +56,18 @@ public class StorageService {
     private final MinioClient minioClient;
     private static final String BUCKET_NAME = "drive-chunks";
     private static final String VERSIONED_BUCKET = "drive-files-versioned";
+    private static final String STAGING_PREFIX = "staging/";
 
     @Autowired
     private EncryptionService encryptionService;
 
+    @Autowired
+    private LocalChunkCache chunkCache;
+
+    // Absent in tests and single-node setups without Redis
+    @Autowired(required = false)
+    private ChunkCacheInvalidator cacheInvalidator;
+
     @Autowired
     public StorageService(MinioClient minioClient) {
         this.minioClient = minioClient;
@@ -117,13 +143,14 @@ public class StorageService {
     }
 
     /**
-     * Download a specific version of a file.
+     * Open a specific version of a file for streaming.
+     * The caller is responsible for closing the returned stream.
      * 
      * @param objectKey File identifier
      * @param versionId Version ID (null for latest)
-     * @return File content
+     * @return File content stream, or null if the version cannot be read
      */
-    public byte[] downloadVersionedFile(String objectKey, String versionId) {
+    public InputStream openVersionedFile(String objectKey, String versionId) {
         try {
             GetObjectArgs.Builder builder = GetObjectArgs.builder()
                 .bucket(VERSIONED_BUCKET)
@@ -133,12 +160,10 @@ public class StorageService {
                 builder.versionId(versionId);
             }
             
-            try (InputStream stream = minioClient.getObject(builder.build())) {
-                return stream.readAllBytes();
-            }
+            return minioClient.getObject(builder.build());
         } catch (Exception e) {
-            logger.error("Failed to download versioned file {}: {}", objectKey, e.getMessage());
-            return new byte[0];
+            logger.error("Failed to open versioned file {}: {}", objectKey, e.getMessage());
+            return null;
         }
     }
 
@@ -197,6 +222,171 @@ public class StorageService {
         }
     }
 
+    // ==================== STREAMING CHUNK OPERATIONS ====================
+
+    /**
+     * Store a chunk by streaming it from a channel (no encryption, plain header).
+     * The chunk is never materialised on the heap.
+     * 
+     * @param chunkHash Content-addressed hash (used as object key)
+     * @param source Chunk content
+     * @param length Exact number of bytes the channel will yield
+     */
+    public void putChunk(String chunkHash, ReadableByteChannel source, long length) {
+        putRaw(chunkHash, encryptionService.plainStream(Channels.newInputStream(source)), encryptionService.plainLength(length));
+    }
+
+    /**
+     * Store a chunk by streaming it through AES-256-GCM encryption into MinIO.
+     * The chunk is encrypted before it leaves the JVM - MinIO never sees plaintext.
+     * 
+     * @param chunkHash Content-addressed hash (used as object key)
+     * @param source Raw chunk content
+     * @param length Exact number of plaintext bytes the channel will yield
+     * @param userKey User's decrypted DEK
+     */
+    public void putChunk(String chunkHash, ReadableByteChannel source, long length, SecretKey userKey) {
+        InputStream encrypted = encryptionService.encryptingStream(Channels.newInputStream(source), userKey);
+        putRaw(chunkHash, encrypted, encryptionService.encryptedLength(length));
+        logger.debug("Uploaded encrypted chunk: {} ({} bytes)", chunkHash, length);
+    }
+
+    /**
+     * Open a stored chunk as-is (no decryption).
+     * Served from the local chunk cache when hot; misses stream from MinIO and are
+     * copied into the cache on the way through. The caller is responsible for closing the stream.
+     */
+    public InputStream openChunk(String chunkHash) throws IOException {
+        InputStream cached = chunkCache.open(chunkHash);
+        if (cached != null) {
+            return cached;
+        }
+        if (chunkCache.isEnabled()) {
+            return chunkCache.openFilling(chunkHash, () -> openRemote(chunkHash));
+        }
+        return openRemote(chunkHash);
+    }
+
+    /**
+     * Open a stored chunk's plaintext, decrypting while reading if the object
+     * header says it is encrypted. The caller is responsible for closing the stream.
+     * 
+     * @param userKey User's decrypted DEK, or null for unencrypted users
+     */
+    public InputStream openChunk(String chunkHash, SecretKey userKey) throws IOException {
+        InputStream raw = openChunk(chunkHash);
+        try {
+            return encryptionService.plaintextStream(raw, userKey);
+        } catch (IOException e) {
+            raw.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Stream a chunk's plaintext to an output stream (e.g. the servlet response).
+     * 
+     * @param chunkHash Content-addressed hash
+     * @param userKey User's decrypted DEK, or null for unencrypted users
+     * @param out Destination stream (not closed)
+     * @return Number of plaintext bytes written
+     */
+    public long transferChunk(String chunkHash, SecretKey userKey, OutputStream out) throws IOException {
+        try (InputStream in = openChunk(chunkHash, userKey)) {
+            return BufferPool.copy(in, out);
+        }
+    }
+
+    /**
+     * Stream part of a chunk's plaintext. For segmented chunks the segments before
+     * {@code skip} are jumped over without being decrypted.
+     * 
+     * @param skip Plaintext bytes to skip at the start of the chunk
+     * @param length Plaintext bytes to write
+     * @return Number of plaintext bytes written (always {@code length})
+     */
+    public long transferChunkRange(String chunkHash, SecretKey userKey, long skip, long length, OutputStream out) throws IOException {
+        try (InputStream in = openChunk(chunkHash, userKey)) {
+            in.skipNBytes(skip);
+            return BufferPool.copy(in, out, length);
+        }
+    }
+
+    // ==================== STAGED CHUNK OPERATIONS ====================
+
+    /**
+     * Object key for a chunk whose hash is not verified yet. Write it with
+     * putChunk, then commit or discard it once the hash is known.
+     */
+    public String newStagingKey() {
+        return STAGING_PREFIX + UUID.randomUUID();
+    }
+
+    /**
+     * Move a verified staged chunk to its content-addressed key (server-side
+     * copy, the bytes do not come back through the JVM).
+     *
+     * A staging object that is already gone (swept, or committed by an earlier
+     * attempt) is fine as long as the chunk itself is stored.
+     */
+    public void commitStagedChunk(String stagingKey, String chunkHash) {
+        try {
+            minioClient.copyObject(
+                    CopyObjectArgs.builder()
+                            .bucket(BUCKET_NAME)
+                            .object(chunkHash)
+                            .source(CopySource.builder().bucket(BUCKET_NAME).object(stagingKey).build())
+                            .build()
+            );
+        } catch (ErrorResponseException e) {
+            if (!e.errorResponse().code().equals("NoSuchKey") || !doesChunkExist(chunkHash)) {
+                throw new RuntimeException("Failed to commit staged chunk " + chunkHash, e);
+            }
+            logger.warn("Staged chunk {} already gone, {} is stored", stagingKey, chunkHash);
+            return;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to commit staged chunk " + chunkHash, e);
+        }
+        invalidateCached(chunkHash);
+        discardStagedChunk(stagingKey);
+    }
+
+    public void discardStagedChunk(String stagingKey) {
+        try {
+            minioClient.removeObject(RemoveObjectArgs.builder().bucket(BUCKET_NAME).object(stagingKey).build());
+        } catch (Exception e) {
+            logger.warn("Failed to remove staged chunk {}: {}", stagingKey, e.getMessage());
+        }
+    }
+
+    /**
+     * Remove staged chunks last modified before the cutoff: left behind by
+     * uploads that died between staging and commit or discard.
+     *
+     * @return Number of staged objects removed
+     */
+    public long sweepStaging(ZonedDateTime cutoff) {
+        long removed = 0;
+        try {
+            Iterable<Result<Item>> results = minioClient.listObjects(
+                    ListObjectsArgs.builder()
+                            .bucket(BUCKET_NAME)
+                            .prefix(STAGING_PREFIX)
+                            .recursive(true)
+                            .build()
+            );
+            for (Result<Item> result : results) {
+                Item item = result.get();
+                if (item.isDir() || item.lastModified() == null || !item.lastModified().isBefore(cutoff)) continue;
+                minioClient.removeObject(RemoveObjectArgs.builder().bucket(BUCKET_NAME).object(item.objectName()).build());
+                removed++;
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to sweep staged chunks after removing " + removed, e);
+        }
+        return removed;
+    }
+
     // ==================== ENCRYPTED OPERATIONS (Zero-Knowledge) ====================
 
     /**
@@ -208,25 +398,24 @@ public class StorageService {
      * @param userKey User's decrypted DEK
      */
     public void uploadChunkEncrypted(String chunkHash, byte[] data, SecretKey userKey) {
-        byte[] encryptedData = encryptionService.encryptChunk(data, userKey);
-        uploadRaw(chunkHash, encryptedData);
-        logger.debug("Uploaded encrypted chunk: {} ({} bytes -> {} bytes)", 
-            chunkHash, data.length, encryptedData.length);
+        InputStream encrypted = encryptionService.encryptingStream(new ByteArrayInputStream(data), userKey);
+        putRaw(chunkHash, encrypted, encryptionService.encryptedLength(data.length));
+        logger.debug("Uploaded encrypted chunk: {} ({} bytes)", chunkHash, data.length);
     }
 
     /**
-     * Download and decrypt a chunk.
+     * Read a chunk's plaintext into memory, whatever its stored format.
      * 
      * @param chunkHash Content-addressed hash
-     * @param userKey User's decrypted DEK
-     * @return Decrypted plaintext chunk
+     * @param userKey User's decrypted DEK, or null for unencrypted users
+     * @return Plaintext chunk
      */
-    public byte[] downloadChunkEncrypted(String chunkHash, SecretKey userKey) {
-        byte[] encryptedData = downloadRaw(chunkHash);
-        if (encryptedData.length == 0) {
-            return encryptedData;
+    public byte[] readChunk(String chunkHash, SecretKey userKey) {
+        try (InputStream in = openChunk(chunkHash, userKey)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read chunk " + chunkHash, e);
         }
-        return encryptionService.decryptChunk(encryptedData, userKey);
     }
 
     // ==================== RAW OPERATIONS (Legacy/Unencrypted) ====================
@@ -236,45 +425,131 @@ public class StorageService {
      * Kept for backwards compatibility and gradual migration.
      */
     public void uploadChunk(String chunkHash, byte[] data) {
-        uploadRaw(chunkHash, data);
+        putRaw(chunkHash, encryptionService.plainStream(new ByteArrayInputStream(data)), encryptionService.plainLength(data.length));
+    }
+
+    // ==================== FORMAT MIGRATION ====================
+
+    /**
+     * Whether the stored object starts with a chunk header.
+     * Costs one ranged GET of a few bytes.
+     */
+    public boolean hasChunkHeader(String chunkHash) throws IOException {
+        try (InputStream in = minioClient.getObject(
+                GetObjectArgs.builder()
+                        .bucket(BUCKET_NAME)
+                        .object(chunkHash)
+                        .offset(0L)
+                        .length((long) EncryptionService.HEADER_PROBE_LENGTH)
+                        .build())) {
+            byte[] head = in.readNBytes(EncryptionService.HEADER_PROBE_LENGTH);
+            return encryptionService.hasChunkHeader(head, head.length);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to read chunk header " + chunkHash, e);
+        }
+    }
+
+    /**
+     * Read a stored object as-is from MinIO, bypassing the local cache.
+     */
+    public byte[] readStoredChunk(String chunkHash) throws IOException {
+        try (InputStream in = openRemote(chunkHash)) {
+            return in.readAllBytes();
+        }
     }
 
     /**
-     * Download a chunk without decryption.
-     * For legacy unencrypted data.
+     * Overwrite a stored chunk with the same content in the current format
+     * (any cached copy of the old object is dropped, as on every chunk write).
+     * 
+     * @param plaintext Chunk plaintext
+     * @param userKey DEK to encrypt with, or null to store it plain
      */
-    public byte[] downloadChunk(String chunkHash) {
-        return downloadRaw(chunkHash);
+    public void rewriteChunk(String chunkHash, byte[] plaintext, SecretKey userKey) {
+        if (userKey != null) {
+            uploadChunkEncrypted(chunkHash, plaintext, userKey);
+        } else {
+            uploadChunk(chunkHash, plaintext);
+        }
+    }
+
+    public Map<String, Object> getChunkCacheStats() {
+        Map<String, Object> stats = chunkCache.getStats();
+        if (cacheInvalidator != null) {
+            stats.put("evictionsPublished", cacheInvalidator.getPublished());
+            stats.put("evictionsReceived", cacheInvalidator.getReceived());
+        }
+        return stats;
     }
 
     // ==================== INTERNAL MINIO OPERATIONS ====================
 
-    private void uploadRaw(String objectKey, byte[] data) {
-        try (InputStream stream = new ByteArrayInputStream(data)) {
+    private InputStream openRemote(String objectKey) throws IOException {
+        try {
+            return minioClient.getObject(
+                    GetObjectArgs.builder()
+                            .bucket(BUCKET_NAME)
+                            .object(objectKey)
+                            .build());
+        } catch (Exception e) {
+            throw new IOException("Failed to open chunk " + objectKey, e);
+        }
+    }
+
+    private void putRaw(String objectKey, InputStream stream, long length) {
+        try (stream) {
             minioClient.putObject(
                     PutObjectArgs.builder()
                             .bucket(BUCKET_NAME)
                             .object(objectKey)
-                            .stream(stream, data.length, -1)
+                            .stream(stream, length, -1)
                             .contentType("application/octet-stream")
                             .build()
             );
         } catch (Exception e) {
             throw new RuntimeException("Failed to upload chunk " + objectKey, e);
         }
+        // Chunk keys are overwritten in place (re-uploads, migration): never serve the old bytes
+        if (!objectKey.startsWith(STAGING_PREFIX)) {
+            invalidateCached(objectKey);
+        }
     }
 
-    private byte[] downloadRaw(String objectKey) {
-        try (InputStream stream = minioClient.getObject(
-                GetObjectArgs.builder()
-                        .bucket(BUCKET_NAME)
-                        .object(objectKey)
-                        .build())) {
-            return stream.readAllBytes();
+    // Evict here and on every other node
+    private void invalidateCached(String chunkHash) {
+        chunkCache.evict(chunkHash);
+        if (cacheInvalidator != null) {
+            cacheInvalidator.publish(chunkHash);
+        }
+    }
+
+    /**
+     * Stream the key of every committed chunk object to the consumer (staged
+     * uploads are skipped). Used to backfill the chunk index.
+     *
+     * @return Number of chunk keys listed
+     */
+    public long forEachChunkHash(Consumer<String> consumer) {
+        long count = 0;
+        try {
+            Iterable<Result<Item>> results = minioClient.listObjects(
+                    ListObjectsArgs.builder()
+                            .bucket(BUCKET_NAME)
+                            .recursive(false)
+                            .build()
+            );
+            for (Result<Item> result : results) {
+                Item item = result.get();
+                if (item.isDir() || item.objectName().startsWith(STAGING_PREFIX)) continue;
+                consumer.accept(item.objectName());
+                count++;
+            }
         } catch (Exception e) {
-            logger.error("Failed to download chunk {}: {}", objectKey, e.getMessage());
-            return new byte[0];
+            throw new RuntimeException("Failed to list chunks", e);
         }
+        return count;
     }
 
     public boolean doesChunkExist(String chunkHash) {
@@ -288,4 +563,4 @@ public class StorageService {
             throw new RuntimeException("Error checking chunk", e);
         }
     }
-}
\ No newline at end of file
+}
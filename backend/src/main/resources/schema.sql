@@ -1,10 +1,13 @@
 -- 1. CLEANUP
 DROP TABLE IF EXISTS activities CASCADE;
+DROP TABLE IF EXISTS chunk_refs CASCADE;
+DROP TABLE IF EXISTS file_manifests CASCADE;
 DROP TABLE IF EXISTS file_chunks CASCADE;
 DROP TABLE IF EXISTS files CASCADE;
 DROP TABLE IF EXISTS folders CASCADE;
 DROP TABLE IF EXISTS users CASCADE;
 DROP TABLE IF EXISTS global_chunks CASCADE;
+DROP TABLE IF EXISTS chunk_signatures CASCADE;
 
 -- 2. USERS
 CREATE TABLE users (
@@ -48,13 +51,41 @@ CREATE TABLE file_chunks (
     file_id UUID,
     chunk_hash VARCHAR(64),
     chunk_index INT,
+    plain_offset BIGINT,
+    plain_length INT,
     PRIMARY KEY (file_id, chunk_index),
     CONSTRAINT fk_chunk_file FOREIGN KEY (file_id) REFERENCES files(file_id) ON DELETE CASCADE
 );
 
+-- Packed chunk list per file (see ChunkManifest), replaces file_chunks rows for new files
+CREATE TABLE file_manifests (
+    file_id UUID PRIMARY KEY,
+    chunk_count INT NOT NULL,
+    manifest BYTEA NOT NULL,
+    CONSTRAINT fk_manifest_file FOREIGN KEY (file_id) REFERENCES files(file_id) ON DELETE CASCADE
+);
+
+-- Reverse index for GC: which files reference a chunk (32-byte binary SHA-256)
+CREATE TABLE chunk_refs (
+    chunk_hash BYTEA,
+    file_id UUID,
+    PRIMARY KEY (chunk_hash, file_id),
+    CONSTRAINT fk_ref_file FOREIGN KEY (file_id) REFERENCES files(file_id) ON DELETE CASCADE
+);
+
 CREATE TABLE global_chunks (
     chunk_hash VARCHAR(64) PRIMARY KEY,
-    ref_count INT DEFAULT 1
+    ref_count INT DEFAULT 1,
+    plain_size BIGINT,
+    format_version SMALLINT
+);
+
+-- Delta-sync block signatures per chunk (packed Adler-32 + SHA-256 per block)
+CREATE TABLE chunk_signatures (
+    chunk_hash VARCHAR(64) PRIMARY KEY,
+    block_size INT NOT NULL,
+    plain_length INT NOT NULL,
+    signature BYTEA NOT NULL
 );
 
 -- 6. ACTIVITIES (Correctly added)
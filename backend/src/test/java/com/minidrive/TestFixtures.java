@@ -0,0 +1,52 @@
+package com.minidrive;
+
+import com.minidrive.chunking.ChunkDigest;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+
+/**
+ * Deterministic test data shared by the test classes.
+ */
+public final class TestFixtures {
+
+    private TestFixtures() {
+    }
+
+    /**
+     * Deterministic pseudo-random bytes: the same seed always gives the same data.
+     */
+    public static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * A 256-bit AES key; different seeds give different keys.
+     */
+    public static SecretKey key(int seed) {
+        return new SecretKeySpec(randomBytes(32, seed), "AES");
+    }
+
+    /**
+     * Lowercase hex SHA-256, as chunks are addressed.
+     */
+    public static String sha256(byte[] data) {
+        return ChunkDigest.SHA256.hash(data, 0, data.length);
+    }
+
+    /**
+     * Read exactly {@code length} bytes from a channel (fewer if it ends first, zero-padded).
+     */
+    public static byte[] drain(ReadableByteChannel channel, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,219 @@
+package com.minidrive.api;
+
+import com.minidrive.repository.ChunkManifest;
+import com.minidrive.storage.ChunkStreamReader;
+import com.minidrive.storage.StorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ChunkedFileResponderTest {
+
+    private static final int CHUNK = 10;
+    private static final List<String> HASHES = List.of("c0", "c1", "c2");
+
+    // 30-byte file in three 10-byte chunks; byte i has value i
+    private final byte[] file = new byte[HASHES.size() * CHUNK];
+    private final ChunkManifest manifest = ChunkManifest.of(HASHES, Collections.nCopies(3, CHUNK), Collections.nCopies(3, null));
+
+    private StorageService storageService;
+    private ChunkStreamReader chunkStreamReader;
+    private ChunkedFileResponder responder;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        for (int i = 0; i < file.length; i++) {
+            file[i] = (byte) i;
+        }
+        Map<String, byte[]> chunks = Map.of(
+                "c0", Arrays.copyOfRange(file, 0, 10),
+                "c1", Arrays.copyOfRange(file, 10, 20),
+                "c2", Arrays.copyOfRange(file, 20, 30));
+
+        storageService = mock(StorageService.class);
+        when(storageService.transferChunk(anyString(), any(), any(OutputStream.class))).thenAnswer(invocation -> {
+            byte[] chunk = chunks.get(invocation.<String>getArgument(0));
+            invocation.<OutputStream>getArgument(2).write(chunk);
+            return (long) chunk.length;
+        });
+        when(storageService.transferChunkRange(anyString(), any(), anyLong(), anyLong(), any(OutputStream.class))).thenAnswer(invocation -> {
+            byte[] chunk = chunks.get(invocation.<String>getArgument(0));
+            int skip = (int) invocation.<Long>getArgument(2).longValue();
+            int length = (int) invocation.<Long>getArgument(3).longValue();
+            invocation.<OutputStream>getArgument(4).write(chunk, skip, length);
+            return (long) length;
+        });
+
+        chunkStreamReader = new ChunkStreamReader();
+        ReflectionTestUtils.setField(chunkStreamReader, "storageService", storageService);
+        ReflectionTestUtils.setField(chunkStreamReader, "readAhead", 4);
+        ReflectionTestUtils.setField(chunkStreamReader, "ioThreads", 2);
+        ReflectionTestUtils.setField(chunkStreamReader, "expectedChunkBytes", CHUNK);
+        ReflectionTestUtils.setField(chunkStreamReader, "requestBudgetBytes", 1L << 20);
+        ReflectionTestUtils.setField(chunkStreamReader, "globalBudgetBytes", 1 << 20);
+        chunkStreamReader.init();
+
+        responder = new ChunkedFileResponder();
+        ReflectionTestUtils.setField(responder, "chunkStreamReader", chunkStreamReader);
+    }
+
+    @AfterEach
+    void tearDown() {
+        chunkStreamReader.shutdown();
+    }
+
+    @Test
+    void testNoRangeServesWholeFile() throws Exception {
+        ResponseEntity<StreamingResponseBody> response = respond(null);
+
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals("bytes", response.getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES));
+        assertEquals(30, response.getHeaders().getContentLength());
+        assertArrayEquals(file, body(response));
+    }
+
+    @Test
+    void testRangeAcrossChunkBoundaries() throws Exception {
+        ResponseEntity<StreamingResponseBody> response = respond("bytes=5-24");
+
+        assertEquals(206, response.getStatusCode().value());
+        assertEquals("bytes 5-24/30", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals(20, response.getHeaders().getContentLength());
+        assertArrayEquals(Arrays.copyOfRange(file, 5, 25), body(response));
+
+        // Edge chunks are sliced; nothing outside the range is read
+        verify(storageService).transferChunkRange(eq("c0"), any(), eq(5L), eq(5L), any(OutputStream.class));
+        verify(storageService).transferChunkRange(eq("c2"), any(), eq(0L), eq(5L), any(OutputStream.class));
+    }
+
+    @Test
+    void testRangeWithinOneChunkFetchesOnlyThatChunk() throws Exception {
+        ResponseEntity<StreamingResponseBody> response = respond("bytes=12-13");
+
+        assertArrayEquals(new byte[]{12, 13}, body(response));
+        verify(storageService).transferChunkRange(eq("c1"), any(), eq(2L), eq(2L), any(OutputStream.class));
+        verifyNoMoreInteractions(storageService);
+    }
+
+    @Test
+    void testSuffixRange() throws Exception {
+        ResponseEntity<StreamingResponseBody> response = respond("bytes=-7");
+
+        assertEquals("bytes 23-29/30", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(Arrays.copyOfRange(file, 23, 30), body(response));
+    }
+
+    @Test
+    void testMultiRangeIsMultipartByteranges() throws Exception {
+        ResponseEntity<StreamingResponseBody> response = respond("bytes=0-4,8-21");
+
+        assertEquals(206, response.getStatusCode().value());
+        MediaType type = response.getHeaders().getContentType();
+        assertEquals("multipart", type.getType());
+        assertEquals("byteranges", type.getSubtype());
+        String boundary = type.getParameter("boundary");
+        assertNotNull(boundary);
+
+        byte[] body = body(response);
+        assertEquals(body.length, response.getHeaders().getContentLength());
+
+        String expected = "\r\n--" + boundary + "\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "Content-Range: bytes 0-4/30\r\n\r\n"
+                + latin1(Arrays.copyOfRange(file, 0, 5))
+                + "\r\n--" + boundary + "\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "Content-Range: bytes 8-21/30\r\n\r\n"
+                + latin1(Arrays.copyOfRange(file, 8, 22))
+                + "\r\n--" + boundary + "--\r\n";
+        assertEquals(expected, latin1(body));
+    }
+
+    @Test
+    void testRepeatedRangesReadTheFileOnce() throws Exception {
+        ResponseEntity<StreamingResponseBody> response = respond("bytes=0-,0-,0-,0-");
+
+        assertEquals(206, response.getStatusCode().value());
+        assertEquals("bytes 0-29/30", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertArrayEquals(file, body(response));
+        for (String hash : HASHES) {
+            verify(storageService, times(1)).transferChunkRange(eq(hash), any(), eq(0L), eq(10L), any(OutputStream.class));
+        }
+        verifyNoMoreInteractions(storageService);
+    }
+
+    @Test
+    void testOverlappingAndAdjacentRangesAreMerged() throws Exception {
+        ResponseEntity<StreamingResponseBody> response = respond("bytes=20-24,2-6,5-9,10-11");
+
+        assertEquals(206, response.getStatusCode().value());
+        String boundary = response.getHeaders().getContentType().getParameter("boundary");
+        String expected = "\r\n--" + boundary + "\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "Content-Range: bytes 2-11/30\r\n\r\n"
+                + latin1(Arrays.copyOfRange(file, 2, 12))
+                + "\r\n--" + boundary + "\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "Content-Range: bytes 20-24/30\r\n\r\n"
+                + latin1(Arrays.copyOfRange(file, 20, 25))
+                + "\r\n--" + boundary + "--\r\n";
+        assertEquals(expected, latin1(body(response)));
+    }
+
+    @Test
+    void testUnsatisfiableRange() {
+        for (String range : new String[]{"bytes=30-40", "bytes=100-", "bytes=abc"}) {
+            ResponseEntity<StreamingResponseBody> response = respond(range);
+
+            assertEquals(416, response.getStatusCode().value(), range);
+            assertEquals("bytes */30", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE), range);
+            assertNull(response.getBody(), range);
+        }
+        verifyNoInteractions(storageService);
+    }
+
+    @Test
+    void testUnrecordedSizesServeWholeFile() throws Exception {
+        ChunkManifest unranged = ChunkManifest.of(HASHES, Collections.nCopies(3, null), Collections.nCopies(3, null));
+
+        ResponseEntity<StreamingResponseBody> response = responder.respond(unranged, null, 30, "bytes=5-9",
+                MediaType.APPLICATION_OCTET_STREAM, "attachment");
+
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals("none", response.getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES));
+        assertArrayEquals(file, body(response));
+    }
+
+    // ==================== HELPERS ====================
+
+    private ResponseEntity<StreamingResponseBody> respond(String range) {
+        return responder.respond(manifest, null, file.length, range, MediaType.APPLICATION_OCTET_STREAM, "attachment");
+    }
+
+    private static byte[] body(ResponseEntity<StreamingResponseBody> response) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static String latin1(byte[] bytes) {
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
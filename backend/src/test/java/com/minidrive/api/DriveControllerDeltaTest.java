@@ -0,0 +1,92 @@
+package com.minidrive.api;
+
+import com.minidrive.repository.FileRepository;
+import com.minidrive.service.DeltaSyncService;
+import com.minidrive.service.UserKeyCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DriveControllerDeltaTest {
+
+    private static final String OWN_FILE = "11111111-1111-1111-1111-111111111111";
+    private static final String FOREIGN_FILE = "22222222-2222-2222-2222-222222222222";
+
+    private FileRepository fileRepository;
+    private DeltaSyncService deltaSyncService;
+    private UserKeyCache userKeyCache;
+    private DriveController controller;
+
+    private final Authentication alice = new UsernamePasswordAuthenticationToken("alice", null, List.of());
+
+    @BeforeEach
+    void setUp() {
+        fileRepository = mock(FileRepository.class);
+        deltaSyncService = mock(DeltaSyncService.class);
+        userKeyCache = mock(UserKeyCache.class);
+        controller = new DriveController();
+        ReflectionTestUtils.setField(controller, "fileRepository", fileRepository);
+        ReflectionTestUtils.setField(controller, "deltaSyncService", deltaSyncService);
+        ReflectionTestUtils.setField(controller, "userKeyCache", userKeyCache);
+
+        // FOREIGN_FILE belongs to someone else: the owner-scoped lookup does not find it
+        when(fileRepository.getFileMetadataById(eq(OWN_FILE), eq("alice")))
+                .thenReturn(Map.of("id", OWN_FILE, "name", "own.txt", "size", 10L));
+        when(fileRepository.getFileMetadataById(eq(FOREIGN_FILE), eq("alice"))).thenReturn(null);
+    }
+
+    @Test
+    void testDeltaUploadAgainstForeignFileIsRejected() {
+        Map<String, MultipartFile> blocks = Map.of(
+                "block_0", new MockMultipartFile("block_0", new byte[]{1, 2, 3}));
+
+        ResponseEntity<?> response = controller.deltaUpload(FOREIGN_FILE,
+                "[{\"type\":\"COPY\",\"sourceIndex\":0,\"destIndex\":0}]", "stolen.txt", 3, blocks, alice);
+
+        assertTrue(response.getStatusCode().value() == 403 || response.getStatusCode().value() == 404,
+                "got " + response.getStatusCode());
+        verifyNoInteractions(deltaSyncService);
+        verify(fileRepository, never()).saveFileMetadata(anyString(), anyString(), anyLong(), anyString(), any());
+    }
+
+    @Test
+    void testSignatureOfForeignFileIsRejected() {
+        ResponseEntity<?> response = controller.getFileSignature(FOREIGN_FILE, null, alice);
+
+        assertEquals(404, response.getStatusCode().value());
+        verifyNoInteractions(deltaSyncService);
+    }
+
+    @Test
+    void testReuploadOverForeignFileIsRejected() {
+        ResponseEntity<?> response = controller.reupload(FOREIGN_FILE, null,
+                new MockMultipartFile("file", new byte[]{1, 2, 3}), alice);
+
+        assertEquals(404, response.getStatusCode().value());
+        verifyNoInteractions(deltaSyncService);
+    }
+
+    @Test
+    void testDeltaUploadAgainstOwnFileReachesTheDeltaEngine() {
+        when(deltaSyncService.applyDelta(eq(OWN_FILE), anyList(), anyMap(), eq("alice"), any()))
+                .thenThrow(new IllegalArgumentException("Bad source index"));
+
+        ResponseEntity<?> response = controller.deltaUpload(OWN_FILE,
+                "[{\"type\":\"COPY\",\"sourceIndex\":9,\"destIndex\":0}]", "own.txt", 3, Map.of(), alice);
+
+        assertEquals(400, response.getStatusCode().value());
+        verify(deltaSyncService).applyDelta(eq(OWN_FILE), anyList(), anyMap(), eq("alice"), any());
+    }
+}
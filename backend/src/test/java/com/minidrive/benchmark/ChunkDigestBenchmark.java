@@ -0,0 +1,57 @@
+package com.minidrive.benchmark;
+
+import com.minidrive.chunking.ChunkDigest;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunk hashing throughput per {@link ChunkDigest}, to decide whether a digest
+ * other than SHA-256 is worth adopting for new uploads (SHA-256 benefits from
+ * CPU intrinsics where available, so measure on the deployment hardware).
+ *
+ * Run with:
+ *   mvn test-compile exec:java -Dexec.mainClass=com.minidrive.benchmark.ChunkDigestBenchmark -Dexec.classpathScope=test
+ * or launch main() from the IDE. Not picked up by surefire.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ChunkDigestBenchmark {
+
+    @Param({"65536", "1048576", "4194304"})
+    private int chunkSize;
+
+    @Param({"sha256", "blake3"})
+    private String digestName;
+
+    private ChunkDigest digest;
+    private byte[] chunk;
+
+    @Setup
+    public void setup() {
+        digest = ChunkDigest.forName(digestName);
+        chunk = new byte[chunkSize];
+        new SecureRandom().nextBytes(chunk);
+    }
+
+    @Benchmark
+    public String hashChunk() {
+        return digest.hash(chunk, 0, chunk.length);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ChunkDigestBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
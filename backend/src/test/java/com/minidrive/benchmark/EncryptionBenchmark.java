@@ -0,0 +1,124 @@
+package com.minidrive.benchmark;
+
+import com.minidrive.service.EncryptionService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunk encryption throughput: previous EncryptionService implementation vs the current one.
+ *
+ * Run with:
+ *   mvn test-compile exec:java -Dexec.mainClass=com.minidrive.benchmark.EncryptionBenchmark -Dexec.classpathScope=test
+ * or launch main() from the IDE. Not picked up by surefire.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EncryptionBenchmark {
+
+    @Param({"65536", "1048576", "4194304"})
+    private int chunkSize;
+
+    private EncryptionService encryptionService;
+    private SecretKey key;
+    private byte[] plaintext;
+    private byte[] ciphertext;
+    private ByteBuffer inPlace;
+
+    @Setup
+    public void setup() {
+        encryptionService = new EncryptionService();
+        byte[] keyBytes = new byte[32];
+        new SecureRandom().nextBytes(keyBytes);
+        key = new SecretKeySpec(keyBytes, "AES");
+
+        plaintext = new byte[chunkSize];
+        new SecureRandom().nextBytes(plaintext);
+        ciphertext = encryptionService.encryptChunk(plaintext, key);
+        inPlace = ByteBuffer.allocate((int) encryptionService.encryptedLength(chunkSize));
+    }
+
+    @Benchmark
+    public byte[] encryptLegacy() throws Exception {
+        return LegacyEncryption.encryptChunk(plaintext, key);
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        return encryptionService.encryptChunk(plaintext, key);
+    }
+
+    @Benchmark
+    public void encryptInPlace(Blackhole bh) {
+        inPlace.clear();
+        inPlace.put(plaintext).flip();
+        ByteBuffer src = inPlace.duplicate();
+        ByteBuffer dst = inPlace.duplicate().clear();
+        bh.consume(encryptionService.encrypt(src, dst, key));
+    }
+
+    @Benchmark
+    public byte[] decryptLegacy() throws Exception {
+        return LegacyEncryption.decryptChunk(ciphertext, key);
+    }
+
+    @Benchmark
+    public byte[] decrypt() {
+        return encryptionService.decryptChunk(ciphertext, key);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(EncryptionBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+    /**
+     * The chunk path as it was before cipher reuse: provider lookup and
+     * SecureRandom per call, plus the extra payload copies.
+     */
+    static final class LegacyEncryption {
+        private static final String ALGORITHM = "AES/GCM/NoPadding";
+        private static final int GCM_IV_LENGTH = 12;
+        private static final int GCM_TAG_LENGTH = 128;
+
+        static byte[] encryptChunk(byte[] plaintext, SecretKey userKey) throws Exception {
+            Cipher cipher = Cipher.getInstance(ALGORITHM);
+            byte[] iv = new byte[GCM_IV_LENGTH];
+            new SecureRandom().nextBytes(iv);
+            cipher.init(Cipher.ENCRYPT_MODE, userKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+            byte[] ciphertext = cipher.doFinal(plaintext);
+            return ByteBuffer.allocate(iv.length + ciphertext.length)
+                    .put(iv)
+                    .put(ciphertext)
+                    .array();
+        }
+
+        static byte[] decryptChunk(byte[] ciphertext, SecretKey userKey) throws Exception {
+            ByteBuffer buffer = ByteBuffer.wrap(ciphertext);
+            byte[] iv = new byte[GCM_IV_LENGTH];
+            buffer.get(iv);
+            byte[] encryptedData = new byte[buffer.remaining()];
+            buffer.get(encryptedData);
+            Cipher cipher = Cipher.getInstance(ALGORITHM);
+            cipher.init(Cipher.DECRYPT_MODE, userKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+            return cipher.doFinal(encryptedData);
+        }
+    }
+}
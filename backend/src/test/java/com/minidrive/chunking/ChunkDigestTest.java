@@ -0,0 +1,63 @@
+package com.minidrive.chunking;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkDigestTest {
+
+    @Test
+    void testKnownVectors() {
+        byte[] abc = "abc".getBytes(StandardCharsets.US_ASCII);
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                ChunkDigest.SHA256.hash(abc, 0, abc.length));
+        assertEquals("6437b3ac38465133ffb63b75273a8db548c558465d79db03fd359c6cd5bd9d85",
+                ChunkDigest.BLAKE3.hash(abc, 0, abc.length));
+        assertEquals("af1349b9f5f9a1a6a0404dea36dcc9499bcb25c9adc112b7cc9a93cae41f3262",
+                ChunkDigest.BLAKE3.hash(new byte[0], 0, 0));
+    }
+
+    @Test
+    void testHashingStreamMatchesOneShot() throws IOException {
+        byte[] data = new byte[300_000];
+        new Random(1).nextBytes(data);
+
+        for (ChunkDigest digest : new ChunkDigest[]{ChunkDigest.SHA256, ChunkDigest.BLAKE3}) {
+            ChunkDigest.Hasher hasher = digest.newHasher();
+            try (InputStream in = hasher.hashing(new ByteArrayInputStream(data))) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            assertEquals(digest.hash(data, 0, data.length), hasher.hexDigest(), digest.name());
+        }
+    }
+
+    @Test
+    void testBufferUpdateMatchesArray() {
+        byte[] data = new byte[200_000];
+        new Random(2).nextBytes(data);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length).put(data).flip();
+
+        for (ChunkDigest digest : new ChunkDigest[]{ChunkDigest.SHA256, ChunkDigest.BLAKE3}) {
+            ChunkDigest.Hasher hasher = digest.newHasher();
+            hasher.update(direct.duplicate());
+            assertEquals(digest.hash(data, 0, data.length), hasher.hexDigest(), digest.name());
+        }
+    }
+
+    @Test
+    void testLookupByNameAndId() {
+        assertSame(ChunkDigest.SHA256, ChunkDigest.forName("SHA-256"));
+        assertSame(ChunkDigest.BLAKE3, ChunkDigest.forName("blake3"));
+        assertSame(ChunkDigest.BLAKE3, ChunkDigest.forId(ChunkDigest.BLAKE3.id()));
+        assertThrows(IllegalArgumentException.class, () -> ChunkDigest.forName("md5"));
+        assertThrows(IllegalArgumentException.class, () -> ChunkDigest.forId(7));
+    }
+}
@@ -0,0 +1,113 @@
+package com.minidrive.chunking;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.minidrive.TestFixtures.randomBytes;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FastCdcChunkerTest {
+
+    private static final int MIN = 2 * 1024;
+    private static final int AVG = 8 * 1024;
+    private static final int MAX = 32 * 1024;
+
+    private final FastCdcChunker chunker = new FastCdcChunker(MIN, AVG, MAX);
+
+    @Test
+    void testChunkSizesStayInBounds() throws IOException {
+        byte[] data = randomBytes(1024 * 1024, 1);
+        List<Integer> lengths = lengths(data);
+
+        assertEquals(data.length, lengths.stream().mapToLong(Integer::longValue).sum());
+        for (int i = 0; i < lengths.size() - 1; i++) {
+            assertTrue(lengths.get(i) >= MIN && lengths.get(i) <= MAX, "chunk " + i + ": " + lengths.get(i));
+        }
+        // Normalized chunking keeps the average near the target
+        double average = (double) data.length / lengths.size();
+        assertTrue(average > AVG / 2.0 && average < AVG * 2.0, "average " + average);
+    }
+
+    @Test
+    void testStreamMatchesInMemorySplit() throws IOException {
+        byte[] data = randomBytes(512 * 1024 + 123, 2);
+
+        List<Integer> streamed = new ArrayList<>();
+        // Short reads must not move the cut points
+        InputStream trickle = new FilterInputStream(new ByteArrayInputStream(data)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1000));
+            }
+        };
+        long total = chunker.split(trickle, (buf, off, len) -> streamed.add(len));
+
+        assertEquals(data.length, total);
+        assertEquals(lengths(data), streamed);
+    }
+
+    @Test
+    void testBufferCutPointsMatchArray() {
+        byte[] data = randomBytes(256 * 1024 + 77, 5);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length).put(data).flip();
+
+        for (int position = 0; position < data.length; ) {
+            int cut = chunker.cutPoint(data, position, data.length - position);
+            assertEquals(cut, chunker.cutPoint(direct, position, data.length - position), "at " + position);
+            position += cut;
+        }
+        assertEquals(0, direct.position());
+    }
+
+    @Test
+    void testInsertionOnlyChangesNearbyChunks() throws IOException {
+        byte[] original = randomBytes(1024 * 1024, 3);
+        byte[] edited = new byte[original.length + 1];
+        int at = original.length / 2;
+        System.arraycopy(original, 0, edited, 0, at);
+        edited[at] = 42;
+        System.arraycopy(original, at, edited, at + 1, original.length - at);
+
+        Set<String> before = chunkSet(original);
+        Set<String> after = chunkSet(edited);
+        after.removeAll(before);
+
+        // Only the chunk(s) around the inserted byte differ
+        assertTrue(after.size() <= 2, "changed chunks: " + after.size());
+    }
+
+    @Test
+    void testSmallInputIsOneChunk() throws IOException {
+        assertEquals(List.of(100), lengths(randomBytes(100, 4)));
+        assertEquals(List.of(), lengths(new byte[0]));
+    }
+
+    @Test
+    void testRejectsInvalidSizes() {
+        assertThrows(IllegalArgumentException.class, () -> new FastCdcChunker(MIN, 3000, MAX));
+        assertThrows(IllegalArgumentException.class, () -> new FastCdcChunker(AVG * 2, AVG, MAX));
+    }
+
+    private List<Integer> lengths(byte[] data) throws IOException {
+        List<Integer> lengths = new ArrayList<>();
+        chunker.split(data, 0, data.length, (buf, off, len) -> lengths.add(len));
+        return lengths;
+    }
+
+    private Set<String> chunkSet(byte[] data) throws IOException {
+        Set<String> chunks = new HashSet<>();
+        chunker.split(data, 0, data.length, (buf, off, len) ->
+                chunks.add(Arrays.toString(Arrays.copyOfRange(buf, off, off + len))));
+        return chunks;
+    }
+}
@@ -0,0 +1,111 @@
+package com.minidrive.chunking;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.minidrive.TestFixtures.randomBytes;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RollingBlockMatcherTest {
+
+    private static final int BLOCK = BlockSignatures.BLOCK_SIZE;
+
+    @Test
+    void testUnchangedContentIsAllCopies() throws IOException {
+        byte[] original = randomBytes(10 * BLOCK + 123, 1);
+        Recorder recorder = match(original, new int[]{4 * BLOCK + 7, 6 * BLOCK + 116}, original);
+
+        // Both chunks end with a short block, matched right after the block before it
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11), recorder.copies);
+        assertEquals(0, recorder.literalBytes);
+        assertArrayEquals(original, recorder.rebuild(original, new int[]{4 * BLOCK + 7, 6 * BLOCK + 116}));
+    }
+
+    @Test
+    void testInsertionShiftsOnlyLiterals() throws IOException {
+        byte[] original = randomBytes(20 * BLOCK, 2);
+        int[] chunks = {8 * BLOCK, 12 * BLOCK};
+        byte[] edited = new byte[original.length + 10];
+        int at = 5 * BLOCK + 100;
+        System.arraycopy(original, 0, edited, 0, at);
+        System.arraycopy(randomBytes(10, 3), 0, edited, at, 10);
+        System.arraycopy(original, at, edited, at + 10, original.length - at);
+
+        Recorder recorder = match(original, chunks, edited);
+
+        // Everything but the edited block is found again, at its shifted position
+        assertEquals(19, recorder.copies.size());
+        assertEquals(BLOCK + 10, recorder.literalBytes);
+        assertArrayEquals(edited, recorder.rebuild(original, chunks));
+    }
+
+    @Test
+    void testUnrelatedContentIsAllLiteral() throws IOException {
+        byte[] original = randomBytes(4 * BLOCK, 4);
+        byte[] other = randomBytes(3 * BLOCK + 5, 5);
+        Recorder recorder = match(original, new int[]{4 * BLOCK}, other);
+
+        assertTrue(recorder.copies.isEmpty());
+        assertEquals(other.length, recorder.literalBytes);
+        assertArrayEquals(other, recorder.rebuild(original, new int[]{4 * BLOCK}));
+    }
+
+    private static Recorder match(byte[] original, int[] chunkLengths, byte[] content) throws IOException {
+        byte[][] signatures = new byte[chunkLengths.length][];
+        int offset = 0;
+        for (int c = 0; c < chunkLengths.length; c++) {
+            signatures[c] = BlockSignatures.of(original, offset, chunkLengths[c]);
+            offset += chunkLengths[c];
+        }
+        Recorder recorder = new Recorder();
+        long read = new RollingBlockMatcher(chunkLengths, signatures).match(new ByteArrayInputStream(content), recorder);
+        assertEquals(content.length, read);
+        return recorder;
+    }
+
+    private static final class Recorder implements RollingBlockMatcher.DeltaSink {
+        final List<Integer> copies = new ArrayList<>();
+        final List<Object> ops = new ArrayList<>();
+        int literalBytes;
+
+        @Override
+        public void copy(int block) {
+            copies.add(block);
+            ops.add(block);
+        }
+
+        @Override
+        public void literal(byte[] data, int offset, int length) {
+            literalBytes += length;
+            ops.add(Arrays.copyOfRange(data, offset, offset + length));
+        }
+
+        byte[] rebuild(byte[] original, int[] chunkLengths) {
+            // Block start/length in the original, numbered per chunk
+            List<int[]> blocks = new ArrayList<>();
+            int chunkStart = 0;
+            for (int length : chunkLengths) {
+                for (int at = 0; at < length; at += BLOCK) {
+                    blocks.add(new int[]{chunkStart + at, Math.min(BLOCK, length - at)});
+                }
+                chunkStart += length;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (Object op : ops) {
+                if (op instanceof Integer block) {
+                    int[] range = blocks.get(block);
+                    out.write(original, range[0], range[1]);
+                } else {
+                    out.writeBytes((byte[]) op);
+                }
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.minidrive.client;
+
+import com.minidrive.chunking.ChunkDigest;
+import com.minidrive.chunking.FastCdcChunker;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectorySyncTest {
+
+    private static final FastCdcChunker CHUNKER = new FastCdcChunker(64, 256, 1024);
+    private static final long BASE_TIME = 1_700_000_000_000L;
+
+    @TempDir
+    Path root;
+
+    private final FakeRemote remote = new FakeRemote();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        write("a.txt", "alpha", 0);
+        write("docs/b.txt", "bravo ".repeat(500), 0);
+        write("docs/deep/c.bin", "charlie", 0);
+    }
+
+    @Test
+    void testFirstPassUploadsEverythingAndSecondPassNothing() throws Exception {
+        try (SyncIndex index = SyncIndex.open(root); DirectorySync sync = sync(index)) {
+            DirectorySync.Summary first = sync.syncAll();
+            assertEquals(List.of("upload a.txt", "upload docs/b.txt", "upload docs/deep/c.bin"), sorted(remote.calls));
+            assertTrue(first.changedAnything());
+            assertEquals(0, first.failed());
+            assertEquals(3, index.size());
+            assertEquals(remote.idOf("docs/b.txt"), index.get("docs/b.txt").fileId());
+
+            remote.calls.clear();
+            assertFalse(sync.syncAll().changedAnything());
+            assertTrue(remote.calls.isEmpty());
+        }
+    }
+
+    @Test
+    void testIndexDirectoryAndJournalsAreNotSynced() throws Exception {
+        write("big.iso.minidrive-upload", "upload u1 1 2 SHA256 3", 0);
+
+        try (SyncIndex index = SyncIndex.open(root); DirectorySync sync = sync(index)) {
+            sync.syncAll();
+        }
+        assertEquals(List.of("upload a.txt", "upload docs/b.txt", "upload docs/deep/c.bin"), sorted(remote.calls));
+    }
+
+    @Test
+    void testTouchedFileIsReadButNotUploaded() throws Exception {
+        try (SyncIndex index = SyncIndex.open(root); DirectorySync sync = sync(index)) {
+            sync.syncAll();
+            remote.calls.clear();
+            Files.setLastModifiedTime(root.resolve("a.txt"), FileTime.fromMillis(BASE_TIME + 5_000));
+
+            assertFalse(sync.syncAll().changedAnything());
+            assertTrue(remote.calls.isEmpty());
+            // The new time is recorded, so the next pass does not read it again
+            assertEquals(BASE_TIME + 5_000, index.get("a.txt").modified());
+        }
+    }
+
+    @Test
+    void testChangedFileReplacesItsPreviousVersion() throws Exception {
+        try (SyncIndex index = SyncIndex.open(root); DirectorySync sync = sync(index)) {
+            sync.syncAll();
+            String before = remote.idOf("a.txt");
+            remote.calls.clear();
+            write("a.txt", "alpha, edited", 5_000);
+
+            sync.syncAll();
+            assertEquals(List.of("upload a.txt", "trash " + before), remote.calls);
+            assertEquals(remote.idOf("a.txt"), index.get("a.txt").fileId());
+        }
+    }
+
+    @Test
+    void testDeletedFilesAreTrashed() throws Exception {
+        try (SyncIndex index = SyncIndex.open(root); DirectorySync sync = sync(index)) {
+            sync.syncAll();
+            String a = remote.idOf("a.txt");
+            String c = remote.idOf("docs/deep/c.bin");
+            remote.calls.clear();
+            Files.delete(root.resolve("a.txt"));
+            Files.delete(root.resolve("docs/deep/c.bin"));
+            Files.delete(root.resolve("docs/deep"));
+
+            sync.syncAll();
+            assertEquals(sorted(List.of("trash " + a, "trash " + c)), sorted(remote.calls));
+            assertEquals(List.of("docs/b.txt"), paths(index));
+        }
+    }
+
+    @Test
+    void testRenameBecomesMove() throws Exception {
+        try (SyncIndex index = SyncIndex.open(root); DirectorySync sync = sync(index)) {
+            sync.syncAll();
+            String b = remote.idOf("docs/b.txt");
+            remote.calls.clear();
+            Files.createDirectories(root.resolve("archive"));
+            Files.move(root.resolve("docs/b.txt"), root.resolve("archive/b-old.txt"));
+
+            sync.syncAll();
+            assertEquals(List.of("move " + b + " archive/b-old.txt"), remote.calls);
+            assertNull(index.get("docs/b.txt"));
+            assertEquals(b, index.get("archive/b-old.txt").fileId());
+        }
+    }
+
+    @Test
+    void testEachVanishedCopyIsMatchedOnce() throws Exception {
+        write("copy-1.txt", "same bytes", 0);
+        write("copy-2.txt", "same bytes", 0);
+        try (SyncIndex index = SyncIndex.open(root); DirectorySync sync = sync(index)) {
+            sync.syncAll();
+            String first = remote.idOf("copy-1.txt");
+            String second = remote.idOf("copy-2.txt");
+            remote.calls.clear();
+            Files.move(root.resolve("copy-1.txt"), root.resolve("renamed.txt"));
+            Files.delete(root.resolve("copy-2.txt"));
+
+            sync.syncAll();
+            // One of the two identical files is moved, the other trashed
+            assertEquals(2, remote.calls.size());
+            String moved = remote.calls.get(0);
+            assertTrue(moved.equals("move " + first + " renamed.txt") || moved.equals("move " + second + " renamed.txt"), moved);
+            String trashed = moved.contains(first) ? second : first;
+            assertEquals("trash " + trashed, remote.calls.get(1));
+            assertEquals(List.of("a.txt", "docs/b.txt", "docs/deep/c.bin", "renamed.txt"), paths(index));
+        }
+    }
+
+    @Test
+    void testFailedMoveFallsBackToUpload() throws Exception {
+        try (SyncIndex index = SyncIndex.open(root); DirectorySync sync = sync(index)) {
+            sync.syncAll();
+            String a = remote.idOf("a.txt");
+            remote.calls.clear();
+            remote.failMoves = true;
+            Files.move(root.resolve("a.txt"), root.resolve("a-renamed.txt"));
+
+            sync.syncAll();
+            assertEquals(List.of("upload a-renamed.txt", "trash " + a), remote.calls);
+            assertEquals(remote.idOf("a-renamed.txt"), index.get("a-renamed.txt").fileId());
+            assertNull(index.get("a.txt"));
+        }
+    }
+
+    @Test
+    void testIndexIsKeptAcrossRuns() throws Exception {
+        try (SyncIndex index = SyncIndex.open(root); DirectorySync sync = sync(index)) {
+            sync.syncAll();
+        }
+        remote.calls.clear();
+        Files.delete(root.resolve("a.txt"));
+
+        try (SyncIndex index = SyncIndex.open(root); DirectorySync sync = sync(index)) {
+            sync.syncAll();
+        }
+        assertEquals(1, remote.calls.size());
+        assertTrue(remote.calls.get(0).startsWith("trash "));
+    }
+
+    @Test
+    void testModifiedWatchedDirectoryKeepsItsFiles() throws Exception {
+        BlockingQueue<DirectorySync.Summary> reports = new LinkedBlockingQueue<>();
+        try (SyncIndex index = SyncIndex.open(root); DirectorySync sync = sync(index)) {
+            Thread watcher = new Thread(() -> {
+                try {
+                    sync.watch(Duration.ofMillis(100), reports::add);
+                } catch (InterruptedException e) {
+                    // Stopped by the test
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }, "sync-watch");
+            watcher.start();
+            try {
+                assertNotNull(reports.poll(30, TimeUnit.SECONDS), "no initial pass");
+                remote.calls.clear();
+
+                // Only the (watched) directory itself changes: nothing below it was deleted
+                Files.setLastModifiedTime(root.resolve("docs"), FileTime.fromMillis(BASE_TIME + 60_000));
+                DirectorySync.Summary summary = reports.poll(30, TimeUnit.SECONDS);
+                assertNotNull(summary, "no pass after the directory changed");
+                assertFalse(summary.changedAnything(), summary.toString());
+                assertTrue(remote.calls.isEmpty(), remote.calls.toString());
+                assertNotNull(index.get("docs/b.txt"));
+                assertNotNull(index.get("docs/deep/c.bin"));
+
+                // Whereas a directory that is gone takes its files with it
+                String deleted = remote.idOf("docs/deep/c.bin");
+                Files.delete(root.resolve("docs/deep/c.bin"));
+                Files.delete(root.resolve("docs/deep"));
+                while (index.get("docs/deep/c.bin") != null) {
+                    assertNotNull(reports.poll(30, TimeUnit.SECONDS), "no pass after the delete");
+                }
+                assertEquals(List.of("trash " + deleted), remote.calls);
+                assertNotNull(index.get("docs/b.txt"));
+            } finally {
+                watcher.interrupt();
+                watcher.join(10_000);
+            }
+        }
+    }
+
+    // ==================== HELPERS ====================
+
+    private DirectorySync sync(SyncIndex index) {
+        return new DirectorySync(root, index, remote, CHUNKER, ChunkDigest.SHA256, 2);
+    }
+
+    // Explicit times: a rewrite within the same millisecond must still look changed
+    private void write(String path, String content, long age) throws IOException {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(BASE_TIME + age));
+    }
+
+    private static List<String> sorted(List<String> calls) {
+        List<String> copy = new ArrayList<>(calls);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    private static List<String> paths(SyncIndex index) {
+        return index.entries().stream().map(SyncIndex.Entry::path).toList();
+    }
+
+    /**
+     * Server that keeps file names by id and records every call.
+     */
+    private final class FakeRemote implements DirectorySync.Remote {
+        final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        final Map<String, String> names = new ConcurrentHashMap<>();
+        volatile boolean failMoves;
+        private int nextId;
+
+        @Override
+        public synchronized String upload(String name, Path path, MappedChunks file) throws IOException {
+            assertEquals(root.resolve(name), path);
+            assertTrue(file.contentEquals(0, ByteBuffer.wrap(Files.readAllBytes(path))));
+            String fileId = "f" + ++nextId;
+            names.put(fileId, name);
+            calls.add("upload " + name);
+            return fileId;
+        }
+
+        @Override
+        public void move(String fileId, String name) throws IOException {
+            if (failMoves) {
+                throw new IOException("File not found: " + fileId);
+            }
+            assertNotNull(names.put(fileId, name), "moved an unknown file");
+            calls.add("move " + fileId + " " + name);
+        }
+
+        @Override
+        public void trash(String fileId) {
+            assertNotNull(names.remove(fileId), "trashed an unknown file");
+            calls.add("trash " + fileId);
+        }
+
+        String idOf(String name) {
+            return names.entrySet().stream()
+                    .filter(e -> e.getValue().equals(name))
+                    .map(Map.Entry::getKey)
+                    .findFirst()
+                    .orElseThrow();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.minidrive.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistogramTest {
+
+    @Test
+    void testSmallValuesAreExact() {
+        Histogram histogram = new Histogram();
+        for (int value = 0; value < 16; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(16, histogram.count());
+        assertEquals(0, histogram.percentile(0));
+        assertEquals(7, histogram.percentile(50));
+        assertEquals(15, histogram.percentile(100));
+    }
+
+    @Test
+    void testPercentilesWithinBucketPrecision() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value);
+        }
+
+        for (double percent : new double[] {1, 50, 90, 99, 99.9}) {
+            long exact = (long) Math.ceil(percent / 100 * 100_000);
+            long reported = histogram.percentile(percent);
+            // An upper bucket bound: never below the exact value, at most one bucket (1/16) above
+            assertTrue(reported >= exact, percent + ": " + reported + " < " + exact);
+            assertTrue(reported <= exact + exact / 16 + 1, percent + ": " + reported + " too far above " + exact);
+        }
+        assertEquals(100_000, histogram.percentile(100));
+    }
+
+    @Test
+    void testPercentileNeverExceedsMax() {
+        Histogram histogram = new Histogram();
+        histogram.record(1_000_001);
+
+        // The bucket reaches past the only value, the maximum does not
+        assertEquals(1_000_001, histogram.percentile(50));
+    }
+
+    @Test
+    void testExtremeValues() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5); // clamped to 0
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(2, histogram.count());
+        assertEquals(0, histogram.percentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.percentile(100));
+    }
+
+    @Test
+    void testAddMergesCounts() {
+        Random random = new Random(1);
+        Histogram all = new Histogram();
+        Histogram first = new Histogram();
+        Histogram second = new Histogram();
+        for (int i = 0; i < 10_000; i++) {
+            long value = random.nextInt(1 << 20);
+            all.record(value);
+            (i % 2 == 0 ? first : second).record(value);
+        }
+
+        Histogram merged = new Histogram();
+        merged.add(first);
+        merged.add(second);
+        merged.add(new Histogram());
+
+        assertEquals(all.count(), merged.count());
+        for (double percent : new double[] {0, 10, 50, 90, 99, 100}) {
+            assertEquals(all.percentile(percent), merged.percentile(percent));
+        }
+        assertEquals(print(all), print(merged));
+    }
+
+    @Test
+    void testPrint() {
+        assertEquals("Latency: no samples", print(new Histogram()).trim());
+
+        Histogram histogram = new Histogram();
+        histogram.record(3);
+        histogram.record(100);
+        histogram.record(100);
+        String[] lines = print(histogram).split("\n");
+
+        assertTrue(lines[0].startsWith("Latency (3 samples, us): min 3  mean 67  p50 100"), lines[0]);
+        // One bar per power of two from min to max; the widest range gets the full bar
+        assertEquals(1 + 6, lines.length);
+        assertTrue(lines[1].contains("2 - 3"), lines[1]);
+        assertTrue(lines[6].contains("64 - 127"), lines[6]);
+        assertTrue(lines[6].contains("#".repeat(40)), lines[6]);
+        assertTrue(lines[6].endsWith(" 2"), lines[6]);
+        assertFalse(lines[3].contains("#"), lines[3]);
+    }
+
+    // ==================== HELPERS ====================
+
+    private static String print(Histogram histogram) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+        histogram.print(out, "Latency", "us");
+        return bytes.toString(StandardCharsets.UTF_8).replace(System.lineSeparator(), "\n");
+    }
+}
@@ -0,0 +1,130 @@
+package com.minidrive.client;
+
+import com.minidrive.chunking.ChunkDigest;
+import com.minidrive.chunking.FastCdcChunker;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.minidrive.TestFixtures.randomBytes;
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedChunksTest {
+
+    private static final FastCdcChunker CHUNKER = new FastCdcChunker(64, 256, 1024);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testChunksMatchTheInMemorySplit() throws IOException {
+        byte[] data = randomBytes(50_000, 1);
+        Path path = write("file", data);
+
+        try (MappedChunks file = MappedChunks.open(path, CHUNKER, ChunkDigest.SHA256)) {
+            assertEquals(data.length, file.size());
+            assertEquals(split(data), lengths(file));
+            assertChunksMatch(data, file, ChunkDigest.SHA256);
+        }
+    }
+
+    @Test
+    void testSegmentBoundariesDoNotMoveCutPoints() throws IOException {
+        byte[] data = randomBytes(50_000, 2);
+        Path path = write("file", data);
+
+        // A mapping window only a few chunks wide: many chunks start near a segment end
+        for (long segmentSize : new long[] {1024, 1500, 4096, 4097}) {
+            try (MappedChunks file = MappedChunks.open(path, CHUNKER, ChunkDigest.BLAKE3, segmentSize)) {
+                assertEquals(split(data), lengths(file), "segment size " + segmentSize);
+                assertChunksMatch(data, file, ChunkDigest.BLAKE3);
+            }
+        }
+    }
+
+    @Test
+    void testContentEqualsAcrossSegments() throws IOException {
+        byte[] data = randomBytes(20_000, 3);
+        Path path = write("file", data);
+
+        try (MappedChunks file = MappedChunks.open(path, CHUNKER, ChunkDigest.SHA256, 2048)) {
+            // Ranges spanning many chunks and segments, from the buffer's position on
+            ByteBuffer whole = ByteBuffer.wrap(data);
+            assertTrue(file.contentEquals(0, whole));
+            assertEquals(0, whole.position());
+            assertTrue(file.contentEquals(1_000, ByteBuffer.wrap(data, 1_000, 15_000).slice()));
+            ByteBuffer positioned = ByteBuffer.wrap(data);
+            positioned.position(7_777);
+            assertTrue(file.contentEquals(7_777, positioned));
+
+            byte[] changed = data.clone();
+            changed[12_345] ^= 1;
+            assertFalse(file.contentEquals(0, ByteBuffer.wrap(changed)));
+            assertFalse(file.contentEquals(1, ByteBuffer.wrap(data, 0, 100).slice()));
+            assertFalse(file.contentEquals(19_990, ByteBuffer.wrap(data, 0, 100).slice()));
+        }
+    }
+
+    @Test
+    void testEmptyFileHasNoChunks() throws IOException {
+        Path path = write("empty", new byte[0]);
+
+        try (MappedChunks file = MappedChunks.open(path, CHUNKER, ChunkDigest.SHA256)) {
+            assertEquals(0, file.size());
+            assertTrue(file.chunks().isEmpty());
+            assertTrue(file.contentEquals(0, ByteBuffer.allocate(0)));
+        }
+    }
+
+    @Test
+    void testSegmentSmallerThanAChunkIsRejected() throws IOException {
+        Path path = write("file", randomBytes(5_000, 4));
+
+        assertThrows(IllegalArgumentException.class, () ->
+                MappedChunks.open(path, CHUNKER, ChunkDigest.SHA256, CHUNKER.maxSize() - 1));
+    }
+
+    // ==================== HELPERS ====================
+
+    private static void assertChunksMatch(byte[] data, MappedChunks file, ChunkDigest digest) {
+        long offset = 0;
+        for (MappedChunks.Chunk chunk : file.chunks()) {
+            assertEquals(offset, chunk.offset());
+            ByteBuffer bytes = file.data(chunk);
+            assertTrue(bytes.isReadOnly());
+            assertEquals(ByteBuffer.wrap(data, (int) offset, chunk.length()), bytes);
+            assertEquals(digest.hash(data, (int) offset, chunk.length()), chunk.hash());
+            offset += chunk.length();
+        }
+        assertEquals(data.length, offset);
+        assertEquals(file.chunks().stream().map(MappedChunks.Chunk::hash).toList(), file.hashes());
+    }
+
+    // Chunk lengths of the chunker over the whole file in memory
+    private static List<Integer> split(byte[] data) {
+        List<Integer> lengths = new ArrayList<>();
+        int position = 0;
+        while (position < data.length) {
+            int cut = CHUNKER.cutPoint(data, position, data.length - position);
+            lengths.add(cut);
+            position += cut;
+        }
+        return lengths;
+    }
+
+    private static List<Integer> lengths(MappedChunks file) {
+        return file.chunks().stream().map(MappedChunks.Chunk::length).toList();
+    }
+
+    private Path write(String name, byte[] data) throws IOException {
+        Path path = dir.resolve(name);
+        Files.write(path, data);
+        return path;
+    }
+}
@@ -0,0 +1,212 @@
+package com.minidrive.client;
+
+import com.minidrive.chunking.ChunkDigest;
+import com.minidrive.chunking.FastCdcChunker;
+import com.minidrive.grpc.ChunkAck;
+import com.minidrive.grpc.ChunkData;
+import com.minidrive.grpc.DriveServiceGrpc;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ParallelUploaderTest {
+
+    private static final PrintStream NO_PROGRESS = new PrintStream(OutputStream.nullOutputStream());
+
+    @TempDir
+    Path dir;
+
+    // Chunk index -> times the server received it
+    private final Map<Integer, AtomicInteger> received = new ConcurrentHashMap<>();
+    // Calls the client cancelled, with the status it gave
+    private final List<Status> cancelled = Collections.synchronizedList(new ArrayList<>());
+
+    private MappedChunks file;
+    private List<Integer> indices;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        byte[] data = new byte[20_000];
+        new Random(1).nextBytes(data);
+        Path path = dir.resolve("data.bin");
+        Files.write(path, data);
+        file = MappedChunks.open(path, new FastCdcChunker(64, 256, 1024), ChunkDigest.SHA256);
+        indices = IntStream.range(0, file.chunks().size()).boxed().toList();
+        assertTrue(indices.size() > 10);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        file.close();
+    }
+
+    @Test
+    void testUploadsEveryChunkOnceOverAllStreams() throws Exception {
+        DriveServiceGrpc.DriveServiceStub first = stub(index -> index % 3 == 0 ? ChunkAck.Result.DEDUPLICATED : ChunkAck.Result.STORED);
+        DriveServiceGrpc.DriveServiceStub second = stub(index -> index % 3 == 0 ? ChunkAck.Result.DEDUPLICATED : ChunkAck.Result.STORED);
+        UploadJournal journal = UploadJournal.create(dir.resolve("data.bin"), "upload-1", "SHA256", indices.size());
+        ParallelUploader uploader = new ParallelUploader(List.of(first, second), file, "upload-1", 3, 2, journal, NO_PROGRESS);
+
+        assertTrue(uploader.upload(indices).isEmpty());
+
+        assertEquals(Set.copyOf(indices), received.keySet());
+        assertTrue(received.values().stream().allMatch(count -> count.get() == 1), "a chunk was sent twice");
+        assertEquals(indices.size(), uploader.stored() + uploader.deduplicated());
+        assertEquals((indices.size() + 2) / 3, uploader.deduplicated());
+        assertEquals(file.size(), uploader.bytesAcked());
+        assertEquals(indices.size(), uploader.latencyMicros().count());
+        assertEquals(indices.size(), journal.ackedCount());
+        // Three streams, round-robin over two connections
+        verify(first, times(2)).uploadChunks(any());
+        verify(second, times(1)).uploadChunks(any());
+        assertTrue(cancelled.isEmpty());
+        journal.close();
+    }
+
+    @Test
+    void testFailedAndUnackedChunksAreReturnedForRetry() throws Exception {
+        // One stream, one chunk at a time: chunk 1 fails, the stream breaks on chunk 2
+        DriveServiceGrpc.DriveServiceStub stub = stub(index -> switch (index) {
+            case 1 -> ChunkAck.Result.FAILED;
+            case 2 -> null;
+            default -> ChunkAck.Result.STORED;
+        });
+        ParallelUploader uploader = new ParallelUploader(List.of(stub), file, "upload-1", 1, 1, null, NO_PROGRESS);
+
+        Set<Integer> retry = uploader.upload(indices);
+
+        Set<Integer> expected = new TreeSet<>(indices);
+        expected.remove(0);
+        assertEquals(expected, new TreeSet<>(retry));
+        assertEquals(1, uploader.stored());
+        assertEquals(Set.of(0, 1, 2), received.keySet());
+    }
+
+    @Test
+    void testUnspecifiedResultIsRetriedNotStored() throws Exception {
+        // An ack that never set its result reads as RESULT_UNSPECIFIED
+        DriveServiceGrpc.DriveServiceStub stub = stub(index -> index == 3 ? ChunkAck.Result.RESULT_UNSPECIFIED : ChunkAck.Result.STORED);
+        ParallelUploader uploader = new ParallelUploader(List.of(stub), file, "upload-1", 2, 4, null, NO_PROGRESS);
+
+        Set<Integer> retry = uploader.upload(indices);
+
+        assertEquals(Set.of(3), retry);
+        assertEquals(indices.size() - 1, uploader.stored());
+    }
+
+    @Test
+    void testRejectedChunkFailsTheUpload() {
+        DriveServiceGrpc.DriveServiceStub stub = stub(index -> index == 4 ? ChunkAck.Result.REJECTED : ChunkAck.Result.STORED);
+        ParallelUploader uploader = new ParallelUploader(List.of(stub), file, "upload-1", 2, 4, null, NO_PROGRESS);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> uploader.upload(indices));
+        assertTrue(e.getMessage().contains("[4]"), e.getMessage());
+    }
+
+    @Test
+    void testStreamWithoutAcksIsCancelled() throws Exception {
+        // Window 2: the sender stalls waiting for a slot; window 1000: everything is sent, the acks never come
+        for (int window : new int[] {2, 1000}) {
+            received.clear();
+            cancelled.clear();
+            DriveServiceGrpc.DriveServiceStub stub = silentStub();
+            ParallelUploader uploader = new ParallelUploader(List.of(stub), file, "upload-1", 1, window, null, NO_PROGRESS, 200);
+
+            Set<Integer> retry = uploader.upload(indices);
+
+            assertEquals(Set.copyOf(indices), retry, "window " + window);
+            assertEquals(1, cancelled.size(), "window " + window);
+            assertEquals(Status.Code.DEADLINE_EXCEEDED, cancelled.get(0).getCode());
+            assertEquals(Math.min(window, indices.size()), received.size(), "window " + window);
+        }
+    }
+
+    // ==================== HELPERS ====================
+
+    /**
+     * A connection whose server acks each chunk as it arrives with the given
+     * result; a null result breaks the stream.
+     */
+    private DriveServiceGrpc.DriveServiceStub stub(IntFunction<ChunkAck.Result> results) {
+        return stub(results, false);
+    }
+
+    // A connection whose server takes chunks but never acks them nor ends the call
+    private DriveServiceGrpc.DriveServiceStub silentStub() {
+        return stub(index -> null, true);
+    }
+
+    private DriveServiceGrpc.DriveServiceStub stub(IntFunction<ChunkAck.Result> results, boolean silent) {
+        DriveServiceGrpc.DriveServiceStub stub = mock(DriveServiceGrpc.DriveServiceStub.class);
+        when(stub.uploadChunks(any())).thenAnswer(invocation -> {
+            StreamObserver<ChunkAck> acks = invocation.getArgument(0);
+            return new StreamObserver<ChunkData>() {
+                private boolean closed;
+
+                @Override
+                public synchronized void onNext(ChunkData chunk) {
+                    if (closed) return;
+                    int index = chunk.getChunkIndex();
+                    received.computeIfAbsent(index, i -> new AtomicInteger()).incrementAndGet();
+                    MappedChunks.Chunk expected = file.chunk(index);
+                    assertEquals("upload-1", chunk.getUploadId());
+                    assertEquals(expected.hash(), chunk.getChunkHash());
+                    assertEquals(file.data(expected), chunk.getData().asReadOnlyByteBuffer());
+                    if (silent) return;
+
+                    ChunkAck.Result result = results.apply(index);
+                    if (result == null) {
+                        closed = true;
+                        acks.onError(Status.UNAVAILABLE.withDescription("Connection reset").asRuntimeException());
+                        return;
+                    }
+                    acks.onNext(ChunkAck.newBuilder()
+                            .setChunkIndex(index)
+                            .setChunkHash(chunk.getChunkHash())
+                            .setResult(result)
+                            .build());
+                }
+
+                @Override
+                public synchronized void onError(Throwable t) {
+                    // The client cancelled: like a real channel, the call then fails on the client side too
+                    cancelled.add(Status.fromThrowable(t));
+                    closed = true;
+                    acks.onError(Status.CANCELLED.withCause(t).asRuntimeException());
+                }
+
+                @Override
+                public synchronized void onCompleted() {
+                    if (closed || silent) return;
+                    closed = true;
+                    acks.onCompleted();
+                }
+            };
+        });
+        return stub;
+    }
+}
@@ -0,0 +1,135 @@
+package com.minidrive.client;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyncIndexTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void testEntriesSurviveReopen() throws IOException {
+        try (SyncIndex index = SyncIndex.open(root)) {
+            index.put(entry("a.txt", "f1", List.of("00ff", "abcdef01")));
+            index.put(entry("docs/b.txt", "f2", List.of()));
+            index.put(entry("docs/c.txt", "f3", List.of("12")));
+            index.remove("docs/c.txt");
+            index.remove("never-indexed");
+        }
+
+        try (SyncIndex index = SyncIndex.open(root)) {
+            assertEquals(2, index.size());
+            assertEquals(entry("a.txt", "f1", List.of("00ff", "abcdef01")), index.get("a.txt"));
+            assertEquals(entry("docs/b.txt", "f2", List.of()), index.get("docs/b.txt"));
+            assertNull(index.get("docs/c.txt"));
+        }
+    }
+
+    @Test
+    void testLaterPutReplacesEntry() throws IOException {
+        try (SyncIndex index = SyncIndex.open(root)) {
+            index.put(entry("a.txt", "f1", List.of("01")));
+            index.put(entry("a.txt", "f2", List.of("02")));
+            assertEquals("f2", index.get("a.txt").fileId());
+        }
+        try (SyncIndex index = SyncIndex.open(root)) {
+            assertEquals(1, index.size());
+            assertEquals(List.of("02"), index.get("a.txt").hashes());
+        }
+    }
+
+    @Test
+    void testEntriesByPrefix() throws IOException {
+        try (SyncIndex index = SyncIndex.open(root)) {
+            for (String path : List.of("b.txt", "a/x", "a/sub/y", "ab", "a.txt", "a/z")) {
+                index.put(entry(path, "id-" + path, List.of()));
+            }
+
+            // In path order; "a/" does not match siblings that merely start with "a"
+            assertEquals(List.of("a/sub/y", "a/x", "a/z"), paths(index.entries("a/")));
+            assertEquals(List.of("a/sub/y"), paths(index.entries("a/sub/")));
+            assertTrue(index.entries("c/").isEmpty());
+            assertEquals(List.of("a.txt", "a/sub/y", "a/x", "a/z", "ab", "b.txt"), paths(index.entries()));
+        }
+    }
+
+    @Test
+    void testTornLastRecordIsDropped() throws IOException {
+        try (SyncIndex index = SyncIndex.open(root)) {
+            index.put(entry("a.txt", "f1", List.of("aa")));
+            index.put(entry("b.txt", "f2", List.of("bb", "cc")));
+        }
+        Path file = root.resolve(SyncIndex.DIRECTORY).resolve("index");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        try (SyncIndex index = SyncIndex.open(root)) {
+            assertEquals(1, index.size());
+            assertNotNull(index.get("a.txt"));
+            // Compacted on open: new records follow a clean log
+            index.put(entry("c.txt", "f3", List.of()));
+        }
+        try (SyncIndex index = SyncIndex.open(root)) {
+            assertEquals(List.of("a.txt", "c.txt"), paths(index.entries()));
+        }
+    }
+
+    @Test
+    void testLogIsCompacted() throws IOException {
+        Path file = root.resolve(SyncIndex.DIRECTORY).resolve("index");
+        try (SyncIndex index = SyncIndex.open(root)) {
+            index.put(entry("a.txt", "f1", List.of("0123456789abcdef")));
+            long single = Files.size(file);
+            for (int i = 0; i < 5_000; i++) {
+                index.put(entry("a.txt", "f" + i, List.of("0123456789abcdef")));
+            }
+            // Rewritten whenever the log reaches about twice the live entries (plus slack)
+            assertTrue(Files.size(file) < single * 1_100, "log not compacted: " + Files.size(file));
+        }
+        try (SyncIndex index = SyncIndex.open(root)) {
+            assertEquals("f4999", index.get("a.txt").fileId());
+        }
+        assertFalse(Files.exists(file.resolveSibling("index.tmp")));
+    }
+
+    @Test
+    void testForeignFileIsRejected() throws IOException {
+        Path file = root.resolve(SyncIndex.DIRECTORY).resolve("index");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "not an index");
+
+        assertThrows(IOException.class, () -> SyncIndex.open(root));
+    }
+
+    @Test
+    void testEntryMatches() {
+        SyncIndex.Entry entry = new SyncIndex.Entry("a.txt", 10, 1_000, "f1", "SHA256", List.of("aa"));
+
+        assertTrue(entry.matches(10, 1_000, "SHA256"));
+        assertFalse(entry.matches(11, 1_000, "SHA256"));
+        assertFalse(entry.matches(10, 1_001, "SHA256"));
+        // Hashes of another digest cannot be compared with the server's
+        assertFalse(entry.matches(10, 1_000, "BLAKE3"));
+    }
+
+    // ==================== HELPERS ====================
+
+    private static SyncIndex.Entry entry(String path, String fileId, List<String> hashes) {
+        return new SyncIndex.Entry(path, 100 + path.length(), 1_700_000_000_000L, fileId, "SHA256", hashes);
+    }
+
+    private static List<String> paths(List<SyncIndex.Entry> entries) {
+        return entries.stream().map(SyncIndex.Entry::path).toList();
+    }
+}
@@ -0,0 +1,128 @@
+package com.minidrive.client;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadJournalTest {
+
+    private static final String DIGEST = "SHA256";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testResumeRestoresAckedChunks() throws IOException {
+        Path file = write("data.bin", "0123456789");
+
+        try (UploadJournal journal = UploadJournal.create(file, "upload-1", DIGEST, 5)) {
+            journal.acked(3);
+            journal.acked(0);
+            journal.acked(3); // recorded once
+        }
+
+        try (UploadJournal resumed = UploadJournal.resume(file, DIGEST, 5)) {
+            assertNotNull(resumed);
+            assertEquals("upload-1", resumed.uploadId());
+            assertEquals(2, resumed.ackedCount());
+            assertTrue(resumed.isAcked(0));
+            assertTrue(resumed.isAcked(3));
+            assertFalse(resumed.isAcked(1));
+
+            // Acks after resuming are appended to the same journal
+            resumed.acked(4);
+        }
+        assertEquals(3, UploadJournal.resume(file, DIGEST, 5).ackedCount());
+    }
+
+    @Test
+    void testTornAndOutOfRangeLinesAreSkipped() throws IOException {
+        Path file = write("data.bin", "0123456789");
+        try (UploadJournal journal = UploadJournal.create(file, "upload-1", DIGEST, 4)) {
+            journal.acked(1);
+        }
+        Files.writeString(journalOf(file), "7\n-1\n2\n3", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        // A crash in the middle of the last line
+        Files.writeString(journalOf(file), "\n1x", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        UploadJournal resumed = UploadJournal.resume(file, DIGEST, 4);
+        assertNotNull(resumed);
+        assertEquals(3, resumed.ackedCount());
+        assertTrue(resumed.isAcked(1));
+        assertTrue(resumed.isAcked(2));
+        assertTrue(resumed.isAcked(3));
+        resumed.close();
+    }
+
+    @Test
+    void testJournalOfAnotherVersionOfTheFileIsIgnored() throws IOException {
+        Path file = write("data.bin", "0123456789");
+        UploadJournal.create(file, "upload-1", DIGEST, 5).close();
+
+        assertNull(UploadJournal.resume(file, "BLAKE3", 5));
+        assertNull(UploadJournal.resume(file, DIGEST, 6));
+
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() - 60_000));
+        assertNull(UploadJournal.resume(file, DIGEST, 5));
+
+        Files.writeString(file, "01234567890");
+        assertNull(UploadJournal.resume(file, DIGEST, 5));
+    }
+
+    @Test
+    void testMissingOrEmptyJournalIsNotResumed() throws IOException {
+        Path file = write("data.bin", "0123456789");
+        assertNull(UploadJournal.resume(file, DIGEST, 5));
+
+        Files.createFile(journalOf(file));
+        assertNull(UploadJournal.resume(file, DIGEST, 5));
+    }
+
+    @Test
+    void testCreateReplacesAnEarlierUpload() throws IOException {
+        Path file = write("data.bin", "0123456789");
+        try (UploadJournal journal = UploadJournal.create(file, "upload-1", DIGEST, 5)) {
+            journal.acked(2);
+        }
+        UploadJournal.create(file, "upload-2", DIGEST, 5).close();
+
+        UploadJournal resumed = UploadJournal.resume(file, DIGEST, 5);
+        assertEquals("upload-2", resumed.uploadId());
+        assertEquals(0, resumed.ackedCount());
+        resumed.close();
+    }
+
+    @Test
+    void testDeleteRemovesTheJournal() throws IOException {
+        Path file = write("data.bin", "0123456789");
+        UploadJournal journal = UploadJournal.create(file, "upload-1", DIGEST, 5);
+        assertTrue(UploadJournal.isJournal(journalOf(file)));
+        assertFalse(UploadJournal.isJournal(file));
+
+        journal.delete();
+        assertFalse(Files.exists(journalOf(file)));
+        assertNull(UploadJournal.resume(file, DIGEST, 5));
+        journal.acked(1); // closed: kept in memory only
+        assertTrue(journal.isAcked(1));
+    }
+
+    // ==================== HELPERS ====================
+
+    private Path write(String name, String content) throws IOException {
+        Path path = dir.resolve(name);
+        Files.writeString(path, content);
+        return path;
+    }
+
+    private static Path journalOf(Path file) {
+        return file.resolveSibling(file.getFileName() + ".minidrive-upload");
+    }
+}
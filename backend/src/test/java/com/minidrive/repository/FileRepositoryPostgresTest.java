@@ -0,0 +1,184 @@
+package com.minidrive.repository;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The manifest SQL (packed manifests, chunk_refs, batched upserts, = ANY lookups)
+ * against a real PostgreSQL rather than H2's compatibility mode. Skipped when
+ * Docker is not available.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class FileRepositoryPostgresTest {
+
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private static final String TEST_USER = "testuser";
+
+    private static HikariDataSource dataSource;
+    private static FileRepository fileRepository;
+
+    @BeforeAll
+    static void connect() {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(POSTGRES.getJdbcUrl());
+        config.setUsername(POSTGRES.getUsername());
+        config.setPassword(POSTGRES.getPassword());
+        // Same driver setting as DataSourceConfig: batches go out as multi-row INSERTs
+        config.addDataSourceProperty("reWriteBatchedInserts", "true");
+        dataSource = new HikariDataSource(config);
+        fileRepository = new FileRepository(dataSource);
+    }
+
+    @AfterAll
+    static void close() {
+        dataSource.close();
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS file_chunks, file_manifests, chunk_refs, global_chunks, files, users");
+
+            // The tables the manifest SQL touches, as DatabaseService.initDB creates them
+            stmt.execute("""
+                CREATE TABLE users (
+                    id UUID PRIMARY KEY,
+                    username VARCHAR(50) UNIQUE NOT NULL,
+                    password VARCHAR(255) NOT NULL
+                )
+            """);
+            stmt.execute("""
+                CREATE TABLE files (
+                    file_id UUID PRIMARY KEY,
+                    filename VARCHAR(255),
+                    size BIGINT,
+                    owner_id UUID REFERENCES users(id) ON DELETE CASCADE,
+                    folder_id UUID,
+                    is_trashed BOOLEAN DEFAULT FALSE,
+                    uploaded_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                )
+            """);
+            stmt.execute("""
+                CREATE TABLE file_chunks (
+                    file_id UUID,
+                    chunk_hash VARCHAR(64),
+                    chunk_index INT,
+                    plain_offset BIGINT,
+                    plain_length INT,
+                    PRIMARY KEY (file_id, chunk_index)
+                )
+            """);
+            stmt.execute("""
+                CREATE TABLE file_manifests (
+                    file_id UUID PRIMARY KEY,
+                    chunk_count INT NOT NULL,
+                    manifest BYTEA NOT NULL
+                )
+            """);
+            stmt.execute("""
+                CREATE TABLE chunk_refs (
+                    chunk_hash BYTEA,
+                    file_id UUID,
+                    PRIMARY KEY (chunk_hash, file_id)
+                )
+            """);
+            stmt.execute("""
+                CREATE TABLE global_chunks (
+                    chunk_hash VARCHAR(64) PRIMARY KEY,
+                    ref_count INT DEFAULT 1,
+                    plain_size BIGINT,
+                    format_version SMALLINT
+                )
+            """);
+
+            stmt.execute("INSERT INTO users (id, username, password) VALUES ('" + UUID.randomUUID() + "', '" + TEST_USER + "', 'password')");
+        }
+    }
+
+    @Test
+    void testPackedManifestRoundTrip() throws Exception {
+        String a = "a".repeat(64);
+        String b = "0123456789abcdef".repeat(4);
+        String fileId = newFile(250);
+        fileRepository.registerGlobalChunk(a, 100);
+        fileRepository.registerGlobalChunk(b, 50);
+
+        assertTrue(fileRepository.addChunksToFile(fileId, List.of(a, b, a)).success);
+        ChunkManifest manifest = fileRepository.getFileManifest(fileId);
+
+        assertEquals(List.of(a, b, a), manifest.hashes());
+        assertEquals(250, manifest.totalSize());
+        assertEquals(150, manifest.offset(2));
+        assertEquals(0, count("SELECT COUNT(*) FROM file_chunks"), "packed lists must not write file_chunks rows");
+        assertEquals(2, count("SELECT COUNT(*) FROM chunk_refs WHERE file_id = '" + fileId + "'"));
+        assertEquals(2, count("SELECT ref_count FROM global_chunks WHERE chunk_hash = '" + a + "'"));
+        assertEquals(List.of(TEST_USER), fileRepository.findChunkOwners(a));
+    }
+
+    @Test
+    void testBatchesLargerThanOneRoundTrip() {
+        // More distinct chunks than BATCH_SIZE, so every batch is flushed mid-way at least once
+        List<String> hashes = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            hashes.add(String.format("%064x", i));
+        }
+        String fileId = newFile(0);
+
+        assertTrue(fileRepository.addChunksToFile(fileId, hashes).success);
+
+        assertEquals(hashes, fileRepository.getFileManifest(fileId).hashes());
+        assertEquals(Set.of(hashes.get(0), hashes.get(2499)),
+                fileRepository.findExistingChunks(List.of(hashes.get(0), hashes.get(2499), "f".repeat(64))));
+    }
+
+    @Test
+    void testUnpackableHashesFallBackToChunkRows() {
+        String fileId = newFile(300);
+        fileRepository.registerGlobalChunk("ref_a", 100);
+        fileRepository.registerGlobalChunk("ref_b", 200);
+
+        assertTrue(fileRepository.addChunksToFile(fileId, List.of("ref_a", "ref_b", "ref_a")).success);
+
+        ChunkManifest manifest = fileRepository.getFileManifest(fileId);
+        assertEquals(List.of("ref_a", "ref_b", "ref_a"), manifest.hashes());
+        assertEquals(300, manifest.offset(2));
+        assertEquals(List.of(TEST_USER), fileRepository.findChunkOwners("ref_b"));
+    }
+
+    // ==================== HELPERS ====================
+
+    private String newFile(long size) {
+        String fileId = UUID.randomUUID().toString();
+        assertTrue(fileRepository.saveFileMetadata(fileId, "file-" + fileId, size, TEST_USER, null).success);
+        return fileId;
+    }
+
+    private long count(String sql) throws Exception {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            assertTrue(rs.next());
+            return rs.getLong(1);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.minidrive.repository;
 
+import com.minidrive.chunking.ChunkDigest;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -11,6 +12,7 @@ import java.sql.Connection;
 import java.sql.Statement;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -41,7 +43,11 @@ class FileRepositoryTest {
             
             // Drop tables if exist
             stmt.execute("DROP TABLE IF EXISTS file_chunks");
+            stmt.execute("DROP TABLE IF EXISTS file_manifests");
+            stmt.execute("DROP TABLE IF EXISTS chunk_refs");
             stmt.execute("DROP TABLE IF EXISTS global_chunks");
+            stmt.execute("DROP TABLE IF EXISTS chunk_signatures");
+            stmt.execute("DROP TABLE IF EXISTS completed_migrations");
             stmt.execute("DROP TABLE IF EXISTS files");
             stmt.execute("DROP TABLE IF EXISTS folders");
             stmt.execute("DROP TABLE IF EXISTS activities");
@@ -78,15 +84,53 @@ class FileRepositoryTest {
                     file_id UUID,
                     chunk_hash VARCHAR(64),
                     chunk_index INT,
+                    plain_offset BIGINT,
+                    plain_length INT,
                     PRIMARY KEY (file_id, chunk_index)
                 )
             """);
 
+            // Create packed manifest and reverse index tables
+            stmt.execute("""
+                CREATE TABLE file_manifests (
+                    file_id UUID PRIMARY KEY,
+                    chunk_count INT NOT NULL,
+                    manifest BYTEA NOT NULL
+                )
+            """);
+            stmt.execute("""
+                CREATE TABLE chunk_refs (
+                    chunk_hash BYTEA,
+                    file_id UUID,
+                    PRIMARY KEY (chunk_hash, file_id)
+                )
+            """);
+
             // Create global_chunks table
             stmt.execute("""
                 CREATE TABLE global_chunks (
                     chunk_hash VARCHAR(64) PRIMARY KEY,
-                    ref_count INT DEFAULT 1
+                    ref_count INT DEFAULT 1,
+                    plain_size BIGINT,
+                    format_version SMALLINT
+                )
+            """);
+
+            // Create chunk_signatures table
+            stmt.execute("""
+                CREATE TABLE chunk_signatures (
+                    chunk_hash VARCHAR(64) PRIMARY KEY,
+                    block_size INT NOT NULL,
+                    plain_length INT NOT NULL,
+                    signature BYTEA NOT NULL
+                )
+            """);
+
+            // Create completed_migrations table
+            stmt.execute("""
+                CREATE TABLE completed_migrations (
+                    name VARCHAR(64) PRIMARY KEY,
+                    completed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
                 )
             """);
 
@@ -139,9 +183,7 @@ class FileRepositoryTest {
         fileRepository.saveFileMetadata(fileId, "chunked.bin", 3000, TEST_USER, null);
 
         // Add chunks
-        fileRepository.addChunkToFile(fileId, "hash1", 0);
-        fileRepository.addChunkToFile(fileId, "hash2", 1);
-        fileRepository.addChunkToFile(fileId, "hash3", 2);
+        fileRepository.addChunksToFile(fileId, List.of("hash1", "hash2", "hash3"));
 
         // Retrieve chunks
         List<String> chunks = fileRepository.getFileChunks(fileId);
@@ -152,6 +194,79 @@ class FileRepositoryTest {
         assertEquals("hash3", chunks.get(2));
     }
 
+    @Test
+    void testFileManifestOffsets() {
+        String fileId = UUID.randomUUID().toString();
+        fileRepository.saveFileMetadata(fileId, "ranged.bin", 2500, TEST_USER, null);
+        fileRepository.registerGlobalChunk("size_a", 1000);
+        fileRepository.registerGlobalChunk("size_b", 1000);
+        fileRepository.registerGlobalChunk("size_c", 500);
+
+        fileRepository.addChunksToFile(fileId, List.of("size_a", "size_b", "size_c"));
+        ChunkManifest manifest = fileRepository.getFileManifest(fileId);
+
+        assertTrue(manifest.supportsRanges());
+        assertEquals(2500, manifest.totalSize());
+        assertEquals(1000, manifest.offset(1));
+        assertEquals(0, manifest.chunkAt(999));
+        assertEquals(1, manifest.chunkAt(1000));
+        assertEquals(2, manifest.chunkAt(2499));
+    }
+
+    @Test
+    void testAddChunksToFileCountsReferences() throws Exception {
+        String fileId = UUID.randomUUID().toString();
+        fileRepository.saveFileMetadata(fileId, "batched.bin", 300, TEST_USER, null);
+        fileRepository.registerGlobalChunk("ref_a", 100);
+        fileRepository.registerGlobalChunk("ref_b", 100);
+
+        assertTrue(fileRepository.addChunksToFile(fileId, List.of("ref_a", "ref_b", "ref_a")).success);
+
+        assertEquals(List.of("ref_a", "ref_b", "ref_a"), fileRepository.getFileChunks(fileId));
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            var rs = stmt.executeQuery("SELECT chunk_hash, ref_count FROM global_chunks ORDER BY chunk_hash");
+            assertTrue(rs.next());
+            assertEquals(2, rs.getInt("ref_count"));
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt("ref_count"));
+        }
+    }
+
+    @Test
+    void testPackedManifest() {
+        String a = "a".repeat(64);
+        String b = "0123456789abcdef".repeat(4);
+        String fileId = UUID.randomUUID().toString();
+        fileRepository.saveFileMetadata(fileId, "packed.bin", 250, TEST_USER, null);
+        fileRepository.registerGlobalChunk(a, 100);
+        fileRepository.registerGlobalChunk(b, 50);
+
+        assertTrue(fileRepository.addChunksToFile(fileId, List.of(a, b, a)).success);
+        ChunkManifest manifest = fileRepository.getFileManifest(fileId);
+
+        assertEquals(List.of(a, b, a), fileRepository.getFileChunks(fileId));
+        assertTrue(manifest.supportsRanges());
+        assertEquals(250, manifest.totalSize());
+        assertEquals(150, manifest.offset(2));
+        assertEquals(List.of(TEST_USER), fileRepository.findChunkOwners(b));
+        assertEquals(ChunkDigest.SHA256, manifest.digest());
+    }
+
+    @Test
+    void testPackedManifestRecordsDigest() {
+        String hash = ChunkDigest.BLAKE3.hash(new byte[]{1, 2, 3}, 0, 3);
+        String fileId = UUID.randomUUID().toString();
+        fileRepository.saveFileMetadata(fileId, "blake3.bin", 3, TEST_USER, null);
+        fileRepository.registerGlobalChunk(hash, 3);
+
+        assertTrue(fileRepository.addChunksToFile(fileId, List.of(hash), ChunkDigest.BLAKE3).success);
+        ChunkManifest manifest = fileRepository.getFileManifest(fileId);
+
+        assertEquals(ChunkDigest.BLAKE3, manifest.digest());
+        assertEquals(List.of(hash), manifest.hashes());
+    }
+
     @Test
     void testHasChunk() {
         assertFalse(fileRepository.hasChunk("nonexistent_hash"));
@@ -160,6 +275,98 @@ class FileRepositoryTest {
         assertTrue(fileRepository.hasChunk("existing_hash"));
     }
 
+    @Test
+    void testFindExistingChunks() {
+        fileRepository.registerGlobalChunk("hash_a");
+        fileRepository.registerGlobalChunk("hash_b");
+
+        Set<String> existing = fileRepository.findExistingChunks(List.of("hash_a", "hash_b", "hash_c"));
+
+        assertEquals(Set.of("hash_a", "hash_b"), existing);
+        assertTrue(fileRepository.findExistingChunks(List.of()).isEmpty());
+    }
+
+    @Test
+    void testRegisterGlobalChunks() {
+        fileRepository.registerGlobalChunk("batch_a", 100);
+
+        fileRepository.registerGlobalChunks(List.of("batch_a", "batch_b", "batch_c"));
+
+        assertEquals(Set.of("batch_a", "batch_b", "batch_c"),
+                fileRepository.findExistingChunks(List.of("batch_a", "batch_b", "batch_c", "batch_d")));
+        assertEquals(Map.of("batch_a", 100), fileRepository.findChunkSizes(List.of("batch_a", "batch_b")));
+    }
+
+    @Test
+    void testChunkLookupFailuresPropagate() throws Exception {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE global_chunks");
+        }
+
+        // A failed lookup must not read as "chunk missing"
+        assertThrows(RuntimeException.class, () -> fileRepository.hasChunk("any_hash"));
+        assertThrows(RuntimeException.class, () -> fileRepository.findExistingChunks(List.of("any_hash")));
+    }
+
+    @Test
+    void testManifestLookupFailurePropagates() throws Exception {
+        String fileId = UUID.randomUUID().toString();
+        fileRepository.saveFileMetadata(fileId, "doc.bin", 100, TEST_USER, null);
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE file_manifests");
+        }
+
+        // Must not come back as an empty manifest (served as a zero-byte file)
+        assertThrows(RuntimeException.class, () -> fileRepository.getFileManifest(fileId));
+        assertThrows(RuntimeException.class, () -> fileRepository.getFileChunks(fileId));
+    }
+
+    @Test
+    void testUncheckedChunkScan() {
+        fileRepository.registerGlobalChunk("old_a");
+        fileRepository.registerGlobalChunk("old_b");
+        fileRepository.registerGlobalChunk("new_c", 100); // written with a header
+
+        assertEquals(List.of("old_a", "old_b"), fileRepository.findUncheckedChunks(null, 10));
+        assertEquals(List.of("old_b"), fileRepository.findUncheckedChunks("old_a", 10));
+
+        fileRepository.markChunkFormat("old_a", 2);
+        assertEquals(List.of("old_b"), fileRepository.findUncheckedChunks(null, 10));
+
+        String fileId = UUID.randomUUID().toString();
+        fileRepository.saveFileMetadata(fileId, "legacy.bin", 100, TEST_USER, null);
+        fileRepository.addChunksToFile(fileId, List.of("old_b"));
+        assertEquals(List.of(TEST_USER), fileRepository.findChunkOwners("old_b"));
+    }
+
+    @Test
+    void testChunkSignatures() {
+        fileRepository.saveChunkSignature("sig1", 4096, new FileRepository.ChunkSignature(5000, new byte[72]));
+        // First writer wins
+        fileRepository.saveChunkSignature("sig1", 4096, new FileRepository.ChunkSignature(1, new byte[36]));
+
+        Map<String, FileRepository.ChunkSignature> found =
+                fileRepository.findChunkSignatures(List.of("sig1", "sig2"), 4096);
+
+        assertEquals(Set.of("sig1"), found.keySet());
+        assertEquals(5000, found.get("sig1").plainLength());
+        assertEquals(72, found.get("sig1").blocks().length);
+        assertTrue(fileRepository.findChunkSignatures(List.of("sig1"), 8192).isEmpty());
+    }
+
+    @Test
+    void testCompletedMigrationIsRecordedOnce() {
+        assertFalse(fileRepository.hasCompletedMigration("chunk-index-backfill"));
+
+        fileRepository.recordCompletedMigration("chunk-index-backfill");
+        fileRepository.recordCompletedMigration("chunk-index-backfill");
+
+        assertTrue(fileRepository.hasCompletedMigration("chunk-index-backfill"));
+        assertFalse(fileRepository.hasCompletedMigration("other"));
+    }
+
     @Test
     void testSearchFiles() {
         // Create some files
@@ -0,0 +1,93 @@
+package com.minidrive.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkBloomFilterTest {
+
+    private static final int ENTRIES = 100_000;
+
+    @Test
+    void testNoFalseNegatives() {
+        ChunkBloomFilter filter = ChunkBloomFilter.create(ENTRIES, 0.01);
+        List<String> hashes = randomHashes(ENTRIES, 1);
+        hashes.forEach(filter::put);
+
+        for (String hash : hashes) {
+            assertTrue(filter.mightContain(hash), hash);
+        }
+    }
+
+    @Test
+    void testNoFalseNegativesForNonHexKeys() {
+        ChunkBloomFilter filter = ChunkBloomFilter.create(1_000, 0.01);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            keys.add("legacy-" + i);
+        }
+        keys.add("short");
+        keys.add("");
+        keys.forEach(filter::put);
+
+        for (String key : keys) {
+            assertTrue(filter.mightContain(key), key);
+        }
+    }
+
+    @Test
+    void testFalsePositiveRateStaysNearTarget() {
+        for (double target : new double[]{0.01, 0.001}) {
+            ChunkBloomFilter filter = ChunkBloomFilter.create(ENTRIES, target);
+            randomHashes(ENTRIES, 2).forEach(filter::put);
+
+            int falsePositives = 0;
+            for (String hash : randomHashes(ENTRIES, 3)) {
+                if (filter.mightContain(hash)) falsePositives++;
+            }
+            double rate = (double) falsePositives / ENTRIES;
+            assertTrue(rate < target * 1.5, "target " + target + ", measured " + rate);
+        }
+    }
+
+    @Test
+    void testConcurrentPutsAreAllVisible() throws InterruptedException {
+        ChunkBloomFilter filter = ChunkBloomFilter.create(ENTRIES, 0.01);
+        List<String> hashes = randomHashes(ENTRIES, 4);
+
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            int offset = t;
+            writers[t] = new Thread(() -> {
+                for (int i = offset; i < hashes.size(); i += writers.length) {
+                    filter.put(hashes.get(i));
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        for (String hash : hashes) {
+            assertTrue(filter.mightContain(hash), hash);
+        }
+    }
+
+    private static List<String> randomHashes(int count, long seed) {
+        Random random = new Random(seed);
+        HexFormat hex = HexFormat.of();
+        List<String> hashes = new ArrayList<>(count);
+        byte[] digest = new byte[32];
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(digest);
+            hashes.add(hex.formatHex(digest));
+        }
+        return hashes;
+    }
+}
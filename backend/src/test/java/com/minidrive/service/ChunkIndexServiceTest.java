@@ -0,0 +1,128 @@
+package com.minidrive.service;
+
+import com.minidrive.repository.FileRepository;
+import com.minidrive.storage.StorageService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ChunkIndexServiceTest {
+
+    private static final String REGISTERED = "a".repeat(64);
+    private static final String UNREGISTERED = "b".repeat(64);
+    private static final String ABSENT = "c".repeat(64);
+
+    private FileRepository fileRepository;
+    private StorageService storageService;
+    private ChunkIndexService index;
+
+    @BeforeEach
+    void setUp() {
+        fileRepository = mock(FileRepository.class);
+        storageService = mock(StorageService.class);
+        index = new ChunkIndexService();
+        ReflectionTestUtils.setField(index, "fileRepository", fileRepository);
+        ReflectionTestUtils.setField(index, "storageService", storageService);
+        ReflectionTestUtils.setField(index, "expectedChunks", 1000L);
+        ReflectionTestUtils.setField(index, "falsePositiveRate", 0.01);
+
+        when(fileRepository.forEachGlobalChunk(any())).thenAnswer(i -> {
+            i.<Consumer<String>>getArgument(0).accept(REGISTERED);
+            return 1L;
+        });
+        when(fileRepository.hasChunk(anyString())).thenAnswer(i -> REGISTERED.equals(i.getArgument(0)));
+        when(fileRepository.findExistingChunks(anyCollection())).thenAnswer(i -> {
+            Collection<String> hashes = i.getArgument(0);
+            return hashes.contains(REGISTERED) ? Set.of(REGISTERED) : Set.of();
+        });
+        when(storageService.doesChunkExist(anyString())).thenAnswer(i ->
+                REGISTERED.equals(i.getArgument(0)) || UNREGISTERED.equals(i.getArgument(0)));
+    }
+
+    @Test
+    void testIndexMissIsConfirmedAgainstStorageUntilBackfilled() {
+        assertTrue(index.exists(REGISTERED));
+        assertTrue(index.exists(UNREGISTERED), "stored but unregistered chunk reported missing");
+        assertFalse(index.exists(ABSENT));
+
+        verify(fileRepository).registerGlobalChunks(Set.of(UNREGISTERED));
+        verify(storageService, never()).doesChunkExist(REGISTERED);
+    }
+
+    @Test
+    void testFindExistingBackfillsStorageHitsInOneBatch() {
+        Set<String> existing = index.findExisting(List.of(REGISTERED, UNREGISTERED, ABSENT));
+
+        assertEquals(Set.of(REGISTERED, UNREGISTERED), existing);
+        verify(fileRepository, times(1)).registerGlobalChunks(Set.of(UNREGISTERED));
+    }
+
+    @Test
+    void testAfterBackfillMissesStayInTheIndex() {
+        ReflectionTestUtils.setField(index, "backfilled", true);
+
+        assertFalse(index.exists(UNREGISTERED));
+        assertEquals(Set.of(REGISTERED), index.findExisting(List.of(REGISTERED, UNREGISTERED)));
+        verify(storageService, never()).doesChunkExist(anyString());
+    }
+
+    @Test
+    void testBackfillRunsOnceAndIsRecorded() {
+        ReflectionTestUtils.setField(index, "backfillEnabled", true);
+        when(storageService.forEachChunkHash(any())).thenAnswer(i -> {
+            i.<Consumer<String>>getArgument(0).accept(REGISTERED);
+            i.<Consumer<String>>getArgument(0).accept(UNREGISTERED);
+            return 2L;
+        });
+
+        index.warmUp();
+
+        verify(fileRepository, timeout(5000)).recordCompletedMigration(ChunkIndexService.BACKFILL_MIGRATION);
+        verify(fileRepository).registerGlobalChunks(Set.of(UNREGISTERED));
+        assertEquals(true, index.getStats().get("backfilled"));
+    }
+
+    @Test
+    void testRecordedBackfillIsNotRepeated() {
+        ReflectionTestUtils.setField(index, "backfillEnabled", true);
+        when(fileRepository.hasCompletedMigration(ChunkIndexService.BACKFILL_MIGRATION)).thenReturn(true);
+
+        index.warmUp();
+
+        // Misses are answered from the index from the start, without a stat per chunk
+        assertFalse(index.exists(UNREGISTERED));
+        assertEquals(Set.of(REGISTERED), index.findExisting(List.of(REGISTERED, UNREGISTERED)));
+        verify(fileRepository, timeout(5000)).forEachGlobalChunk(any());
+        verify(storageService, never()).doesChunkExist(anyString());
+        verify(storageService, never()).forEachChunkHash(any());
+    }
+
+    @Test
+    void testExistsIgnoresFilterNegatives() {
+        // Warmed filter that never saw REGISTERED: another node stored it since warm-up
+        ReflectionTestUtils.setField(index, "filter", ChunkBloomFilter.create(1000, 0.01));
+        ReflectionTestUtils.setField(index, "warmed", true);
+        ReflectionTestUtils.setField(index, "backfilled", true);
+
+        assertTrue(index.exists(REGISTERED), "chunk stored by another node would be overwritten");
+        assertEquals(Set.of(), index.findExisting(List.of(REGISTERED)));
+        verify(fileRepository).hasChunk(REGISTERED);
+    }
+
+    @Test
+    void testLookupFailurePropagates() {
+        when(fileRepository.findExistingChunks(anyCollection())).thenThrow(new RuntimeException("Bulk chunk lookup failed"));
+
+        assertThrows(RuntimeException.class, () -> index.findExisting(List.of(REGISTERED)));
+        verify(storageService, never()).doesChunkExist(anyString());
+    }
+}
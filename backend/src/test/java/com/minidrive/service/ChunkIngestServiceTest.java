@@ -0,0 +1,148 @@
+package com.minidrive.service;
+
+import com.minidrive.chunking.ChunkDigest;
+import com.minidrive.storage.StorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.minidrive.TestFixtures.drain;
+import static com.minidrive.TestFixtures.randomBytes;
+import static com.minidrive.TestFixtures.sha256;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ChunkIngestServiceTest {
+
+    private final Map<String, byte[]> staged = new HashMap<>();
+    private final Map<String, byte[]> committed = new HashMap<>();
+    private final List<String> discarded = new ArrayList<>();
+    private final AtomicInteger stagingKeys = new AtomicInteger();
+
+    private StorageService storageService;
+    private ChunkIndexService chunkIndexService;
+    private ChunkIngestService ingestService;
+
+    @BeforeEach
+    void setUp() {
+        storageService = mock(StorageService.class);
+        when(storageService.newStagingKey()).thenAnswer(i -> "staging/" + stagingKeys.incrementAndGet());
+        doAnswer(i -> {
+            staged.put(i.getArgument(0), drain(i.getArgument(1), i.<Long>getArgument(2)));
+            return null;
+        }).when(storageService).putChunk(anyString(), any(ReadableByteChannel.class), anyLong());
+        doAnswer(i -> {
+            committed.put(i.getArgument(1), staged.remove(i.<String>getArgument(0)));
+            return null;
+        }).when(storageService).commitStagedChunk(anyString(), anyString());
+        doAnswer(i -> {
+            discarded.add(i.getArgument(0));
+            staged.remove(i.<String>getArgument(0));
+            return null;
+        }).when(storageService).discardStagedChunk(anyString());
+
+        chunkIndexService = mock(ChunkIndexService.class);
+        when(chunkIndexService.exists(anyString())).thenAnswer(i -> committed.containsKey(i.<String>getArgument(0)));
+
+        ingestService = new ChunkIngestService();
+        ReflectionTestUtils.setField(ingestService, "storageService", storageService);
+        ReflectionTestUtils.setField(ingestService, "chunkIndexService", chunkIndexService);
+        ReflectionTestUtils.setField(ingestService, "deltaSyncService", mock(DeltaSyncService.class));
+        ReflectionTestUtils.setField(ingestService, "hashThreads", 2);
+        ReflectionTestUtils.setField(ingestService, "hashQueue", 4);
+        ingestService.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        ingestService.shutdown();
+    }
+
+    @Test
+    void testSha256AndBlake3ClientsGetDistinctVerifiedKeys() throws Exception {
+        byte[] data = randomBytes(100_000, 1);
+        String sha256 = sha256(data);
+        String blake3 = ChunkDigest.BLAKE3.hash(data, 0, data.length);
+        assertNotEquals(sha256, blake3);
+
+        // Same bytes from two clients: one stored object per digest, each under its own hash
+        assertTrue(ingestService.ingest(sha256, ChunkDigest.SHA256, () -> new ByteArrayInputStream(data), data.length, null));
+        assertTrue(ingestService.ingest(blake3, ChunkDigest.BLAKE3, new ByteArrayInputStream(data), data.length, null));
+
+        assertArrayEquals(data, committed.get(sha256));
+        assertArrayEquals(data, committed.get(blake3));
+        assertEquals(2L, ingestService.getStats().get("verifiedChunks"));
+        assertTrue(staged.isEmpty());
+    }
+
+    @Test
+    void testHashOfTheOtherDigestIsRejected() {
+        byte[] data = randomBytes(50_000, 2);
+        String sha256 = sha256(data);
+        String blake3 = ChunkDigest.BLAKE3.hash(data, 0, data.length);
+
+        // A correct hash is only accepted under the digest the upload session declared
+        assertThrows(IllegalArgumentException.class, () ->
+                ingestService.ingest(blake3, ChunkDigest.SHA256, () -> new ByteArrayInputStream(data), data.length, null));
+        assertThrows(IllegalArgumentException.class, () ->
+                ingestService.ingest(sha256, ChunkDigest.BLAKE3, new ByteArrayInputStream(data), data.length, null));
+
+        assertTrue(committed.isEmpty());
+        assertTrue(staged.isEmpty(), "rejected chunks must not stay in staging");
+        assertEquals(2, discarded.size());
+        assertEquals(2L, ingestService.getStats().get("rejectedChunks"));
+    }
+
+    @Test
+    void testAlreadyStoredChunkIsStillVerified() throws Exception {
+        byte[] data = randomBytes(10_000, 3);
+        String blake3 = ChunkDigest.BLAKE3.hash(data, 0, data.length);
+        ingestService.ingest(blake3, ChunkDigest.BLAKE3, () -> new ByteArrayInputStream(data), data.length, null);
+
+        assertFalse(ingestService.ingest(blake3, ChunkDigest.BLAKE3, new ByteArrayInputStream(data), data.length, null));
+        assertThrows(IllegalArgumentException.class, () ->
+                ingestService.ingest(blake3, ChunkDigest.BLAKE3, new ByteArrayInputStream(randomBytes(10_000, 4)), 10_000, null));
+        verify(storageService, times(1)).commitStagedChunk(anyString(), eq(blake3));
+    }
+
+    @Test
+    void testFailedCommitDiscardsStaging() {
+        byte[] data = randomBytes(20_000, 5);
+        String sha256 = sha256(data);
+        String blake3 = ChunkDigest.BLAKE3.hash(data, 0, data.length);
+        doThrow(new RuntimeException("Failed to commit staged chunk"))
+                .when(storageService).commitStagedChunk(anyString(), anyString());
+
+        assertThrows(RuntimeException.class, () ->
+                ingestService.ingest(sha256, ChunkDigest.SHA256, () -> new ByteArrayInputStream(data), data.length, null));
+        assertThrows(RuntimeException.class, () ->
+                ingestService.ingest(blake3, ChunkDigest.BLAKE3, new ByteArrayInputStream(data), data.length, null));
+
+        assertEquals(List.of("staging/1", "staging/2"), discarded);
+        assertTrue(staged.isEmpty());
+    }
+
+    @Test
+    void testErrorWhileHashingDiscardsStaging() {
+        byte[] data = randomBytes(20_000, 6);
+        ChunkDigest broken = mock(ChunkDigest.class);
+        ChunkDigest.Hasher hasher = mock(ChunkDigest.Hasher.class);
+        when(broken.newHasher()).thenReturn(hasher);
+        when(hasher.hashing(any())).thenCallRealMethod();
+        doThrow(new LinkageError("digest implementation missing")).when(hasher).update(any(byte[].class), anyInt(), anyInt());
+
+        assertThrows(LinkageError.class, () ->
+                ingestService.ingest("00".repeat(32), broken, new ByteArrayInputStream(data), data.length, null));
+        assertEquals(List.of("staging/1"), discarded);
+    }
+}
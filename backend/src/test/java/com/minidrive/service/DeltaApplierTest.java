@@ -0,0 +1,207 @@
+package com.minidrive.service;
+
+import com.minidrive.chunking.FastCdcChunker;
+import com.minidrive.repository.ChunkManifest;
+import com.minidrive.repository.FileRepository;
+import com.minidrive.storage.StorageService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.minidrive.TestFixtures.drain;
+import static com.minidrive.TestFixtures.randomBytes;
+import static com.minidrive.TestFixtures.sha256;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DeltaApplierTest {
+
+    private static final int BLOCK = 4096;
+    private static final String FILE_ID = "33333333-3333-3333-3333-333333333333";
+
+    // Source file: chunk 0 = blocks 0-2, chunk 1 = blocks 3-5 (block 5 is a 100-byte tail), chunk 2 = blocks 6-7
+    private static final int[] CHUNK_LENGTHS = {3 * BLOCK, 2 * BLOCK + 100, 2 * BLOCK};
+
+    private final SecretKey key = new SecretKeySpec(new byte[32], "AES");
+    private final Map<String, byte[]> stored = new HashMap<>();
+    private final List<String> sourceHashes = new ArrayList<>();
+    private byte[] source;
+
+    private StorageService storageService;
+    private ChunkIndexService chunkIndexService;
+    private DeltaSyncService deltaSyncService;
+
+    @BeforeEach
+    void setUp() {
+        source = randomBytes(Arrays.stream(CHUNK_LENGTHS).sum(), 1);
+        int offset = 0;
+        for (int length : CHUNK_LENGTHS) {
+            byte[] chunk = Arrays.copyOfRange(source, offset, offset + length);
+            String hash = sha256(chunk);
+            stored.put(hash, chunk);
+            sourceHashes.add(hash);
+            offset += length;
+        }
+
+        FileRepository fileRepository = mock(FileRepository.class);
+        List<Integer> lengths = Arrays.stream(CHUNK_LENGTHS).boxed().toList();
+        when(fileRepository.getFileManifest(FILE_ID)).thenReturn(
+                ChunkManifest.of(sourceHashes, lengths, Collections.nCopies(lengths.size(), null)));
+
+        storageService = mock(StorageService.class);
+        when(storageService.readChunk(anyString(), any())).thenAnswer(i -> stored.get(i.<String>getArgument(0)).clone());
+        doAnswer(i -> {
+            stored.put(i.getArgument(0), drain(i.getArgument(1), i.<Long>getArgument(2)));
+            return null;
+        }).when(storageService).putChunk(anyString(), any(ReadableByteChannel.class), anyLong(), any(SecretKey.class));
+
+        chunkIndexService = mock(ChunkIndexService.class);
+        when(chunkIndexService.exists(anyString())).thenAnswer(i -> stored.containsKey(i.<String>getArgument(0)));
+
+        deltaSyncService = new DeltaSyncService();
+        ReflectionTestUtils.setField(deltaSyncService, "fileRepository", fileRepository);
+        ReflectionTestUtils.setField(deltaSyncService, "storageService", storageService);
+        ReflectionTestUtils.setField(deltaSyncService, "chunkIndexService", chunkIndexService);
+        // Small chunks so a few blocks of literals cross the flush threshold (2 * max)
+        ReflectionTestUtils.setField(deltaSyncService, "fastCdcChunker", new FastCdcChunker(1024, 4096, 16 * 1024));
+    }
+
+    @Test
+    void testWholeFileCopyReusesEveryChunkWithoutReading() {
+        DeltaSyncService.DeltaApplier applier = deltaSyncService.beginDelta(FILE_ID, key);
+        applier.copy(0, 8);
+        ChunkManifest result = applier.finish();
+
+        assertEquals(sourceHashes, result.hashes());
+        assertEquals(source.length, result.totalSize());
+        assertEquals(3, applier.chunksReused());
+        assertEquals(0, applier.chunksWritten());
+        verify(storageService, never()).readChunk(anyString(), any());
+    }
+
+    @Test
+    void testCopyRunSpanningChunkBoundaries() {
+        // Blocks 1-2 are the tail of chunk 0 (written), 3-5 all of chunk 1 (reused), 6 half of chunk 2
+        DeltaSyncService.DeltaApplier applier = deltaSyncService.beginDelta(FILE_ID, key);
+        applier.copy(1, 6);
+        ChunkManifest result = applier.finish();
+
+        int from = BLOCK;
+        int to = CHUNK_LENGTHS[0] + CHUNK_LENGTHS[1] + BLOCK;
+        assertArrayEquals(Arrays.copyOfRange(source, from, to), content(result));
+        assertTrue(result.hashes().contains(sourceHashes.get(1)));
+        assertFalse(result.hashes().contains(sourceHashes.get(0)));
+        assertFalse(result.hashes().contains(sourceHashes.get(2)));
+        assertEquals(1, applier.chunksReused());
+        verify(storageService, never()).readChunk(eq(sourceHashes.get(1)), any());
+    }
+
+    @Test
+    void testRunCutShortByInsertIsWrittenAsBytes() {
+        byte[] literal = randomBytes(500, 2);
+        DeltaSyncService.DeltaApplier applier = deltaSyncService.beginDelta(FILE_ID, key);
+        applier.copy(3, 2);
+        applier.insert(literal, 0, literal.length);
+        applier.copy(5, 1);
+        ChunkManifest result = applier.finish();
+
+        byte[] expected = concat(
+                Arrays.copyOfRange(source, CHUNK_LENGTHS[0], CHUNK_LENGTHS[0] + 2 * BLOCK),
+                literal,
+                Arrays.copyOfRange(source, CHUNK_LENGTHS[0] + 2 * BLOCK, CHUNK_LENGTHS[0] + CHUNK_LENGTHS[1]));
+        assertArrayEquals(expected, content(result));
+        assertEquals(0, applier.chunksReused());
+    }
+
+    @Test
+    void testShortTailBlock() {
+        // Block 5 is only 100 bytes; copying it alone or as the end of its chunk must not over-read
+        DeltaSyncService.DeltaApplier applier = deltaSyncService.beginDelta(FILE_ID, key);
+        applier.copy(5, 1);
+        applier.copy(3, 3);
+        ChunkManifest result = applier.finish();
+
+        int chunk1 = CHUNK_LENGTHS[0];
+        byte[] expected = concat(
+                Arrays.copyOfRange(source, chunk1 + 2 * BLOCK, chunk1 + CHUNK_LENGTHS[1]),
+                Arrays.copyOfRange(source, chunk1, chunk1 + CHUNK_LENGTHS[1]));
+        assertArrayEquals(expected, content(result));
+        assertEquals(100 + CHUNK_LENGTHS[1], result.totalSize());
+        assertEquals(sourceHashes.get(1), result.hash(result.chunkCount() - 1));
+    }
+
+    @Test
+    void testLiteralFlushDoesNotDependOnBuffering() {
+        byte[] literal = randomBytes(100 * 1024, 3);
+
+        DeltaSyncService.DeltaApplier whole = deltaSyncService.beginDelta(FILE_ID, key);
+        whole.insert(literal, 0, literal.length);
+        ChunkManifest oneWrite = whole.finish();
+
+        DeltaSyncService.DeltaApplier pieces = deltaSyncService.beginDelta(FILE_ID, key);
+        for (int offset = 0; offset < literal.length; offset += 777) {
+            int length = Math.min(777, literal.length - offset);
+            if (offset % 2 == 0) {
+                pieces.insert(literal, offset, length);
+            } else {
+                pieces.insert(ByteBuffer.wrap(literal, offset, length));
+            }
+        }
+        ChunkManifest manyWrites = pieces.finish();
+
+        assertArrayEquals(literal, content(oneWrite));
+        assertEquals(oneWrite.hashes(), manyWrites.hashes());
+        assertTrue(oneWrite.chunkCount() > 2, "expected the literal to be cut into several chunks");
+        for (int c = 0; c < oneWrite.chunkCount(); c++) {
+            assertTrue(oneWrite.length(c) <= 16 * 1024);
+        }
+    }
+
+    @Test
+    void testReuseIsLimitedToTheSourceFile() {
+        DeltaSyncService.DeltaApplier applier = deltaSyncService.beginDelta(FILE_ID, key);
+
+        // Blocks outside the (owner-checked) source file are rejected, not looked up
+        assertThrows(IllegalArgumentException.class, () -> applier.copy(8, 1));
+        assertThrows(IllegalArgumentException.class, () -> applier.copy(-1, 1));
+        assertThrows(IllegalArgumentException.class, () -> applier.copy(6, 3));
+
+        applier.copy(0, 3);
+        applier.copy(6, 2);
+        ChunkManifest result = applier.finish();
+
+        assertEquals(List.of(sourceHashes.get(0), sourceHashes.get(2)), result.hashes());
+        assertTrue(sourceHashes.containsAll(result.hashes()));
+    }
+
+    // ==================== HELPERS ====================
+
+    private byte[] content(ChunkManifest manifest) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String hash : manifest.hashes()) {
+            out.writeBytes(stored.get(hash));
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,173 @@
+package com.minidrive.service;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import static com.minidrive.TestFixtures.key;
+import static com.minidrive.TestFixtures.randomBytes;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentedChunkCipherTest {
+
+    private static final int SEGMENT = 1 << SegmentedChunkCipher.DEFAULT_SEGMENT_SHIFT;
+    private static final int TAG = 16;
+    private static final int HEADER = ChunkHeader.ENCRYPTED_LENGTH;
+
+    private final SecretKey key = key(1);
+
+    @Test
+    void testRoundTrip() throws IOException {
+        byte[] plaintext = randomBytes(3 * SEGMENT + 12345, 1);
+        byte[] sealed = encrypt(plaintext);
+
+        assertEquals(SegmentedChunkCipher.ciphertextLength(plaintext.length), sealed.length);
+        assertArrayEquals(plaintext, decrypt(sealed, key).readAllBytes());
+    }
+
+    @Test
+    void testEmptyInput() throws IOException {
+        byte[] sealed = encrypt(new byte[0]);
+
+        // Still one (empty, authenticated) segment, so an empty chunk can't be forged by truncation
+        assertEquals(HEADER + TAG, sealed.length);
+        assertEquals(SegmentedChunkCipher.ciphertextLength(0), sealed.length);
+        assertEquals(0, decrypt(sealed, key).readAllBytes().length);
+        assertThrows(IOException.class, () -> decrypt(Arrays.copyOf(sealed, HEADER), key).readAllBytes());
+    }
+
+    @Test
+    void testExactMultipleOfSegmentSize() throws IOException {
+        byte[] plaintext = randomBytes(2 * SEGMENT, 2);
+        byte[] sealed = encrypt(plaintext);
+
+        // No trailing empty segment: the second full segment carries the last flag
+        assertEquals(HEADER + 2 * (SEGMENT + TAG), sealed.length);
+        assertEquals(SegmentedChunkCipher.ciphertextLength(plaintext.length), sealed.length);
+        assertArrayEquals(plaintext, decrypt(sealed, key).readAllBytes());
+    }
+
+    @Test
+    void testTruncationAtSegmentBoundaryIsRejected() {
+        byte[] sealed = encrypt(randomBytes(3 * SEGMENT, 3));
+        byte[] truncated = Arrays.copyOf(sealed, HEADER + 2 * (SEGMENT + TAG));
+
+        assertThrows(IOException.class, () -> decrypt(truncated, key).readAllBytes());
+    }
+
+    @Test
+    void testTruncationInsideSegmentIsRejected() {
+        byte[] sealed = encrypt(randomBytes(2 * SEGMENT + 500, 4));
+        byte[] truncated = Arrays.copyOf(sealed, sealed.length - 100);
+
+        assertThrows(IOException.class, () -> decrypt(truncated, key).readAllBytes());
+    }
+
+    @Test
+    void testReorderedSegmentsAreRejected() {
+        byte[] sealed = encrypt(randomBytes(3 * SEGMENT, 5));
+        byte[] swapped = sealed.clone();
+        int sealedSegment = SEGMENT + TAG;
+        System.arraycopy(sealed, HEADER, swapped, HEADER + sealedSegment, sealedSegment);
+        System.arraycopy(sealed, HEADER + sealedSegment, swapped, HEADER, sealedSegment);
+
+        assertThrows(IOException.class, () -> decrypt(swapped, key).readAllBytes());
+    }
+
+    @Test
+    void testTamperedHeaderIsRejected() {
+        byte[] sealed = encrypt(randomBytes(1000, 6));
+        sealed[HEADER - 2] ^= 1; // nonce prefix: authenticated as AAD
+
+        assertThrows(IOException.class, () -> decrypt(sealed, key).readAllBytes());
+    }
+
+    @Test
+    void testWrongKeyIsRejected() {
+        byte[] sealed = encrypt(randomBytes(1000, 7));
+
+        assertThrows(IOException.class, () -> decrypt(sealed, key(2)));
+    }
+
+    @Test
+    void testSkipIntoMiddleSegment() throws IOException {
+        byte[] plaintext = randomBytes(4 * SEGMENT + 77, 8);
+        byte[] sealed = encrypt(plaintext);
+        long offset = 2L * SEGMENT + 1234;
+
+        try (InputStream in = decrypt(sealed, key)) {
+            assertEquals(offset, in.skip(offset));
+            byte[] rest = in.readAllBytes();
+            assertArrayEquals(Arrays.copyOfRange(plaintext, (int) offset, plaintext.length), rest);
+        }
+    }
+
+    @Test
+    void testSkipAfterPartialRead() throws IOException {
+        byte[] plaintext = randomBytes(3 * SEGMENT, 9);
+        byte[] sealed = encrypt(plaintext);
+
+        try (InputStream in = decrypt(sealed, key)) {
+            in.readNBytes(100);
+            assertEquals(SEGMENT, in.skip(SEGMENT));
+            assertArrayEquals(Arrays.copyOfRange(plaintext, SEGMENT + 100, SEGMENT + 200), in.readNBytes(100));
+        }
+    }
+
+    @Test
+    void testSkipToExactEnd() throws IOException {
+        byte[] plaintext = randomBytes(2 * SEGMENT, 10);
+        byte[] sealed = encrypt(plaintext);
+
+        try (InputStream in = decrypt(sealed, key)) {
+            assertEquals(plaintext.length, in.skip(plaintext.length));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void testSkipPastEndIsRejected() throws IOException {
+        byte[] sealed = encrypt(randomBytes(2 * SEGMENT + 10, 11));
+
+        try (InputStream in = decrypt(sealed, key)) {
+            assertThrows(IOException.class, () -> in.skip(10L * SEGMENT));
+        }
+    }
+
+    @Test
+    void testTruncationInsideSkippedRegionIsRejected() throws IOException {
+        byte[] sealed = encrypt(randomBytes(4 * SEGMENT, 12));
+        // Cut after the first and after the second of four segments
+        for (int segments : new int[] {1, 2}) {
+            byte[] truncated = Arrays.copyOf(sealed, HEADER + segments * (SEGMENT + TAG));
+
+            try (InputStream in = decrypt(truncated, key)) {
+                assertThrows(IOException.class, () -> {
+                    in.skip(2L * SEGMENT + 10);
+                    in.read();
+                }, segments + " segments");
+            }
+        }
+    }
+
+    // ==================== HELPERS ====================
+
+    private byte[] encrypt(byte[] plaintext) {
+        try (InputStream in = SegmentedChunkCipher.encrypting(new ByteArrayInputStream(plaintext), key, new SecureRandom())) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static InputStream decrypt(byte[] sealed, SecretKey dek) throws IOException {
+        byte[] header = Arrays.copyOf(sealed, HEADER);
+        return SegmentedChunkCipher.decrypting(
+                new ByteArrayInputStream(sealed, HEADER, sealed.length - HEADER), header, dek);
+    }
+}
@@ -0,0 +1,373 @@
+package com.minidrive.service;
+
+import com.minidrive.chunking.ChunkDigest;
+import com.minidrive.repository.FileRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Runs against an in-memory stand-in for the Redis commands the service uses.
+ * The register script is applied by the stand-in with Redis semantics (SETBIT
+ * numbers bits from the most significant bit of each byte), so bitmap decoding
+ * is checked against the layout Redis actually produces.
+ */
+class UploadStateServiceTest {
+
+    private static final String UPLOAD = "u1";
+    private static final String META = "upload:{u1}:meta";
+    private static final String BITS = "upload:{u1}:bits";
+    private static final String HASHES = "upload:{u1}:hashes";
+
+    private final Map<String, byte[]> strings = new HashMap<>();
+    private final Map<String, Map<String, byte[]>> hashes = new HashMap<>();
+    private final List<Object[]> scriptCalls = new ArrayList<>();
+    private List<Object> pipeline;
+
+    private ChunkIndexService chunkIndexService;
+    private FileRepository fileRepository;
+    private UploadStateService service;
+
+    @BeforeEach
+    void setUp() {
+        chunkIndexService = mock(ChunkIndexService.class);
+        fileRepository = mock(FileRepository.class);
+        service = new UploadStateService();
+        ReflectionTestUtils.setField(service, "redisTemplate", mock(RedisTemplate.class, this::redis));
+        ReflectionTestUtils.setField(service, "chunkIndexService", chunkIndexService);
+        ReflectionTestUtils.setField(service, "fileRepository", fileRepository);
+    }
+
+    @Test
+    void testToBitSetUsesRedisBitOrder() {
+        // SETBIT key 0 1 sets 0x80 of byte 0; SETBIT key 15 1 sets 0x01 of byte 1
+        assertEquals(bits(0, 15), UploadStateService.toBitSet(new byte[]{(byte) 0x80, 0x01}));
+        assertEquals(bits(1, 8), UploadStateService.toBitSet(new byte[]{0x40, (byte) 0x80}));
+        assertEquals(new BitSet(), UploadStateService.toBitSet(null));
+    }
+
+    @Test
+    void testRegisterScriptContract() {
+        service.initSession(UPLOAD, "a.bin", 100, "root", "alice", ChunkDigest.SHA256, 10);
+        service.registerChunks(UPLOAD, Map.of(0, hash(0), 9, hash(9)));
+
+        Object[] call = scriptCalls.get(0);
+        // One slot per session: every key carries the {id} hash tag, in the order the script indexes them
+        assertEquals(List.of(META, BITS, HASHES), call[1]);
+        List<String> argv = new ArrayList<>();
+        for (int i = 2; i < call.length; i += 2) {
+            argv.add(new String((byte[]) call[i], StandardCharsets.UTF_8) + "=" + HexFormat.of().formatHex((byte[]) call[i + 1]));
+        }
+        assertEquals(Set.of("0=" + hash(0), "9=" + hash(9)), Set.copyOf(argv));
+
+        String script = ((RedisScript<?>) call[0]).getScriptAsString();
+        assertTrue(script.contains("'SETRANGE', KEYS[3], index * 32, ARGV[i + 1]"));
+        assertTrue(script.contains("'SETBIT', KEYS[2], index, 1"));
+        assertTrue(script.contains("'HINCRBY', KEYS[1], 'received', added"));
+
+        assertArrayEquals(new byte[]{(byte) 0x80, 0x40}, strings.get(BITS));
+        assertEquals(10 * 32, strings.get(HASHES).length);
+        assertEquals(bits(0, 9), service.getReceivedChunks(UPLOAD));
+        assertEquals(2, service.getUploadedChunkCount(UPLOAD));
+
+        // Re-registering a chunk (client retry) does not count it twice
+        service.registerChunk(UPLOAD, 9, hash(9));
+        assertEquals(2, service.getUploadedChunkCount(UPLOAD));
+    }
+
+    @Test
+    void testRegisterRejectsBadInputBeforeCallingRedis() {
+        service.initSession(UPLOAD, "a.bin", 100, "root", "alice");
+
+        assertThrows(IllegalArgumentException.class, () -> service.registerChunk(UPLOAD, -1, hash(0)));
+        assertThrows(IllegalArgumentException.class, () -> service.registerChunk(UPLOAD, 1 << 20, hash(0)));
+        assertThrows(IllegalArgumentException.class, () -> service.registerChunk(UPLOAD, 0, "abcd"));
+        assertTrue(scriptCalls.isEmpty());
+    }
+
+    @Test
+    void testRegisterForExpiredSessionCreatesNothing() {
+        service.registerChunk(UPLOAD, 0, hash(0));
+
+        assertFalse(strings.containsKey(BITS));
+        assertFalse(service.sessionExists(UPLOAD));
+    }
+
+    @Test
+    void testChunkHashesCoverTheDeclaredTail() {
+        service.initSession(UPLOAD, "a.bin", 400, "root", "alice", ChunkDigest.SHA256, 4);
+        service.registerChunks(UPLOAD, Map.of(0, hash(0), 1, hash(1)));
+
+        assertEquals(Arrays.asList(hash(0), hash(1), null, null), service.getChunkHashes(UPLOAD));
+        assertEquals(4, service.getMetadata(UPLOAD).chunkCount());
+    }
+
+    @Test
+    void testChunkHashesOfUndeclaredSession() {
+        service.initSession(UPLOAD, "a.bin", 0, "root", "alice");
+
+        assertEquals(List.of(), service.getChunkHashes(UPLOAD));
+        assertEquals(0, service.getMetadata(UPLOAD).chunkCount());
+        assertNull(service.getChunkHashes("missing"));
+    }
+
+    @Test
+    void testNegotiateReportsMissingTailFromDeclaredCount() {
+        service.initSession(UPLOAD, "a.bin", 500, "root", "alice", ChunkDigest.SHA256, 5);
+        service.registerChunks(UPLOAD, Map.of(0, hash(0), 2, hash(2)));
+
+        UploadStateService.UploadProgress progress = service.negotiate(UPLOAD, null, 0);
+
+        assertEquals(5, progress.chunkCount());
+        assertEquals(2, progress.receivedCount());
+        assertEquals(List.of(new UploadStateService.ChunkRange(1, 2), new UploadStateService.ChunkRange(3, 5)),
+                progress.missing());
+    }
+
+    @Test
+    void testNegotiateRegistersChunksTheServerAlreadyStores() {
+        service.initSession(UPLOAD, "a.bin", 300, "root", "alice", ChunkDigest.SHA256, 3);
+        service.registerChunk(UPLOAD, 0, hash(0));
+        when(chunkIndexService.findExisting(anyCollection())).thenReturn(Set.of(hash(1)));
+
+        UploadStateService.UploadProgress progress = service.negotiate(UPLOAD, List.of(hash(0), hash(1), hash(2)), 3);
+
+        assertEquals(List.of(new UploadStateService.ChunkRange(2, 3)), progress.missing());
+        assertEquals(2, progress.receivedCount());
+        assertEquals(Arrays.asList(hash(0), hash(1), null), service.getChunkHashes(UPLOAD));
+        // Only chunks the session has not received are looked up
+        verify(chunkIndexService).findExisting(List.of(hash(1), hash(2)));
+    }
+
+    @Test
+    void testNegotiateRejectsCountThatContradictsTheSession() {
+        service.initSession(UPLOAD, "a.bin", 300, "root", "alice", ChunkDigest.SHA256, 3);
+
+        assertThrows(IllegalArgumentException.class, () -> service.negotiate(UPLOAD, List.of(hash(0), hash(1)), 2));
+        assertThrows(IllegalArgumentException.class, () -> service.negotiate(UPLOAD, List.of(), 0));
+        assertThrows(IllegalArgumentException.class, () -> service.negotiate(UPLOAD, null, 4));
+        assertEquals(3, service.negotiate(UPLOAD, null, 3).chunkCount());
+        verifyNoInteractions(chunkIndexService);
+    }
+
+    @Test
+    void testFirstNegotiationDeclaresTheCount() {
+        service.initSession(UPLOAD, "a.bin", 300, "root", "alice");
+        service.registerChunk(UPLOAD, 0, hash(0));
+
+        assertEquals(List.of(new UploadStateService.ChunkRange(1, 3)), service.negotiate(UPLOAD, null, 3).missing());
+        assertEquals(3, service.getMetadata(UPLOAD).chunkCount());
+
+        // Later status calls without a count still see the never-registered tail
+        UploadStateService.UploadProgress progress = service.negotiate(UPLOAD, null, 0);
+        assertEquals(3, progress.chunkCount());
+        assertEquals(List.of(new UploadStateService.ChunkRange(1, 3)), progress.missing());
+        assertEquals(Arrays.asList(hash(0), null, null), service.getChunkHashes(UPLOAD));
+
+        assertThrows(IllegalArgumentException.class, () -> service.negotiate(UPLOAD, null, 5));
+    }
+
+    @Test
+    void testChunkIndexBeyondDeclaredCountIsRejected() {
+        UploadStateService.UploadMetadata declared =
+                new UploadStateService.UploadMetadata("a.bin", 300, "root", "alice", ChunkDigest.SHA256, 3);
+        UploadStateService.UploadMetadata undeclared =
+                new UploadStateService.UploadMetadata("a.bin", 300, "root", "alice", ChunkDigest.SHA256, 0);
+
+        service.checkChunkIndex(declared, 2);
+        service.checkChunkIndex(undeclared, 7);
+        assertThrows(IllegalArgumentException.class, () -> service.checkChunkIndex(declared, 3));
+    }
+
+    @Test
+    void testIncompleteReason() {
+        UploadStateService.UploadMetadata meta =
+                new UploadStateService.UploadMetadata("a.bin", 300, "root", "alice", ChunkDigest.SHA256, 3);
+        when(fileRepository.findChunkSizes(anyCollection())).thenAnswer(i -> {
+            Map<String, Integer> sizes = new HashMap<>();
+            for (String hash : i.<Collection<String>>getArgument(0)) sizes.put(hash, 100);
+            return sizes;
+        });
+
+        assertNull(service.incompleteReason(meta, List.of(hash(0), hash(1), hash(2))));
+        assertEquals("Missing chunk #1", service.incompleteReason(meta, Arrays.asList(hash(0), null, hash(2))));
+        assertNotNull(service.incompleteReason(meta, List.of(hash(0), hash(1), hash(2), hash(3))));
+
+        UploadStateService.UploadMetadata larger =
+                new UploadStateService.UploadMetadata("a.bin", 400, "root", "alice", ChunkDigest.SHA256, 3);
+        assertNotNull(service.incompleteReason(larger, List.of(hash(0), hash(1), hash(2))));
+
+        // Chunks without a recorded size can't be summed: count checks only
+        when(fileRepository.findChunkSizes(anyCollection())).thenReturn(Map.of(hash(0), 100));
+        assertNull(service.incompleteReason(larger, List.of(hash(0), hash(1), hash(2))));
+
+        UploadStateService.UploadMetadata undeclared =
+                new UploadStateService.UploadMetadata("a.bin", 300, "root", "alice", ChunkDigest.SHA256, 0);
+        assertNotNull(service.incompleteReason(undeclared, List.of()));
+    }
+
+    // ==================== HELPERS ====================
+
+    private static String hash(int seed) {
+        byte[] bytes = new byte[32];
+        Arrays.fill(bytes, (byte) (seed + 1));
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    private static BitSet bits(int... indices) {
+        BitSet bits = new BitSet();
+        for (int index : indices) bits.set(index);
+        return bits;
+    }
+
+    /**
+     * Default answer of the RedisTemplate mock: the handful of commands the
+     * service issues, against the maps above. Inside executePipelined, replies
+     * are collected instead of returned, like a real pipeline.
+     */
+    @SuppressWarnings("unchecked")
+    private Object redis(InvocationOnMock invocation) throws Throwable {
+        Object[] args = invocation.getArguments();
+        Object reply;
+        switch (invocation.getMethod().getName()) {
+            case "opsForHash" -> {
+                return mock(HashOperations.class, this::hashOps);
+            }
+            case "opsForValue" -> {
+                return mock(ValueOperations.class, this::valueOps);
+            }
+            case "executePipelined" -> {
+                pipeline = new ArrayList<>();
+                try {
+                    ((SessionCallback<Object>) args[0]).execute((RedisTemplate<Object, Object>) invocation.getMock());
+                    return pipeline;
+                } finally {
+                    pipeline = null;
+                }
+            }
+            case "execute" -> {
+                Object[] call = flatten(args);
+                scriptCalls.add(call);
+                if (args[0] == ReflectionTestUtils.getField(UploadStateService.class, "DECLARE_CHUNK_COUNT")) {
+                    return declare((List<String>) args[1], (byte[]) call[2]);
+                }
+                return register((List<String>) args[1], Arrays.copyOfRange(call, 2, call.length));
+            }
+            case "hasKey" -> reply = hashes.containsKey(args[0]) || strings.containsKey(args[0]);
+            case "expire" -> reply = true;
+            case "delete" -> {
+                for (Object key : (Collection<?>) args[0]) {
+                    hashes.remove(key);
+                    strings.remove(key);
+                }
+                reply = 3L;
+            }
+            default -> {
+                return RETURNS_DEFAULTS.answer(invocation); // toString() and the like
+            }
+        }
+        return reply(reply);
+    }
+
+    private Object hashOps(InvocationOnMock invocation) throws Throwable {
+        Object[] args = invocation.getArguments();
+        Map<String, byte[]> hash = hashes.get((String) args[0]);
+        return switch (invocation.getMethod().getName()) {
+            case "entries" -> reply(hash != null ? new HashMap<>(hash) : new HashMap<>());
+            case "get" -> reply(hash != null ? hash.get((String) args[1]) : null);
+            case "putAll" -> {
+                @SuppressWarnings("unchecked")
+                Map<String, byte[]> fields = (Map<String, byte[]>) args[1];
+                hashes.computeIfAbsent((String) args[0], k -> new HashMap<>()).putAll(fields);
+                yield null;
+            }
+            default -> RETURNS_DEFAULTS.answer(invocation);
+        };
+    }
+
+    private Object valueOps(InvocationOnMock invocation) throws Throwable {
+        if (!invocation.getMethod().getName().equals("get")) {
+            return RETURNS_DEFAULTS.answer(invocation);
+        }
+        byte[] value = strings.get((String) invocation.getArgument(0));
+        return reply(value != null ? value.clone() : null);
+    }
+
+    private Object reply(Object value) {
+        if (pipeline == null) return value;
+        pipeline.add(value);
+        return null;
+    }
+
+    /**
+     * The register script, command by command: SETRANGE the raw hash at index * 32,
+     * SETBIT the index (MSB-first within each byte), HINCRBY 'received' by the new bits.
+     */
+    private Long register(List<String> keys, Object[] argv) {
+        Map<String, byte[]> meta = hashes.get(keys.get(0));
+        if (meta == null) return -1L;
+        long added = 0;
+        for (int i = 0; i < argv.length; i += 2) {
+            int index = Integer.parseInt(new String((byte[]) argv[i], StandardCharsets.UTF_8));
+            byte[] hash = (byte[]) argv[i + 1];
+
+            byte[] packed = strings.getOrDefault(keys.get(2), new byte[0]);
+            packed = Arrays.copyOf(packed, Math.max(packed.length, index * 32 + hash.length));
+            System.arraycopy(hash, 0, packed, index * 32, hash.length);
+            strings.put(keys.get(2), packed);
+
+            byte[] bitmap = strings.getOrDefault(keys.get(1), new byte[0]);
+            bitmap = Arrays.copyOf(bitmap, Math.max(bitmap.length, index / 8 + 1));
+            int mask = 0x80 >>> (index % 8);
+            if ((bitmap[index / 8] & mask) == 0) added++;
+            bitmap[index / 8] |= (byte) mask;
+            strings.put(keys.get(1), bitmap);
+        }
+        long received = Long.parseLong(new String(meta.getOrDefault("received", "0".getBytes()), StandardCharsets.UTF_8));
+        meta.put("received", Long.toString(received + added).getBytes(StandardCharsets.UTF_8));
+        return added;
+    }
+
+    /**
+     * The declare script: HSETNX 'chunkCount', then HGET it back
+     */
+    private Long declare(List<String> keys, byte[] chunkCount) {
+        Map<String, byte[]> meta = hashes.get(keys.get(0));
+        if (meta == null) return -1L;
+        meta.putIfAbsent("chunkCount", chunkCount);
+        return Long.parseLong(new String(meta.get("chunkCount"), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Script arguments as passed: script, keys, then each ARGV element (varargs expanded)
+     */
+    private static Object[] flatten(Object[] args) {
+        if (args.length == 3 && args[2] instanceof Object[] varargs) {
+            Object[] flat = Arrays.copyOf(args, 2 + varargs.length);
+            System.arraycopy(varargs, 0, flat, 2, varargs.length);
+            return flat;
+        }
+        return args;
+    }
+}
@@ -0,0 +1,121 @@
+package com.minidrive.service;
+
+import com.minidrive.auth.AuthService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static com.minidrive.TestFixtures.key;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class UserKeyCacheTest {
+
+    private static final String USER = "alice";
+    private static final String WRAPPED = "wrapped-key";
+
+    private AuthService authService;
+    private EncryptionService encryptionService;
+    private UserKeyCache cache;
+
+    @BeforeEach
+    void setUp() {
+        authService = mock(AuthService.class);
+        encryptionService = mock(EncryptionService.class);
+        cache = new UserKeyCache();
+        ReflectionTestUtils.setField(cache, "authService", authService);
+        ReflectionTestUtils.setField(cache, "encryptionService", encryptionService);
+        ReflectionTestUtils.setField(cache, "maxEntries", 100);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 600L);
+    }
+
+    @Test
+    void testHitDoesNotReload() {
+        when(authService.getUserEncryptionKey(USER)).thenReturn(WRAPPED);
+        when(encryptionService.decryptUserKey(WRAPPED)).thenReturn(key(1));
+
+        assertArrayEquals(key(1).getEncoded(), cache.getKey(USER).getEncoded());
+        assertArrayEquals(key(1).getEncoded(), cache.getKey(USER).getEncoded());
+
+        verify(authService, times(1)).getUserEncryptionKey(USER);
+        assertEquals(1L, cache.getStats().get("hits"));
+    }
+
+    @Test
+    void testUserWithoutKeyIsNotCached() {
+        // Another node generates the key (login) between the two calls
+        when(authService.getUserEncryptionKey(USER)).thenReturn(null).thenReturn(WRAPPED);
+        when(encryptionService.decryptUserKey(WRAPPED)).thenReturn(key(1));
+
+        assertNull(cache.getKey(USER));
+        assertEquals(0, cache.getStats().get("entries"));
+        assertArrayEquals(key(1).getEncoded(), cache.getKey(USER).getEncoded(),
+                "cached 'no key' would store uploads unencrypted");
+
+        verify(authService, times(2)).getUserEncryptionKey(USER);
+    }
+
+    @Test
+    void testLookupFailureThrowsAndIsNotCached() {
+        when(authService.getUserEncryptionKey(USER))
+                .thenThrow(new RuntimeException("connection refused"))
+                .thenReturn(WRAPPED);
+        when(encryptionService.decryptUserKey(WRAPPED)).thenReturn(key(1));
+
+        assertThrows(IllegalStateException.class, () -> cache.getKey(USER));
+        assertNotNull(cache.getKey(USER), "failed lookup must not be cached as 'no key'");
+        verify(authService, times(2)).getUserEncryptionKey(USER);
+    }
+
+    @Test
+    void testUnwrapFailureThrowsAndIsNotCached() {
+        when(authService.getUserEncryptionKey(USER)).thenReturn(WRAPPED);
+        when(encryptionService.decryptUserKey(WRAPPED))
+                .thenThrow(new RuntimeException("Failed to decrypt user key"))
+                .thenReturn(key(1));
+
+        assertThrows(IllegalStateException.class, () -> cache.getKey(USER));
+        assertNotNull(cache.getKey(USER));
+        verify(encryptionService, times(2)).decryptUserKey(WRAPPED);
+    }
+
+    @Test
+    void testInvalidateDropsEntry() {
+        when(authService.getUserEncryptionKey(USER)).thenReturn(null).thenReturn(WRAPPED);
+        when(encryptionService.decryptUserKey(WRAPPED)).thenReturn(key(2));
+
+        assertNull(cache.getKey(USER));
+        cache.invalidate(USER);
+
+        assertArrayEquals(key(2).getEncoded(), cache.getKey(USER).getEncoded());
+        verify(authService, times(2)).getUserEncryptionKey(USER);
+    }
+
+    @Test
+    void testInvalidateDuringLoadIsNotLost() {
+        // The first read races with a key being generated: it sees the old (absent) key
+        when(authService.getUserEncryptionKey(USER))
+                .thenAnswer(i -> {
+                    cache.invalidate(USER);
+                    return null;
+                })
+                .thenReturn(WRAPPED);
+        when(encryptionService.decryptUserKey(WRAPPED)).thenReturn(key(3));
+
+        assertArrayEquals(key(3).getEncoded(), cache.getKey(USER).getEncoded());
+        assertArrayEquals(key(3).getEncoded(), cache.getKey(USER).getEncoded());
+        verify(authService, times(2)).getUserEncryptionKey(USER);
+    }
+
+    @Test
+    void testExpiredEntryIsReloaded() {
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 0L);
+        when(authService.getUserEncryptionKey(USER)).thenReturn(WRAPPED);
+        when(encryptionService.decryptUserKey(WRAPPED)).thenReturn(key(1));
+
+        cache.getKey(USER);
+        cache.getKey(USER);
+
+        verify(authService, times(2)).getUserEncryptionKey(USER);
+    }
+}
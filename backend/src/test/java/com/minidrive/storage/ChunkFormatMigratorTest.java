@@ -0,0 +1,108 @@
+package com.minidrive.storage;
+
+import com.minidrive.repository.FileRepository;
+import com.minidrive.service.EncryptionService;
+import com.minidrive.service.UserKeyCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static com.minidrive.TestFixtures.key;
+import static com.minidrive.TestFixtures.randomBytes;
+import static com.minidrive.TestFixtures.sha256;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class ChunkFormatMigratorTest {
+
+    private final EncryptionService encryptionService = new EncryptionService();
+    private StorageService storageService;
+    private FileRepository fileRepository;
+    private UserKeyCache userKeyCache;
+    private ChunkFormatMigrator migrator;
+
+    @BeforeEach
+    void setUp() {
+        storageService = mock(StorageService.class);
+        fileRepository = mock(FileRepository.class);
+        userKeyCache = mock(UserKeyCache.class);
+        migrator = new ChunkFormatMigrator();
+        ReflectionTestUtils.setField(migrator, "storageService", storageService);
+        ReflectionTestUtils.setField(migrator, "encryptionService", encryptionService);
+        ReflectionTestUtils.setField(migrator, "fileRepository", fileRepository);
+        ReflectionTestUtils.setField(migrator, "userKeyCache", userKeyCache);
+        ReflectionTestUtils.setField(migrator, "chunksPerSecond", 5);
+        when(userKeyCache.getKey("alice")).thenReturn(key(1));
+    }
+
+    @Test
+    void testChunkEncryptedUnderOwnersKeyIsRewrittenEncrypted() throws Exception {
+        byte[] data = randomBytes(5_000, 1);
+        String hash = sha256(data);
+        legacy(hash, encryptionService.encryptChunk(data, key(1)), "bob", "alice");
+
+        migrateBatch();
+
+        verify(storageService).rewriteChunk(hash, data, key(1));
+        verify(fileRepository).markChunkFormat(eq(hash), anyInt());
+        assertEquals(1L, migrator.getStats().get("rewrittenEncrypted"));
+    }
+
+    @Test
+    void testPlainChunkOfKeyedOwnerIsRewrittenPlain() throws Exception {
+        // Older uploads stored plain chunks for users with keys too
+        byte[] data = randomBytes(5_000, 2);
+        String hash = sha256(data);
+        legacy(hash, data, "alice");
+
+        migrateBatch();
+
+        verify(storageService).rewriteChunk(hash, data, null);
+        verify(fileRepository).markChunkFormat(eq(hash), anyInt());
+        assertEquals(1L, migrator.getStats().get("rewrittenPlain"));
+        assertEquals(0L, migrator.getStats().get("undecided"));
+    }
+
+    @Test
+    void testUnidentifiedChunkIsLeftUnmigrated() throws Exception {
+        // Another key's ciphertext: neither authenticates nor matches its hash
+        byte[] data = randomBytes(5_000, 3);
+        legacy(sha256(data), encryptionService.encryptChunk(data, key(2)), "alice");
+
+        migrateBatch();
+
+        verify(storageService, never()).rewriteChunk(anyString(), any(), any());
+        verify(fileRepository, never()).markChunkFormat(anyString(), anyInt());
+        assertEquals(1L, migrator.getStats().get("undecided"));
+    }
+
+    @Test
+    void testChunkOfOwnersWithoutKeysIsRewrittenPlain() throws Exception {
+        byte[] stored = randomBytes(5_000, 4);
+        legacy("not-its-sha256", stored, "bob");
+
+        migrateBatch();
+
+        verify(storageService).rewriteChunk("not-its-sha256", stored, null);
+        assertEquals(1L, migrator.getStats().get("rewrittenPlain"));
+    }
+
+    // ==================== HELPERS ====================
+
+    private void legacy(String hash, byte[] stored, String... owners) throws Exception {
+        when(fileRepository.findUncheckedChunks(any(), anyInt())).thenReturn(List.of(hash));
+        when(fileRepository.findChunkOwners(hash)).thenReturn(List.of(owners));
+        when(storageService.hasChunkHeader(hash)).thenReturn(false);
+        when(storageService.readStoredChunk(hash)).thenReturn(stored);
+    }
+
+    private void migrateBatch() {
+        ReflectionTestUtils.invokeMethod(migrator, "migrateBatch");
+    }
+}
@@ -0,0 +1,272 @@
+package com.minidrive.storage;
+
+import com.minidrive.repository.ChunkManifest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class ChunkStreamReaderTest {
+
+    // Chunk hash -> plaintext size the mocked storage produces
+    private final Map<String, Integer> sizes = Collections.synchronizedMap(new HashMap<>());
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private ChunkStreamReader reader;
+
+    @AfterEach
+    void tearDown() {
+        gate.countDown();
+        if (reader != null) reader.shutdown();
+    }
+
+    @Test
+    void testReservesEachChunksManifestSize() throws Exception {
+        reader = reader(10_000, 8, 1 << 20, 1 << 20);
+        ChunkManifest manifest = manifest(List.of("a", "b", "c"), List.of(100, 200, 300), true);
+
+        try (ChunkStreamReader.Prefetcher prefetcher = reader.prefetch(manifest, null, () -> { })) {
+            assertNull(prefetcher.poll());
+            assertEquals(10_000 - 600, available());
+
+            gate.countDown();
+            List<Integer> received = drain(prefetcher);
+            assertEquals(List.of(100, 200, 300), received);
+        }
+        assertEquals(10_000, available());
+    }
+
+    @Test
+    void testGlobalBudgetAdmitsChunksBySize() throws Exception {
+        reader = reader(450, 8, 1 << 20, 1 << 20);
+        ChunkManifest manifest = manifest(List.of("a", "b", "c"), List.of(100, 200, 300), true);
+
+        try (ChunkStreamReader.Prefetcher prefetcher = reader.prefetch(manifest, null, () -> { })) {
+            assertNull(prefetcher.poll());
+            // 100 + 200 fit, the 300-byte chunk waits for budget
+            assertEquals(150, available());
+
+            gate.countDown();
+            assertEquals(List.of(100, 200, 300), drain(prefetcher));
+        }
+        assertEquals(450, available());
+    }
+
+    @Test
+    void testRequestBudgetLimitsBytesInFlight() throws Exception {
+        reader = reader(10_000, 8, 300, 1 << 20);
+        List<String> hashes = List.of("a", "b", "c", "d", "e", "f");
+        ChunkManifest manifest = manifest(hashes, Collections.nCopies(hashes.size(), 100), true);
+
+        try (ChunkStreamReader.Prefetcher prefetcher = reader.prefetch(manifest, null, () -> { })) {
+            assertNull(prefetcher.poll());
+            assertEquals(10_000 - 300, available());
+
+            gate.countDown();
+            assertEquals(6, drain(prefetcher).size());
+        }
+        assertEquals(10_000, available());
+    }
+
+    @Test
+    void testUnknownSizeIsChargedExpectedThenSettled() throws Exception {
+        reader = reader(1_000, 8, 1 << 20, 100);
+        ChunkManifest manifest = manifest(List.of("a", "b"), List.of(250, 250), false);
+
+        try (ChunkStreamReader.Prefetcher prefetcher = reader.prefetch(manifest, null, () -> { })) {
+            assertNull(prefetcher.poll());
+            assertEquals(800, available());
+
+            gate.countDown();
+            awaitPrefetched(2);
+            // Both chunks turned out larger than charged: the budget holds what is really buffered
+            assertEquals(500, available());
+            assertEquals(List.of(250, 250), drain(prefetcher));
+        }
+        assertEquals(1_000, available());
+    }
+
+    @Test
+    void testChunkHoldsBudgetUntilClosed() throws Exception {
+        gate.countDown();
+        reader = reader(10_000, 1, 1 << 20, 1 << 20);
+        ChunkManifest manifest = manifest(List.of("a", "b"), List.of(100, 200), true);
+
+        try (ChunkStreamReader.Prefetcher prefetcher = reader.prefetch(manifest, null, () -> { })) {
+            ChunkStreamReader.Prefetcher.Chunk first = awaitChunk(prefetcher);
+            assertEquals(100, first.data().remaining());
+            // Out of the window but not consumed yet: still charged
+            assertEquals(10_000 - 100 - 200, available());
+
+            first.close();
+            first.close(); // idempotent
+            assertEquals(10_000 - 200, available());
+
+            // Handed out and never closed: released with the prefetcher
+            assertEquals(200, awaitChunk(prefetcher).data().remaining());
+        }
+        assertEquals(10_000, available());
+    }
+
+    @Test
+    void testPrefetcherWithoutBudgetIsCalledBackInsteadOfBlocking() throws Exception {
+        gate.countDown();
+        reader = reader(300, 8, 1 << 20, 1 << 20);
+        ChunkManifest first = manifest(List.of("a"), List.of(300), true);
+        ChunkManifest second = manifest(List.of("b"), List.of(300), true);
+
+        ChunkStreamReader.Prefetcher holder = reader.prefetch(first, null, () -> { });
+        ChunkStreamReader.Prefetcher.Chunk held = awaitChunk(holder);
+        assertEquals(0, available());
+
+        Semaphore ready = new Semaphore(0);
+        try (ChunkStreamReader.Prefetcher waiter = reader.prefetch(second, null, ready::release)) {
+            // Nothing in flight and no budget: returns at once (poll runs on I/O threads)
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> assertNull(waiter.poll()));
+            assertEquals(1L, reader.getStats().get("budgetWaits"));
+
+            held.close();
+            assertTrue(ready.tryAcquire(10, TimeUnit.SECONDS), "waiting prefetcher was not called back");
+            assertEquals(List.of(300), drain(waiter));
+        }
+        holder.close();
+        assertEquals(300, available());
+    }
+
+    @Test
+    void testClosingReleasesEverythingInFlight() throws Exception {
+        reader = reader(10_000, 8, 1 << 20, 1 << 20);
+        ChunkManifest manifest = manifest(List.of("a", "b", "c"), List.of(100, 200, 300), true);
+
+        ChunkStreamReader.Prefetcher prefetcher = reader.prefetch(manifest, null, () -> { });
+        assertNull(prefetcher.poll());
+        prefetcher.close();
+        gate.countDown();
+        Thread.sleep(50); // late completions must not charge the budget again
+
+        assertEquals(10_000, available());
+    }
+
+    @Test
+    void testCopyToKeepsOrderAndRestoresBudget() throws Exception {
+        gate.countDown();
+        reader = reader(1_000, 4, 600, 1 << 20);
+        List<String> hashes = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            hashes.add(Character.toString('a' + i));
+            lengths.add(50 + 13 * i);
+        }
+        hashes.add("z");
+        lengths.add(5_000); // larger than the whole global budget
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = reader.copyTo(manifest(hashes, lengths, true), null, out);
+
+        assertEquals(lengths.stream().mapToLong(Integer::longValue).sum(), written);
+        byte[] bytes = out.toByteArray();
+        int position = 0;
+        for (int i = 0; i < hashes.size(); i++) {
+            for (int j = 0; j < lengths.get(i); j++) {
+                assertEquals(hashes.get(i).charAt(0), (char) bytes[position++]);
+            }
+        }
+        assertEquals(1_000, available());
+    }
+
+    // ==================== HELPERS ====================
+
+    private ChunkStreamReader reader(int globalBudget, int readAhead, long requestBudget, int expectedChunk) throws Exception {
+        ChunkStreamReader reader = new ChunkStreamReader();
+        ReflectionTestUtils.setField(reader, "storageService", storage());
+        ReflectionTestUtils.setField(reader, "readAhead", readAhead);
+        ReflectionTestUtils.setField(reader, "ioThreads", 4);
+        ReflectionTestUtils.setField(reader, "expectedChunkBytes", expectedChunk);
+        ReflectionTestUtils.setField(reader, "requestBudgetBytes", requestBudget);
+        ReflectionTestUtils.setField(reader, "globalBudgetBytes", globalBudget);
+        reader.init();
+        return reader;
+    }
+
+    // Writes sizes.get(hash) copies of the hash's first character once the gate opens
+    private StorageService storage() throws Exception {
+        StorageService storage = mock(StorageService.class);
+        when(storage.transferChunk(anyString(), any(), any(OutputStream.class))).thenAnswer(invocation -> {
+            String hash = invocation.getArgument(0);
+            OutputStream out = invocation.getArgument(2);
+            return write(hash, out);
+        });
+        return storage;
+    }
+
+    private long write(String hash, OutputStream out) throws Exception {
+        assertTrue(gate.await(10, TimeUnit.SECONDS));
+        int size = sizes.get(hash);
+        byte[] data = new byte[size];
+        java.util.Arrays.fill(data, (byte) hash.charAt(0));
+        out.write(data);
+        return size;
+    }
+
+    private ChunkManifest manifest(List<String> hashes, List<Integer> lengths, boolean recorded) {
+        List<Integer> manifestLengths = new ArrayList<>();
+        for (int i = 0; i < hashes.size(); i++) {
+            sizes.put(hashes.get(i), lengths.get(i));
+            manifestLengths.add(recorded ? lengths.get(i) : null);
+        }
+        return ChunkManifest.of(hashes, manifestLengths, Collections.nCopies(hashes.size(), null));
+    }
+
+    private static List<Integer> drain(ChunkStreamReader.Prefetcher prefetcher) throws Exception {
+        List<Integer> received = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!prefetcher.isDone()) {
+            ChunkStreamReader.Prefetcher.Chunk chunk = prefetcher.poll();
+            if (chunk != null) {
+                received.add(chunk.data().remaining());
+                chunk.close();
+            } else {
+                assertTrue(System.nanoTime() < deadline, "prefetcher stalled");
+                Thread.sleep(1);
+            }
+        }
+        return received;
+    }
+
+    private static ChunkStreamReader.Prefetcher.Chunk awaitChunk(ChunkStreamReader.Prefetcher prefetcher) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        ChunkStreamReader.Prefetcher.Chunk chunk;
+        while ((chunk = prefetcher.poll()) == null) {
+            assertTrue(System.nanoTime() < deadline, "prefetcher stalled");
+            Thread.sleep(1);
+        }
+        return chunk;
+    }
+
+    private void awaitPrefetched(long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (((Number) reader.getStats().get("prefetchedChunks")).longValue() < count) {
+            assertTrue(System.nanoTime() < deadline, "fetches did not complete");
+            Thread.sleep(1);
+        }
+    }
+
+    private int available() {
+        return ((Number) reader.getStats().get("availableBudgetBytes")).intValue();
+    }
+}
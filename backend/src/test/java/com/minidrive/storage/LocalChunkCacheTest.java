@@ -0,0 +1,178 @@
+package com.minidrive.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.minidrive.TestFixtures.randomBytes;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalChunkCacheTest {
+
+    private static final int CHUNK = 1000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testMissFillsAndHitServesCachedCopy() throws IOException {
+        LocalChunkCache cache = cache(10 * CHUNK);
+        byte[] data = randomBytes(CHUNK, 1);
+        AtomicInteger fetches = new AtomicInteger();
+
+        assertNull(cache.open("a1"));
+        try (InputStream in = cache.openFilling("a1", () -> {
+            fetches.incrementAndGet();
+            return new ByteArrayInputStream(data);
+        })) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+
+        try (InputStream hit = cache.open("a1")) {
+            assertNotNull(hit);
+            assertArrayEquals(data, hit.readAllBytes());
+        }
+        assertEquals(1, fetches.get());
+        Map<String, Object> stats = cache.getStats();
+        assertEquals(1L, stats.get("hits"));
+        assertEquals(1L, stats.get("misses"));
+        assertEquals((long) CHUNK, stats.get("bytes"));
+    }
+
+    @Test
+    void testFillStreamsBeforeTheObjectIsComplete() throws IOException {
+        LocalChunkCache cache = cache(10 * CHUNK);
+        byte[] data = randomBytes(CHUNK, 2);
+
+        try (InputStream in = cache.openFilling("a2", () -> new ByteArrayInputStream(data))) {
+            byte[] head = in.readNBytes(10);
+            assertArrayEquals(java.util.Arrays.copyOf(data, 10), head);
+            assertNull(cache.open("a2"), "admitted before it was read to the end");
+            in.skipNBytes(500); // skipped bytes still land in the cache file
+            in.readAllBytes();
+        }
+
+        try (InputStream hit = cache.open("a2")) {
+            assertArrayEquals(data, hit.readAllBytes());
+        }
+    }
+
+    @Test
+    void testPartialReadIsNotCached() throws IOException {
+        LocalChunkCache cache = cache(10 * CHUNK);
+
+        try (InputStream in = cache.openFilling("a3", () -> new ByteArrayInputStream(randomBytes(CHUNK, 3)))) {
+            in.readNBytes(CHUNK / 2);
+        }
+
+        assertNull(cache.open("a3"));
+        assertNoTempFiles();
+    }
+
+    @Test
+    void testEvictDuringFillDiscardsTheOldObject() throws IOException {
+        LocalChunkCache cache = cache(10 * CHUNK);
+
+        try (InputStream in = cache.openFilling("a4", () -> new ByteArrayInputStream(randomBytes(CHUNK, 4)))) {
+            in.readNBytes(CHUNK / 2);
+            cache.evict("a4"); // the object was overwritten while we were reading it
+            in.readAllBytes();
+        }
+
+        assertNull(cache.open("a4"));
+        assertNoTempFiles();
+    }
+
+    @Test
+    void testEvictDropsCachedCopy() throws IOException {
+        LocalChunkCache cache = cache(10 * CHUNK);
+        fill(cache, "a5", randomBytes(CHUNK, 5));
+
+        cache.evict("a5");
+
+        assertNull(cache.open("a5"));
+        assertFalse(Files.exists(dir.resolve("a5")));
+        assertEquals(0L, cache.getStats().get("bytes"));
+    }
+
+    @Test
+    void testLeastRecentlyUsedIsEvictedOverByteBudget() throws IOException {
+        LocalChunkCache cache = cache(3 * CHUNK);
+        fill(cache, "b1", randomBytes(CHUNK, 6));
+        fill(cache, "b2", randomBytes(CHUNK, 7));
+        fill(cache, "b3", randomBytes(CHUNK, 8));
+
+        cache.open("b1").close(); // b2 is now the least recently used
+        fill(cache, "b4", randomBytes(CHUNK, 9));
+
+        assertNull(cache.open("b2"));
+        assertNotNull(cache.open("b1"));
+        assertNotNull(cache.open("b3"));
+        assertNotNull(cache.open("b4"));
+        assertEquals((long) 3 * CHUNK, cache.getStats().get("bytes"));
+        assertEquals(1L, cache.getStats().get("evictions"));
+
+        // One large object pushes out as many entries as it needs to fit the budget
+        fill(cache, "b5", randomBytes(2 * CHUNK + CHUNK / 2, 10));
+        assertNotNull(cache.open("b5"));
+        assertEquals(4L, cache.getStats().get("evictions"));
+        assertEquals((long) 2 * CHUNK + CHUNK / 2, cache.getStats().get("bytes"));
+    }
+
+    @Test
+    void testIndexIsRebuiltOnStartup() throws IOException {
+        byte[] data = randomBytes(CHUNK, 11);
+        fill(cache(10 * CHUNK), "c1", data);
+        Files.write(dir.resolve("c2.partial.tmp"), new byte[10]);
+
+        LocalChunkCache restarted = cache(10 * CHUNK);
+
+        try (InputStream hit = restarted.open("c1")) {
+            assertArrayEquals(data, hit.readAllBytes());
+        }
+        assertNoTempFiles();
+    }
+
+    @Test
+    void testNonChunkKeysBypassTheCache() throws IOException {
+        LocalChunkCache cache = cache(10 * CHUNK);
+        byte[] data = randomBytes(CHUNK, 12);
+
+        try (InputStream in = cache.openFilling("staging/x", () -> new ByteArrayInputStream(data))) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+        assertNull(cache.open("staging/x"));
+        assertEquals(0L, cache.getStats().get("bytes"));
+    }
+
+    // ==================== HELPERS ====================
+
+    private LocalChunkCache cache(long maxBytes) {
+        LocalChunkCache cache = new LocalChunkCache();
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "cacheDir", dir.toString());
+        ReflectionTestUtils.setField(cache, "maxBytes", maxBytes);
+        cache.init();
+        return cache;
+    }
+
+    private static void fill(LocalChunkCache cache, String hash, byte[] data) throws IOException {
+        try (InputStream in = cache.openFilling(hash, () -> new ByteArrayInputStream(data))) {
+            in.readAllBytes();
+        }
+    }
+
+    private void assertNoTempFiles() throws IOException {
+        try (var files = Files.list(dir)) {
+            assertTrue(files.noneMatch(f -> f.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+}
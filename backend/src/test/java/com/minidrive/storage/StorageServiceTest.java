@@ -0,0 +1,197 @@
+package com.minidrive.storage;
+
+import com.minidrive.service.EncryptionService;
+import io.minio.CopyObjectArgs;
+import io.minio.GetObjectArgs;
+import io.minio.GetObjectResponse;
+import io.minio.ListObjectsArgs;
+import io.minio.MinioClient;
+import io.minio.RemoveObjectArgs;
+import io.minio.Result;
+import io.minio.StatObjectArgs;
+import io.minio.errors.ErrorResponseException;
+import io.minio.messages.ErrorResponse;
+import io.minio.messages.Item;
+import okhttp3.Headers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static com.minidrive.TestFixtures.key;
+import static com.minidrive.TestFixtures.randomBytes;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+class StorageServiceTest {
+
+    private static final String HASH = "abc123";
+
+    private final EncryptionService encryptionService = new EncryptionService();
+    private MinioClient minioClient;
+    private StorageService storage;
+
+    @BeforeEach
+    void setUp() {
+        minioClient = mock(MinioClient.class);
+        storage = new StorageService(minioClient);
+        ReflectionTestUtils.setField(storage, "encryptionService", encryptionService);
+        ReflectionTestUtils.setField(storage, "chunkCache", new LocalChunkCache()); // disabled
+    }
+
+    @Test
+    void testTransferChunkStreamsPlaintext() throws Exception {
+        byte[] data = randomBytes(200_000, 1);
+        stored(encryptionService.plainStream(new ByteArrayInputStream(data)));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(data.length, storage.transferChunk(HASH, null, out));
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    void testClientDisconnectPropagatesWithoutResending() throws Exception {
+        byte[] data = randomBytes(200_000, 2);
+        stored(encryptionService.plainStream(new ByteArrayInputStream(data)));
+
+        OutputStream disconnected = new OutputStream() {
+            private int writes;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (++writes > 1) throw new IOException("Broken pipe");
+            }
+        };
+
+        IOException e = assertThrows(IOException.class, () -> storage.transferChunk(HASH, null, disconnected));
+        assertEquals("Broken pipe", e.getMessage());
+        // The object is fetched once; nothing is re-read or re-sent after the client is gone
+        verify(minioClient, times(1)).getObject(any(GetObjectArgs.class));
+    }
+
+    @Test
+    void testEncryptedChunkWithoutKeyFailsBeforeWriting() throws Exception {
+        byte[] data = randomBytes(100_000, 3);
+        stored(encryptionService.encryptingStream(new ByteArrayInputStream(data), key(1)));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThrows(IOException.class, () -> storage.transferChunk(HASH, null, out));
+        assertEquals(0, out.size(), "ciphertext must never be sent as if it were the file");
+    }
+
+    @Test
+    void testEncryptedChunkWithWrongKeyFailsBeforeWriting() throws Exception {
+        byte[] data = randomBytes(100_000, 4);
+        stored(encryptionService.encryptingStream(new ByteArrayInputStream(data), key(1)));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThrows(IOException.class, () -> storage.transferChunk(HASH, key(2), out));
+        assertEquals(0, out.size());
+    }
+
+    @Test
+    void testLegacyChunkIsDecryptedUnderItsKey() throws Exception {
+        byte[] data = randomBytes(50_000, 6);
+        stored(new ByteArrayInputStream(encryptionService.encryptChunk(data, key(1))));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        storage.transferChunk(HASH, key(1), out);
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    void testUnmigratedPlainLegacyChunkIsServedAsStored() throws Exception {
+        byte[] data = randomBytes(50_000, 7);
+
+        // Older uploads stored plain chunks for users with keys too
+        stored(new ByteArrayInputStream(data));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        storage.transferChunk(HASH, key(1), out);
+        assertArrayEquals(data, out.toByteArray());
+
+        out.reset();
+        storage.transferChunk(HASH, null, out);
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    void testOverwriteEvictsCachedChunk(@TempDir Path cacheDir) throws Exception {
+        LocalChunkCache cache = new LocalChunkCache();
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "cacheDir", cacheDir.toString());
+        ReflectionTestUtils.setField(cache, "maxBytes", 1L << 20);
+        cache.init();
+        ReflectionTestUtils.setField(storage, "chunkCache", cache);
+
+        byte[] data = randomBytes(10_000, 5);
+        stored(encryptionService.plainStream(new ByteArrayInputStream(data)));
+        assertArrayEquals(data, storage.readChunk(HASH, null)); // miss, fills the cache
+        assertArrayEquals(data, storage.readChunk(HASH, null)); // hit
+        verify(minioClient, times(1)).getObject(any(GetObjectArgs.class));
+
+        storage.rewriteChunk(HASH, data, key(1));
+
+        stored(encryptionService.encryptingStream(new ByteArrayInputStream(data), key(1)));
+        assertArrayEquals(data, storage.readChunk(HASH, key(1)));
+        verify(minioClient, times(2)).getObject(any(GetObjectArgs.class));
+    }
+
+    @Test
+    void testCommitToleratesStagingObjectAlreadyGone() throws Exception {
+        when(minioClient.copyObject(any(CopyObjectArgs.class))).thenThrow(noSuchKey());
+
+        // A retry after the first attempt committed (or the sweeper ran): the chunk is there
+        assertDoesNotThrow(() -> storage.commitStagedChunk("staging/1", HASH));
+
+        when(minioClient.statObject(any(StatObjectArgs.class))).thenThrow(noSuchKey());
+        assertThrows(RuntimeException.class, () -> storage.commitStagedChunk("staging/1", HASH));
+    }
+
+    @Test
+    void testSweepRemovesOnlyStaleStagingObjects() throws Exception {
+        ZonedDateTime now = ZonedDateTime.now();
+        Item stale = item("staging/old", now.minusHours(3));
+        Item fresh = item("staging/new", now.minusMinutes(1));
+        when(minioClient.listObjects(any(ListObjectsArgs.class))).thenReturn(List.of(new Result<>(stale), new Result<>(fresh)));
+
+        assertEquals(1, storage.sweepStaging(now.minusHours(1)));
+        verify(minioClient, times(1)).removeObject(any(RemoveObjectArgs.class));
+        verify(minioClient).removeObject(argThat((RemoveObjectArgs args) -> args.object().equals("staging/old")));
+    }
+
+    // ==================== HELPERS ====================
+
+    private static ErrorResponseException noSuchKey() {
+        return new ErrorResponseException(
+                new ErrorResponse("NoSuchKey", "Object does not exist", "drive-chunks", null, null, null, null), null, null);
+    }
+
+    private static Item item(String name, ZonedDateTime lastModified) {
+        Item item = mock(Item.class);
+        when(item.objectName()).thenReturn(name);
+        when(item.lastModified()).thenReturn(lastModified);
+        return item;
+    }
+
+    private void stored(InputStream object) throws Exception {
+        byte[] bytes = object.readAllBytes();
+        when(minioClient.getObject(any(GetObjectArgs.class))).thenAnswer(invocation ->
+                new GetObjectResponse(Headers.of(), "drive-chunks", "", HASH, new ByteArrayInputStream(bytes)));
+    }
+}